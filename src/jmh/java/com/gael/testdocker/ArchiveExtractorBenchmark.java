@@ -0,0 +1,152 @@
+package com.gael.testdocker;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.spotify.docker.client.DockerClient;
+
+/**
+ * <p>Copy of a directory out of a Container, as a tar of big files and many small ones. Run with
+ * -prof gc for the allocations.</p>
+ *
+ * <ul>
+ * <li>sequential : each entry copied in turn by the reading thread, without checksum, as 'docker cp'</li>
+ * <li>extractor : {@link ArchiveExtractor} with 'writers' threads, SHA-256 of each file included</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ArchiveExtractorBenchmark {
+
+	@Param({ "32" })
+	public int bigFiles;
+
+	@Param({ "4194304" })
+	public int bigBytes;
+
+	@Param({ "2000" })
+	public int smallFiles;
+
+	@Param({ "sequential", "extractor" })
+	public String copy;
+
+	@Param({ "4" })
+	public int writers;
+
+	private DockerClient docker;
+
+	private Path archive;
+
+	private Path directory;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException
+	{
+		this.archive = Files.createTempFile("archive-bench", ".tar");
+		Random random = new Random(42);
+		byte[] big = new byte[this.bigBytes];
+		byte[] small = new byte[4096];
+		try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new BufferedOutputStream(Files.newOutputStream(this.archive), 1 << 16)))
+		{
+			tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+			for (int i = 0; i < this.bigFiles; i++)
+			{
+				random.nextBytes(big);
+				putEntry(tar, "output/big/file-" + i + ".bin", big);
+			}
+			for (int i = 0; i < this.smallFiles; i++)
+			{
+				random.nextBytes(small);
+				putEntry(tar, "output/small/" + (i % 20) + "/file-" + i + ".xml", small);
+			}
+		}
+		InMemoryDockerClient memory = new InMemoryDockerClient(0);
+		memory.addContainer("worker", true);
+		memory.setArchive(this.archive);
+		this.docker = memory.client();
+		this.directory = Files.createTempDirectory("archive-bench");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException
+	{
+		try (Stream<Path> files = Files.walk(this.directory))
+		{
+			for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator)
+			{
+				Files.delete(file);
+			}
+		}
+		Files.delete(this.archive);
+	}
+
+	@Benchmark
+	public long copyFromContainer() throws Exception
+	{
+		try (InputStream tar = this.docker.archiveContainer("worker", "/output"))
+		{
+			if ("extractor".equals(this.copy))
+			{
+				return new ArchiveExtractor(this.writers).extract(tar, this.directory, null, null).getBytes();
+			}
+			return sequential(tar);
+		}
+	}
+
+	private long sequential(InputStream tar) throws IOException
+	{
+		TarArchiveInputStream archive = new TarArchiveInputStream(tar);
+		TarArchiveEntry entry;
+		long bytes = 0;
+		while ((entry = archive.getNextTarEntry()) != null)
+		{
+			Path path = this.directory.resolve(entry.getName());
+			if (entry.isDirectory())
+			{
+				Files.createDirectories(path);
+				continue;
+			}
+			Files.createDirectories(path.getParent());
+			bytes += Files.copy(archive, path, StandardCopyOption.REPLACE_EXISTING);
+		}
+		return bytes;
+	}
+
+	private static void putEntry(TarArchiveOutputStream tar, String name, byte[] content) throws IOException
+	{
+		TarArchiveEntry entry = new TarArchiveEntry(name);
+		entry.setSize(content.length);
+		tar.putArchiveEntry(entry);
+		tar.write(content);
+		tar.closeArchiveEntry();
+	}
+}
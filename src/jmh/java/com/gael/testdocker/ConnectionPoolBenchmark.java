@@ -0,0 +1,104 @@
+package com.gael.testdocker;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.spotify.docker.client.DockerClient.ListContainersParam;
+import com.spotify.docker.client.messages.Container;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * <p>Load test of 'dockerConnectionPoolSize' : 32 threads list the Containers at the same time
+ * through one client, against a fake daemon on the loopback answering in 'serviceMillis'. With a
+ * pool smaller than the threads, the calls wait a free connection.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(32)
+public class ConnectionPoolBenchmark {
+
+	@Param({ "1", "4", "16", "64" })
+	public int poolSize;
+
+	@Param({ "2" })
+	public int serviceMillis;
+
+	private HttpServer daemon;
+
+	private ExecutorService daemonThreads;
+
+	private DockerCommands dc;
+
+	@Setup(Level.Trial)
+	public void startDaemon() throws IOException
+	{
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+		final byte[] body = "[]".getBytes(StandardCharsets.UTF_8);
+		this.daemon = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 256);
+		this.daemon.createContext("/", exchange -> {
+			try
+			{
+				Thread.sleep(this.serviceMillis);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			exchange.getResponseHeaders().set("Content-Type", "application/json");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream output = exchange.getResponseBody())
+			{
+				output.write(body);
+			}
+		});
+		this.daemonThreads = Executors.newFixedThreadPool(128);
+		this.daemon.setExecutor(this.daemonThreads);
+		this.daemon.start();
+
+		Properties prop = new Properties();
+		prop.setProperty("dockerUri", "http://127.0.0.1:" + this.daemon.getAddress().getPort());
+		prop.setProperty("dockerConnectionPoolSize", String.valueOf(this.poolSize));
+		this.dc = DockerCommands.builder().fromProperties(prop).build();
+	}
+
+	@TearDown(Level.Trial)
+	public void stopDaemon()
+	{
+		this.dc.close();
+		this.daemon.stop(0);
+		this.daemonThreads.shutdownNow();
+	}
+
+	@Benchmark
+	public List<Container> listContainers() throws Exception
+	{
+		return this.dc.getDockerClient().listContainers(ListContainersParam.allContainers());
+	}
+}
@@ -0,0 +1,90 @@
+package com.gael.testdocker;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.spotify.docker.client.exceptions.DockerCertificateException;
+import com.spotify.docker.client.exceptions.DockerException;
+
+/**
+ * <p>End-to-end provisioning of {@link Programme#createDHuS(DockerCommands)} against the
+ * in-memory client : existence checks, creation, start, copy of the lib directory and script.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class CreateDHuSBenchmark {
+
+	@Param({ "1000" })
+	public long latencyMicros;
+
+	@Param({ "100" })
+	public int existingContainers;
+
+	@Param({ "false", "true" })
+	public boolean cached;
+
+	private InMemoryDockerClient docker;
+
+	private DockerCommands dc;
+
+	@Setup(Level.Trial)
+	public void setUp() throws DockerException, InterruptedException
+	{
+		Properties properties = new Properties();
+		properties.setProperty("nameImage", "centosimageref");
+		properties.setProperty("nameContainer", "bench-dhus");
+		properties.setProperty("ports", "8081;8082");
+		Programme.init(properties);
+
+		this.docker = new InMemoryDockerClient(this.latencyMicros);
+		this.docker.addImage("centosimageref:latest");
+		this.dc = new DockerCommands(this.docker.client());
+		if (this.cached)
+		{
+			this.dc.enableCache();
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void resetContainers()
+	{
+		this.docker.clearContainers();
+		for (int i = 0; i < this.existingContainers; i++)
+		{
+			this.docker.addContainer("other-" + i, true);
+		}
+		this.dc.close();
+		this.dc = new DockerCommands(this.docker.client());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		this.dc.close();
+	}
+
+	@Benchmark
+	public void createDHuS() throws DockerException, InterruptedException, DockerCertificateException, IOException
+	{
+		if (this.cached)
+		{
+			this.dc.enableCache();
+		}
+		Programme.createDHuS(this.dc);
+	}
+}
@@ -0,0 +1,95 @@
+package com.gael.testdocker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.spotify.docker.client.exceptions.DockerException;
+
+/**
+ * <p>Existence checks of {@link DockerCommands} over many Images and Containers, with and
+ * without the cache of names.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class ExistenceBenchmark {
+
+	@Param({ "10000" })
+	public int count;
+
+	@Param({ "false", "true" })
+	public boolean cached;
+
+	@Param({ "200" })
+	public long latencyMicros;
+
+	private DockerCommands dc;
+
+	private List<String> names;
+
+	@Setup(Level.Trial)
+	public void setUp() throws DockerException, InterruptedException
+	{
+		InMemoryDockerClient docker = new InMemoryDockerClient(this.latencyMicros);
+		this.names = new ArrayList<String>();
+		for (int i = 0; i < this.count; i++)
+		{
+			docker.addImage("image-" + i + ":latest");
+			docker.addContainer("container-" + i, i % 2 == 0);
+			if (i % 100 == 0)
+			{
+				this.names.add("container-" + i);
+			}
+		}
+
+		this.dc = new DockerCommands(docker.client());
+		if (this.cached)
+		{
+			this.dc.enableCache();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		this.dc.close();
+	}
+
+	@Benchmark
+	public boolean existImage() throws DockerException, InterruptedException
+	{
+		return this.dc.existImage("image-" + (this.count - 1));
+	}
+
+	@Benchmark
+	public boolean existContainer() throws DockerException, InterruptedException
+	{
+		return this.dc.existContainer("container-" + (this.count - 1), false);
+	}
+
+	@Benchmark
+	public boolean existRunningContainer() throws DockerException, InterruptedException
+	{
+		return this.dc.existContainer("container-" + (this.count - 2), true);
+	}
+
+	@Benchmark
+	public int existContainers() throws DockerException, InterruptedException
+	{
+		return this.dc.existContainers(this.names, false).size();
+	}
+}
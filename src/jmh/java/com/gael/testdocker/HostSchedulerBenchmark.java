@@ -0,0 +1,90 @@
+package com.gael.testdocker;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.spotify.docker.client.exceptions.DockerException;
+
+/**
+ * <p>Placements of {@link HostScheduler} on several in-memory daemons standing in for the Docker
+ * hosts, each with running Containers whose stats take 'statsMillis' as on a real daemon. The
+ * host i uses i times more CPU and memory by Container than the first one, the placements by host
+ * are printed at the end. The percentiles show the placements waiting for a reading of the
+ * loads.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(4)
+public class HostSchedulerBenchmark {
+
+	private static final String[] NO_PORTS = new String[0];
+
+	@Param({ "4" })
+	public int hosts;
+
+	@Param({ "8" })
+	public int containersByHost;
+
+	@Param({ "1000" })
+	public int statsMillis;
+
+	private HostScheduler scheduler;
+
+	private final Map<String, LongAdder> placed = new ConcurrentHashMap<String, LongAdder>();
+
+	@Setup(Level.Trial)
+	public void setUp()
+	{
+		Map<String, DockerCommands> daemons = new LinkedHashMap<String, DockerCommands>();
+		for (int i = 1; i <= this.hosts; i++)
+		{
+			InMemoryDockerClient docker = new InMemoryDockerClient(200);
+			docker.setUsage(0.1 * i, (64L << 20) * i);
+			docker.setStatsLatency(this.statsMillis);
+			for (int c = 1; c <= this.containersByHost; c++)
+			{
+				docker.addContainer("dhus-" + c, true);
+			}
+			daemons.put("local-" + i, new DockerCommands(docker.client()));
+			this.placed.put("local-" + i, new LongAdder());
+		}
+		this.scheduler = new HostScheduler(daemons, 16);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		System.out.println("Placements by host : " + this.placed);
+		this.scheduler.close();
+	}
+
+	@Benchmark
+	public String place() throws DockerException, InterruptedException
+	{
+		String host = this.scheduler.place(NO_PORTS);
+		this.placed.get(host).increment();
+		return host;
+	}
+}
@@ -0,0 +1,913 @@
+package com.gael.testdocker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.FakeEventStreams;
+import com.spotify.docker.client.FakeLogStreams;
+import com.spotify.docker.client.LogMessage;
+import com.spotify.docker.client.LogStream;
+import com.spotify.docker.client.ObjectMapperProvider;
+import com.spotify.docker.client.exceptions.ContainerNotFoundException;
+import com.spotify.docker.client.exceptions.ImageNotFoundException;
+import com.spotify.docker.client.messages.Container;
+import com.spotify.docker.client.messages.ContainerConfig;
+import com.spotify.docker.client.messages.ContainerCreation;
+import com.spotify.docker.client.messages.ContainerInfo;
+import com.spotify.docker.client.messages.ContainerStats;
+import com.spotify.docker.client.messages.ExecCreation;
+import com.spotify.docker.client.messages.ExecState;
+import com.spotify.docker.client.messages.Image;
+import com.spotify.docker.client.messages.ImageInfo;
+import com.spotify.docker.client.messages.Info;
+import com.spotify.docker.client.messages.PortBinding;
+
+/**
+ * <b>In-memory DockerClient for benchmarks</b>
+ *
+ * <p>Keeps the state of Images and Containers in maps, simulates a latency on each call and
+ * publishes the Docker events of the Containers. The messages are built from JSON with the
+ * mapper of docker-client, as the real client does.</p>
+ *
+ * <p>The methods not simulated throw {@link UnsupportedOperationException}.</p>
+ */
+public class InMemoryDockerClient implements InvocationHandler {
+
+	private static final ObjectMapper MAPPER = ObjectMapperProvider.objectMapper();
+
+	/**
+	 * Latency of each call, in nanoseconds
+	 */
+	private final long latencyNanos;
+
+	private final Map<String, Map<String, Object>> images = new ConcurrentHashMap<String, Map<String, Object>>();
+
+	private final Map<String, Map<String, Object>> containers = new ConcurrentHashMap<String, Map<String, Object>>();
+
+	private final Set<EventPipe> subscribers = new CopyOnWriteArraySet<EventPipe>();
+
+	private final AtomicLong ids = new AtomicLong();
+
+	private final AtomicLong bytesCopied = new AtomicLong();
+
+	private final AtomicLong calls = new AtomicLong();
+
+	private final DockerClient client;
+
+	private volatile int cpus = 4;
+
+	private volatile long memTotal = 8L << 30;
+
+	private volatile double cpusByContainer;
+
+	private volatile long memoryByContainer;
+
+	private volatile long statsMillis;
+
+	private volatile int logFrames;
+
+	private volatile int logFrameBytes = 120;
+
+	private volatile Path archive;
+
+	/**
+	 * Constructor InMemoryDockerClient
+	 *
+	 * @param latencyMicros Latency simulated on each call, in microseconds
+	 */
+	public InMemoryDockerClient(long latencyMicros)
+	{
+		this.latencyNanos = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+		this.client = (DockerClient) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { DockerClient.class }, this);
+	}
+
+	/**
+	 * @return The DockerClient backed by this state
+	 */
+	public DockerClient client()
+	{
+		return this.client;
+	}
+
+	/**
+	 * Add an Image without call latency
+	 *
+	 * @param repoTag Tag 'repository:tag' of the Image
+	 * @return Id of the Image
+	 */
+	public String addImage(String repoTag)
+	{
+		String id = "sha256:" + newId();
+		Map<String, Object> image = new LinkedHashMap<String, Object>();
+		image.put("Id", id);
+		image.put("ParentId", "");
+		image.put("RepoTags", new ArrayList<String>(Collections.singletonList(repoTag.contains(":") ? repoTag : repoTag + ":latest")));
+		image.put("Created", String.valueOf(System.currentTimeMillis() / 1000));
+		image.put("Size", 0L);
+		image.put("VirtualSize", 0L);
+		this.images.put(id, image);
+		return id;
+	}
+
+	/**
+	 * Add a Container without call latency
+	 *
+	 * @param name Name of the Container
+	 * @param running True if the Container is running
+	 * @return Id of the Container
+	 */
+	public String addContainer(String name, boolean running)
+	{
+		String id = newId();
+		Map<String, Object> container = new LinkedHashMap<String, Object>();
+		container.put("Id", id);
+		container.put("Names", Collections.singletonList("/" + name));
+		container.put("Image", "image");
+		container.put("ImageID", "");
+		container.put("Command", "");
+		container.put("Created", System.currentTimeMillis() / 1000);
+		container.put("State", running ? "running" : "created");
+		container.put("Status", "");
+		container.put("Ports", Collections.emptyList());
+		container.put("Labels", Collections.emptyMap());
+		this.containers.put(id, container);
+		return id;
+	}
+
+	/**
+	 * Set the resources of the host returned by info
+	 *
+	 * @param cpus Number of CPUs
+	 * @param memTotal Memory, in bytes
+	 */
+	public void setResources(int cpus, long memTotal)
+	{
+		this.cpus = cpus;
+		this.memTotal = memTotal;
+	}
+
+	/**
+	 * Set the usage returned by the stats of each running Container
+	 *
+	 * @param cpusByContainer CPUs used
+	 * @param memoryByContainer Memory used, in bytes
+	 */
+	public void setUsage(double cpusByContainer, long memoryByContainer)
+	{
+		this.cpusByContainer = cpusByContainer;
+		this.memoryByContainer = memoryByContainer;
+	}
+
+	/**
+	 * Set the duration of each call of stats, as the daemon samples the CPU between two reads
+	 *
+	 * @param millis Duration of the call, in milliseconds, added to the latency
+	 */
+	public void setStatsLatency(long millis)
+	{
+		this.statsMillis = millis;
+	}
+
+	/**
+	 * Set the logs returned by each Container, one frame of stderr every 10 frames
+	 *
+	 * @param frames Number of frames, then the stream ends as if the Container stopped
+	 * @param frameBytes Size of the content of a frame, a line ended by a new line
+	 */
+	public void setLogs(int frames, int frameBytes)
+	{
+		this.logFrames = frames;
+		this.logFrameBytes = frameBytes;
+	}
+
+	/**
+	 * Set the tar file returned by archiveContainer for every Container and path
+	 *
+	 * @param archive Tar file, read on each call
+	 */
+	public void setArchive(Path archive)
+	{
+		this.archive = archive;
+	}
+
+	/**
+	 * Remove all the Containers without call latency
+	 */
+	public void clearContainers()
+	{
+		this.containers.clear();
+	}
+
+	/**
+	 * @return Bytes received by copyToContainer
+	 */
+	public long getBytesCopied()
+	{
+		return this.bytesCopied.get();
+	}
+
+	/**
+	 * @return Number of calls of the API
+	 */
+	public long getCalls()
+	{
+		return this.calls.get();
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+	{
+		if (method.getDeclaringClass() == Object.class)
+		{
+			try
+			{
+				return method.invoke(this, args);
+			}
+			catch (InvocationTargetException e)
+			{
+				throw e.getCause();
+			}
+		}
+
+		this.calls.incrementAndGet();
+		if (this.latencyNanos > 0)
+		{
+			LockSupport.parkNanos(this.latencyNanos);
+		}
+
+		switch (method.getName())
+		{
+			case "listImages":
+				return convertAll(this.images.values(), Image.class);
+			case "inspectImage":
+				return inspectImage((String) args[0]);
+			case "pull":
+			case "build":
+				return pullOrBuild(method, args);
+			case "removeImage":
+				this.images.remove(resolveImage((String) args[0]));
+				return Collections.emptyList();
+			case "listContainers":
+				return listContainers((DockerClient.ListContainersParam[]) args[0]);
+			case "createContainer":
+				return createContainer((ContainerConfig) args[0], args.length > 1 ? (String) args[1] : null);
+			case "startContainer":
+			case "unpauseContainer":
+			case "restartContainer":
+				return setState((String) args[0], "running", "start");
+			case "stopContainer":
+			case "killContainer":
+				return setState((String) args[0], "exited", "die");
+			case "pauseContainer":
+				return setState((String) args[0], "paused", "pause");
+			case "removeContainer":
+				return removeContainer((String) args[0]);
+			case "renameContainer":
+				return renameContainer((String) args[0], (String) args[1]);
+			case "inspectContainer":
+				return inspectContainer((String) args[0]);
+			case "copyToContainer":
+				return copyToContainer(args[0]);
+			case "archiveContainer":
+				resolveContainer((String) args[0]);
+				if (this.archive == null)
+				{
+					// as the client on a 404 of a missing path
+					throw new ContainerNotFoundException((String) args[0]);
+				}
+				return Files.newInputStream(this.archive);
+			case "execCreate":
+				resolveContainer((String) args[0]);
+				return MAPPER.convertValue(Collections.singletonMap("Id", newId()), ExecCreation.class);
+			case "execStart":
+				return new EmptyLogStream();
+			case "logs":
+				resolveContainer((String) args[0]);
+				return FakeLogStreams.open(new FrameStream(this.logFrames, this.logFrameBytes));
+			case "execInspect":
+				return execInspect((String) args[0]);
+			case "events":
+				return events();
+			case "info":
+				return info();
+			case "stats":
+				return stats((String) args[0]);
+			case "close":
+				for (EventPipe pipe : this.subscribers)
+				{
+					pipe.close();
+				}
+				return null;
+			default:
+				throw new UnsupportedOperationException(method.getName());
+		}
+	}
+
+	private Object pullOrBuild(Method method, Object[] args)
+	{
+		String name = null;
+		if ("pull".equals(method.getName()))
+		{
+			name = (String) args[0];
+		}
+		else if (args.length > 1 && args[1] instanceof String)
+		{
+			name = (String) args[1];
+		}
+		String id = addImage(name != null ? name : "<none>");
+		// as the daemon, the actor of a pull is the tag
+		publish("image", "pull", name != null ? name : id, name);
+		return "build".equals(method.getName()) ? id : null;
+	}
+
+	private ImageInfo inspectImage(String nameOrId) throws ImageNotFoundException
+	{
+		Map<String, Object> image = this.images.get(resolveImage(nameOrId));
+		Map<String, Object> info = new HashMap<String, Object>();
+		info.put("Id", image.get("Id"));
+		info.put("Parent", "");
+		info.put("Comment", "");
+		info.put("Created", "2018-01-01T00:00:00Z");
+		info.put("Container", "");
+		info.put("DockerVersion", "");
+		info.put("Author", "");
+		info.put("Architecture", "amd64");
+		info.put("Os", "linux");
+		info.put("ContainerConfig", new HashMap<String, Object>());
+		info.put("Config", new HashMap<String, Object>());
+		info.put("Size", 0L);
+		info.put("VirtualSize", 0L);
+		return MAPPER.convertValue(info, ImageInfo.class);
+	}
+
+	private List<Container> listContainers(DockerClient.ListContainersParam[] params)
+	{
+		boolean all = false;
+		Pattern name = null;
+		String label = null;
+		for (DockerClient.ListContainersParam param : params)
+		{
+			if ("all".equals(param.name()))
+			{
+				all = "1".equals(param.value()) || "true".equals(param.value());
+			}
+			else if ("name".equals(param.name()))
+			{
+				name = Pattern.compile(param.value());
+			}
+			else if ("label".equals(param.name()))
+			{
+				label = param.value();
+			}
+		}
+
+		List<Map<String, Object>> selected = new ArrayList<Map<String, Object>>();
+		for (Map<String, Object> container : this.containers.values())
+		{
+			boolean running = "running".equals(container.get("State")) || "paused".equals(container.get("State"));
+			String containerName = ((List<?>) container.get("Names")).get(0).toString();
+			if ((all || running) && (name == null || name.matcher(containerName).find()) && (label == null || hasLabel(container, label)))
+			{
+				selected.add(container);
+			}
+		}
+		return convertAll(selected, Container.class);
+	}
+
+	private static boolean hasLabel(Map<String, Object> container, String label)
+	{
+		Map<?, ?> labels = (Map<?, ?>) container.get("Labels");
+		int separator = label.indexOf('=');
+		return separator < 0 ? labels.containsKey(label) : label.substring(separator + 1).equals(labels.get(label.substring(0, separator)));
+	}
+
+	private ContainerCreation createContainer(ContainerConfig config, String name)
+	{
+		String containerName = name != null ? name : "container-" + this.ids.get();
+		for (Map<String, Object> container : this.containers.values())
+		{
+			if (((List<?>) container.get("Names")).get(0).equals("/" + containerName))
+			{
+				throw new IllegalStateException("Conflict : container name " + containerName + " already used");
+			}
+		}
+		String id = addContainer(containerName, false);
+		this.containers.get(id).put("Image", config.image());
+		if (config.labels() != null)
+		{
+			this.containers.get(id).put("Labels", new HashMap<String, String>(config.labels()));
+		}
+		if (config.hostConfig() != null && config.hostConfig().portBindings() != null)
+		{
+			List<Map<String, Object>> ports = new ArrayList<Map<String, Object>>();
+			for (Map.Entry<String, List<PortBinding>> binding : config.hostConfig().portBindings().entrySet())
+			{
+				Map<String, Object> port = new HashMap<String, Object>();
+				port.put("PrivatePort", Integer.parseInt(binding.getKey().split("/")[0]));
+				String hostPort = binding.getValue().get(0).hostPort();
+				// an empty port of the host is chosen by the daemon
+				port.put("PublicPort", hostPort.isEmpty() ? 32768 + (int) (this.ids.get() % 28000) : Integer.parseInt(hostPort));
+				port.put("Type", "tcp");
+				port.put("IP", "0.0.0.0");
+				ports.add(port);
+			}
+			this.containers.get(id).put("Ports", ports);
+		}
+		publish("container", "create", id, containerName);
+		return MAPPER.convertValue(Collections.singletonMap("Id", id), ContainerCreation.class);
+	}
+
+	private Object setState(String nameOrId, String state, String action) throws ContainerNotFoundException
+	{
+		String id = resolveContainer(nameOrId);
+		Map<String, Object> container = this.containers.get(id);
+		container.put("State", state);
+		publish("container", action, id, name(container));
+		return null;
+	}
+
+	private Object removeContainer(String nameOrId) throws ContainerNotFoundException
+	{
+		String id = resolveContainer(nameOrId);
+		Map<String, Object> container = this.containers.remove(id);
+		publish("container", "destroy", id, name(container));
+		return null;
+	}
+
+	private Object renameContainer(String nameOrId, String newName) throws ContainerNotFoundException
+	{
+		String id = resolveContainer(nameOrId);
+		Map<String, Object> container = this.containers.get(id);
+		String oldName = name(container);
+		container.put("Names", Collections.singletonList("/" + newName));
+		Map<String, String> attributes = new HashMap<String, String>();
+		attributes.put("name", newName);
+		attributes.put("oldName", "/" + oldName);
+		publish("container", "rename", id, attributes);
+		return null;
+	}
+
+	private ContainerInfo inspectContainer(String nameOrId) throws ContainerNotFoundException
+	{
+		String id = resolveContainer(nameOrId);
+		Map<String, Object> container = this.containers.get(id);
+
+		Map<String, Object> state = new HashMap<String, Object>();
+		state.put("Status", container.get("State"));
+		state.put("Running", "running".equals(container.get("State")));
+		state.put("Paused", "paused".equals(container.get("State")));
+		state.put("Pid", 1);
+
+		Map<String, Object> network = new HashMap<String, Object>();
+		network.put("IPAddress", "172.17.0." + (Math.abs(id.hashCode()) % 250 + 2));
+
+		Map<String, Object> info = new HashMap<String, Object>();
+		info.put("Id", id);
+		info.put("Name", "/" + name(container));
+		info.put("Image", container.get("Image"));
+		info.put("State", state);
+		info.put("NetworkSettings", network);
+		return MAPPER.convertValue(info, ContainerInfo.class);
+	}
+
+	private Info info()
+	{
+		int running = 0;
+		for (Map<String, Object> container : this.containers.values())
+		{
+			if ("running".equals(container.get("State")))
+			{
+				running++;
+			}
+		}
+		Map<String, Object> registry = new HashMap<String, Object>();
+		registry.put("IndexConfigs", Collections.emptyMap());
+		registry.put("InsecureRegistryCIDRs", Collections.emptyList());
+
+		Map<String, Object> info = new HashMap<String, Object>();
+		info.put("ID", "in-memory");
+		info.put("Name", "in-memory");
+		info.put("NCPU", this.cpus);
+		info.put("MemTotal", this.memTotal);
+		info.put("Containers", this.containers.size());
+		info.put("ContainersRunning", running);
+		info.put("Images", this.images.size());
+		info.put("Debug", false);
+		info.put("DockerRootDir", "/var/lib/docker");
+		info.put("Driver", "overlay2");
+		info.put("DriverStatus", Collections.emptyList());
+		info.put("NEventsListener", this.subscribers.size());
+		info.put("NFd", 0);
+		info.put("NGoroutines", 0);
+		info.put("IndexServerAddress", "https://index.docker.io/v1/");
+		info.put("IPv4Forwarding", true);
+		info.put("KernelVersion", System.getProperty("os.version"));
+		info.put("OperatingSystem", "in-memory");
+		info.put("Labels", Collections.emptyList());
+		info.put("MemoryLimit", true);
+		info.put("SwapLimit", true);
+		info.put("SystemTime", "2018-01-01T00:00:00Z");
+		info.put("RegistryConfig", registry);
+		return MAPPER.convertValue(info, Info.class);
+	}
+
+	/**
+	 * Stats with 'cpusByContainer' CPUs used between the two samples, one second apart
+	 */
+	private ContainerStats stats(String nameOrId) throws ContainerNotFoundException, InterruptedException
+	{
+		resolveContainer(nameOrId);
+		if (this.statsMillis > 0)
+		{
+			TimeUnit.MILLISECONDS.sleep(this.statsMillis);
+		}
+		long system = TimeUnit.SECONDS.toNanos(1) * this.cpus;
+
+		Map<String, Object> throttling = new HashMap<String, Object>();
+		throttling.put("periods", 0L);
+		throttling.put("throttled_periods", 0L);
+		throttling.put("throttled_time", 0L);
+
+		Map<String, Object> cpu = new HashMap<String, Object>();
+		cpu.put("cpu_usage", cpuUsage((long) (this.cpusByContainer * TimeUnit.SECONDS.toNanos(1))));
+		cpu.put("system_cpu_usage", system);
+		cpu.put("throttling_data", throttling);
+		Map<String, Object> precpu = new HashMap<String, Object>();
+		precpu.put("cpu_usage", cpuUsage(0));
+		precpu.put("system_cpu_usage", 0L);
+		precpu.put("throttling_data", throttling);
+
+		// counters growing with the time, about 1 MB/s
+		long counter = System.currentTimeMillis() * 1000;
+		Map<String, Object> network = new HashMap<String, Object>();
+		for (String key : new String[] { "rx_bytes", "tx_bytes" })
+		{
+			network.put(key, counter);
+		}
+		for (String key : new String[] { "rx_packets", "rx_dropped", "rx_errors", "tx_packets", "tx_dropped", "tx_errors" })
+		{
+			network.put(key, 0L);
+		}
+
+		Map<String, Object> blockIo = new HashMap<String, Object>();
+		List<Map<String, Object>> serviceBytes = new ArrayList<Map<String, Object>>();
+		for (String op : new String[] { "Read", "Write" })
+		{
+			Map<String, Object> entry = new HashMap<String, Object>();
+			entry.put("major", 8);
+			entry.put("minor", 0);
+			entry.put("op", op);
+			entry.put("value", counter);
+			serviceBytes.add(entry);
+		}
+		blockIo.put("io_service_bytes_recursive", serviceBytes);
+		for (String key : new String[] { "io_serviced_recursive", "io_queue_recursive", "io_service_time_recursive",
+				"io_wait_time_recursive", "io_merged_recursive", "io_time_recursive", "sectors_recursive" })
+		{
+			blockIo.put(key, Collections.emptyList());
+		}
+
+		Map<String, Object> stats = new HashMap<String, Object>();
+		stats.put("read", "2018-01-01T00:00:00Z");
+		stats.put("blkio_stats", blockIo);
+		stats.put("cpu_stats", cpu);
+		stats.put("precpu_stats", precpu);
+		stats.put("memory_stats", Collections.singletonMap("usage", this.memoryByContainer));
+		stats.put("networks", Collections.singletonMap("eth0", network));
+		return MAPPER.convertValue(stats, ContainerStats.class);
+	}
+
+	private Map<String, Object> cpuUsage(long total)
+	{
+		Map<String, Object> usage = new HashMap<String, Object>();
+		usage.put("total_usage", total);
+		usage.put("percpu_usage", Collections.nCopies(this.cpus, total / this.cpus));
+		usage.put("usage_in_kernelmode", 0L);
+		usage.put("usage_in_usermode", total);
+		return usage;
+	}
+
+	private Object copyToContainer(Object source) throws IOException
+	{
+		if (source instanceof InputStream)
+		{
+			byte[] buffer = new byte[64 * 1024];
+			InputStream input = (InputStream) source;
+			int n;
+			while ((n = input.read(buffer)) >= 0)
+			{
+				this.bytesCopied.addAndGet(n);
+			}
+		}
+		return null;
+	}
+
+	private ExecState execInspect(String execId)
+	{
+		Map<String, Object> state = new HashMap<String, Object>();
+		state.put("ID", execId);
+		state.put("Running", false);
+		state.put("ExitCode", 0);
+		Map<String, Object> process = new HashMap<String, Object>();
+		process.put("privileged", false);
+		process.put("user", "");
+		process.put("tty", false);
+		process.put("entrypoint", "bash");
+		process.put("arguments", Collections.emptyList());
+		state.put("ProcessConfig", process);
+		state.put("OpenStdin", false);
+		state.put("OpenStdout", true);
+		state.put("OpenStderr", true);
+		return MAPPER.convertValue(state, ExecState.class);
+	}
+
+	private Object events()
+	{
+		EventPipe pipe = new EventPipe();
+		this.subscribers.add(pipe);
+		return FakeEventStreams.open(pipe);
+	}
+
+	private void publish(String type, String action, String id, String name)
+	{
+		publish(type, action, id, name != null ? Collections.singletonMap("name", name) : Collections.<String, String>emptyMap());
+	}
+
+	private void publish(String type, String action, String id, Map<String, String> attributes)
+	{
+		if (this.subscribers.isEmpty())
+		{
+			return;
+		}
+
+		Map<String, Object> actor = new HashMap<String, Object>();
+		actor.put("ID", id);
+		actor.put("Attributes", attributes);
+
+		Map<String, Object> event = new HashMap<String, Object>();
+		event.put("Type", type);
+		event.put("Action", action);
+		event.put("Actor", actor);
+		event.put("time", System.currentTimeMillis() / 1000);
+		event.put("timeNano", System.nanoTime());
+
+		try
+		{
+			byte[] json = MAPPER.writeValueAsBytes(event);
+			for (EventPipe pipe : this.subscribers)
+			{
+				pipe.write(json);
+			}
+		}
+		catch (JsonProcessingException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private String resolveContainer(String nameOrId) throws ContainerNotFoundException
+	{
+		if (this.containers.containsKey(nameOrId))
+		{
+			return nameOrId;
+		}
+		for (Map.Entry<String, Map<String, Object>> container : this.containers.entrySet())
+		{
+			if (nameOrId.equals(name(container.getValue())))
+			{
+				return container.getKey();
+			}
+		}
+		throw new ContainerNotFoundException(nameOrId);
+	}
+
+	private String resolveImage(String nameOrId) throws ImageNotFoundException
+	{
+		if (this.images.containsKey(nameOrId))
+		{
+			return nameOrId;
+		}
+		String tag = nameOrId.contains(":") ? nameOrId : nameOrId + ":latest";
+		for (Map.Entry<String, Map<String, Object>> image : this.images.entrySet())
+		{
+			if (((List<?>) image.getValue().get("RepoTags")).contains(tag))
+			{
+				return image.getKey();
+			}
+		}
+		throw new ImageNotFoundException(nameOrId);
+	}
+
+	private static String name(Map<String, Object> container)
+	{
+		return ((List<?>) container.get("Names")).get(0).toString().substring(1);
+	}
+
+	private String newId()
+	{
+		return String.format("%064x", this.ids.incrementAndGet());
+	}
+
+	private static <T> List<T> convertAll(Iterable<Map<String, Object>> values, Class<T> type)
+	{
+		List<T> converted = new ArrayList<T>();
+		for (Map<String, Object> value : values)
+		{
+			converted.add(MAPPER.convertValue(value, type));
+		}
+		return converted;
+	}
+
+	/**
+	 * <p>Stream of JSON events blocking until an event is published</p>
+	 */
+	private class EventPipe extends InputStream {
+
+		private final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<byte[]>();
+
+		private byte[] current = new byte[0];
+
+		private int position;
+
+		private volatile boolean closed;
+
+		void write(byte[] json)
+		{
+			this.queue.add(json);
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			byte[] one = new byte[1];
+			return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			while (this.position >= this.current.length)
+			{
+				if (this.closed)
+				{
+					return -1;
+				}
+				try
+				{
+					byte[] next = this.queue.poll(100, TimeUnit.MILLISECONDS);
+					if (next != null)
+					{
+						this.current = next;
+						this.position = 0;
+					}
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					throw new IOException(e);
+				}
+			}
+			int n = Math.min(len, this.current.length - this.position);
+			System.arraycopy(this.current, this.position, b, off, n);
+			this.position += n;
+			return n;
+		}
+
+		@Override
+		public void close()
+		{
+			this.closed = true;
+			subscribers.remove(this);
+		}
+	}
+
+	/**
+	 * <p>Frames of logs multiplexed as by the daemon, generated while read</p>
+	 */
+	private static class FrameStream extends InputStream {
+
+		private final byte[] stdout;
+
+		private final byte[] stderr;
+
+		private final int frames;
+
+		private int index;
+
+		private byte[] frame;
+
+		private int position;
+
+		FrameStream(int frames, int frameBytes)
+		{
+			this.frames = frames;
+			this.stdout = frame(1, frameBytes);
+			this.stderr = frame(2, frameBytes);
+		}
+
+		@Override
+		public int read()
+		{
+			byte[] one = new byte[1];
+			return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len)
+		{
+			if (this.frame == null || this.position == this.frame.length)
+			{
+				if (this.index == this.frames)
+				{
+					return -1;
+				}
+				this.frame = this.index++ % 10 == 9 ? this.stderr : this.stdout;
+				this.position = 0;
+			}
+			int n = Math.min(len, this.frame.length - this.position);
+			System.arraycopy(this.frame, this.position, b, off, n);
+			this.position += n;
+			return n;
+		}
+
+		private static byte[] frame(int stream, int frameBytes)
+		{
+			byte[] frame = new byte[8 + frameBytes];
+			frame[0] = (byte) stream;
+			frame[4] = (byte) (frameBytes >>> 24);
+			frame[5] = (byte) (frameBytes >>> 16);
+			frame[6] = (byte) (frameBytes >>> 8);
+			frame[7] = (byte) frameBytes;
+			for (int i = 8; i < frame.length - 1; i++)
+			{
+				frame[i] = (byte) ('a' + i % 26);
+			}
+			frame[frame.length - 1] = '\n';
+			return frame;
+		}
+	}
+
+	/**
+	 * <p>Output of an exec without any message</p>
+	 */
+	private static class EmptyLogStream implements LogStream {
+
+		@Override
+		public boolean hasNext()
+		{
+			return false;
+		}
+
+		@Override
+		public LogMessage next()
+		{
+			throw new NoSuchElementException();
+		}
+
+		@Override
+		public String readFully()
+		{
+			return "";
+		}
+
+		@Override
+		public void attach(OutputStream stdout, OutputStream stderr) throws IOException
+		{
+		}
+
+		@Override
+		public void attach(OutputStream stdout, OutputStream stderr, boolean closeAtEof) throws IOException
+		{
+		}
+
+		@Override
+		public void close()
+		{
+		}
+	}}
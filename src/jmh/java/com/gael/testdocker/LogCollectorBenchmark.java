@@ -0,0 +1,163 @@
+package com.gael.testdocker;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.DockerClient.LogsParam;
+import com.spotify.docker.client.LogStream;
+
+/**
+ * <p>Collection of the logs of chatty Containers at the same time, each stream ending after its
+ * frames. Run with -prof gc for the allocations.</p>
+ *
+ * <ul>
+ * <li>readFully : the logs read into a String then written, as the output of 'docker logs'</li>
+ * <li>attach : {@link LogStream#attach(OutputStream, OutputStream)} into a buffered file, flushed by each frame</li>
+ * <li>collector : {@link LogCollector}, through its direct buffers</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class LogCollectorBenchmark {
+
+	@Param({ "50" })
+	public int containers;
+
+	@Param({ "20000" })
+	public int frames;
+
+	@Param({ "120" })
+	public int frameBytes;
+
+	@Param({ "readFully", "attach", "collector" })
+	public String sink;
+
+	private DockerClient docker;
+
+	private Path directory;
+
+	private List<String> names;
+
+	private ExecutorService executor;
+
+	private LogCollector collector;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException
+	{
+		InMemoryDockerClient memory = new InMemoryDockerClient(0);
+		memory.setLogs(this.frames, this.frameBytes);
+		this.names = new ArrayList<String>();
+		for (int i = 1; i <= this.containers; i++)
+		{
+			memory.addContainer("chatty-" + i, true);
+			this.names.add("chatty-" + i);
+		}
+		this.docker = memory.client();
+		this.directory = Files.createTempDirectory("logs-bench");
+		this.executor = Executors.newFixedThreadPool(this.containers);
+		this.collector = new LogCollector(this.docker, new LogCollector.Rotation(this.directory.toString(), 64L << 20, 0, 2));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException
+	{
+		this.collector.close();
+		this.executor.shutdownNow();
+		try (Stream<Path> files = Files.list(this.directory))
+		{
+			for (Path file : (Iterable<Path>) files::iterator)
+			{
+				Files.delete(file);
+			}
+		}
+		Files.delete(this.directory);
+	}
+
+	@Benchmark
+	public long collect() throws Exception
+	{
+		List<CompletableFuture<Long>> futures = new ArrayList<CompletableFuture<Long>>();
+		for (String name : this.names)
+		{
+			switch (this.sink)
+			{
+				case "collector":
+					futures.add(this.collector.follow(name));
+					break;
+				case "attach":
+					futures.add(CompletableFuture.supplyAsync(() -> attach(name), this.executor));
+					break;
+				default:
+					futures.add(CompletableFuture.supplyAsync(() -> readFully(name), this.executor));
+			}
+		}
+		long bytes = 0;
+		for (CompletableFuture<Long> future : futures)
+		{
+			bytes += future.get();
+		}
+		return bytes;
+	}
+
+	private long readFully(String name)
+	{
+		try (LogStream logs = this.docker.logs(name, LogsParam.follow(), LogsParam.stdout(), LogsParam.stderr()))
+		{
+			byte[] bytes = logs.readFully().getBytes(StandardCharsets.UTF_8);
+			Files.write(this.directory.resolve(name + ".full"), bytes);
+			return bytes.length;
+		}
+		catch (Exception e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private long attach(String name)
+	{
+		File file = this.directory.resolve(name + ".attach").toFile();
+		try (LogStream logs = this.docker.logs(name, LogsParam.follow(), LogsParam.stdout(), LogsParam.stderr());
+				OutputStream output = new BufferedOutputStream(Files.newOutputStream(file.toPath()), 64 * 1024))
+		{
+			logs.attach(output, output, false);
+			output.flush();
+			return file.length();
+		}
+		catch (Exception e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package com.gael.testdocker;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Installation of a lib directory with big files and small ones into a Container whose
+ * target directory is under the bind mount, the mount on the same file system as the lib.</p>
+ *
+ * <ul>
+ * <li>COPY : all the files sent with copyToContainer, as installLib</li>
+ * <li>LINK : the big files hard linked into the mount, the small ones copied into it</li>
+ * <li>REFLINK : the big files cloned, copied if the file system has no reflink, the small ones copied</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class MountStagerBenchmark {
+
+	@Param({ "4" })
+	public int bigFiles;
+
+	@Param({ "268435456" })
+	public int bigBytes;
+
+	@Param({ "200" })
+	public int smallFiles;
+
+	@Param({ "COPY", "LINK", "REFLINK" })
+	public MountStager.Mode mode;
+
+	private Path lib;
+
+	private Path mount;
+
+	private MountStager stager;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException
+	{
+		this.lib = Files.createTempDirectory("stage-lib");
+		this.mount = Files.createTempDirectory("stage-mount");
+		Random random = new Random(42);
+		byte[] block = new byte[1 << 20];
+		for (int i = 0; i < this.bigFiles; i++)
+		{
+			try (OutputStream output = Files.newOutputStream(this.lib.resolve("big-" + i + ".jar")))
+			{
+				for (int written = 0; written < this.bigBytes; written += block.length)
+				{
+					random.nextBytes(block);
+					output.write(block, 0, Math.min(block.length, this.bigBytes - written));
+				}
+			}
+		}
+		byte[] small = new byte[8192];
+		for (int i = 0; i < this.smallFiles; i++)
+		{
+			random.nextBytes(small);
+			Files.write(this.lib.resolve("small-" + i + ".jar"), small);
+		}
+		InMemoryDockerClient memory = new InMemoryDockerClient(0);
+		memory.addContainer("dhus", true);
+		this.stager = new MountStager(new DockerCommands(memory.client()), this.mount.toString(), "/home", this.mode, MountStager.DEFAULT_MIN_BYTES);
+	}
+
+	@TearDown(Level.Invocation)
+	public void clearMount() throws IOException
+	{
+		delete(this.mount, false);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException
+	{
+		delete(this.mount, true);
+		delete(this.lib, true);
+	}
+
+	@Benchmark
+	public MountStager.Result stage() throws Exception
+	{
+		return this.stager.stage(this.lib.toString(), "dhus", "/home/dhus/server/lib");
+	}
+
+	private static void delete(Path directory, boolean self) throws IOException
+	{
+		try (Stream<Path> files = Files.walk(directory))
+		{
+			for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator)
+			{
+				if (self || !file.equals(directory))
+				{
+					Files.delete(file);
+				}
+			}
+		}
+	}
+}
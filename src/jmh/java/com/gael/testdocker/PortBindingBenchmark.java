@@ -0,0 +1,59 @@
+package com.gael.testdocker;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.spotify.docker.client.messages.HostConfig;
+import com.spotify.docker.client.messages.PortBinding;
+
+/**
+ * <p>Construction of the port bindings and of the HostConfig of a Container.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+public class PortBindingBenchmark {
+
+	@Param({ "2", "32" })
+	public int portCount;
+
+	private String[] ports;
+
+	private String[] hostPorts;
+
+	@Setup
+	public void setUp()
+	{
+		this.ports = new String[this.portCount];
+		this.hostPorts = new String[this.portCount];
+		for (int i = 0; i < this.portCount; i++)
+		{
+			this.ports[i] = String.valueOf(8081 + i);
+			this.hostPorts[i] = String.valueOf(18081 + i);
+		}
+	}
+
+	@Benchmark
+	public Map<String, List<PortBinding>> portBinding()
+	{
+		return DockerCommands.getPorBinding(this.ports, this.hostPorts);
+	}
+
+	@Benchmark
+	public HostConfig hostConfig()
+	{
+		return HostConfig.builder().portBindings(DockerCommands.getPorBinding(this.ports, this.hostPorts)).build();
+	}
+}
@@ -0,0 +1,283 @@
+package com.gael.testdocker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sshd.common.config.keys.KeyUtils;
+import org.apache.sshd.core.CoreModuleProperties;
+import org.apache.sshd.server.Environment;
+import org.apache.sshd.server.ExitCallback;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.auth.pubkey.AcceptAllPublickeyAuthenticator;
+import org.apache.sshd.server.channel.ChannelSession;
+import org.apache.sshd.server.command.Command;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.KeyPair;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * <p>Latency of a ping of the Docker API through {@link SshTunnel}, against a local sshd whose
+ * commands are connected to a fake daemon on the loopback, as 'docker system dial-stdio' :</p>
+ * <ul>
+ * <li>pooledClient : DockerClient of an ssh:// endpoint, its pooled connection reusing a channel</li>
+ * <li>channelPerCall : a new connection, so a new channel, of the persistent session</li>
+ * <li>sessionPerCall : a new session for each call, as a new ssh command each time</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SshTunnelBenchmark {
+
+	private static final byte[] PING = "GET /_ping HTTP/1.1\r\nHost: docker\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+	private HttpServer daemon;
+
+	private SshServer sshd;
+
+	private Path identity;
+
+	private String endpoint;
+
+	private SshTunnel tunnel;
+
+	private int tunnelPort;
+
+	private DockerCommands dc;
+
+	@Setup(Level.Trial)
+	public void startHosts() throws Exception
+	{
+		// as the Agent, without the 40 ms of the delayed ACK on the small answers
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+		this.daemon = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		this.daemon.createContext("/", exchange -> {
+			byte[] body = exchange.getRequestURI().getPath().endsWith("_ping") ? "OK".getBytes(StandardCharsets.UTF_8)
+					: "[]".getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream output = exchange.getResponseBody())
+			{
+				output.write(body);
+			}
+		});
+		this.daemon.start();
+		final int daemonPort = this.daemon.getAddress().getPort();
+
+		this.identity = Files.createTempFile("bench", ".key");
+		KeyPair key = KeyPair.genKeyPair(new JSch(), KeyPair.RSA, 2048);
+		key.writePrivateKey(this.identity.toString());
+
+		// logback logs everything at DEBUG without configuration
+		((ch.qos.logback.classic.Logger) LoggerFactory.getLogger("org.apache.sshd")).setLevel(ch.qos.logback.classic.Level.WARN);
+		this.sshd = SshServer.setUpDefaultServer();
+		this.sshd.setHost("127.0.0.1");
+		// the answers of the daemon are written in several packets, which Nagle delays to the next ACK
+		CoreModuleProperties.TCP_NODELAY.set(this.sshd, true);
+		this.sshd.setPort(0);
+		// an RSA host key, JSch 0.1.54 does not verify the default ECDSA key of MINA
+		SimpleGeneratorHostKeyProvider hostKey = new SimpleGeneratorHostKeyProvider();
+		hostKey.setAlgorithm(KeyUtils.RSA_ALGORITHM);
+		this.sshd.setKeyPairProvider(hostKey);
+		this.sshd.setPublickeyAuthenticator(AcceptAllPublickeyAuthenticator.INSTANCE);
+		this.sshd.setCommandFactory((channel, command) -> new DialStdio(daemonPort));
+		this.sshd.start();
+		this.endpoint = "ssh://bench@127.0.0.1:" + this.sshd.getPort();
+
+		this.tunnel = newTunnel();
+		this.tunnelPort = URI.create(this.tunnel.start()).getPort();
+
+		Properties prop = new Properties();
+		prop.setProperty("dockerUri", this.endpoint);
+		prop.setProperty("dockerSshIdentity", this.identity.toString());
+		prop.setProperty("dockerSshKnownHosts", "none");
+		this.dc = DockerCommands.builder().fromProperties(prop).build();
+	}
+
+	@TearDown(Level.Trial)
+	public void stopHosts() throws IOException
+	{
+		this.dc.close();
+		this.tunnel.close();
+		this.sshd.stop(true);
+		this.daemon.stop(0);
+		Files.deleteIfExists(this.identity);
+	}
+
+	@Benchmark
+	public String pooledClient() throws Exception
+	{
+		return this.dc.getDockerClient().ping();
+	}
+
+	@Benchmark
+	public int channelPerCall() throws IOException
+	{
+		return ping(this.tunnelPort);
+	}
+
+	@Benchmark
+	public int sessionPerCall() throws IOException
+	{
+		SshTunnel once = newTunnel();
+		try
+		{
+			return ping(URI.create(once.start()).getPort());
+		}
+		finally
+		{
+			once.close();
+		}
+	}
+
+	private SshTunnel newTunnel()
+	{
+		return new SshTunnel(this.endpoint, this.identity.toString(), "none", null, SshTunnel.DEFAULT_MAX_CHANNELS);
+	}
+
+	/**
+	 * Send a ping on a new connection and read the whole answer
+	 */
+	private static int ping(int port) throws IOException
+	{
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port))
+		{
+			socket.getOutputStream().write(PING);
+			InputStream input = socket.getInputStream();
+			byte[] buffer = new byte[1024];
+			int total = 0;
+			int n;
+			while ((n = input.read(buffer)) >= 0)
+			{
+				total += n;
+			}
+			return total;
+		}
+	}
+
+	/**
+	 * <p>Command of the stand-in sshd connecting the channel to the fake daemon</p>
+	 */
+	private static class DialStdio implements Command {
+
+		private final int daemonPort;
+
+		private InputStream in;
+
+		private OutputStream out;
+
+		private ExitCallback exit;
+
+		private Socket socket;
+
+		DialStdio(int daemonPort)
+		{
+			this.daemonPort = daemonPort;
+		}
+
+		@Override
+		public void setInputStream(InputStream in)
+		{
+			this.in = in;
+		}
+
+		@Override
+		public void setOutputStream(OutputStream out)
+		{
+			this.out = out;
+		}
+
+		@Override
+		public void setErrorStream(OutputStream err)
+		{
+		}
+
+		@Override
+		public void setExitCallback(ExitCallback exit)
+		{
+			this.exit = exit;
+		}
+
+		@Override
+		public void start(ChannelSession channel, Environment env) throws IOException
+		{
+			this.socket = new Socket(InetAddress.getLoopbackAddress(), this.daemonPort);
+			this.socket.setTcpNoDelay(true);
+			Thread toDaemon = new Thread(() -> {
+				pump(this.in, this.socket);
+			});
+			Thread fromDaemon = new Thread(() -> {
+				try
+				{
+					copy(this.socket.getInputStream(), this.out);
+				}
+				catch (IOException e)
+				{
+					// closed
+				}
+				this.exit.onExit(0);
+			});
+			toDaemon.setDaemon(true);
+			fromDaemon.setDaemon(true);
+			toDaemon.start();
+			fromDaemon.start();
+		}
+
+		@Override
+		public void destroy(ChannelSession channel) throws IOException
+		{
+			this.socket.close();
+		}
+
+		private static void pump(InputStream input, Socket socket)
+		{
+			try
+			{
+				copy(input, socket.getOutputStream());
+				socket.shutdownOutput();
+			}
+			catch (IOException e)
+			{
+				// closed
+			}
+		}
+
+		private static void copy(InputStream input, OutputStream output) throws IOException
+		{
+			byte[] buffer = new byte[32 * 1024];
+			int n;
+			while ((n = input.read(buffer)) >= 0)
+			{
+				output.write(buffer, 0, n);
+				output.flush();
+			}
+		}
+	}
+}
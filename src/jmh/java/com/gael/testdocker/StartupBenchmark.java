@@ -0,0 +1,166 @@
+package com.gael.testdocker;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * <p>Time from the launch of a new JVM running {@link Programme} to its first call to the Docker
+ * API, received by a fake daemon on the loopback. The JVM is killed at the first call.</p>
+ *
+ * <p>'classpath' runs target/classes with the jars of the dependencies, as before the runnable
+ * jar. 'jar' runs target/testdocker.jar, 'jarCds' adds the class data sharing archive
+ * target/testdocker.jsa and 'jarCdsC1' also stops the compilation at C1. The jar and the archive
+ * are built by mvn -P cds package.</p>
+ *
+ * <p>All the variants run the same Programme, whose client is created by its first call, so they
+ * compare the packaging and the flags of the JVM only. The first call needs the client anyway :
+ * the lazy creation saves time only on the paths without call, as Programme --check.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+public class StartupBenchmark {
+
+	@Param({ "classpath", "jar", "jarCds", "jarCdsC1" })
+	public String variant;
+
+	private HttpServer daemon;
+
+	private volatile CompletableFuture<Void> firstCall;
+
+	private Process process;
+
+	private Path workDir;
+
+	private List<String> command;
+
+	@Setup(Level.Trial)
+	@SuppressWarnings("fallthrough")
+	public void startDaemon() throws IOException
+	{
+		this.daemon = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		this.daemon.createContext("/", exchange -> {
+			this.firstCall.complete(null);
+			byte[] body = exchange.getRequestURI().getPath().endsWith("_ping") ? "OK".getBytes(StandardCharsets.UTF_8)
+					: "[]".getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream output = exchange.getResponseBody())
+			{
+				output.write(body);
+			}
+		});
+		this.daemon.start();
+
+		this.workDir = Files.createTempDirectory("startup-bench");
+		List<String> config = new ArrayList<String>(Files.readAllLines(Paths.get("config.properties"), StandardCharsets.ISO_8859_1));
+		config.add("dockerUri=tcp://127.0.0.1:" + this.daemon.getAddress().getPort());
+		Files.write(this.workDir.resolve("config.properties"), config, StandardCharsets.ISO_8859_1);
+
+		Path jar = Paths.get("target", "testdocker.jar").toAbsolutePath();
+		Path archive = Paths.get("target", "testdocker.jsa").toAbsolutePath();
+		if (!this.variant.equals("classpath") && !Files.exists(jar))
+		{
+			throw new IllegalStateException(jar + " not found, run the package phase");
+		}
+		if (this.variant.startsWith("jarCds") && !Files.exists(archive))
+		{
+			throw new IllegalStateException(archive + " not found, run mvn -P cds package");
+		}
+
+		this.command = new ArrayList<String>();
+		this.command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		switch (this.variant)
+		{
+			case "classpath":
+				this.command.add("-cp");
+				this.command.add(applicationClasspath());
+				this.command.add(Programme.class.getName());
+				break;
+			case "jarCdsC1":
+				this.command.add("-XX:TieredStopAtLevel=1");
+				// fall through
+			case "jarCds":
+				this.command.add("-XX:SharedArchiveFile=" + archive);
+				// fall through
+			default:
+				this.command.add("-jar");
+				this.command.add(jar.toString());
+		}
+		this.command.add("email");
+		this.command.add("username");
+		this.command.add("password");
+	}
+
+	@TearDown(Level.Trial)
+	public void stopDaemon() throws IOException
+	{
+		this.daemon.stop(0);
+		Files.deleteIfExists(this.workDir.resolve("config.properties"));
+		Files.deleteIfExists(this.workDir);
+	}
+
+	@TearDown(Level.Invocation)
+	public void killProgramme() throws InterruptedException
+	{
+		if (this.process != null)
+		{
+			this.process.destroyForcibly().waitFor();
+		}
+	}
+
+	@Benchmark
+	public void firstApiCall() throws Exception
+	{
+		this.firstCall = new CompletableFuture<Void>();
+		this.process = new ProcessBuilder(this.command).directory(this.workDir.toFile())
+				.redirectOutput(ProcessBuilder.Redirect.DISCARD).redirectError(ProcessBuilder.Redirect.DISCARD).start();
+		this.firstCall.get(1, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * Returns the classpath of this JVM without JMH and the benchmarks
+	 */
+	private static String applicationClasspath()
+	{
+		List<String> entries = new ArrayList<String>();
+		for (String entry : System.getProperty("java.class.path").split(File.pathSeparator))
+		{
+			if (!entry.contains("jmh") && !entry.contains("test-classes") && !entry.contains("jopt-simple")
+					&& !entry.contains("commons-math3"))
+			{
+				entries.add(entry);
+			}
+		}
+		return String.join(File.pathSeparator, entries);
+	}
+}
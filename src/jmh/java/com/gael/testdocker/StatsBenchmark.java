@@ -0,0 +1,101 @@
+package com.gael.testdocker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.messages.ContainerStats;
+
+/**
+ * <p>Cost of the {@link StatsAggregator} for a fleet : 'ingest' records one sample of each
+ * Container, one second of the fleet at 1 Hz, and 'summaries' computes the percentiles and rates
+ * of all the windows. The stats are parsed once, the parsing of the client is not measured. Run
+ * with -prof gc for the allocations.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class StatsBenchmark {
+
+	@Param({ "100" })
+	public int containers;
+
+	@Param({ "300" })
+	public int window;
+
+	private StatsAggregator aggregator;
+
+	private List<String> names;
+
+	private List<ContainerStats> stats;
+
+	private long timeMillis;
+
+	@Setup(Level.Trial)
+	public void setUp() throws DockerException, InterruptedException
+	{
+		InMemoryDockerClient docker = new InMemoryDockerClient(0);
+		docker.setUsage(0.5, 256L << 20);
+		// one read by Container at the start, then only the recordings of the benchmark
+		this.aggregator = new StatsAggregator(docker.client(), this.window, TimeUnit.HOURS.toMillis(1), 1);
+		this.names = new ArrayList<String>();
+		this.stats = new ArrayList<ContainerStats>();
+		for (int i = 1; i <= this.containers; i++)
+		{
+			String name = "dhus-" + i;
+			docker.addContainer(name, true);
+			this.names.add(name);
+			this.stats.add(docker.client().stats(name));
+			this.aggregator.track(name);
+		}
+		this.timeMillis = System.currentTimeMillis();
+		// full windows for the summaries
+		for (int s = 0; s < this.window; s++)
+		{
+			ingest();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		System.out.println(this.aggregator.getSummary("dhus-1"));
+		this.aggregator.close();
+	}
+
+	@Benchmark
+	public int ingest()
+	{
+		this.timeMillis += 1000;
+		int recorded = 0;
+		for (int i = 0; i < this.containers; i++)
+		{
+			if (this.aggregator.record(this.names.get(i), this.stats.get(i), this.timeMillis))
+			{
+				recorded++;
+			}
+		}
+		return recorded;
+	}
+
+	@Benchmark
+	public Map<String, StatsAggregator.Summary> summaries()
+	{
+		return this.aggregator.getSummaries();
+	}
+}
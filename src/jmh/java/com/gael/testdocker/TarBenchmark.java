@@ -0,0 +1,137 @@
+package com.gael.testdocker;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.compress.archivers.ArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.utils.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * <p>Creation of the tar archive of a lib directory : {@link TarArchiveBuilder} against the former
+ * implementation with File.listFiles and IOUtils.copy.</p>
+ *
+ * <p>The MB/s are the size of the tree divided by the score; run with
+ * <code>-prof gc</code> for the allocation per operation.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class TarBenchmark {
+
+	@Param({ "1000" })
+	public int fileCount;
+
+	@Param({ "16384" })
+	public int fileSize;
+
+	private Path tree;
+
+	private Path target;
+
+	@Setup(Level.Trial)
+	public void createTree() throws IOException
+	{
+		this.tree = Files.createTempDirectory("tar-bench");
+		this.target = Files.createTempFile("tar-bench", ".tar");
+
+		Random random = new Random(42);
+		byte[] content = new byte[this.fileSize];
+		for (int i = 0; i < this.fileCount; i++)
+		{
+			Path directory = this.tree.resolve("dir" + (i % 16));
+			Files.createDirectories(directory);
+			random.nextBytes(content);
+			Files.write(directory.resolve("lib-" + i + ".jar"), content);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteTree() throws IOException
+	{
+		Files.walk(this.tree).sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+		Files.deleteIfExists(this.target);
+	}
+
+	@Benchmark
+	public long builder() throws IOException
+	{
+		Utils.createTar(this.target.toString(), this.tree.toString());
+		return this.target.toFile().length();
+	}
+
+	@Benchmark
+	public long legacy() throws IOException
+	{
+		legacyCreateTar(this.target.toString(), this.tree.toString());
+		return this.target.toFile().length();
+	}
+
+	/**
+	 * Former Utils.createTar
+	 */
+	private static void legacyCreateTar(String tarName, String pathName) throws IOException
+	{
+		OutputStream tarOutput = new FileOutputStream(new File(tarName));
+		ArchiveOutputStream tarArchive = new TarArchiveOutputStream(tarOutput);
+
+		for (File file : legacyRecurseDirectory(new File(pathName)))
+		{
+			TarArchiveEntry tarArchiveEntry = new TarArchiveEntry(file, file.getName());
+			tarArchiveEntry.setSize(file.length());
+			tarArchive.putArchiveEntry(tarArchiveEntry);
+			FileInputStream fileInputStream = new FileInputStream(file);
+			IOUtils.copy(fileInputStream, tarArchive);
+			fileInputStream.close();
+			tarArchive.closeArchiveEntry();
+		}
+
+		tarArchive.finish();
+		tarOutput.close();
+	}
+
+	/**
+	 * Former Utils.recurseDirectory
+	 */
+	private static List<File> legacyRecurseDirectory(File directory)
+	{
+		List<File> files = new ArrayList<File>();
+		if (directory != null && directory.isDirectory())
+		{
+			for (File file : directory.listFiles())
+			{
+				if (file.isDirectory())
+				{
+					files.addAll(legacyRecurseDirectory(file));
+				}
+				else
+				{
+					files.add(file);
+				}
+			}
+		}
+		return files;
+	}
+}
@@ -0,0 +1,156 @@
+package com.gael.testdocker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Wall time of the transfer of a lib directory over a link of 'mbps' Mbit/s : tar sent as is,
+ * compressed by one thread with GZIPOutputStream, or by {@link ParallelGzipOutputStream}.</p>
+ *
+ * <p>The link is emulated by a reader paced at the bandwidth, as the daemon reading the request
+ * through the network. 'text' files compress as logs and configurations, 'random' files not at
+ * all, as the jars.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TransferBenchmark {
+
+	@Param({ "100", "1000" })
+	public int mbps;
+
+	@Param({ "text", "random" })
+	public String content;
+
+	@Param({ "64" })
+	public int fileCount;
+
+	@Param({ "262144" })
+	public int fileSize;
+
+	private Path tree;
+
+	private TarArchiveBuilder builder;
+
+	@Setup(Level.Trial)
+	public void createTree() throws IOException
+	{
+		this.tree = Files.createTempDirectory("transfer-bench");
+
+		Random random = new Random(42);
+		byte[] data = new byte[this.fileSize];
+		for (int i = 0; i < this.fileCount; i++)
+		{
+			if ("random".equals(this.content))
+			{
+				random.nextBytes(data);
+			}
+			else
+			{
+				StringBuilder text = new StringBuilder(this.fileSize);
+				while (text.length() < this.fileSize)
+				{
+					text.append("2024-01-01 12:00:").append(random.nextInt(60)).append(" INFO [worker-").append(random.nextInt(16))
+							.append("] product ").append(Long.toHexString(random.nextLong())).append(" ingested\n");
+				}
+				System.arraycopy(text.toString().getBytes(StandardCharsets.US_ASCII), 0, data, 0, this.fileSize);
+			}
+			Files.write(this.tree.resolve("file-" + i), data);
+		}
+		this.builder = new TarArchiveBuilder(this.tree.toString());
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteTree() throws IOException
+	{
+		Files.walk(this.tree).sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+	}
+
+	@Benchmark
+	public long none() throws IOException, InterruptedException
+	{
+		return sendOverLink(Utils.createTarStream(this.builder, null, false));
+	}
+
+	@Benchmark
+	public long gzipSingleThread() throws IOException, InterruptedException
+	{
+		final PipedInputStream input = new PipedInputStream(1024 * 1024);
+		final PipedOutputStream output = new PipedOutputStream(input);
+		Thread writer = new Thread(() -> {
+			try (OutputStream gzip = new GZIPOutputStream(output, 64 * 1024))
+			{
+				this.builder.writeTo(Channels.newChannel(gzip));
+			}
+			catch (IOException e)
+			{
+				throw new IllegalStateException(e);
+			}
+		});
+		writer.setDaemon(true);
+		writer.start();
+		return sendOverLink(input);
+	}
+
+	@Benchmark
+	public long gzipParallel() throws IOException, InterruptedException
+	{
+		return sendOverLink(Utils.createTarStream(this.builder, null, true));
+	}
+
+	/**
+	 * Read the stream at the bandwidth of the link and returns the number of bytes sent
+	 */
+	private long sendOverLink(InputStream stream) throws IOException, InterruptedException
+	{
+		double nanosPerByte = 8_000.0 / this.mbps;
+		byte[] buffer = new byte[64 * 1024];
+		long start = System.nanoTime();
+		long sent = 0;
+		try
+		{
+			int n;
+			while ((n = stream.read(buffer)) >= 0)
+			{
+				sent += n;
+				long ahead = start + (long) (sent * nanosPerByte) - System.nanoTime();
+				if (ahead > 0)
+				{
+					TimeUnit.NANOSECONDS.sleep(ahead);
+				}
+			}
+		}
+		finally
+		{
+			stream.close();
+		}
+		return sent;
+	}
+}
@@ -0,0 +1,87 @@
+package com.gael.testdocker;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.spotify.docker.client.exceptions.ContainerNotFoundException;
+import com.spotify.docker.client.exceptions.DockerException;
+
+/**
+ * <p>Claim of a Container of the {@link WarmPool}, to compare with {@link CreateDHuSBenchmark}
+ * at the same latency.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class WarmPoolBenchmark {
+
+	@Param({ "1000" })
+	public long latencyMicros;
+
+	@Param({ "STOPPED", "PAUSED" })
+	public WarmPool.Mode mode;
+
+	private DockerCommands dc;
+
+	private WarmPool pool;
+
+	@Setup(Level.Trial)
+	public void setUp() throws DockerException, InterruptedException, IOException
+	{
+		Properties properties = new Properties();
+		properties.setProperty("nameImage", "centosimageref");
+		properties.setProperty("nameContainer", "bench-dhus");
+		properties.setProperty("ports", "8081;8082");
+		properties.setProperty("warmPoolSize", "1");
+		properties.setProperty("warmPoolMode", this.mode.name());
+		Programme.init(properties);
+
+		InMemoryDockerClient docker = new InMemoryDockerClient(this.latencyMicros);
+		docker.addImage("centosimageref:latest");
+		this.dc = new DockerCommands(docker.client());
+		this.pool = Programme.createWarmPool(this.dc);
+		this.pool.start();
+	}
+
+	@Setup(Level.Invocation)
+	public void refill() throws DockerException, InterruptedException
+	{
+		try
+		{
+			this.dc.getDockerClient().removeContainer("bench-dhus");
+		}
+		catch (ContainerNotFoundException e)
+		{
+			// first invocation
+		}
+		this.pool.awaitRefill(TimeUnit.SECONDS.toMillis(10));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws InterruptedException
+	{
+		System.out.println(this.pool);
+		this.pool.drain();
+		this.dc.close();
+	}
+
+	@Benchmark
+	public String claim() throws DockerException, InterruptedException
+	{
+		return this.pool.claim("bench-dhus");
+	}
+}
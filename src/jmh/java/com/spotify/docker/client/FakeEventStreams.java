@@ -0,0 +1,44 @@
+package com.spotify.docker.client;
+
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.entity.InputStreamEntity;
+
+/**
+ * <p>Opens an {@link EventStream}, whose constructor is package-private, over a stream of JSON
+ * events written by the in-memory client.</p>
+ */
+public final class FakeEventStreams {
+
+	private FakeEventStreams()
+	{
+	}
+
+	/**
+	 * Returns an EventStream reading the events from 'json'
+	 *
+	 * @param json Stream of JSON events, closed with the EventStream
+	 * @return Instance of EventStream
+	 */
+	public static EventStream open(final InputStream json)
+	{
+		final InputStreamEntity entity = new InputStreamEntity(json);
+		CloseableHttpResponse response = (CloseableHttpResponse) Proxy.newProxyInstance(
+				FakeEventStreams.class.getClassLoader(), new Class<?>[] { CloseableHttpResponse.class },
+				(proxy, method, args) -> {
+					switch (method.getName())
+					{
+						case "getEntity":
+							return entity;
+						case "close":
+							json.close();
+							return null;
+						default:
+							throw new UnsupportedOperationException(method.getName());
+					}
+				});
+		return new EventStream(response, ObjectMapperProvider.objectMapper());
+	}
+}
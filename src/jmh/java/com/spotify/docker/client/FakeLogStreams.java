@@ -0,0 +1,25 @@
+package com.spotify.docker.client;
+
+import java.io.InputStream;
+
+/**
+ * <p>Opens a {@link LogStream}, whose implementation is package-private, over a stream of frames
+ * multiplexed as by the daemon and written by the in-memory client.</p>
+ */
+public final class FakeLogStreams {
+
+	private FakeLogStreams()
+	{
+	}
+
+	/**
+	 * Returns a LogStream reading the frames from 'frames', as the real client does
+	 *
+	 * @param frames Stream of frames with their header of 8 bytes, closed with the LogStream
+	 * @return Instance of LogStream
+	 */
+	public static LogStream open(final InputStream frames)
+	{
+		return DefaultLogStream.create(frames);
+	}
+}
@@ -0,0 +1,368 @@
+package com.gael.testdocker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.spotify.docker.client.exceptions.DockerException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * <b>Resident agent serving the provisioning on the loopback</b>
+ *
+ * <p>The agent keeps the client, its connections, the caches, the pools of threads and the warm
+ * pool of {@link Programme} between the requests, which pay neither the start of a JVM nor the
+ * creation of a client. Requests on http://127.0.0.1:agentPort :
+ * <ul>
+ * <li>POST /provision?version=V : provision the configuration, one at a time</li>
+ * <li>POST /delete?name=REGEX&amp;label=KEY[=VALUE] : delete the matching Containers</li>
+ * <li>POST /exec?container=NAME&amp;timeout=SECONDS : run the body with bash in a Container</li>
+ * <li>POST /logs?container=NAME : follow the logs of a Container into its rolling file, see {@link LogCollector}</li>
+ * <li>POST /track?container=NAME : read the stats of a Container, of all the running Containers without parameter</li>
+ * <li>GET /stats : summary of the stats of the tracked Containers, see {@link StatsAggregator}</li>
+ * <li>GET /status : latency of the requests served</li>
+ * <li>POST /shutdown : stop the agent</li>
+ * </ul>
+ * The answer is text, with the status 500 and the error if the request failed. The header
+ * X-Duration-Millis gives the duration of the request in the agent.</p>
+ *
+ * <p>Each request must carry the token of the agent in the header
+ * {@value AgentClient#TOKEN_HEADER}, read from the file of the property agentTokenFile, created
+ * readable only by the user at the first start. A request with an Origin header, sent by a page of
+ * a browser, is refused.</p>
+ *
+ * @see AgentClient
+ *
+ * @author bellaiche
+ * @version 1.0
+ *
+ */
+public class Agent {
+
+	/**
+	 * Default port of the agent
+	 */
+	public static final int DEFAULT_PORT = 7077;
+
+	private final DockerCommands dc;
+
+	private final HttpServer server;
+
+	private final ExecutorService executor;
+
+	private final CountDownLatch stopped = new CountDownLatch(1);
+
+	/**
+	 * Latency of the requests by path
+	 */
+	private final Map<String, LatencyHistogram> latencies = new ConcurrentHashMap<String, LatencyHistogram>();
+
+	private final long startMillis = System.currentTimeMillis();
+
+	private final byte[] token;
+
+	/**
+	 * Constructor Agent
+	 *
+	 * @param dc Instance of DockerCommands for Docker Commands, opened by {@link Programme}
+	 * @param port Port on the loopback, 0 for a free port
+	 * @param threads Number of requests served at the same time
+	 * @param token Token required in the header {@value AgentClient#TOKEN_HEADER} of the requests
+	 * @throws IOException Raise if the port can not be bound
+	 */
+	public Agent(DockerCommands dc, int port, int threads, String token) throws IOException
+	{
+		this.dc = dc;
+		this.token = token.getBytes(StandardCharsets.UTF_8);
+		// Without TCP_NODELAY, the small answers wait the delayed ACK of the client, about 40 ms
+		if (System.getProperty("sun.net.httpserver.nodelay") == null)
+		{
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		this.executor = Executors.newFixedThreadPool(Math.max(1, threads));
+		this.server.setExecutor(this.executor);
+
+		this.server.createContext("/provision", exchange -> serve(exchange, "POST", query -> {
+			String version = query.get("version");
+			return Programme.provision(this.dc, version != null ? version : "latest");
+		}));
+		this.server.createContext("/delete", exchange -> serve(exchange, "POST", query -> delete(query)));
+		this.server.createContext("/exec", exchange -> serve(exchange, "POST", query -> exec(query, readBody(exchange))));
+		this.server.createContext("/logs", exchange -> serve(exchange, "POST", query -> logs(query.get("container"))));
+		this.server.createContext("/track", exchange -> serve(exchange, "POST", query -> track(query.get("container"))));
+		this.server.createContext("/stats", exchange -> serve(exchange, "GET", query -> this.dc.getStatsAggregator().toString()));
+		this.server.createContext("/status", exchange -> serve(exchange, "GET", query -> status()));
+		this.server.createContext("/shutdown", exchange -> serve(exchange, "POST", query -> {
+			this.stopped.countDown();
+			return "Stopping";
+		}));
+	}
+
+	/**
+	 * Start the agent as configured by config.properties, until a request /shutdown
+	 * <p>
+	 * With 'statsDump' seconds, the stats of the running Containers are printed at this period.
+	 * </p>
+	 *
+	 * @param args Email, username and password of the registry
+	 * @throws Exception Raise if the agent can not be started
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		DockerCommands dc = Programme.open(args);
+		Properties prop = Programme.getProperties();
+		String token = AgentClient.readToken(Paths.get(prop.getProperty("agentTokenFile", AgentClient.DEFAULT_TOKEN_FILE)), true);
+		Agent agent = new Agent(dc, Integer.parseInt(prop.getProperty("agentPort", String.valueOf(DEFAULT_PORT))),
+				Integer.parseInt(prop.getProperty("agentThreads", "4")), token);
+		int statsDump = Integer.parseInt(prop.getProperty("statsDump", "0"));
+		if (statsDump > 0)
+		{
+			dc.getStatsAggregator().trackRunning();
+			dc.getStatsAggregator().startDump(TimeUnit.SECONDS.toMillis(statsDump));
+		}
+		agent.start();
+		System.out.println("Agent listening on http://127.0.0.1:" + agent.getPort());
+
+		agent.awaitShutdown();
+		agent.stop();
+		Programme.close(dc);
+	}
+
+	/**
+	 * Start to serve the requests
+	 */
+	public void start()
+	{
+		this.server.start();
+	}
+
+	/**
+	 * @return Port of the agent on the loopback
+	 */
+	public int getPort()
+	{
+		return this.server.getAddress().getPort();
+	}
+
+	/**
+	 * Wait a request /shutdown
+	 *
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public void awaitShutdown() throws InterruptedException
+	{
+		this.stopped.await();
+	}
+
+	/**
+	 * Stop to serve the requests, the client stays open
+	 */
+	public void stop()
+	{
+		// let the answer of /shutdown be sent
+		this.server.stop(1);
+		this.executor.shutdownNow();
+	}
+
+	/**
+	 * Returns the latency of the requests by path
+	 */
+	private String status()
+	{
+		StringBuilder status = new StringBuilder();
+		status.append("Up since ").append(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - this.startMillis)).append(" s\n");
+		for (Map.Entry<String, LatencyHistogram> latency : this.latencies.entrySet())
+		{
+			status.append(latency.getKey()).append(" : ").append(latency.getValue()).append('\n');
+		}
+		return status.toString();
+	}
+
+	/**
+	 * Delete the Containers matching a name or a label, never all the Containers
+	 */
+	private String delete(Map<String, String> query) throws DockerException, InterruptedException
+	{
+		if (query.get("name") == null && query.get("label") == null)
+		{
+			throw new IllegalArgumentException("Parameter 'name' or 'label' is required");
+		}
+		return this.dc.deleteContainers(query.get("label"), query.get("name")).toString();
+	}
+
+	/**
+	 * Follow the logs of a Container and returns the path of its file
+	 */
+	private String logs(String container) throws IOException
+	{
+		if (container == null)
+		{
+			throw new IllegalArgumentException("Parameter 'container' is required");
+		}
+		LogCollector collector = this.dc.getLogCollector();
+		collector.follow(container).whenComplete((bytes, error) -> {
+			if (error != null)
+			{
+				System.err.println("Logs of " + container + " not collected : " + error);
+			}
+		});
+		return "Following " + container + " into " + collector.getRotation().fileOf(container);
+	}
+
+	/**
+	 * Track the stats of a Container, or of all the running Containers
+	 */
+	private String track(String container) throws DockerException, InterruptedException
+	{
+		StatsAggregator aggregator = this.dc.getStatsAggregator();
+		if (container == null)
+		{
+			return "Tracking " + aggregator.trackRunning() + " more Container(s)";
+		}
+		return aggregator.track(container) ? "Tracking " + container : container + " already tracked";
+	}
+
+	/**
+	 * Run a command with bash in a Container and returns its exit code and outputs
+	 */
+	private String exec(Map<String, String> query, String command) throws DockerException, InterruptedException, IOException
+	{
+		String container = query.get("container");
+		if (container == null || command.isEmpty())
+		{
+			throw new IllegalArgumentException("Parameter 'container' and command in the body are required");
+		}
+		long timeoutMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(query.getOrDefault("timeout", "0")));
+
+		ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+		ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+		int exitCode = this.dc.getExecManager().execAndWait(container, new String[] { "bash", "-c", command }, stdout, stderr, timeoutMillis);
+		return "exit " + exitCode + "\n" + stdout.toString("UTF-8") + stderr.toString("UTF-8");
+	}
+
+	/**
+	 * Answer a request with the result of an action, timed in the latencies of its path
+	 */
+	private void serve(HttpExchange exchange, String method, Action action) throws IOException
+	{
+		long start = System.nanoTime();
+		String path = exchange.getHttpContext().getPath();
+		int status;
+		String body;
+		try
+		{
+			String token = exchange.getRequestHeaders().getFirst(AgentClient.TOKEN_HEADER);
+			if (exchange.getRequestHeaders().containsKey("Origin"))
+			{
+				status = 403;
+				body = "Requests from a browser are refused";
+			}
+			else if (token == null || !MessageDigest.isEqual(this.token, token.getBytes(StandardCharsets.UTF_8)))
+			{
+				status = 401;
+				body = "Header " + AgentClient.TOKEN_HEADER + " missing or wrong";
+			}
+			else if (!method.equals(exchange.getRequestMethod()))
+			{
+				status = 405;
+				body = method + " required";
+			}
+			else
+			{
+				body = action.run(parseQuery(exchange.getRequestURI().getRawQuery()));
+				status = 200;
+			}
+		}
+		catch (IllegalArgumentException e)
+		{
+			status = 400;
+			body = e.getMessage();
+		}
+		catch (Exception e)
+		{
+			status = 500;
+			body = e.toString();
+			System.err.println("Request " + path + " failed : " + e);
+		}
+
+		long nanos = System.nanoTime() - start;
+		this.latencies.computeIfAbsent(path, p -> new LatencyHistogram()).record(nanos);
+
+		byte[] bytes = (body + "\n").getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.getResponseHeaders().set("X-Duration-Millis", String.valueOf(TimeUnit.NANOSECONDS.toMillis(nanos)));
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream output = exchange.getResponseBody();
+		try
+		{
+			output.write(bytes);
+		}
+		finally
+		{
+			output.close();
+		}
+	}
+
+	private static String readBody(HttpExchange exchange) throws IOException
+	{
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		InputStream input = exchange.getRequestBody();
+		try
+		{
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = input.read(buffer)) >= 0)
+			{
+				body.write(buffer, 0, n);
+			}
+		}
+		finally
+		{
+			input.close();
+		}
+		return body.toString("UTF-8").trim();
+	}
+
+	private static Map<String, String> parseQuery(String query) throws IOException
+	{
+		Map<String, String> parameters = new HashMap<String, String>();
+		if (query != null)
+		{
+			for (String parameter : query.split("&"))
+			{
+				int separator = parameter.indexOf('=');
+				if (separator > 0)
+				{
+					parameters.put(URLDecoder.decode(parameter.substring(0, separator), "UTF-8"),
+							URLDecoder.decode(parameter.substring(separator + 1), "UTF-8"));
+				}
+			}
+		}
+		return parameters;
+	}
+
+	/**
+	 * <p>Action of a request</p>
+	 */
+	private interface Action {
+
+		String run(Map<String, String> query) throws Exception;
+	}
+}
@@ -0,0 +1,213 @@
+package com.gael.testdocker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * <b>Command line client of the {@link Agent}</b>
+ *
+ * <p>Commands :
+ * <ul>
+ * <li>provision [version]</li>
+ * <li>delete &lt;name regex&gt; [label]</li>
+ * <li>exec &lt;container&gt; &lt;command...&gt;</li>
+ * <li>status</li>
+ * <li>shutdown</li>
+ * </ul>
+ * The port is read from the property agentPort of config.properties, the token of the agent from
+ * the file of the property agentTokenFile, {@value #DEFAULT_TOKEN_FILE} by default. The client
+ * only uses the JDK, so its JVM starts without loading the Docker client.</p>
+ *
+ * <p>The answer of the agent is printed, then the duration of the request in the agent and of
+ * the whole round trip on the error output. The exit code is 1 if the request failed.</p>
+ *
+ * @author bellaiche
+ * @version 1.0
+ *
+ */
+public class AgentClient {
+
+	/**
+	 * Header of the token of the agent
+	 */
+	public static final String TOKEN_HEADER = "X-Agent-Token";
+
+	/**
+	 * Default file of the token of the agent
+	 */
+	public static final String DEFAULT_TOKEN_FILE = "agent.token";
+
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length == 0)
+		{
+			System.err.println("Usage : AgentClient provision [version] | delete <name regex> [label] | exec <container> <command...> | status | shutdown");
+			System.exit(2);
+		}
+
+		String path;
+		String body = null;
+		switch (args[0])
+		{
+			case "provision":
+				path = "/provision" + (args.length > 1 ? "?version=" + encode(args[1]) : "");
+				break;
+			case "delete":
+				if (args.length < 2)
+				{
+					throw new IllegalArgumentException("delete needs a name regex");
+				}
+				path = "/delete?name=" + encode(args[1]) + (args.length > 2 ? "&label=" + encode(args[2]) : "");
+				break;
+			case "exec":
+				if (args.length < 3)
+				{
+					throw new IllegalArgumentException("exec needs a container and a command");
+				}
+				path = "/exec?container=" + encode(args[1]);
+				body = String.join(" ", Arrays.asList(args).subList(2, args.length));
+				break;
+			case "status":
+				path = "/status";
+				break;
+			case "shutdown":
+				path = "/shutdown";
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown command " + args[0]);
+		}
+
+		Properties prop = properties();
+		String token = readToken(Paths.get(prop.getProperty("agentTokenFile", DEFAULT_TOKEN_FILE)), false);
+		System.exit(send(Integer.parseInt(prop.getProperty("agentPort", String.valueOf(Agent.DEFAULT_PORT))), token, path, body) ? 0 : 1);
+	}
+
+	/**
+	 * Returns the token of the agent read from a file, created with a random token readable only by
+	 * the user if needed
+	 *
+	 * @param file File of the token
+	 * @param create True to create the file if it is missing
+	 * @return Token of the agent
+	 * @throws IOException Raise if the file can not be read or created
+	 */
+	public static String readToken(Path file, boolean create) throws IOException
+	{
+		if (!Files.exists(file))
+		{
+			if (!create)
+			{
+				throw new IOException("Token of the agent " + file + " not found, the agent creates it at its start");
+			}
+			byte[] random = new byte[32];
+			new SecureRandom().nextBytes(random);
+			StringBuilder token = new StringBuilder();
+			for (byte b : random)
+			{
+				token.append(String.format("%02x", b));
+			}
+			try
+			{
+				Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+			}
+			catch (UnsupportedOperationException e)
+			{
+				// not a POSIX file system
+				Files.createFile(file);
+			}
+			Files.write(file, token.toString().getBytes(StandardCharsets.US_ASCII));
+		}
+		String token = new String(Files.readAllBytes(file), StandardCharsets.US_ASCII).trim();
+		if (token.isEmpty())
+		{
+			throw new IOException("Token of the agent " + file + " is empty");
+		}
+		return token;
+	}
+
+	/**
+	 * Send a request to the agent and print its answer
+	 *
+	 * @param port Port of the agent on the loopback
+	 * @param token Token of the agent
+	 * @param path Path and query of the request
+	 * @param body Body of the request, null for none
+	 * @return True if the request succeeded
+	 * @throws IOException Raise if the agent can not be reached
+	 */
+	public static boolean send(int port, String token, String path, String body) throws IOException
+	{
+		long start = System.nanoTime();
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + path).openConnection();
+		connection.setRequestMethod(path.equals("/status") ? "GET" : "POST");
+		connection.setRequestProperty(TOKEN_HEADER, token);
+		if (body != null)
+		{
+			connection.setDoOutput(true);
+			OutputStream output = connection.getOutputStream();
+			try
+			{
+				output.write(body.getBytes(StandardCharsets.UTF_8));
+			}
+			finally
+			{
+				output.close();
+			}
+		}
+
+		int status = connection.getResponseCode();
+		InputStream input = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+		ByteArrayOutputStream answer = new ByteArrayOutputStream();
+		try
+		{
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = input.read(buffer)) >= 0)
+			{
+				answer.write(buffer, 0, n);
+			}
+		}
+		finally
+		{
+			input.close();
+		}
+
+		System.out.print(answer.toString("UTF-8"));
+		System.err.println("Agent " + connection.getHeaderField("X-Duration-Millis") + " ms, round trip "
+				+ (System.nanoTime() - start) / 1000000 + " ms");
+		return status < 400;
+	}
+
+	private static Properties properties()
+	{
+		Properties prop = new Properties();
+		try (InputStream input = new FileInputStream("config.properties"))
+		{
+			prop.load(input);
+		}
+		catch (IOException e)
+		{
+			// default port and token file
+		}
+		return prop;
+	}
+
+	private static String encode(String value) throws IOException
+	{
+		return URLEncoder.encode(value, "UTF-8");
+	}
+}
@@ -0,0 +1,488 @@
+package com.gael.testdocker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+
+/**
+ * <b>Extraction of a tar stream to a directory, with parallel writers</b>
+ *
+ * <p>The stream, as returned by archiveContainer, is read once by the calling thread. The body of
+ * each file is cut into chunks of {@value #CHUNK_SIZE} bytes handed to one of the writers, which
+ * write them with a {@link FileChannel} and compute the SHA-256 of the file, so the reading of
+ * the stream goes on while the previous files are written. The chunks come from a pool of
+ * 4 per writer : the memory used does not depend on the size of the files, and the reading waits
+ * when the writers are behind.</p>
+ *
+ * <p>An optional glob selects the files by their name in the archive, as 'output/**.xml'. The
+ * directories are created as needed, the hard links then the symbolic links are created once
+ * all the files are written, so that no file is written through a link of the archive. The
+ * entries whose name goes out of the target directory or through a symbolic link are refused, as
+ * the symbolic links which are absolute or resolve out of the target directory.</p>
+ *
+ * @see DockerCommands#copyFromContainer(String, String, String, String)
+ *
+ * @author bellaiche
+ * @version 1.0
+ *
+ */
+public class ArchiveExtractor {
+
+	/**
+	 * Size of a chunk of a file
+	 */
+	private static final int CHUNK_SIZE = 256 * 1024;
+
+	/**
+	 * Number of chunks by writer
+	 */
+	private static final int CHUNKS_BY_WRITER = 4;
+
+	private final int writers;
+
+	/**
+	 * Constructor ArchiveExtractor
+	 *
+	 * @param writers Number of files written at the same time
+	 */
+	public ArchiveExtractor(int writers)
+	{
+		this.writers = Math.max(1, writers);
+	}
+
+	/**
+	 * Extract a tar stream into a directory
+	 *
+	 * @param tar Tar stream, read to its end but not closed
+	 * @param target Directory of the files, created if needed
+	 * @param glob Glob of the names of the files to extract, null for all
+	 * @param expected SHA-256 expected by name of file, null to only compute them
+	 * @return Report with the SHA-256 of each file written and the mismatches with 'expected'
+	 * @throws IOException Raise if the stream can not be read or a file not written
+	 */
+	public Report extract(InputStream tar, Path target, String glob, Map<String, String> expected) throws IOException
+	{
+		Path root = target.toAbsolutePath().normalize();
+		Files.createDirectories(root);
+		Path realRoot = root.toRealPath();
+		PathMatcher matcher = glob != null && !glob.isEmpty() ? FileSystems.getDefault().getPathMatcher("glob:" + glob) : null;
+
+		BlockingQueue<ByteBuffer> pool = new ArrayBlockingQueue<ByteBuffer>(this.writers * CHUNKS_BY_WRITER);
+		for (int i = 0; i < this.writers * CHUNKS_BY_WRITER; i++)
+		{
+			pool.add(ByteBuffer.allocate(CHUNK_SIZE));
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(this.writers, Utils.daemonThreads("archive-writer-"));
+		List<Future<String>> written = new ArrayList<Future<String>>();
+		List<String> names = new ArrayList<String>();
+		Map<Path, Path> hardLinks = new TreeMap<Path, Path>();
+		Map<Path, Path> symbolicLinks = new LinkedHashMap<Path, Path>();
+		long bytes = 0;
+		int skipped = 0;
+
+		try
+		{
+			TarArchiveInputStream archive = new TarArchiveInputStream(tar);
+			TarArchiveEntry entry;
+			while ((entry = archive.getNextTarEntry()) != null)
+			{
+				Path path = resolve(root, entry.getName(), symbolicLinks);
+				if (entry.isDirectory())
+				{
+					Files.createDirectories(path);
+					continue;
+				}
+				if (matcher != null && !matcher.matches(Paths.get(entry.getName())))
+				{
+					skipped++;
+					continue;
+				}
+				Files.createDirectories(path.getParent());
+				// the last entry of a name wins, as with tar
+				hardLinks.remove(path);
+				symbolicLinks.remove(path);
+				if (entry.isSymbolicLink())
+				{
+					Path link = Paths.get(entry.getLinkName());
+					if (link.isAbsolute() || !path.getParent().resolve(link).normalize().startsWith(root))
+					{
+						throw new IOException("Symbolic link " + entry.getName() + " -> " + entry.getLinkName() + " is out of " + root);
+					}
+					symbolicLinks.put(path, link);
+					continue;
+				}
+				if (entry.isLink())
+				{
+					Path existing = resolve(root, entry.getLinkName(), symbolicLinks);
+					if (symbolicLinks.containsKey(existing) || Files.isSymbolicLink(existing))
+					{
+						throw new IOException("Hard link " + entry.getName() + " to the symbolic link " + entry.getLinkName());
+					}
+					hardLinks.put(path, existing);
+					continue;
+				}
+				if (Files.isSymbolicLink(path))
+				{
+					// left by a previous extraction, the file replaces the link
+					Files.delete(path);
+				}
+
+				FileWrite write = new FileWrite(path, entry, pool);
+				written.add(executor.submit(write));
+				names.add(entry.getName());
+				bytes += write.read(archive);
+			}
+
+			List<String> hexes = waitAll(written);
+			for (Map.Entry<Path, Path> link : hardLinks.entrySet())
+			{
+				Files.deleteIfExists(link.getKey());
+				Files.createLink(link.getKey(), link.getValue());
+			}
+			for (Map.Entry<Path, Path> link : symbolicLinks.entrySet())
+			{
+				Files.deleteIfExists(link.getKey());
+				Files.createSymbolicLink(link.getKey(), link.getValue());
+				// a link through another link of the archive, as 'a -> .' then 'b -> a/../x'
+				if (!realTarget(link.getKey(), link.getValue()).startsWith(realRoot))
+				{
+					Files.delete(link.getKey());
+					throw new IOException("Symbolic link " + root.relativize(link.getKey()) + " -> " + link.getValue() + " is out of " + root);
+				}
+			}
+
+			Map<String, String> hashes = new TreeMap<String, String>();
+			List<String> mismatches = new ArrayList<String>();
+			for (int i = 0; i < names.size(); i++)
+			{
+				hashes.put(names.get(i), hexes.get(i));
+				String hash = expected != null ? expected.get(names.get(i)) : null;
+				if (hash != null && !hash.equalsIgnoreCase(hexes.get(i)))
+				{
+					mismatches.add(names.get(i));
+				}
+			}
+			return new Report(hashes, bytes, skipped, mismatches);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Extraction interrupted", e);
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Returns the SHA-256 by name of a file in the format of sha256sum, 'hash  name' by line
+	 *
+	 * @param checksums Content of the file
+	 * @return SHA-256 by name of file
+	 */
+	public static Map<String, String> parseChecksums(byte[] checksums)
+	{
+		Map<String, String> hashes = new TreeMap<String, String>();
+		for (String line : new String(checksums, StandardCharsets.UTF_8).split("\n"))
+		{
+			int separator = line.indexOf("  ");
+			if (separator > 0)
+			{
+				hashes.put(line.substring(separator + 2).trim(), line.substring(0, separator));
+			}
+		}
+		return hashes;
+	}
+
+	/**
+	 * Returns the path of an entry, refused if out of the directory or if one of its parents is a
+	 * symbolic link, of the archive or already in the directory
+	 */
+	private static Path resolve(Path root, String name, Map<Path, Path> symbolicLinks) throws IOException
+	{
+		Path path = root.resolve(name).normalize();
+		if (!path.startsWith(root))
+		{
+			throw new IOException("Entry " + name + " is out of " + root);
+		}
+		for (Path parent = path.getParent(); parent != null && !parent.equals(root); parent = parent.getParent())
+		{
+			if (symbolicLinks.containsKey(parent) || Files.isSymbolicLink(parent))
+			{
+				throw new IOException("Entry " + name + " goes through the symbolic link " + root.relativize(parent));
+			}
+		}
+		return path;
+	}
+
+	/**
+	 * Returns the real path of the target of a symbolic link, the missing part of the target
+	 * resolved from its last existing parent
+	 */
+	private static Path realTarget(Path path, Path link) throws IOException
+	{
+		// not normalized, '..' after a link goes to the parent of the target of the link
+		Path target = path.getParent().resolve(link);
+		Path existing = target;
+		while (existing != null && !Files.exists(existing))
+		{
+			existing = existing.getParent();
+		}
+		if (existing == null)
+		{
+			return target;
+		}
+		return existing.toRealPath().resolve(existing.relativize(target)).normalize();
+	}
+
+	/**
+	 * Wait the writes and returns their SHA-256, in the order of the archive
+	 */
+	private static List<String> waitAll(List<Future<String>> written) throws IOException, InterruptedException
+	{
+		List<String> hexes = new ArrayList<String>(written.size());
+		for (Future<String> future : written)
+		{
+			try
+			{
+				hexes.add(future.get());
+			}
+			catch (ExecutionException e)
+			{
+				if (e.getCause() instanceof IOException)
+				{
+					throw (IOException) e.getCause();
+				}
+				throw new IOException(e.getCause());
+			}
+		}
+		return hexes;
+	}
+
+	/**
+	 * <p>Summary of an extraction</p>
+	 */
+	public static class Report {
+
+		private final Map<String, String> hashes;
+		private final long bytes;
+		private final int skipped;
+		private final List<String> mismatches;
+
+		Report(Map<String, String> hashes, long bytes, int skipped, List<String> mismatches)
+		{
+			this.hashes = Collections.unmodifiableMap(hashes);
+			this.bytes = bytes;
+			this.skipped = skipped;
+			this.mismatches = Collections.unmodifiableList(mismatches);
+		}
+
+		/**
+		 * @return SHA-256 of the files written, by name in the archive
+		 */
+		public Map<String, String> getHashes()
+		{
+			return this.hashes;
+		}
+
+		/**
+		 * @return Bytes of the files written
+		 */
+		public long getBytes()
+		{
+			return this.bytes;
+		}
+
+		/**
+		 * @return Number of files not matching the glob
+		 */
+		public int getSkipped()
+		{
+			return this.skipped;
+		}
+
+		/**
+		 * @return Names of the files whose SHA-256 differs from the expected one
+		 */
+		public List<String> getMismatches()
+		{
+			return this.mismatches;
+		}
+
+		@Override
+		public String toString()
+		{
+			return this.hashes.size() + " file(s) extracted, " + this.bytes + " bytes, " + this.skipped + " skipped"
+					+ (this.mismatches.isEmpty() ? "" : ", checksum mismatch : " + this.mismatches);
+		}
+	}
+
+	/**
+	 * <p>Write of a file from the chunks read by the calling thread</p>
+	 */
+	private static class FileWrite implements Callable<String> {
+
+		/**
+		 * Chunk marking the end of the file
+		 */
+		private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+		private final Path path;
+
+		private final TarArchiveEntry entry;
+
+		private final BlockingQueue<ByteBuffer> pool;
+
+		private final BlockingQueue<ByteBuffer> chunks = new LinkedBlockingQueue<ByteBuffer>();
+
+		FileWrite(Path path, TarArchiveEntry entry, BlockingQueue<ByteBuffer> pool)
+		{
+			this.path = path;
+			this.entry = entry;
+			this.pool = pool;
+		}
+
+		/**
+		 * Read the body of the entry into chunks of the pool, on the calling thread
+		 *
+		 * @return Bytes read
+		 */
+		long read(TarArchiveInputStream archive) throws IOException, InterruptedException
+		{
+			long total = 0;
+			try
+			{
+				while (true)
+				{
+					ByteBuffer chunk = this.pool.take();
+					chunk.clear();
+					int n = archive.read(chunk.array(), 0, chunk.capacity());
+					if (n < 0)
+					{
+						this.pool.put(chunk);
+						return total;
+					}
+					chunk.limit(n);
+					total += n;
+					this.chunks.put(chunk);
+				}
+			}
+			finally
+			{
+				this.chunks.put(END);
+			}
+		}
+
+		@Override
+		public String call() throws IOException, InterruptedException
+		{
+			MessageDigest digest = LibSynchronizer.newDigest();
+			IOException failure = null;
+			FileChannel channel = null;
+			try
+			{
+				channel = FileChannel.open(this.path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING,
+						LinkOption.NOFOLLOW_LINKS);
+			}
+			catch (IOException e)
+			{
+				failure = e;
+			}
+
+			// after a failure, the chunks are still taken back to the pool, so the reading is not blocked
+			ByteBuffer chunk;
+			while ((chunk = this.chunks.take()) != END)
+			{
+				try
+				{
+					if (failure == null)
+					{
+						digest.update(chunk.duplicate());
+						while (chunk.hasRemaining())
+						{
+							channel.write(chunk);
+						}
+					}
+				}
+				catch (IOException e)
+				{
+					failure = e;
+				}
+				finally
+				{
+					this.pool.put(chunk);
+				}
+			}
+			if (channel != null)
+			{
+				channel.close();
+			}
+			if (failure != null)
+			{
+				throw failure;
+			}
+
+			Files.setLastModifiedTime(this.path, FileTime.fromMillis(this.entry.getModTime().getTime()));
+			try
+			{
+				Files.setPosixFilePermissions(this.path, permissions(this.entry.getMode()));
+			}
+			catch (UnsupportedOperationException e)
+			{
+				// not a POSIX file system
+			}
+			return LibSynchronizer.toHex(digest.digest());
+		}
+
+		private static Set<PosixFilePermission> permissions(int mode)
+		{
+			Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+			PosixFilePermission[] bits = { PosixFilePermission.OTHERS_EXECUTE, PosixFilePermission.OTHERS_WRITE, PosixFilePermission.OTHERS_READ,
+					PosixFilePermission.GROUP_EXECUTE, PosixFilePermission.GROUP_WRITE, PosixFilePermission.GROUP_READ,
+					PosixFilePermission.OWNER_EXECUTE, PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_READ };
+			for (int i = 0; i < bits.length; i++)
+			{
+				if ((mode & (1 << i)) != 0)
+				{
+					permissions.add(bits[i]);
+				}
+			}
+			// the owner keeps the write, as docker cp run by the user
+			permissions.add(PosixFilePermission.OWNER_WRITE);
+			return permissions;
+		}
+	}
+}
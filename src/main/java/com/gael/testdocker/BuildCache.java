@@ -0,0 +1,273 @@
+package com.gael.testdocker;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.exceptions.ImageNotFoundException;
+import com.spotify.docker.client.messages.ImageInfo;
+
+/**
+ * <b>Cache of the builds of Images, by hash of their inputs</b>
+ *
+ * <p>The hash covers the build arguments and the name and content of each file of the context
+ * sent to Docker : the files excluded by <code>.dockerignore</code> are skipped, except the
+ * Dockerfile and the <code>.dockerignore</code> which Docker always sends. The hash is stored in
+ * the label {@value #LABEL} of the Image, so the Image is rebuilt only when an input changed.</p>
+ *
+ * <p>The context is still archived by the client at each build : its API has no build from a
+ * prepared archive. The files are hashed in parallel and only read, which is cheaper than
+ * sending them to the daemon.</p>
+ *
+ * @see DockerCommands#createImage(String, String, String)
+ *
+ * @author bellaiche
+ * @version 1.0
+ *
+ */
+public class BuildCache {
+
+	/**
+	 * Label of the hash of the inputs of an Image
+	 */
+	public static final String LABEL = "com.gael.testdocker.build.hash";
+
+	private static final String DOCKERFILE = "Dockerfile";
+
+	private static final String DOCKERIGNORE = ".dockerignore";
+
+	private BuildCache()
+	{
+	}
+
+	/**
+	 * Returns the hash of the inputs of a build
+	 *
+	 * @param pathContext Directory of the context, with the Dockerfile
+	 * @param buildargs Arguments of the build in JSON, null for none
+	 * @return Hexadecimal SHA-256
+	 * @throws IOException Raise if a file can not be read
+	 */
+	public static String hash(String pathContext, String buildargs) throws IOException
+	{
+		DockerIgnore ignore = DockerIgnore.load(Paths.get(pathContext).resolve(DOCKERIGNORE));
+
+		List<TarArchiveBuilder.Entry> files = new ArrayList<TarArchiveBuilder.Entry>();
+		for (TarArchiveBuilder.Entry entry : new TarArchiveBuilder(pathContext).getEntries())
+		{
+			if (entry.isDirectory())
+			{
+				continue;
+			}
+			if (entry.getName().equals(DOCKERFILE) || entry.getName().equals(DOCKERIGNORE) || !ignore.isExcluded(entry.getName()))
+			{
+				files.add(entry);
+			}
+		}
+
+		MessageDigest digest = LibSynchronizer.newDigest();
+		digest.update(("buildargs " + (buildargs != null ? buildargs : "") + "\n").getBytes(StandardCharsets.UTF_8));
+		for (Map.Entry<String, String> hash : LibSynchronizer.hashFiles(files).entrySet())
+		{
+			digest.update((hash.getValue() + "  " + hash.getKey() + "\n").getBytes(StandardCharsets.UTF_8));
+		}
+		return LibSynchronizer.toHex(digest.digest());
+	}
+
+	/**
+	 * Returns the hash stored in an Image
+	 *
+	 * @param docker Instance of DockerClient
+	 * @param nameImage Name of the Image
+	 * @return Hash of the label {@value #LABEL}, null if the Image or the label does not exist
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public static String storedHash(DockerClient docker, String nameImage) throws DockerException, InterruptedException
+	{
+		ImageInfo info;
+		try
+		{
+			info = docker.inspectImage(nameImage);
+		}
+		catch (ImageNotFoundException e)
+		{
+			return null;
+		}
+		if (info.config() == null || info.config().labels() == null)
+		{
+			return null;
+		}
+		return info.config().labels().get(LABEL);
+	}
+
+	/**
+	 * <p>Patterns of a <code>.dockerignore</code> file</p>
+	 *
+	 * <p>The rules of Docker : '*' and '?' do not match '/', '**' matches any number of
+	 * directories, a pattern starting with '!' includes again, the last matching pattern wins,
+	 * and a pattern matching a directory matches all its content.</p>
+	 */
+	static class DockerIgnore {
+
+		private final List<Pattern> patterns = new ArrayList<Pattern>();
+
+		private final List<Boolean> exceptions = new ArrayList<Boolean>();
+
+		/**
+		 * Returns the patterns of a file, none if it does not exist
+		 */
+		static DockerIgnore load(Path file) throws IOException
+		{
+			DockerIgnore ignore = new DockerIgnore();
+			if (!Files.isRegularFile(file))
+			{
+				return ignore;
+			}
+
+			for (String line : Files.readAllLines(file, StandardCharsets.UTF_8))
+			{
+				String pattern = line.trim();
+				if (pattern.isEmpty() || pattern.startsWith("#"))
+				{
+					continue;
+				}
+
+				boolean exception = pattern.startsWith("!");
+				if (exception)
+				{
+					pattern = pattern.substring(1).trim();
+				}
+				pattern = clean(pattern);
+				if (pattern.isEmpty())
+				{
+					continue;
+				}
+
+				ignore.patterns.add(Pattern.compile(toRegex(pattern)));
+				ignore.exceptions.add(exception);
+			}
+			return ignore;
+		}
+
+		/**
+		 * Returns True if a file of the context is not sent
+		 *
+		 * @param name Relative name of the file, with '/' as separator
+		 */
+		boolean isExcluded(String name)
+		{
+			boolean excluded = false;
+			for (int i = 0; i < this.patterns.size(); i++)
+			{
+				if (matches(this.patterns.get(i), name))
+				{
+					excluded = !this.exceptions.get(i);
+				}
+			}
+			return excluded;
+		}
+
+		/**
+		 * Returns True if the pattern matches the name or one of its parent directories
+		 */
+		private static boolean matches(Pattern pattern, String name)
+		{
+			if (pattern.matcher(name).matches())
+			{
+				return true;
+			}
+			for (int slash = name.indexOf('/'); slash > 0; slash = name.indexOf('/', slash + 1))
+			{
+				if (pattern.matcher(name.substring(0, slash)).matches())
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Removes the leading '/' and './' and the trailing '/'
+		 */
+		private static String clean(String pattern)
+		{
+			String cleaned = pattern.replace('\\', '/');
+			while (cleaned.startsWith("/") || cleaned.startsWith("./"))
+			{
+				cleaned = cleaned.substring(cleaned.startsWith("/") ? 1 : 2);
+			}
+			while (cleaned.endsWith("/"))
+			{
+				cleaned = cleaned.substring(0, cleaned.length() - 1);
+			}
+			return cleaned;
+		}
+
+		private static String toRegex(String pattern)
+		{
+			StringBuilder regex = new StringBuilder();
+			for (int i = 0; i < pattern.length(); i++)
+			{
+				char c = pattern.charAt(i);
+				if (c == '*')
+				{
+					if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '*')
+					{
+						i++;
+						if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '/')
+						{
+							// '**/' : any number of directories, none included
+							i++;
+							regex.append("(?:.*/)?");
+						}
+						else
+						{
+							regex.append(".*");
+						}
+					}
+					else
+					{
+						regex.append("[^/]*");
+					}
+				}
+				else if (c == '?')
+				{
+					regex.append("[^/]");
+				}
+				else if (c == '[')
+				{
+					int end = pattern.indexOf(']', i + 1);
+					if (end < 0)
+					{
+						regex.append("\\[");
+					}
+					else
+					{
+						String set = pattern.substring(i + 1, end);
+						regex.append('[').append(set.startsWith("^") ? "^" + set.substring(1).replace("\\", "\\\\") : set.replace("\\", "\\\\")).append(']');
+						i = end;
+					}
+				}
+				else if (c == '\\' && i + 1 < pattern.length())
+				{
+					regex.append(Pattern.quote(String.valueOf(pattern.charAt(++i))));
+				}
+				else
+				{
+					regex.append(Pattern.quote(String.valueOf(c)));
+				}
+			}
+			return regex.toString();
+		}
+	}
+}
@@ -0,0 +1,259 @@
+package com.gael.testdocker;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.DockerClient.ListContainersParam;
+import com.spotify.docker.client.DockerClient.ListImagesParam;
+import com.spotify.docker.client.exceptions.ContainerNotFoundException;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.exceptions.ImageNotFoundException;
+import com.spotify.docker.client.messages.Container;
+import com.spotify.docker.client.messages.Image;
+
+/**
+ * <b>Deletion of many Containers or Images in parallel</b>
+ *
+ * <p>The Containers are stopped and removed by the tasks of a {@link FleetProvisioner}, one by
+ * Container, whose report gives the result of each deletion. The Images
+ * are removed by levels : an Image is removed after all the selected Images built on it, the
+ * Images of a level being removed in parallel. An Image whose child was not removed is not
+ * tried.</p>
+ *
+ * <p>The selection is filtered by a label, 'key' or 'key=value', and by a regular expression
+ * found in a name of the Container or a tag of the Image. A Container or Image already removed
+ * by Docker meanwhile counts as removed.</p>
+ *
+ * @see DockerCommands#deleteContainers(String, String)
+ * @see DockerCommands#deleteImages(String, String)
+ * @see FleetProvisioner
+ *
+ * @author bellaiche
+ * @version 1.0
+ *
+ */
+public class BulkDeleter {
+
+	/**
+	 * Timeout of the stop of a Container before it is killed, in seconds
+	 */
+	public static final int STOP_TIMEOUT = 20;
+
+	private final DockerClient docker;
+
+	private final FleetProvisioner provisioner;
+
+	/**
+	 * Constructor BulkDeleter
+	 *
+	 * @param docker Instance of DockerClient
+	 * @param threads Maximum number of deletions at the same time
+	 */
+	public BulkDeleter(DockerClient docker, int threads)
+	{
+		this.docker = docker;
+		this.provisioner = new FleetProvisioner(Math.max(1, threads));
+	}
+
+	/**
+	 * Stop and remove the Containers
+	 *
+	 * @param label Label of the Containers, 'key' or 'key=value', null for all
+	 * @param namePattern Regular expression found in the name, null for all
+	 * @return Report with the result of each Container, named after it
+	 * @throws DockerException Raise if there is error with API during the listing
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public FleetProvisioner.Report deleteContainers(String label, String namePattern) throws DockerException, InterruptedException
+	{
+		long start = System.nanoTime();
+		List<ListContainersParam> params = new ArrayList<ListContainersParam>();
+		params.add(ListContainersParam.allContainers());
+		if (label != null)
+		{
+			int separator = label.indexOf('=');
+			params.add(separator < 0 ? ListContainersParam.withLabel(label)
+					: ListContainersParam.withLabel(label.substring(0, separator), label.substring(separator + 1)));
+		}
+		Pattern pattern = namePattern != null ? Pattern.compile(namePattern) : null;
+
+		final List<String> ids = new ArrayList<String>();
+		final List<String> states = new ArrayList<String>();
+		List<String> names = new ArrayList<String>();
+		for (Container c : this.docker.listContainers(params.toArray(new ListContainersParam[params.size()])))
+		{
+			if (pattern == null || matches(pattern, c.names()))
+			{
+				ids.add(c.id());
+				states.add(c.state());
+				names.add(c.names() != null && !c.names().isEmpty() ? c.names().get(0).substring(1) : c.id());
+			}
+		}
+
+		FleetProvisioner.Report report = this.provisioner.provision(names, (name, index) -> {
+			String id = ids.get(index);
+			String state = states.get(index);
+			try
+			{
+				if (!"exited".equals(state) && !"created".equals(state) && !"dead".equals(state))
+				{
+					this.docker.stopContainer(id, STOP_TIMEOUT);
+				}
+				this.docker.removeContainer(id);
+			}
+			catch (ContainerNotFoundException e)
+			{
+				// already removed
+			}
+		});
+		return new FleetProvisioner.Report(report.getInstances(), System.nanoTime() - start);
+	}
+
+	/**
+	 * Remove the Images, the children before their parents
+	 *
+	 * @param label Label of the Images, 'key' or 'key=value', null for all
+	 * @param namePattern Regular expression found in a tag, null for all
+	 * @return Report with the result of each Image, named after its first tag or its Id
+	 * @throws DockerException Raise if there is error with API during the listing
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public FleetProvisioner.Report deleteImages(String label, String namePattern) throws DockerException, InterruptedException
+	{
+		long start = System.nanoTime();
+		List<ListImagesParam> params = new ArrayList<ListImagesParam>();
+		if (label != null)
+		{
+			int separator = label.indexOf('=');
+			params.add(separator < 0 ? ListImagesParam.withLabel(label)
+					: ListImagesParam.withLabel(label.substring(0, separator), label.substring(separator + 1)));
+		}
+		Pattern pattern = namePattern != null ? Pattern.compile(namePattern) : null;
+
+		Map<String, String> selected = new LinkedHashMap<String, String>();
+		for (Image i : this.docker.listImages(params.toArray(new ListImagesParam[params.size()])))
+		{
+			if (pattern == null || matches(pattern, i.repoTags()))
+			{
+				selected.put(i.id(), i.repoTags() != null && !i.repoTags().isEmpty() ? i.repoTags().get(0) : i.id());
+			}
+		}
+
+		// Parents of all the Images, the intermediate Images linking a selected Image to a selected ancestor
+		Map<String, String> parents = new HashMap<String, String>();
+		for (Image i : this.docker.listImages(ListImagesParam.allImages()))
+		{
+			if (i.parentId() != null && !i.parentId().isEmpty())
+			{
+				parents.put(i.id(), i.parentId());
+			}
+		}
+
+		// Number of selected children of each selected Image, through the intermediate Images
+		Map<String, String> selectedParent = new HashMap<String, String>();
+		Map<String, Integer> children = new HashMap<String, Integer>();
+		for (String id : selected.keySet())
+		{
+			String parent = parents.get(id);
+			while (parent != null && !selected.containsKey(parent))
+			{
+				parent = parents.get(parent);
+			}
+			if (parent != null)
+			{
+				selectedParent.put(id, parent);
+				children.merge(parent, 1, Integer::sum);
+			}
+		}
+
+		List<FleetProvisioner.Instance> instances = new ArrayList<FleetProvisioner.Instance>();
+		List<String> level = new ArrayList<String>();
+		for (String id : selected.keySet())
+		{
+			if (!children.containsKey(id))
+			{
+				level.add(id);
+			}
+		}
+
+		while (!level.isEmpty())
+		{
+			final List<String> ids = level;
+			List<String> names = new ArrayList<String>();
+			for (String id : ids)
+			{
+				names.add(selected.get(id));
+			}
+			List<FleetProvisioner.Instance> removed = this.provisioner.provision(names, (name, index) -> {
+				try
+				{
+					this.docker.removeImage(ids.get(index));
+				}
+				catch (ImageNotFoundException e)
+				{
+					// already removed
+				}
+			}).getInstances();
+			instances.addAll(removed);
+
+			List<String> next = new ArrayList<String>();
+			for (int i = 0; i < removed.size(); i++)
+			{
+				String parent = selectedParent.get(ids.get(i));
+				if (parent == null)
+				{
+					continue;
+				}
+				if (removed.get(i).getError() != null)
+				{
+					// The parent can not be removed, neither its ancestors
+					skip(parent, selected, selectedParent, children, instances, removed.get(i).getNameContainer());
+				}
+				else if (children.merge(parent, -1, Integer::sum) == 0)
+				{
+					next.add(parent);
+				}
+			}
+			level = next;
+		}
+		return new FleetProvisioner.Report(instances, System.nanoTime() - start);
+	}
+
+	/**
+	 * Record an Image and its selected ancestors as not tried
+	 */
+	private static void skip(String id, Map<String, String> selected, Map<String, String> selectedParent, Map<String, Integer> children,
+			List<FleetProvisioner.Instance> instances, String child)
+	{
+		while (id != null && children.remove(id) != null)
+		{
+			instances.add(new FleetProvisioner.Instance(selected.get(id), 0,
+					new DockerException("Not removed because the child " + child + " was not removed")));
+			child = selected.get(id);
+			id = selectedParent.get(id);
+		}
+	}
+
+	/**
+	 * Returns True if the pattern is found in one of the names, without the leading '/'
+	 */
+	private static boolean matches(Pattern pattern, List<String> names)
+	{
+		if (names != null)
+		{
+			for (String name : names)
+			{
+				if (pattern.matcher(name.startsWith("/") ? name.substring(1) : name).find())
+				{
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+}
@@ -5,12 +5,27 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
 import java.net.URLEncoder;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
 
 import com.google.common.collect.ImmutableList;
 import com.spotify.docker.client.DefaultDockerClient;
@@ -18,16 +33,16 @@ import com.spotify.docker.client.DockerClient;
 import com.spotify.docker.client.DockerClient.BuildParam;
 import com.spotify.docker.client.DockerClient.ListContainersParam;
 import com.spotify.docker.client.DockerClient.ListImagesParam;
-import com.spotify.docker.client.LogStream;
+import com.spotify.docker.client.exceptions.ConflictException;
 import com.spotify.docker.client.exceptions.DockerCertificateException;
 import com.spotify.docker.client.exceptions.DockerException;
 import com.spotify.docker.client.messages.Container;
 import com.spotify.docker.client.messages.ContainerConfig;
 import com.spotify.docker.client.messages.ContainerCreation;
-import com.spotify.docker.client.messages.ExecCreation;
 import com.spotify.docker.client.messages.HostConfig;
 import com.spotify.docker.client.messages.HostConfig.Bind;
 import com.spotify.docker.client.messages.Image;
+import com.spotify.docker.client.messages.NetworkSettings;
 import com.spotify.docker.client.messages.PortBinding;
 import com.spotify.docker.client.messages.RegistryAuth;
 
@@ -43,6 +58,9 @@ import com.spotify.docker.client.messages.RegistryAuth;
  * </ul>
  * </p>
  * 
+ * <p>An instance can be shared by several threads : the client has a pool of connections, whose
+ * size and timeouts are set with {@link DockerCommands.Builder}.</p>
+ * 
  * @see DockerClient
  * 
  * @author mbellaiche
@@ -52,11 +70,127 @@ import com.spotify.docker.client.messages.RegistryAuth;
 public class DockerCommands {
 	
 	/**
-	 * Instance of DockerClient
+	 * Default number of Images pulled at the same time
+	 */
+	private static final int DEFAULT_CONCURRENT_PULLS = 4;
+	
+	/**
+	 * Default size of each pool of connections of the client, the one of docker-client
+	 */
+	private static final int DEFAULT_CONNECTION_POOL_SIZE = 100;
+	
+	/**
+	 * Number of Containers or Images deleted at the same time
+	 */
+	private static final int DEFAULT_CONCURRENT_DELETIONS = 16;
+	
+	/**
+	 * Number of files written at the same time when copied from a Container
+	 */
+	private static final int ARCHIVE_WRITERS = 4;
+	
+	/**
+	 * Default rotation of the logs : directory 'logs', files of 64 MiB or one day, 5 rolled files kept
+	 */
+	private static final LogCollector.Rotation DEFAULT_LOG_ROTATION = new LogCollector.Rotation("logs", 64L << 20, TimeUnit.DAYS.toMillis(1), 5);
+	
+	/**
+	 * Instance of DockerClient, null until the first call if created by the builder
 	 * 
 	 * @see DockerCommands#getDockerClient()
 	 */
-	private DockerClient docker;
+	private volatile DockerClient docker;
+	
+	/**
+	 * Creation of the client on the first call, null if the client was given
+	 */
+	private final ClientFactory clientFactory;
+	
+	/**
+	 * Maximum number of Images pulled at the same time
+	 */
+	private final int maxConcurrentPulls;
+	
+	/**
+	 * Index of names of Images and Containers, null if the cache is not enabled
+	 * 
+	 * @see DockerCommands#enableCache()
+	 */
+	private volatile DockerIndex index;
+	
+	/**
+	 * Manager of the pulls, created on first use
+	 * 
+	 * @see DockerCommands#getPullManager()
+	 */
+	private PullManager pullManager;
+	
+	/**
+	 * Manager of the commands in Containers, created on first use
+	 * 
+	 * @see DockerCommands#getExecManager()
+	 */
+	private ExecManager execManager;
+	
+	/**
+	 * Client without read timeout of the manager of the commands, null if not created
+	 */
+	private DockerClient execClient;
+	
+	/**
+	 * Prober of the ports of Containers, created on first use
+	 * 
+	 * @see DockerCommands#getReadinessProber()
+	 */
+	private ReadinessProber readinessProber;
+	
+	/**
+	 * Collector of the logs of Containers, created on first use
+	 * 
+	 * @see DockerCommands#getLogCollector()
+	 */
+	private LogCollector logCollector;
+	
+	/**
+	 * Aggregator of the stats of Containers, created on first use
+	 * 
+	 * @see DockerCommands#getStatsAggregator()
+	 */
+	private StatsAggregator statsAggregator;
+	
+	/**
+	 * Directory and rotation of the files of the collector of logs
+	 */
+	private final LogCollector.Rotation logRotation;
+	
+	/**
+	 * Size of the timed pool of connections of the client
+	 */
+	private final int connectionPoolSize;
+	
+	/**
+	 * Metrics of the calls of the client, null if the client is not instrumented
+	 * 
+	 * @see DockerCommands#getMetrics()
+	 */
+	private final DockerMetrics metrics;
+	
+	/**
+	 * Endpoint of the daemon, null for the default Unix socket
+	 */
+	private final String endpoint;
+	
+	/**
+	 * Compression of the archives sent to the Containers
+	 * 
+	 * @see DockerCommands#isCompressed(long)
+	 */
+	private final TransferCompression compression;
+	
+	/**
+	 * Tunnel of an ssh:// endpoint, null for the other endpoints
+	 */
+	private final SshTunnel tunnel;
 	
 	/**
 	 * Constructor DockerCommands
@@ -70,8 +204,37 @@ public class DockerCommands {
 	 * 				
 	 */
 	public DockerCommands(DockerClient docker)
+	{
+		this(docker, null, DEFAULT_CONCURRENT_PULLS, null, null, TransferCompression.NONE, null, DEFAULT_LOG_ROTATION, DEFAULT_CONNECTION_POOL_SIZE);
+	}
+	
+	/**
+	 * Constructor DockerCommands
+	 * 
+	 * @param docker Object DockerClient for using of Docker, null to create it with 'clientFactory'
+	 * @param clientFactory Creation of the client on the first call, null if 'docker' is given
+	 * @param maxConcurrentPulls Maximum number of Images pulled at the same time
+	 * @param metrics Metrics recorded by 'docker', null for none
+	 * @param endpoint Endpoint of the daemon, null for the default Unix socket
+	 * @param compression Compression of the archives sent to the Containers
+	 * @param tunnel Tunnel of an ssh:// endpoint, null for none
+	 * @param logRotation Directory and rotation of the files of the collector of logs
+	 * @param connectionPoolSize Size of the timed pool of connections of the client
+	 * 
+	 * @see DockerCommands.Builder
+	 */
+	private DockerCommands(DockerClient docker, ClientFactory clientFactory, int maxConcurrentPulls, DockerMetrics metrics, String endpoint,
+			TransferCompression compression, SshTunnel tunnel, LogCollector.Rotation logRotation, int connectionPoolSize)
 	{
 		this.docker = docker;
+		this.clientFactory = clientFactory;
+		this.maxConcurrentPulls = maxConcurrentPulls;
+		this.metrics = metrics;
+		this.endpoint = endpoint;
+		this.compression = compression;
+		this.tunnel = tunnel;
+		this.logRotation = logRotation;
+		this.connectionPoolSize = connectionPoolSize;
 	}
 	
 	/**
@@ -90,16 +253,209 @@ public class DockerCommands {
 		this(DefaultDockerClient.fromEnv().build());
 	}
 	
+	/**
+	 * Returns a builder of DockerCommands with a configured client
+	 * 
+	 * @return Instance of Builder
+	 * 
+	 * @see DockerCommands.Builder
+	 */
+	public static Builder builder()
+	{
+		return new Builder();
+	}
+	
 	/**
 	 * Returns instance of DockerClient
+	 * <p>
+	 * The client of the builder is created by the first call.
+	 * </p>
 	 * 
 	 * @return Instance of DockerClient to use it for outside
+	 * @throws IllegalStateException Raise if the client can not be created, with the DockerCertificateException or
+	 * the IOException of the SSH tunnel as cause
 	 * 
 	 * @see DockerClient
 	 */
 	public DockerClient getDockerClient()
 	{
-		return this.docker;
+		DockerClient client = this.docker;
+		if (client == null)
+		{
+			synchronized (this)
+			{
+				client = this.docker;
+				if (client == null)
+				{
+					try
+					{
+						client = this.clientFactory.create(false);
+					}
+					catch (DockerCertificateException | IOException e)
+					{
+						throw new IllegalStateException("Docker client can not be created : " + e.getMessage(), e);
+					}
+					this.docker = client;
+				}
+			}
+		}
+		return client;
+	}
+	
+	/**
+	 * Returns the metrics of the calls to the Docker API
+	 * 
+	 * @return Instance of DockerMetrics, null if the client is not instrumented
+	 * 
+	 * @see DockerCommands.Builder#metrics(boolean)
+	 */
+	public DockerMetrics getMetrics()
+	{
+		return this.metrics;
+	}
+	
+	/**
+	 * Returns the manager of the pulls of this instance
+	 * <p>
+	 * A pull is tried 3 times.
+	 * </p>
+	 * 
+	 * @return Instance of PullManager
+	 * 
+	 * @see PullManager
+	 */
+	public synchronized PullManager getPullManager()
+	{
+		if (this.pullManager == null)
+		{
+			this.pullManager = new PullManager(getDockerClient(), this.maxConcurrentPulls, 3, 1000);
+		}
+		return this.pullManager;
+	}
+	
+	/**
+	 * Returns the manager of the commands executed in Containers
+	 * <p>
+	 * The streams of the commands are read through a second client without read timeout, so a
+	 * command may stay silent as long as its own timeout allows. A client given to the constructor
+	 * is used as is.
+	 * </p>
+	 * 
+	 * @return Instance of ExecManager
+	 * 
+	 * @see ExecManager
+	 */
+	public synchronized ExecManager getExecManager()
+	{
+		if (this.execManager == null)
+		{
+			if (this.clientFactory == null)
+			{
+				this.execManager = new ExecManager(getDockerClient());
+			}
+			else
+			{
+				try
+				{
+					this.execClient = this.clientFactory.create(true);
+				}
+				catch (DockerCertificateException | IOException e)
+				{
+					throw new IllegalStateException("Docker client can not be created : " + e.getMessage(), e);
+				}
+				this.execManager = new ExecManager(this.execClient);
+			}
+		}
+		return this.execManager;
+	}
+	
+	/**
+	 * Returns the prober of the readiness of the ports of Containers
+	 * <p>
+	 * An endpoint is tried every 250 ms, an attempt lasting at most 2 seconds.
+	 * </p>
+	 * 
+	 * @return Instance of ReadinessProber
+	 * @throws IOException Raise if the selector can not be opened
+	 * 
+	 * @see ReadinessProber
+	 */
+	public synchronized ReadinessProber getReadinessProber() throws IOException
+	{
+		if (this.readinessProber == null)
+		{
+			this.readinessProber = new ReadinessProber(250, 2000);
+		}
+		return this.readinessProber;
+	}
+	
+	/**
+	 * Returns the collector of the logs of Containers into rolling files
+	 * 
+	 * @return Instance of LogCollector
+	 * @throws IOException Raise if the directory of the logs can not be created
+	 * 
+	 * @see LogCollector
+	 * @see DockerCommands.Builder#logs(String, long, long, int)
+	 */
+	public synchronized LogCollector getLogCollector() throws IOException
+	{
+		if (this.logCollector == null)
+		{
+			this.logCollector = new LogCollector(getDockerClient(), this.logRotation);
+		}
+		return this.logCollector;
+	}
+	
+	/**
+	 * Returns the aggregator of the stats of Containers
+	 * <p>
+	 * The stats of a tracked Container are read every second, the last 300 samples are kept. The
+	 * reads take at most half of the timed pool of connections, the other calls keeping the rest.
+	 * </p>
+	 * 
+	 * @return Instance of StatsAggregator
+	 * 
+	 * @see StatsAggregator
+	 */
+	public synchronized StatsAggregator getStatsAggregator()
+	{
+		if (this.statsAggregator == null)
+		{
+			this.statsAggregator = new StatsAggregator(getDockerClient(), 300, 1000, Math.max(1, this.connectionPoolSize / 2));
+		}
+		return this.statsAggregator;
+	}
+	
+	/**
+	 * Enable the cache of names of Images and Containers
+	 * <p>
+	 * The existence checks become local lookups on an index kept fresh by the Docker events.
+	 * </p>
+	 * 
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 * 
+	 * @see DockerIndex
+	 */
+	public synchronized void enableCache() throws DockerException, InterruptedException
+	{
+		if (this.index == null)
+		{
+			DockerIndex newIndex = new DockerIndex(getDockerClient());
+			newIndex.start();
+			this.index = newIndex;
+		}
+	}
+	
+	/**
+	 * @return True if the cache of names of Images and Containers is enabled
+	 * 
+	 * @see DockerCommands#enableCache()
+	 */
+	public boolean isCacheEnabled()
+	{
+		return this.index != null;
 	}
 	
 	/**
@@ -107,7 +463,46 @@ public class DockerCommands {
 	 */
 	public void close()
 	{
-		this.docker.close();
+		if (this.index != null)
+		{
+			this.index.close();
+		}
+		if (this.pullManager != null)
+		{
+			this.pullManager.close();
+		}
+		if (this.execManager != null)
+		{
+			this.execManager.close();
+		}
+		if (this.readinessProber != null)
+		{
+			this.readinessProber.close();
+		}
+		if (this.logCollector != null)
+		{
+			this.logCollector.close();
+		}
+		if (this.statsAggregator != null)
+		{
+			this.statsAggregator.close();
+		}
+		if (this.execClient != null)
+		{
+			this.execClient.close();
+		}
+		if (this.docker != null)
+		{
+			this.docker.close();
+		}
+		if (this.tunnel != null)
+		{
+			this.tunnel.close();
+		}
+		if (this.metrics != null)
+		{
+			this.metrics.close();
+		}
 	}
 	
 	/*
@@ -117,14 +512,19 @@ public class DockerCommands {
 	/**
 	 * Returns True if an Image has the name 'nameImage', False otherwise
 	 * 
-	 * @param nameImage name to check
+	 * @param nameImage name to check, with a tag as 'name:tag' to check only this tag
 	 * @return True if 'nameImage' is already used
 	 * @throws DockerException Raise if there is error with API
 	 * @throws InterruptedException Raise if Thread is interrupted
 	 */
 	public boolean existImage(String nameImage) throws DockerException, InterruptedException
 	{
-		List<Image> images = this.docker.listImages(ListImagesParam.allImages());
+		if (this.index != null)
+		{
+			return this.index.existImage(nameImage);
+		}
+		
+		List<Image> images = getDockerClient().listImages(ListImagesParam.allImages());
 		
 		if (images != null)
 		{
@@ -133,7 +533,7 @@ public class DockerCommands {
 				ImmutableList<String> tags = i.repoTags();
 				for (String tag : tags)
 				{
-					if (tag.substring(0, tag.indexOf(":")).equals(nameImage))
+					if (tag.substring(0, tag.indexOf(":")).equals(nameImage) || tag.equals(nameImage))
 					{
 						return true;
 					}
@@ -143,6 +543,46 @@ public class DockerCommands {
 		return false;
 	}
 	
+	/**
+	 * Returns for each name if an Image has this name
+	 * <p>
+	 * Without cache, the Images are listed only once for all the names.
+	 * </p>
+	 * 
+	 * @param namesImage names to check, with or without tag
+	 * @return Map of each name to True if it is used
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public Map<String, Boolean> existImages(Collection<String> namesImage) throws DockerException, InterruptedException
+	{
+		if (this.index != null)
+		{
+			return this.index.existImages(namesImage);
+		}
+		
+		Set<String> used = new HashSet<>();
+		for (Image i : getDockerClient().listImages(ListImagesParam.allImages()))
+		{
+			if (i.repoTags() != null)
+			{
+				for (String tag : i.repoTags())
+				{
+					int separator = tag.indexOf(":");
+					used.add(separator < 0 ? tag : tag.substring(0, separator));
+					used.add(tag);
+				}
+			}
+		}
+		
+		Map<String, Boolean> result = new LinkedHashMap<>();
+		for (String name : namesImage)
+		{
+			result.put(name, used.contains(name));
+		}
+		return result;
+	}
+	
 	/**
 	 * Pull an Image from Registry
 	 * 
@@ -152,7 +592,8 @@ public class DockerCommands {
 	 */
 	public void pullImage(String tagImage) throws DockerException, InterruptedException
 	{
-		this.docker.pull(tagImage);
+		getPullManager().pull(tagImage, null);
+		imageChanged(tagImage);
 	}
 	
 	/**
@@ -164,7 +605,7 @@ public class DockerCommands {
 	 */
 	public void pushImage(String tagImage) throws DockerException, InterruptedException
 	{
-		this.docker.push(tagImage);
+		getDockerClient().push(tagImage);
 	}
 	
 	/**
@@ -179,7 +620,8 @@ public class DockerCommands {
 	 */
 	public void pullImage(String tagImage, String AUTH_EMAIL, String AUTH_USERNAME, String AUTH_PASSWORD) throws DockerException, InterruptedException
 	{
-		this.docker.pull(tagImage, RegistrationAuth.getAuth(AUTH_EMAIL, AUTH_USERNAME, AUTH_PASSWORD));
+		getPullManager().pull(tagImage, RegistrationAuth.getAuth(AUTH_EMAIL, AUTH_USERNAME, AUTH_PASSWORD));
+		imageChanged(tagImage);
 	}
 	
 	/**
@@ -194,11 +636,15 @@ public class DockerCommands {
 	 */
 	public void pushImage(String tagImage, String AUTH_EMAIL, String AUTH_USERNAME, String AUTH_PASSWORD) throws DockerException, InterruptedException
 	{
-		this.docker.push(tagImage, RegistrationAuth.getAuth(AUTH_EMAIL, AUTH_USERNAME, AUTH_PASSWORD));
+		getDockerClient().push(tagImage, RegistrationAuth.getAuth(AUTH_EMAIL, AUTH_USERNAME, AUTH_PASSWORD));
 	}
 	
 	/**
 	 * Create an Image with Dockerfile and a name
+	 * <p>
+	 * The Image is built only if it does not exist or if the Dockerfile or the context changed
+	 * since its build, see {@link BuildCache}.
+	 * </p>
 	 * 
 	 * @param pathDockerFile Path of Dockerfile
 	 * @param nameImage Name to use for new Image
@@ -208,10 +654,7 @@ public class DockerCommands {
 	 */
 	public void createImage(String pathDockerFile, String nameImage) throws DockerException, InterruptedException, IOException
 	{
-		if (!existImage(nameImage))
-		{		
-			this.docker.build(Paths.get(pathDockerFile), nameImage);
-		}
+		buildImage(pathDockerFile, nameImage, null);
 	}
 	
 	/**
@@ -226,12 +669,29 @@ public class DockerCommands {
 	 */
 	public void createImage(String pathDockerFile, String nameImage, String buildargs) throws DockerException, InterruptedException, IOException
 	{
-		if (!existImage(nameImage))
-		{						
-			BuildParam buildParam = BuildParam.create("buildargs", URLEncoder.encode(buildargs, "UTF-8"));
-			
-			this.docker.build(Paths.get(pathDockerFile), nameImage, buildParam);
+		buildImage(pathDockerFile, nameImage, buildargs);
+	}
+	
+	/**
+	 * Build the Image if the hash of its inputs differs from the label of the existing Image
+	 */
+	private void buildImage(String pathDockerFile, String nameImage, String buildargs) throws DockerException, InterruptedException, IOException
+	{
+		String hash = BuildCache.hash(pathDockerFile, buildargs);
+		if (existImage(nameImage) && hash.equals(BuildCache.storedHash(getDockerClient(), nameImage)))
+		{
+			return;
+		}
+		
+		List<BuildParam> params = new ArrayList<BuildParam>();
+		params.add(BuildParam.create("labels", URLEncoder.encode("{\"" + BuildCache.LABEL + "\":\"" + hash + "\"}", "UTF-8")));
+		if (buildargs != null)
+		{
+			params.add(BuildParam.create("buildargs", URLEncoder.encode(buildargs, "UTF-8")));
 		}
+		
+		getDockerClient().build(Paths.get(pathDockerFile), nameImage, params.toArray(new BuildParam[params.size()]));
+		imageChanged(nameImage.contains(":") ? nameImage : nameImage + ":latest");
 	}
 	
 	/**
@@ -242,32 +702,123 @@ public class DockerCommands {
 	 */
 	public void deleteAllImage() throws DockerException, InterruptedException
 	{
-		
-		List<Image> images = this.docker.listImages(ListImagesParam.allImages(false));
-		
-		for (Image i : images)
+		FleetProvisioner.Report report = deleteImages(null, null);
+		if (report.getFailures() > 0)
 		{
-			this.docker.removeImage(i.id());
+			throw new DockerException(report.getFailures() + " Image(s) not removed", report.getFirstError());
 		}
-
 	}
 	
-	/*
-	 *	METHODS FOR CONTAINERS
-	 */
-				 
 	/**
-	 * Returns True if an Image has the name 'nameImage', False otherwise
+	 * Delete the Images matching filters, in parallel, the children before their parents
 	 * 
-	 * @param nameContainer name to check
-	 * @param containerRunning True to check containers (running and no-running Containers), false for only no-running Containers 
-	 * @return True if 'nameContainer' is already used
+	 * @param label Label of the Images, 'key' or 'key=value', null for all
+	 * @param namePattern Regular expression found in a tag, null for all
+	 * @return Report with the result of each Image
 	 * @throws DockerException Raise if there is error with API
 	 * @throws InterruptedException Raise if Thread is interrupted
+	 * 
+	 * @see BulkDeleter#deleteImages(String, String)
 	 */
-	public boolean existContainer(String nameContainer, boolean containerRunning) throws DockerException, InterruptedException
+	public FleetProvisioner.Report deleteImages(String label, String namePattern) throws DockerException, InterruptedException
 	{
-		List<Container> containers = this.docker.listContainers(ListContainersParam.allContainers(!containerRunning));
+		FleetProvisioner.Report report = new BulkDeleter(getDockerClient(), DEFAULT_CONCURRENT_DELETIONS).deleteImages(label, namePattern);
+		reloadImages();
+		return report;
+	}
+	
+	/**
+	 * Creates an Image from the files of a Container
+	 * 
+	 * @param containerId Id of Container to commit
+	 * @param repository Repository of the new Image
+	 * @param tag Tag of the new Image
+	 * @param labels Labels of the new Image
+	 * @param comment Message of the commit
+	 * @return Id of the new Image
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public String commitContainer(String containerId, String repository, String tag, Map<String, String> labels, String comment) throws DockerException, InterruptedException
+	{
+		ContainerConfig config = ContainerConfig.builder().labels(labels).build();
+		String imageId = getDockerClient().commitContainer(containerId, repository, tag, config, comment, null).id();
+		imageChanged(repository + ":" + (tag != null ? tag : "latest"));
+		return imageId;
+	}
+	
+	/**
+	 * Deletes an Image
+	 * 
+	 * @param nameOrId Name with tag, or Id, of Image to delete
+	 * @return True if deleted, False if it is used by a Container
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public boolean deleteImage(String nameOrId) throws DockerException, InterruptedException
+	{
+		try
+		{
+			getDockerClient().removeImage(nameOrId);
+		}
+		catch (ConflictException e)
+		{
+			return false;
+		}
+		imageChanged(nameOrId);
+		return true;
+	}
+	
+	/**
+	 * Refresh the names of Images in the cache after a change made by this instance
+	 * 
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	void reloadImages() throws DockerException, InterruptedException
+	{
+		if (this.index != null)
+		{
+			this.index.reloadImages();
+		}
+	}
+	
+	/**
+	 * Refresh one Image in the cache after a change made by this instance
+	 * 
+	 * @param nameOrId Tag or id of the Image changed
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	void imageChanged(String nameOrId) throws DockerException, InterruptedException
+	{
+		if (this.index != null)
+		{
+			this.index.imageChanged(nameOrId);
+		}
+	}
+	
+	/*
+	 *	METHODS FOR CONTAINERS
+	 */
+				 
+	/**
+	 * Returns True if an Image has the name 'nameImage', False otherwise
+	 * 
+	 * @param nameContainer name to check
+	 * @param containerRunning True to check containers (running and no-running Containers), false for only no-running Containers 
+	 * @return True if 'nameContainer' is already used
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public boolean existContainer(String nameContainer, boolean containerRunning) throws DockerException, InterruptedException
+	{
+		if (this.index != null)
+		{
+			return this.index.existContainer(nameContainer, containerRunning);
+		}
+		
+		List<Container> containers = getDockerClient().listContainers(ListContainersParam.allContainers(!containerRunning));
 		
 		if (containers != null)
 		{
@@ -292,6 +843,45 @@ public class DockerCommands {
 		return false;
 	}
 	
+	/**
+	 * Returns for each name if a Container has this name
+	 * <p>
+	 * Without cache, the Containers are listed only once for all the names.
+	 * </p>
+	 * 
+	 * @param namesContainer names to check
+	 * @param containerRunning True to check containers (running and no-running Containers), false for only no-running Containers 
+	 * @return Map of each name to True if it is used
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public Map<String, Boolean> existContainers(Collection<String> namesContainer, boolean containerRunning) throws DockerException, InterruptedException
+	{
+		if (this.index != null)
+		{
+			return this.index.existContainers(namesContainer, containerRunning);
+		}
+		
+		Set<String> used = new HashSet<>();
+		for (Container c : getDockerClient().listContainers(ListContainersParam.allContainers(!containerRunning)))
+		{
+			for (String name : c.names())
+			{
+				if (name.length() > 0)
+				{
+					used.add(name.substring(1));
+				}
+			}
+		}
+		
+		Map<String, Boolean> result = new LinkedHashMap<>();
+		for (String name : namesContainer)
+		{
+			result.put(name, used.contains(name));
+		}
+		return result;
+	}
+	
 	/**
 	 * Create a Container with ports binding
 	 * 
@@ -319,6 +909,34 @@ public class DockerCommands {
 		
 	}
 	
+	/**
+	 * Create a Container with ports binding on other ports of the host
+	 * 
+	 * @param ports Port of the container to bind with the host
+	 * @param hostPorts Port of the host for each port of 'ports'
+	 * @param nameContainer Name of container to create
+	 * @param nameImage Name of image to use for creation of container
+	 * @return Id of container created
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public String createContainer(String[] ports, String[] hostPorts, String nameContainer, String nameImage) throws DockerException, InterruptedException
+	{
+	
+		if (!this.existContainer(nameContainer, false))
+		{
+			final Map<String, List<PortBinding>> portBindings = getPorBinding(ports, hostPorts);
+			
+			final HostConfig hostConfig = HostConfig.builder()
+				.portBindings(portBindings).build();
+
+			return createContainer(ports, nameContainer, nameImage, hostConfig);
+		}
+		
+		return null;
+		
+	}
+	
 	/**
 	 * Create a Container with ports binding and mount
 	 * 
@@ -383,13 +1001,25 @@ public class DockerCommands {
 	 * @param ports List of String with ports to Bind with host
 	 * @return Map of ports for binding
 	 */
-	private Map<String, List<PortBinding>> getPorBinding(String[] ports)
+	static Map<String, List<PortBinding>> getPorBinding(String[] ports)
+	{
+		return getPorBinding(ports, ports);
+	}
+	
+	/**
+	 * Returns a map for Ports Bindig on other ports of the host
+	 * 
+	 * @param ports List of String with ports of the container
+	 * @param hostPorts List of String with the port of the host for each port of 'ports'
+	 * @return Map of ports for binding
+	 */
+	static Map<String, List<PortBinding>> getPorBinding(String[] ports, String[] hostPorts)
 	{
 		final Map<String, List<PortBinding>> portBindings = new HashMap<>();
-		for (String port : ports) {
-		    List<PortBinding> hostPorts = new ArrayList<>();
-		    hostPorts.add(PortBinding.of("0.0.0.0", port));
-		    portBindings.put(port, hostPorts);
+		for (int i = 0; i < ports.length; i++) {
+		    List<PortBinding> bindings = new ArrayList<>();
+		    bindings.add(PortBinding.of("0.0.0.0", hostPorts[i]));
+		    portBindings.put(ports[i], bindings);
 		}
 		
 		return portBindings;
@@ -407,12 +1037,33 @@ public class DockerCommands {
 	 * @throws InterruptedException Raise if Thread is interrupted
 	 */
 	private String createContainer(String[] ports, String nameContainer, String nameImage, HostConfig hostConfig) throws DockerException, InterruptedException
+	{
+		return createContainer(ports, nameContainer, nameImage, hostConfig, null);
+	}
+	
+	/**
+	 * Creation of Container with host Configuration and labels, without check of its existence
+	 * 
+	 * @param ports List of ports to bind with Host
+	 * @param nameContainer Name of Container to create
+	 * @param nameImage name of Image to use for creation of Container
+	 * @param hostConfig Configuration of Host for the creation of Container
+	 * @param labels Labels of the Container, null for none
+	 * @return Id of Container created
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public String createContainer(String[] ports, String nameContainer, String nameImage, HostConfig hostConfig, Map<String, String> labels) throws DockerException, InterruptedException
 	{
 		final ContainerConfig containerConfig = ContainerConfig.builder()
 				.hostConfig(hostConfig).image(nameImage).exposedPorts(ports)
-				.tty(true).build();
+				.labels(labels).tty(true).build();
 
-		final ContainerCreation creation = this.docker.createContainer( containerConfig, nameContainer);
+		final ContainerCreation creation = getDockerClient().createContainer( containerConfig, nameContainer);
+		if (this.index != null)
+		{
+			this.index.containerCreated(creation.id(), nameContainer);
+		}
 		return creation.id();
 	}
 	
@@ -427,7 +1078,11 @@ public class DockerCommands {
 	{
 		if (id != null)
 		{
-			this.docker.startContainer(id);
+			getDockerClient().startContainer(id);
+			if (this.index != null)
+			{
+				this.index.containerState(id, true);
+			}
 		}
 		else
 		{
@@ -447,13 +1102,58 @@ public class DockerCommands {
 	{
 		if (this.existContainer(nameContainer, true))
 		{
-			this.docker.stopContainer(nameContainer, 20);
+			getDockerClient().stopContainer(nameContainer, 20);
+			if (this.index != null)
+			{
+				this.index.containerState(nameContainer, false);
+			}
 			return true;
 		}
 		
 		return false;
 	}
 	
+	/**
+	 * Pauses the processes of a running Container
+	 * 
+	 * @param id Id or name of Container to pause
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public void pauseContainer(String id) throws DockerException, InterruptedException
+	{
+		getDockerClient().pauseContainer(id);
+	}
+	
+	/**
+	 * Resumes the processes of a paused Container
+	 * 
+	 * @param id Id or name of Container to unpause
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public void unpauseContainer(String id) throws DockerException, InterruptedException
+	{
+		getDockerClient().unpauseContainer(id);
+	}
+	
+	/**
+	 * Renames a Container
+	 * 
+	 * @param id Id of Container to rename
+	 * @param newName New name of the Container
+	 * @throws DockerException Raise if there is error with API, as when the name is used
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public void renameContainer(String id, String newName) throws DockerException, InterruptedException
+	{
+		getDockerClient().renameContainer(id, newName);
+		if (this.index != null)
+		{
+			this.index.containerRenamed(id, newName);
+		}
+	}
+	
 	/**
 	 * Deletes a Container 
 	 * 
@@ -468,13 +1168,33 @@ public class DockerCommands {
 		
 		if (this.existContainer(nameContainer, false) && stopContainer == true)
 		{
-			this.docker.removeContainer(nameContainer);
+			getDockerClient().removeContainer(nameContainer);
+			if (this.index != null)
+			{
+				this.index.containerRemoved(nameContainer);
+			}
 			return true;
 		}
 		
 		return false;
 	}
 	
+	/**
+	 * Removes a stopped Container
+	 * 
+	 * @param containerId Id or name of Container to remove
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public void removeContainer(String containerId) throws DockerException, InterruptedException
+	{
+		getDockerClient().removeContainer(containerId);
+		if (this.index != null)
+		{
+			this.index.containerRemoved(containerId);
+		}
+	}
+	
 	/**
 	 * Delete all container on host
 	 * 
@@ -483,19 +1203,38 @@ public class DockerCommands {
 	 */
 	public void deleteAllContainer() throws DockerException, InterruptedException
 	{
-		List<Container> containers = this.docker.listContainers(ListContainersParam.allContainers(false));
-		
-		for (Container c : containers)
+		FleetProvisioner.Report report = deleteContainers(null, null);
+		if (report.getFailures() > 0)
 		{
-			this.docker.stopContainer(c.id(), 20);
+			throw new DockerException(report.getFailures() + " Container(s) not removed", report.getFirstError());
 		}
-		
-		containers = this.docker.listContainers(ListContainersParam.allContainers(true));
-		
-		for (Container c : containers)
+	}
+	
+	/**
+	 * Stop and delete the Containers matching filters, in parallel
+	 * 
+	 * @param label Label of the Containers, 'key' or 'key=value', null for all
+	 * @param namePattern Regular expression found in the name, null for all
+	 * @return Report with the result of each Container
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 * 
+	 * @see BulkDeleter#deleteContainers(String, String)
+	 */
+	public FleetProvisioner.Report deleteContainers(String label, String namePattern) throws DockerException, InterruptedException
+	{
+		FleetProvisioner.Report report = new BulkDeleter(getDockerClient(), DEFAULT_CONCURRENT_DELETIONS).deleteContainers(label, namePattern);
+		if (this.index != null)
 		{
-			this.docker.removeContainer(c.id());
+			for (FleetProvisioner.Instance instance : report.getInstances())
+			{
+				if (instance.getError() == null)
+				{
+					this.index.containerRemoved(instance.getNameContainer());
+				}
+			}
 		}
+		return report;
 	}
 	
 	/**
@@ -511,11 +1250,137 @@ public class DockerCommands {
 	 */
 	public void addFileToContainer(String pathFile, String containerId, String pathFromContainer) throws DockerCertificateException, DockerException, InterruptedException, IOException
 	{
-		
-		InputStream targetStream = new FileInputStream(new File(pathFile));
-        
-    	this.docker.copyToContainer(targetStream, containerId, pathFromContainer);
-    
+		File file = new File(pathFile);
+		InputStream targetStream = new FileInputStream(file);
+		if (isCompressed(file.length()))
+		{
+			targetStream = Utils.createGzipStream(targetStream);
+		}
+		try
+		{
+			getDockerClient().copyToContainer(targetStream, containerId, pathFromContainer);
+		}
+		finally
+		{
+			targetStream.close();
+		}
+	}
+	
+	/**
+	 * Add the files of a directory into container, without temporary archive on disk
+	 * <p>
+	 * The tar archive is produced on the fly and sent while it is written.
+	 * </p>
+	 * 
+	 * @param pathDirectory Directory with the files to add into Container
+	 * @param containerId Id of Container to use
+	 * @param pathFromContainer Path from Container to add files
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 * @throws IOException Raise if there is an error with Input/Output stream
+	 * 
+	 * @see Utils#createTarStream(String)
+	 */
+	public void addDirectoryToContainer(String pathDirectory, String containerId, String pathFromContainer) throws DockerException, InterruptedException, IOException
+	{
+		addDirectoryToContainer(new TarArchiveBuilder(pathDirectory), containerId, pathFromContainer);
+	}
+	
+	/**
+	 * Add the files of a directory already scanned into container
+	 * <p>
+	 * The same builder can be sent to several Containers at the same time, the directory is
+	 * scanned once and each archive is produced on the fly.
+	 * </p>
+	 * 
+	 * @param builder Builder of the archive of the directory
+	 * @param containerId Id of Container to use
+	 * @param pathFromContainer Path from Container to add files
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 * @throws IOException Raise if there is an error with Input/Output stream
+	 */
+	public void addDirectoryToContainer(TarArchiveBuilder builder, String containerId, String pathFromContainer) throws DockerException, InterruptedException, IOException
+	{
+		long bytes = 0;
+		for (TarArchiveBuilder.Entry entry : builder.getEntries())
+		{
+			bytes += entry.getSize();
+		}
+		InputStream tarStream = Utils.createTarStream(builder, null, isCompressed(bytes));
+		try
+		{
+			getDockerClient().copyToContainer(tarStream, containerId, pathFromContainer);
+		}
+		finally
+		{
+			tarStream.close();
+		}
+	}
+	
+	/**
+	 * Copy files or a directory of a Container into a local directory
+	 * <p>
+	 * The archive is read while it is received, the files are written by several threads and
+	 * never held whole in memory.
+	 * </p>
+	 * 
+	 * @param containerId Id of Container to use
+	 * @param pathInContainer Path of the file or directory into Container
+	 * @param localDirectory Directory where the files are written
+	 * @param glob Glob of the names of the files to copy, as 'output/**.xml', null for all
+	 * @return Report with the SHA-256 of each file copied
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 * @throws IOException Raise if there is an error with Input/Output stream
+	 */
+	public ArchiveExtractor.Report copyFromContainer(String containerId, String pathInContainer, String localDirectory, String glob) throws DockerException, InterruptedException, IOException
+	{
+		return copyFromContainer(containerId, pathInContainer, localDirectory, glob, null);
+	}
+	
+	/**
+	 * Copy files or a directory of a Container into a local directory and verify their checksums
+	 * 
+	 * @param containerId Id of Container to use
+	 * @param pathInContainer Path of the file or directory into Container
+	 * @param localDirectory Directory where the files are written
+	 * @param glob Glob of the names of the files to copy, null for all
+	 * @param expected SHA-256 expected by name of file in the archive, see {@link ArchiveExtractor#parseChecksums(byte[])}
+	 * @return Report with the SHA-256 of each file copied and the files whose checksum is not the expected one
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 * @throws IOException Raise if there is an error with Input/Output stream
+	 */
+	public ArchiveExtractor.Report copyFromContainer(String containerId, String pathInContainer, String localDirectory, String glob, Map<String, String> expected) throws DockerException, InterruptedException, IOException
+	{
+		InputStream tarStream = getDockerClient().archiveContainer(containerId, pathInContainer);
+		try
+		{
+			ArchiveExtractor.Report report = new ArchiveExtractor(ARCHIVE_WRITERS).extract(tarStream, Paths.get(localDirectory), glob, expected);
+			if (!report.getMismatches().isEmpty())
+			{
+				System.err.println("Checksums not expected for " + report.getMismatches() + " from " + containerId);
+			}
+			return report;
+		}
+		finally
+		{
+			tarStream.close();
+		}
+	}
+	
+	/**
+	 * Returns True if an archive sent to a Container is compressed
+	 * 
+	 * @param payloadBytes Size of the files of the archive
+	 * @return True if the archive must be compressed with gzip
+	 * 
+	 * @see DockerCommands.Builder#compression(TransferCompression)
+	 */
+	public boolean isCompressed(long payloadBytes)
+	{
+		return this.compression.isCompressed(this.endpoint, payloadBytes);
 	}
 	
 	/* OTHERS METHODS */
@@ -530,22 +1395,434 @@ public class DockerCommands {
 	 */
 	public String getIpAddress(String nameContainer) throws DockerException, InterruptedException
 	{
-		return docker.inspectContainer(nameContainer).networkSettings().ipAddress();
+		return getDockerClient().inspectContainer(nameContainer).networkSettings().ipAddress();
+	}
+	
+	/**
+	 * Returns the addresses of the published ports of a Container
+	 * <p>
+	 * By the host, a port bound on all interfaces is reached by the loopback address, or by the host
+	 * of the endpoint for a remote daemon.
+	 * </p>
+	 * 
+	 * @param containerId Id or name of the running Container
+	 * @param containerAddress True for the Ip of the Container and its ports, False for the ports bound on the host
+	 * @return Addresses of the ports, sorted by port of the Container
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 * 
+	 * @see ReadinessProber
+	 */
+	public List<InetSocketAddress> getEndpoints(String containerId, boolean containerAddress) throws DockerException, InterruptedException
+	{
+		NetworkSettings settings = getDockerClient().inspectContainer(containerId).networkSettings();
+		List<InetSocketAddress> endpoints = new ArrayList<InetSocketAddress>();
+		if (settings.ports() == null)
+		{
+			return endpoints;
+		}
+		// The ports published on all the interfaces of a remote daemon are reached on its host
+		String daemonHost = TransferCompression.isRemote(this.endpoint) ? URI.create(this.endpoint).getHost() : null;
+		
+		for (Map.Entry<String, List<PortBinding>> port : new TreeMap<String, List<PortBinding>>(settings.ports()).entrySet())
+		{
+			if (!port.getKey().endsWith("/tcp"))
+			{
+				continue;
+			}
+			if (containerAddress)
+			{
+				int containerPort = Integer.parseInt(port.getKey().substring(0, port.getKey().indexOf('/')));
+				endpoints.add(new InetSocketAddress(settings.ipAddress(), containerPort));
+			}
+			else if (port.getValue() != null && !port.getValue().isEmpty())
+			{
+				PortBinding binding = port.getValue().get(0);
+				String hostIp = binding.hostIp();
+				if (hostIp == null || hostIp.isEmpty() || hostIp.equals("0.0.0.0") || hostIp.equals("::"))
+				{
+					endpoints.add(daemonHost != null ? new InetSocketAddress(daemonHost, Integer.parseInt(binding.hostPort()))
+							: new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(binding.hostPort())));
+				}
+				else
+				{
+					endpoints.add(new InetSocketAddress(hostIp, Integer.parseInt(binding.hostPort())));
+				}
+			}
+		}
+		return endpoints;
 	}
 	
 	/**
 	 * Launch commands in Container 
+	 * <p>
+	 * The command runs in background, its output is written on the standard and error outputs.
+	 * </p>
 	 * 
 	 * @param containerId Id of Container
 	 * @param command List of commands to execute inside the Container
+	 * @return Future completed with the exit code of the command
 	 * @throws DockerException Raise if there is error with API
 	 * @throws InterruptedException Raise if Thread is interrupted
 	 * @throws IOException Raise if there is an error with Input/Output stream
+	 * 
+	 * @see ExecManager
 	 */
-	public void commandInContainer(String containerId, String[] command) throws DockerException, InterruptedException, IOException
+	public CompletableFuture<Integer> commandInContainer(String containerId, String[] command) throws DockerException, InterruptedException, IOException
 	{
-    	ExecCreation execId = this.docker.execCreate(containerId, command);
-    	LogStream stream = this.docker.execStart(execId.id(), DockerClient.ExecStartParameter.TTY);
+		return commandInContainer(containerId, command, System.out, System.err, 0);
 	}
 	
+	/**
+	 * Launch commands in Container with the sinks of its output
+	 * 
+	 * @param containerId Id of Container
+	 * @param command List of commands to execute inside the Container
+	 * @param stdout Sink of the standard output, null to discard it
+	 * @param stderr Sink of the error output, null to discard it
+	 * @param timeoutMillis Maximum duration of the command, 0 for no limit
+	 * @return Future completed with the exit code of the command
+	 * 
+	 * @see ExecManager#exec(String, String[], OutputStream, OutputStream, long)
+	 */
+	public CompletableFuture<Integer> commandInContainer(String containerId, String[] command, OutputStream stdout, OutputStream stderr, long timeoutMillis)
+	{
+		return getExecManager().exec(containerId, command, stdout, stderr, timeoutMillis);
+	}
+	
+	/**
+	 * <b>Builder of DockerCommands with a tuned DockerClient</b>
+	 * 
+	 * <p>The values not set keep the values of the environment (DOCKER_HOST, DOCKER_CERT_PATH) and
+	 * the defaults of {@link DefaultDockerClient}.</p>
+	 * 
+	 * <p>Properties read by {@link Builder#fromProperties(Properties)} :
+	 * <ul>
+	 * <li>dockerUri : endpoint, as unix:///var/run/docker.sock, tcp://host:2375 or ssh://user@host</li>
+	 * <li>dockerConnectionPoolSize : maximum number of connections to the daemon</li>
+	 * <li>dockerConnectTimeout : timeout of connection, in milliseconds, 5000 by default</li>
+	 * <li>dockerReadTimeout : timeout of read, in milliseconds, 0 for none, 30000 by default</li>
+	 * <li>dockerKeepAlive : False to close the connection after each request</li>
+	 * <li>dockerConcurrentPulls : maximum number of Images pulled at the same time</li>
+	 * <li>dockerMetrics : True to record the metrics of the calls, registered in JMX under the endpoint</li>
+	 * <li>dockerCompression : none, gzip or auto, compression of the archives sent to the Containers</li>
+	 * <li>dockerSshIdentity : private key of an ssh:// endpoint, ~/.ssh/id_rsa by default</li>
+	 * <li>dockerSshKnownHosts : known hosts of an ssh:// endpoint, ~/.ssh/known_hosts by default</li>
+	 * <li>dockerSshCommand : remote command connecting to the Docker socket, 'docker system dial-stdio' by default</li>
+	 * <li>dockerSshMaxChannels : maximum number of channels of the SSH session, 10 by default</li>
+	 * <li>dockerLogDirectory : directory of the logs of the Containers, 'logs' by default</li>
+	 * <li>dockerLogMaxBytes : maximum size of a file of logs, 64 MiB by default, 0 for no limit</li>
+	 * <li>dockerLogMaxAge : maximum age of a file of logs, in seconds, one day by default, 0 for no limit</li>
+	 * <li>dockerLogMaxFiles : number of rolled files of logs kept by Container, 5 by default</li>
+	 * </ul>
+	 * </p>
+	 */
+	public static class Builder {
+		
+		private String uri;
+		private Integer connectionPoolSize;
+		private Long connectTimeoutMillis;
+		private Long readTimeoutMillis;
+		private boolean keepAlive = true;
+		private int maxConcurrentPulls = DEFAULT_CONCURRENT_PULLS;
+		private boolean metrics;
+		private TransferCompression compression = TransferCompression.NONE;
+		private String sshIdentity;
+		private String sshKnownHosts;
+		private String sshCommand;
+		private int sshMaxChannels = SshTunnel.DEFAULT_MAX_CHANNELS;
+		private LogCollector.Rotation logRotation = DEFAULT_LOG_ROTATION;
+		
+		/**
+		 * Set the values present in properties
+		 * 
+		 * @param prop Properties of configuration
+		 * @return This builder
+		 */
+		public Builder fromProperties(Properties prop)
+		{
+			if (prop.getProperty("dockerUri") != null)
+			{
+				uri(prop.getProperty("dockerUri"));
+			}
+			if (prop.getProperty("dockerConnectionPoolSize") != null)
+			{
+				connectionPoolSize(Integer.parseInt(prop.getProperty("dockerConnectionPoolSize")));
+			}
+			if (prop.getProperty("dockerConnectTimeout") != null)
+			{
+				connectTimeoutMillis(Long.parseLong(prop.getProperty("dockerConnectTimeout")));
+			}
+			if (prop.getProperty("dockerReadTimeout") != null)
+			{
+				readTimeoutMillis(Long.parseLong(prop.getProperty("dockerReadTimeout")));
+			}
+			if (prop.getProperty("dockerKeepAlive") != null)
+			{
+				keepAlive(Boolean.parseBoolean(prop.getProperty("dockerKeepAlive")));
+			}
+			if (prop.getProperty("dockerConcurrentPulls") != null)
+			{
+				maxConcurrentPulls(Integer.parseInt(prop.getProperty("dockerConcurrentPulls")));
+			}
+			if (prop.getProperty("dockerMetrics") != null)
+			{
+				metrics(Boolean.parseBoolean(prop.getProperty("dockerMetrics")));
+			}
+			if (prop.getProperty("dockerCompression") != null)
+			{
+				compression(TransferCompression.valueOf(prop.getProperty("dockerCompression").trim().toUpperCase()));
+			}
+			if (prop.getProperty("dockerSshIdentity") != null || prop.getProperty("dockerSshKnownHosts") != null
+					|| prop.getProperty("dockerSshCommand") != null)
+			{
+				ssh(prop.getProperty("dockerSshIdentity"), prop.getProperty("dockerSshKnownHosts"), prop.getProperty("dockerSshCommand"));
+			}
+			if (prop.getProperty("dockerSshMaxChannels") != null)
+			{
+				sshMaxChannels(Integer.parseInt(prop.getProperty("dockerSshMaxChannels")));
+			}
+			if (prop.getProperty("dockerLogDirectory") != null || prop.getProperty("dockerLogMaxBytes") != null
+					|| prop.getProperty("dockerLogMaxAge") != null || prop.getProperty("dockerLogMaxFiles") != null)
+			{
+				logs(prop.getProperty("dockerLogDirectory", "logs"),
+						Long.parseLong(prop.getProperty("dockerLogMaxBytes", String.valueOf(64L << 20))),
+						TimeUnit.SECONDS.toMillis(Long.parseLong(prop.getProperty("dockerLogMaxAge", String.valueOf(TimeUnit.DAYS.toSeconds(1))))),
+						Integer.parseInt(prop.getProperty("dockerLogMaxFiles", "5")));
+			}
+			return this;
+		}
+		
+		/**
+		 * @param uri Endpoint of the daemon, unix:// for a Unix socket, tcp://, http:// or https:// for TCP, ssh://[user@]host[:port]
+		 * for the socket of a remote host through SSH
+		 * @return This builder
+		 */
+		public Builder uri(String uri)
+		{
+			this.uri = uri;
+			return this;
+		}
+		
+		/**
+		 * @param connectionPoolSize Maximum number of connections to the daemon
+		 * @return This builder
+		 */
+		public Builder connectionPoolSize(int connectionPoolSize)
+		{
+			this.connectionPoolSize = connectionPoolSize;
+			return this;
+		}
+		
+		/**
+		 * @param connectTimeoutMillis Timeout of connection, in milliseconds
+		 * @return This builder
+		 */
+		public Builder connectTimeoutMillis(long connectTimeoutMillis)
+		{
+			this.connectTimeoutMillis = connectTimeoutMillis;
+			return this;
+		}
+		
+		/**
+		 * @param readTimeoutMillis Timeout of read, in milliseconds, 0 for none
+		 * @return This builder
+		 */
+		public Builder readTimeoutMillis(long readTimeoutMillis)
+		{
+			this.readTimeoutMillis = readTimeoutMillis;
+			return this;
+		}
+		
+		/**
+		 * @param keepAlive False to close the connection after each request
+		 * @return This builder
+		 */
+		public Builder keepAlive(boolean keepAlive)
+		{
+			this.keepAlive = keepAlive;
+			return this;
+		}
+		
+		/**
+		 * @param maxConcurrentPulls Maximum number of Images pulled at the same time
+		 * @return This builder
+		 */
+		public Builder maxConcurrentPulls(int maxConcurrentPulls)
+		{
+			this.maxConcurrentPulls = maxConcurrentPulls;
+			return this;
+		}
+		
+		/**
+		 * @param metrics True to record the metrics of the calls and register them in JMX
+		 * @return This builder
+		 * 
+		 * @see InstrumentedDockerClient
+		 */
+		public Builder metrics(boolean metrics)
+		{
+			this.metrics = metrics;
+			return this;
+		}
+		
+		/**
+		 * @param compression Compression of the archives sent to the Containers
+		 * @return This builder
+		 * 
+		 * @see ParallelGzipOutputStream
+		 */
+		public Builder compression(TransferCompression compression)
+		{
+			this.compression = compression;
+			return this;
+		}
+		
+		/**
+		 * @param identity Private key of an ssh:// endpoint, null for ~/.ssh/id_rsa
+		 * @param knownHosts Known hosts of an ssh:// endpoint, null for ~/.ssh/known_hosts
+		 * @param command Remote command connecting to the Docker socket, null for 'docker system dial-stdio'
+		 * @return This builder
+		 * 
+		 * @see SshTunnel
+		 */
+		public Builder ssh(String identity, String knownHosts, String command)
+		{
+			this.sshIdentity = identity;
+			this.sshKnownHosts = knownHosts;
+			this.sshCommand = command;
+			return this;
+		}
+		
+		/**
+		 * @param sshMaxChannels Maximum number of channels of the SSH session, each of the two pools of connections of a client getting half of them
+		 * @return This builder
+		 */
+		public Builder sshMaxChannels(int sshMaxChannels)
+		{
+			this.sshMaxChannels = sshMaxChannels;
+			return this;
+		}
+		
+		/**
+		 * @param directory Directory of the logs of the Containers
+		 * @param maxBytes Maximum size of a file of logs, 0 for no limit
+		 * @param maxAgeMillis Maximum age of a file of logs, 0 for no limit
+		 * @param maxFiles Number of rolled files of logs kept by Container
+		 * @return This builder
+		 * 
+		 * @see LogCollector
+		 */
+		public Builder logs(String directory, long maxBytes, long maxAgeMillis, int maxFiles)
+		{
+			this.logRotation = new LogCollector.Rotation(directory, maxBytes, maxAgeMillis, maxFiles);
+			return this;
+		}
+		
+		/**
+		 * Register in JMX the metrics of a client, the name suffixed by #2, #3... when another
+		 * client of the same endpoint is already registered
+		 */
+		private static DockerMetrics registerMetrics(String clientName)
+		{
+			DockerMetrics dockerMetrics = new DockerMetrics(clientName);
+			for (int n = 2; ; n++)
+			{
+				try
+				{
+					dockerMetrics.registerMBeans();
+					return dockerMetrics;
+				}
+				catch (InstanceAlreadyExistsException e)
+				{
+					dockerMetrics = new DockerMetrics(clientName + "#" + n);
+				}
+				catch (JMException e)
+				{
+					System.err.println("Metrics not registered in JMX : " + e.getMessage());
+					return dockerMetrics;
+				}
+			}
+		}
+		
+		/**
+		 * Returns the DockerCommands with a new client
+		 * <p>
+		 * The client, its HTTP stack and its certificates are loaded by the first call to Docker,
+		 * so that the checks of the configuration done before stay cheap. An error about Certification
+		 * is raised by this first call, as the cause of an IllegalStateException.
+		 * </p>
+		 * 
+		 * @return Instance of DockerCommands
+		 * 
+		 * @see DockerCommands#getDockerClient()
+		 */
+		public DockerCommands build()
+		{
+			final String uri = this.uri;
+			final Integer connectionPoolSize = this.connectionPoolSize;
+			final Long connectTimeoutMillis = this.connectTimeoutMillis;
+			final Long readTimeoutMillis = this.readTimeoutMillis;
+			final boolean keepAlive = this.keepAlive;
+			String endpoint = uri != null ? uri : System.getenv("DOCKER_HOST");
+			final SshTunnel tunnel = endpoint != null && endpoint.startsWith("ssh://")
+					? new SshTunnel(endpoint, this.sshIdentity, this.sshKnownHosts, this.sshCommand, this.sshMaxChannels)
+					: null;
+			
+			// one MXBean by client, named after its endpoint
+			final DockerMetrics dockerMetrics = this.metrics ? registerMetrics(endpoint != null ? endpoint : "default") : null;
+			
+			// each pooled connection of a tunnel holds a channel of the session, and the client has two pools
+			final int poolSize = tunnel != null
+					? Math.min(connectionPoolSize != null ? connectionPoolSize : Integer.MAX_VALUE, Math.max(1, tunnel.getMaxChannels() / 2))
+					: (connectionPoolSize != null ? connectionPoolSize : DEFAULT_CONNECTION_POOL_SIZE);
+			
+			ClientFactory factory = (withoutReadTimeout) -> {
+				DefaultDockerClient.Builder client = DefaultDockerClient.fromEnv();
+				
+				if (tunnel != null)
+				{
+					client.uri(tunnel.start());
+					client.connectionPoolSize(poolSize);
+				}
+				else if (uri != null)
+				{
+					client.uri(uri.startsWith("tcp://")
+							? (client.dockerCertificates() != null ? "https://" : "http://") + uri.substring("tcp://".length())
+							: uri);
+				}
+				if (connectionPoolSize != null && tunnel == null)
+				{
+					client.connectionPoolSize(connectionPoolSize);
+				}
+				if (connectTimeoutMillis != null)
+				{
+					client.connectTimeoutMillis(connectTimeoutMillis);
+				}
+				if (withoutReadTimeout)
+				{
+					client.readTimeoutMillis(0);
+				}
+				else if (readTimeoutMillis != null)
+				{
+					client.readTimeoutMillis(readTimeoutMillis);
+				}
+				if (!keepAlive)
+				{
+					client.header("Connection", "close");
+				}
+				return dockerMetrics != null ? InstrumentedDockerClient.wrap(client.build(), dockerMetrics) : client.build();
+			};
+			return new DockerCommands(null, factory, this.maxConcurrentPulls, dockerMetrics, endpoint, this.compression, tunnel, this.logRotation,
+					poolSize);
+		}
+	}
+
+	/**
+	 * <p>Creation of the client on the first call</p>
+	 */
+	private interface ClientFactory {
+		
+		DockerClient create(boolean withoutReadTimeout) throws DockerCertificateException, IOException;
+	}
 }
@@ -0,0 +1,606 @@
+package com.gael.testdocker;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.DockerClient.EventsParam;
+import com.spotify.docker.client.DockerClient.ListContainersParam;
+import com.spotify.docker.client.DockerClient.ListImagesParam;
+import com.spotify.docker.client.EventStream;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.messages.Container;
+import com.spotify.docker.client.messages.Event;
+import com.spotify.docker.client.messages.Image;
+
+/**
+ * <b>In-memory index of the names of Images and Containers</b>
+ *
+ * <p>The index is loaded with one listing of Images and one listing of Containers, then kept
+ * fresh by the stream of Docker events, so the checks of existence are local lookups.</p>
+ *
+ * <p>An event of Image is applied with an inspection of this Image only, not a new listing.
+ * While the stream of events is disconnected, a name missing from the index is checked against
+ * the daemon with a filtered listing, or one listing for all the names of a bulk check.</p>
+ *
+ * @see DockerCommands#enableCache()
+ *
+ * @author bellaiche
+ * @version 1.0
+ *
+ */
+public class DockerIndex {
+
+	/**
+	 * Delay before a new subscription to the events, in milliseconds
+	 */
+	private static final long RECONNECT_DELAY = 1000;
+
+	private final DockerClient docker;
+
+	/**
+	 * Names of repositories of the Images, without tag, and 'repository:tag'
+	 */
+	private volatile Set<String> images = new HashSet<String>();
+
+	/**
+	 * Tags 'repository:tag' of the Images by id, source of 'images'
+	 */
+	private final Map<String, List<String>> imageTags = new HashMap<String, List<String>>();
+
+	/**
+	 * Containers by name, True if running
+	 */
+	private final Map<String, Boolean> containers = new ConcurrentHashMap<String, Boolean>();
+
+	/**
+	 * Names of Containers by id
+	 */
+	private final Map<String, String> containerNames = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * True while the index follows the stream of events
+	 */
+	private volatile boolean connected;
+
+	private volatile boolean closed;
+
+	private volatile EventStream events;
+
+	private Thread listener;
+
+	/**
+	 * Constructor DockerIndex
+	 *
+	 * @param docker Instance of DockerClient to index
+	 */
+	public DockerIndex(DockerClient docker)
+	{
+		this.docker = docker;
+	}
+
+	/**
+	 * Load the index and subscribe to the events
+	 *
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public synchronized void start() throws DockerException, InterruptedException
+	{
+		if (this.listener != null)
+		{
+			return;
+		}
+
+		subscribe();
+
+		this.listener = new Thread(this::listen, "docker-index-events");
+		this.listener.setDaemon(true);
+		this.listener.start();
+	}
+
+	/**
+	 * Stop to follow the events
+	 */
+	public void close()
+	{
+		this.closed = true;
+		this.connected = false;
+		EventStream stream = this.events;
+		if (stream != null)
+		{
+			stream.close();
+		}
+		if (this.listener != null)
+		{
+			this.listener.interrupt();
+		}
+	}
+
+	/**
+	 * Returns True if an Image has the name 'nameImage'
+	 *
+	 * @param nameImage name to check, with a tag as 'name:tag' to check only this tag
+	 * @return True if 'nameImage' is already used
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public boolean existImage(String nameImage) throws DockerException, InterruptedException
+	{
+		if (this.images.contains(nameImage))
+		{
+			return true;
+		}
+		if (this.connected)
+		{
+			return false;
+		}
+
+		for (Image i : this.docker.listImages(ListImagesParam.byName(nameImage)))
+		{
+			if (i.repoTags() != null)
+			{
+				for (String tag : i.repoTags())
+				{
+					if (repository(tag).equals(nameImage) || tag.equals(nameImage))
+					{
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns True if a Container has the name 'nameContainer'
+	 *
+	 * @param nameContainer name to check
+	 * @param containerRunning True to check only running Containers, False for all Containers
+	 * @return True if 'nameContainer' is already used
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public boolean existContainer(String nameContainer, boolean containerRunning) throws DockerException, InterruptedException
+	{
+		Boolean running = this.containers.get(nameContainer);
+		if (running != null)
+		{
+			return !containerRunning || running;
+		}
+		if (this.connected)
+		{
+			return false;
+		}
+
+		List<Container> found = this.docker.listContainers(ListContainersParam.allContainers(!containerRunning),
+				ListContainersParam.filter("name", "^/" + nameContainer + "$"));
+		return found != null && !found.isEmpty();
+	}
+
+	/**
+	 * Returns for each name if an Image has this name
+	 *
+	 * @param namesImage names to check, without tag
+	 * @return Map of each name to True if it is used, in the order of 'namesImage'
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public Map<String, Boolean> existImages(Collection<String> namesImage) throws DockerException, InterruptedException
+	{
+		Map<String, Boolean> result = new LinkedHashMap<String, Boolean>();
+		Set<String> listed = null;
+		for (String name : namesImage)
+		{
+			boolean exists = this.images.contains(name);
+			if (!exists && !this.connected)
+			{
+				if (listed == null)
+				{
+					listed = names(listTags());
+				}
+				exists = listed.contains(name);
+			}
+			result.put(name, exists);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns for each name if a Container has this name
+	 *
+	 * @param namesContainer names to check
+	 * @param containerRunning True to check only running Containers, False for all Containers
+	 * @return Map of each name to True if it is used, in the order of 'namesContainer'
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public Map<String, Boolean> existContainers(Collection<String> namesContainer, boolean containerRunning) throws DockerException, InterruptedException
+	{
+		Map<String, Boolean> result = new LinkedHashMap<String, Boolean>();
+		Set<String> listed = null;
+		for (String name : namesContainer)
+		{
+			Boolean running = this.containers.get(name);
+			if (running != null)
+			{
+				result.put(name, !containerRunning || running);
+				continue;
+			}
+			if (this.connected)
+			{
+				result.put(name, false);
+				continue;
+			}
+			if (listed == null)
+			{
+				listed = new HashSet<String>();
+				for (Container c : this.docker.listContainers(ListContainersParam.allContainers(!containerRunning)))
+				{
+					if (c.names() != null)
+					{
+						for (String containerName : c.names())
+						{
+							listed.add(containerName.startsWith("/") ? containerName.substring(1) : containerName);
+						}
+					}
+				}
+			}
+			result.put(name, listed.contains(name));
+		}
+		return result;
+	}
+
+	/**
+	 * Record a Container created, before its event is received
+	 *
+	 * @param id Id of the Container
+	 * @param nameContainer Name of the Container
+	 */
+	void containerCreated(String id, String nameContainer)
+	{
+		this.containerNames.put(id, nameContainer);
+		this.containers.put(nameContainer, false);
+	}
+
+	/**
+	 * Record the state of a Container, before its event is received
+	 *
+	 * @param idOrName Id or name of the Container
+	 * @param running True if the Container is running
+	 */
+	void containerState(String idOrName, boolean running)
+	{
+		String name = this.containerNames.containsKey(idOrName) ? this.containerNames.get(idOrName) : idOrName;
+		this.containers.replace(name, running);
+	}
+
+	/**
+	 * Record a Container renamed, before its event is received
+	 *
+	 * @param id Id of the Container
+	 * @param newName New name of the Container
+	 */
+	void containerRenamed(String id, String newName)
+	{
+		String oldName = this.containerNames.put(id, newName);
+		Boolean running = oldName != null ? this.containers.remove(oldName) : null;
+		this.containers.put(newName, running != null && running);
+	}
+
+	/**
+	 * Record a Container removed, before its event is received
+	 *
+	 * @param idOrName Id or name of the Container
+	 */
+	void containerRemoved(String idOrName)
+	{
+		String name = this.containerNames.containsKey(idOrName) ? this.containerNames.remove(idOrName) : idOrName;
+		this.containers.remove(name);
+		this.containerNames.values().remove(name);
+	}
+
+	/**
+	 * Reload the names of Images
+	 *
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	void reloadImages() throws DockerException, InterruptedException
+	{
+		Map<String, List<String>> tags = listTags();
+		synchronized (this.imageTags)
+		{
+			this.imageTags.clear();
+			this.imageTags.putAll(tags);
+			this.images = names(tags);
+		}
+	}
+
+	/**
+	 * Refresh one Image, after a change of its tags
+	 * <p>The tags known for this Image, or the tag given, are checked with one listing filtered
+	 * by reference, the Images of the other tags are not listed.</p>
+	 *
+	 * @param nameOrId Tag or id of the Image, as in the event or the call that changed it
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	void imageChanged(String nameOrId) throws DockerException, InterruptedException
+	{
+		List<String> references;
+		synchronized (this.imageTags)
+		{
+			List<String> known = this.imageTags.get(nameOrId);
+			if (known == null && nameOrId.startsWith("sha256:"))
+			{
+				// an Image unknown by its id only, as loaded or imported : its tags are unknown
+				references = null;
+			}
+			else
+			{
+				references = known != null ? new ArrayList<String>(known) : Collections.singletonList(nameOrId);
+			}
+		}
+		if (references == null)
+		{
+			reloadImages();
+			return;
+		}
+
+		Map<String, List<String>> found = new HashMap<String, List<String>>();
+		if (!references.isEmpty())
+		{
+			ListImagesParam[] filters = new ListImagesParam[references.size()];
+			for (int i = 0; i < filters.length; i++)
+			{
+				filters[i] = ListImagesParam.filter("reference", references.get(i));
+			}
+			for (Image i : this.docker.listImages(filters))
+			{
+				if (i.repoTags() != null && (i.id().equals(nameOrId) || !Collections.disjoint(i.repoTags(), references)))
+				{
+					found.put(i.id(), new ArrayList<String>(i.repoTags()));
+				}
+			}
+		}
+
+		synchronized (this.imageTags)
+		{
+			for (List<String> tags : this.imageTags.values())
+			{
+				tags.removeAll(references);
+			}
+			if (!found.containsKey(nameOrId) && this.imageTags.containsKey(nameOrId))
+			{
+				this.imageTags.get(nameOrId).clear();
+			}
+			for (Map.Entry<String, List<String>> image : found.entrySet())
+			{
+				// a tag moved to this Image is lost by the other one
+				for (List<String> tags : this.imageTags.values())
+				{
+					tags.removeAll(image.getValue());
+				}
+				this.imageTags.put(image.getKey(), image.getValue());
+			}
+			this.images = names(this.imageTags);
+		}
+	}
+
+	/**
+	 * Remove an Image deleted
+	 *
+	 * @param imageId Id of the Image
+	 */
+	void imageRemoved(String imageId)
+	{
+		synchronized (this.imageTags)
+		{
+			if (this.imageTags.remove(imageId) != null)
+			{
+				this.images = names(this.imageTags);
+			}
+		}
+	}
+
+	/**
+	 * Returns the tags of all the Images by id
+	 */
+	private Map<String, List<String>> listTags() throws DockerException, InterruptedException
+	{
+		Map<String, List<String>> tags = new HashMap<String, List<String>>();
+		for (Image i : this.docker.listImages(ListImagesParam.allImages()))
+		{
+			if (i.repoTags() != null)
+			{
+				tags.put(i.id(), new ArrayList<String>(i.repoTags()));
+			}
+		}
+		return tags;
+	}
+
+	/**
+	 * Returns the names to look up, repositories and 'repository:tag', of tags by id
+	 */
+	private static Set<String> names(Map<String, List<String>> tags)
+	{
+		Set<String> names = new HashSet<String>();
+		for (List<String> imageTags : tags.values())
+		{
+			for (String tag : imageTags)
+			{
+				names.add(repository(tag));
+				names.add(tag);
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * Load the index and open the stream of events
+	 */
+	private void subscribe() throws DockerException, InterruptedException
+	{
+		long since = System.currentTimeMillis() / 1000;
+
+		reloadImages();
+
+		this.containers.clear();
+		this.containerNames.clear();
+		for (Container c : this.docker.listContainers(ListContainersParam.allContainers()))
+		{
+			if (c.names() != null && !c.names().isEmpty())
+			{
+				String name = c.names().get(0).substring(1);
+				this.containerNames.put(c.id(), name);
+				this.containers.put(name, "running".equals(c.state()) || "paused".equals(c.state()));
+			}
+		}
+
+		this.events = this.docker.events(EventsParam.since(since), EventsParam.type(Event.Type.CONTAINER), EventsParam.type(Event.Type.IMAGE));
+		this.connected = true;
+	}
+
+	/**
+	 * Apply the events to the index, subscribe again if the stream is lost
+	 */
+	private void listen()
+	{
+		while (!this.closed)
+		{
+			try
+			{
+				if (this.events == null)
+				{
+					Thread.sleep(RECONNECT_DELAY);
+					subscribe();
+				}
+				while (this.events.hasNext())
+				{
+					apply(this.events.next());
+				}
+			}
+			catch (InterruptedException e)
+			{
+				return;
+			}
+			catch (RuntimeException | DockerException e)
+			{
+				if (!this.closed)
+				{
+					System.err.println("Docker events lost, index reloaded : " + e.getMessage());
+				}
+			}
+
+			this.connected = false;
+			EventStream stream = this.events;
+			this.events = null;
+			if (stream != null)
+			{
+				stream.close();
+			}
+		}
+	}
+
+	/**
+	 * Apply one event to the index
+	 */
+	private void apply(Event event) throws DockerException, InterruptedException
+	{
+		if (event.type() == Event.Type.IMAGE)
+		{
+			applyImage(event);
+			return;
+		}
+		if (event.type() != Event.Type.CONTAINER || event.actor() == null || event.action() == null)
+		{
+			return;
+		}
+
+		String id = event.actor().id();
+		String name = event.actor().attributes() != null ? event.actor().attributes().get("name") : null;
+		if (name == null)
+		{
+			return;
+		}
+
+		switch (event.action())
+		{
+			case "create":
+				this.containerNames.put(id, name);
+				this.containers.put(name, false);
+				break;
+			case "start":
+			case "restart":
+			case "unpause":
+				this.containerNames.put(id, name);
+				this.containers.put(name, true);
+				break;
+			case "die":
+			case "stop":
+				this.containers.replace(name, false);
+				break;
+			case "destroy":
+				this.containerNames.remove(id);
+				this.containers.remove(name);
+				break;
+			case "rename":
+				String oldName = event.actor().attributes().get("oldName");
+				Boolean running = oldName != null ? this.containers.remove(oldName.startsWith("/") ? oldName.substring(1) : oldName) : null;
+				this.containerNames.put(id, name);
+				this.containers.put(name, running != null && running);
+				break;
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * Apply one event of Image : the id of 'pull' is the tag, the name of 'tag' is the new tag,
+	 * 'untag' and 'delete' only give the id
+	 */
+	private void applyImage(Event event) throws DockerException, InterruptedException
+	{
+		if (event.actor() == null || event.actor().id() == null || event.action() == null)
+		{
+			return;
+		}
+		String id = event.actor().id();
+		String name = event.actor().attributes() != null ? event.actor().attributes().get("name") : null;
+		switch (event.action())
+		{
+			case "delete":
+				imageRemoved(id);
+				break;
+			case "tag":
+				imageChanged(name != null ? name : id);
+				break;
+			case "pull":
+			case "untag":
+			case "import":
+			case "load":
+				imageChanged(id);
+				break;
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * Returns the repository of a tag 'repository:tag'
+	 */
+	private static String repository(String tag)
+	{
+		int separator = tag.indexOf(":");
+		return separator < 0 ? tag : tag.substring(0, separator);
+	}
+}
@@ -0,0 +1,485 @@
+package com.gael.testdocker;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * <b>Metrics of the calls to the Docker API</b>
+ *
+ * <p>For each method of the DockerClient : a {@link LatencyHistogram} of its calls and the number
+ * of its errors. For the copies : the bytes sent to and read from the Containers. The metrics are
+ * recorded by {@link InstrumentedDockerClient}.</p>
+ *
+ * <p>The metrics are exposed :
+ * <ul>
+ * <li>in JMX, by {@link #registerMBeans()}, under <code>com.gael.testdocker:type=DockerClient,name="client"</code></li>
+ * <li>in the text format of Prometheus, by {@link #writePrometheus(Writer)} or on
+ * <code>/metrics</code> with {@link #startHttpServer(int)}</li>
+ * </ul>
+ * </p>
+ *
+ * @see DockerCommands#getMetrics()
+ *
+ * @author bellaiche
+ * @version 1.0
+ *
+ */
+public class DockerMetrics implements DockerMetricsMXBean {
+
+	/**
+	 * Domain of the MBeans
+	 */
+	public static final String JMX_DOMAIN = "com.gael.testdocker";
+
+	/**
+	 * Bounds of the buckets of the histograms of Prometheus, in seconds
+	 */
+	private static final double[] PROMETHEUS_BUCKETS = { 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 300 };
+
+	/**
+	 * <p>Metrics of one method of the client, in JMX</p>
+	 */
+	public interface OperationMXBean {
+
+		long getCount();
+
+		long getErrors();
+
+		double getMeanMillis();
+
+		double getP50Millis();
+
+		double getP90Millis();
+
+		double getP99Millis();
+
+		double getMaxMillis();
+	}
+
+	/**
+	 * <p>Metrics of one method of the client</p>
+	 */
+	public static class Operation implements OperationMXBean {
+
+		private final String name;
+
+		private final LatencyHistogram latency = new LatencyHistogram();
+
+		private final LongAdder errors = new LongAdder();
+
+		Operation(String name)
+		{
+			this.name = name;
+		}
+
+		/**
+		 * @return Name of the method
+		 */
+		public String getName()
+		{
+			return this.name;
+		}
+
+		/**
+		 * @return Latencies of the calls, failed calls included
+		 */
+		public LatencyHistogram getLatency()
+		{
+			return this.latency;
+		}
+
+		@Override
+		public long getCount()
+		{
+			return this.latency.getCount();
+		}
+
+		@Override
+		public long getErrors()
+		{
+			return this.errors.sum();
+		}
+
+		@Override
+		public double getMeanMillis()
+		{
+			return toMillis(this.latency.getMean());
+		}
+
+		@Override
+		public double getP50Millis()
+		{
+			return toMillis(this.latency.getPercentile(50));
+		}
+
+		@Override
+		public double getP90Millis()
+		{
+			return toMillis(this.latency.getPercentile(90));
+		}
+
+		@Override
+		public double getP99Millis()
+		{
+			return toMillis(this.latency.getPercentile(99));
+		}
+
+		@Override
+		public double getMaxMillis()
+		{
+			return toMillis(this.latency.getMax());
+		}
+
+		void record(long nanos, boolean failed)
+		{
+			this.latency.record(nanos);
+			if (failed)
+			{
+				this.errors.increment();
+			}
+		}
+
+		@Override
+		public String toString()
+		{
+			return this.name + " : " + this.latency + " errors=" + getErrors();
+		}
+	}
+
+	/**
+	 * Name of the client, in the names of the MBeans and the labels of Prometheus
+	 */
+	private final String clientName;
+
+	/**
+	 * Metrics by name of method, created on the first call
+	 */
+	private final ConcurrentMap<String, Operation> operations = new ConcurrentHashMap<String, Operation>();
+
+	private final LongAdder bytesToContainer = new LongAdder();
+
+	private final LongAdder bytesFromContainer = new LongAdder();
+
+	/**
+	 * MBean server, null until {@link #registerMBeans()}
+	 */
+	private volatile MBeanServer mbeanServer;
+
+	private HttpServer httpServer;
+
+	/**
+	 * Constructor DockerMetrics of the client named 'default'
+	 */
+	public DockerMetrics()
+	{
+		this("default");
+	}
+
+	/**
+	 * Constructor DockerMetrics
+	 *
+	 * @param clientName Name of the client, to distinguish several clients in the same JVM
+	 */
+	public DockerMetrics(String clientName)
+	{
+		this.clientName = clientName;
+	}
+
+	/**
+	 * @return Name of the client
+	 */
+	public String getClientName()
+	{
+		return this.clientName;
+	}
+
+	/**
+	 * Returns the metrics of a method, created if needed
+	 *
+	 * @param name Name of the method of DockerClient
+	 * @return Metrics of the method
+	 */
+	public Operation operation(String name)
+	{
+		Operation operation = this.operations.get(name);
+		if (operation == null)
+		{
+			Operation created = new Operation(name);
+			operation = this.operations.putIfAbsent(name, created);
+			if (operation == null)
+			{
+				operation = created;
+				MBeanServer server = this.mbeanServer;
+				if (server != null)
+				{
+					register(server, created);
+				}
+			}
+		}
+		return operation;
+	}
+
+	/**
+	 * @return Metrics of the methods already called, sorted by name
+	 */
+	public Map<String, Operation> getOperations()
+	{
+		return new TreeMap<String, Operation>(this.operations);
+	}
+
+	/**
+	 * Add bytes sent to a Container
+	 *
+	 * @param bytes Number of bytes
+	 */
+	public void addBytesToContainer(long bytes)
+	{
+		this.bytesToContainer.add(bytes);
+	}
+
+	/**
+	 * Add bytes read from a Container
+	 *
+	 * @param bytes Number of bytes
+	 */
+	public void addBytesFromContainer(long bytes)
+	{
+		this.bytesFromContainer.add(bytes);
+	}
+
+	@Override
+	public long getBytesToContainer()
+	{
+		return this.bytesToContainer.sum();
+	}
+
+	@Override
+	public long getBytesFromContainer()
+	{
+		return this.bytesFromContainer.sum();
+	}
+
+	@Override
+	public long getCalls()
+	{
+		long calls = 0;
+		for (Operation operation : this.operations.values())
+		{
+			calls += operation.getCount();
+		}
+		return calls;
+	}
+
+	@Override
+	public long getErrors()
+	{
+		long errors = 0;
+		for (Operation operation : this.operations.values())
+		{
+			errors += operation.getErrors();
+		}
+		return errors;
+	}
+
+	@Override
+	public String getPrometheus()
+	{
+		StringWriter writer = new StringWriter();
+		try
+		{
+			writePrometheus(writer);
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException(e);
+		}
+		return writer.toString();
+	}
+
+	/**
+	 * Register the MBeans of the client and of its methods, those of the methods called later are
+	 * registered on their first call
+	 *
+	 * @throws JMException Raise if the MBeans can not be registered, as when they already are
+	 */
+	public synchronized void registerMBeans() throws JMException
+	{
+		if (this.mbeanServer != null)
+		{
+			return;
+		}
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		server.registerMBean(this, objectName(null));
+		this.mbeanServer = server;
+		for (Operation operation : this.operations.values())
+		{
+			register(server, operation);
+		}
+	}
+
+	/**
+	 * Write the metrics in the text format of Prometheus
+	 *
+	 * @param writer Destination of the metrics
+	 * @throws IOException Raise if there is an error with the writer
+	 */
+	public void writePrometheus(Writer writer) throws IOException
+	{
+		Map<String, Operation> sorted = getOperations();
+
+		writer.write("# HELP docker_client_request_duration_seconds Latency of the calls to the Docker API.\n");
+		writer.write("# TYPE docker_client_request_duration_seconds histogram\n");
+		for (Operation operation : sorted.values())
+		{
+			LatencyHistogram latency = operation.getLatency();
+			long[] counts = latency.snapshot();
+			long total = 0;
+			for (long c : counts)
+			{
+				total += c;
+			}
+			String label = labels(operation.getName());
+			for (double bound : PROMETHEUS_BUCKETS)
+			{
+				long below = LatencyHistogram.countAtOrBelow(counts, (long) (bound * TimeUnit.SECONDS.toNanos(1)));
+				writer.write("docker_client_request_duration_seconds_bucket{" + label + ",le=\"" + format(bound) + "\"} " + below + "\n");
+			}
+			writer.write("docker_client_request_duration_seconds_bucket{" + label + ",le=\"+Inf\"} " + total + "\n");
+			writer.write("docker_client_request_duration_seconds_sum{" + label + "} " + format(latency.getSum() / 1e9) + "\n");
+			writer.write("docker_client_request_duration_seconds_count{" + label + "} " + total + "\n");
+		}
+
+		writer.write("# HELP docker_client_errors_total Failed calls to the Docker API.\n");
+		writer.write("# TYPE docker_client_errors_total counter\n");
+		for (Operation operation : sorted.values())
+		{
+			writer.write("docker_client_errors_total{" + labels(operation.getName()) + "} " + operation.getErrors() + "\n");
+		}
+
+		writer.write("# HELP docker_client_copied_bytes_total Bytes copied to and from the Containers.\n");
+		writer.write("# TYPE docker_client_copied_bytes_total counter\n");
+		writer.write("docker_client_copied_bytes_total{client=\"" + this.clientName + "\",direction=\"to_container\"} " + getBytesToContainer() + "\n");
+		writer.write("docker_client_copied_bytes_total{client=\"" + this.clientName + "\",direction=\"from_container\"} " + getBytesFromContainer() + "\n");
+		writer.flush();
+	}
+
+	/**
+	 * Serve the metrics in the text format of Prometheus on http://127.0.0.1:port/metrics
+	 *
+	 * @param port Port of the server, 0 for a free port
+	 * @return Port of the server
+	 * @throws IOException Raise if the port can not be bound
+	 */
+	public synchronized int startHttpServer(int port) throws IOException
+	{
+		if (this.httpServer == null)
+		{
+			HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+			server.createContext("/metrics", exchange -> {
+				byte[] body = getPrometheus().getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream output = exchange.getResponseBody();
+				try
+				{
+					output.write(body);
+				}
+				finally
+				{
+					output.close();
+				}
+			});
+			server.start();
+			this.httpServer = server;
+		}
+		return this.httpServer.getAddress().getPort();
+	}
+
+	/**
+	 * Stop the HTTP server and unregister the MBeans
+	 */
+	public synchronized void close()
+	{
+		if (this.httpServer != null)
+		{
+			this.httpServer.stop(0);
+			this.httpServer = null;
+		}
+
+		MBeanServer server = this.mbeanServer;
+		this.mbeanServer = null;
+		if (server != null)
+		{
+			try
+			{
+				for (ObjectName name : server.queryNames(new ObjectName(JMX_DOMAIN + ":type=DockerClient,name=" + ObjectName.quote(this.clientName) + ",*"), null))
+				{
+					server.unregisterMBean(name);
+				}
+			}
+			catch (JMException e)
+			{
+				System.err.println("Unregistration of the MBeans failed : " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Returns the name of the MBean of the client, or of one of its methods
+	 */
+	private ObjectName objectName(String operation) throws JMException
+	{
+		return new ObjectName(JMX_DOMAIN + ":type=DockerClient,name=" + ObjectName.quote(this.clientName)
+				+ (operation != null ? ",operation=" + operation : ""));
+	}
+
+	private void register(MBeanServer server, Operation operation)
+	{
+		try
+		{
+			server.registerMBean(operation, objectName(operation.getName()));
+		}
+		catch (InstanceAlreadyExistsException e)
+		{
+			// registered by registerMBeans while the method was called
+		}
+		catch (JMException e)
+		{
+			System.err.println("Registration of the MBean of " + operation.getName() + " failed : " + e.getMessage());
+		}
+	}
+
+	private String labels(String operation)
+	{
+		return "client=\"" + this.clientName + "\",operation=\"" + operation + "\"";
+	}
+
+	private static double toMillis(double nanos)
+	{
+		return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	private static String format(double value)
+	{
+		return Double.toString(value);
+	}
+}
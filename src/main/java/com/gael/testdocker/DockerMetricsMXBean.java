@@ -0,0 +1,38 @@
+package com.gael.testdocker;
+
+/**
+ * <b>Totals of the calls of a client, in JMX</b>
+ *
+ * @see DockerMetrics#registerMBeans()
+ *
+ * @author bellaiche
+ * @version 1.0
+ *
+ */
+public interface DockerMetricsMXBean {
+
+	/**
+	 * @return Bytes sent to the Containers by copyToContainer
+	 */
+	long getBytesToContainer();
+
+	/**
+	 * @return Bytes read from the Containers by archiveContainer
+	 */
+	long getBytesFromContainer();
+
+	/**
+	 * @return Number of calls of all the methods
+	 */
+	long getCalls();
+
+	/**
+	 * @return Number of failed calls of all the methods
+	 */
+	long getErrors();
+
+	/**
+	 * @return Metrics in the text format of Prometheus
+	 */
+	String getPrometheus();
+}
@@ -0,0 +1,323 @@
+package com.gael.testdocker;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.spotify.docker.client.messages.HostConfig;
+import com.spotify.docker.client.messages.HostConfig.Bind;
+import com.spotify.docker.client.messages.PortBinding;
+
+/**
+ * <b>Desired state of an environment of Containers</b>
+ *
+ * <p>Properties read by {@link EnvironmentSpec#fromProperties(Properties)}, the lists being
+ * separated by ';' :
+ * <ul>
+ * <li>environment : name of the environment, set in a label of its Containers</li>
+ * <li>images : Images to pull even if no Container uses them</li>
+ * <li>containers : names of the Containers</li>
+ * <li>container.&lt;name&gt;.image : Image of the Container</li>
+ * <li>container.&lt;name&gt;.ports : ports 'container[:host]', the same port on the host by default</li>
+ * <li>container.&lt;name&gt;.mounts : mounts 'host:container[:ro]'</li>
+ * <li>container.&lt;name&gt;.lib : local lib directory copied after the start</li>
+ * <li>container.&lt;name&gt;.libTarget : directory of the lib in the Container</li>
+ * <li>container.&lt;name&gt;.command : command run by bash after the copy of the lib</li>
+ * <li>container.&lt;name&gt;.running : False to keep the Container stopped</li>
+ * </ul>
+ * A key missing for a Container is read as 'defaults.&lt;key&gt;'.</p>
+ *
+ * @see Reconciler
+ *
+ * @author bellaiche
+ * @version 1.0
+ *
+ */
+public class EnvironmentSpec {
+
+	private static final String DEFAULT_LIB_TARGET = "/home/dhus/server/lib";
+
+	private final String environment;
+
+	private final Set<String> images;
+
+	private final Map<String, ContainerSpec> containers;
+
+	/**
+	 * Constructor EnvironmentSpec
+	 *
+	 * @param environment Name of the environment
+	 * @param images Images to pull even if no Container uses them
+	 * @param containers Desired Containers
+	 */
+	public EnvironmentSpec(String environment, Collection<String> images, List<ContainerSpec> containers)
+	{
+		this.environment = environment;
+		this.images = new LinkedHashSet<String>(images);
+		this.containers = new LinkedHashMap<String, ContainerSpec>();
+		for (ContainerSpec container : containers)
+		{
+			this.containers.put(container.getName(), container);
+		}
+	}
+
+	/**
+	 * Returns the specification described by properties
+	 *
+	 * @param prop Properties of the specification
+	 * @return Instance of EnvironmentSpec
+	 * @throws IllegalArgumentException Raise if a Container has no Image or a port or a mount is malformed
+	 */
+	public static EnvironmentSpec fromProperties(Properties prop)
+	{
+		List<ContainerSpec> containers = new ArrayList<ContainerSpec>();
+		for (String name : split(prop.getProperty("containers", "")))
+		{
+			String image = property(prop, name, "image", null);
+			if (image == null)
+			{
+				throw new IllegalArgumentException("No image for the container " + name);
+			}
+
+			Map<String, String> ports = new TreeMap<String, String>();
+			for (String port : split(property(prop, name, "ports", "")))
+			{
+				String[] parts = port.split(":");
+				ports.put(parts[0], parts.length > 1 ? parts[1] : parts[0]);
+			}
+
+			List<String> mounts = split(property(prop, name, "mounts", ""));
+			for (String mount : mounts)
+			{
+				String[] parts = mount.split(":");
+				if (parts.length < 2 || parts.length > 3 || (parts.length == 3 && !parts[2].equals("ro") && !parts[2].equals("rw")))
+				{
+					throw new IllegalArgumentException("Mount '" + mount + "' of the container " + name + " is not 'host:container[:ro]'");
+				}
+			}
+
+			containers.add(new ContainerSpec(name, image, ports, mounts, property(prop, name, "lib", null),
+					property(prop, name, "libTarget", DEFAULT_LIB_TARGET), property(prop, name, "command", null),
+					Boolean.parseBoolean(property(prop, name, "running", "true"))));
+		}
+		return new EnvironmentSpec(prop.getProperty("environment", "default"), split(prop.getProperty("images", "")), containers);
+	}
+
+	/**
+	 * @return Name of the environment
+	 */
+	public String getEnvironment()
+	{
+		return this.environment;
+	}
+
+	/**
+	 * @return Images to pull even if no Container uses them
+	 */
+	public Set<String> getImages()
+	{
+		return Collections.unmodifiableSet(this.images);
+	}
+
+	/**
+	 * @return Desired Containers by name
+	 */
+	public Map<String, ContainerSpec> getContainers()
+	{
+		return Collections.unmodifiableMap(this.containers);
+	}
+
+	private static String property(Properties prop, String name, String key, String defaultValue)
+	{
+		return prop.getProperty("container." + name + "." + key, prop.getProperty("defaults." + key, defaultValue));
+	}
+
+	private static List<String> split(String list)
+	{
+		List<String> values = new ArrayList<String>();
+		for (String value : Arrays.asList(list.split(";")))
+		{
+			if (!value.trim().isEmpty())
+			{
+				values.add(value.trim());
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * <p>Desired state of one Container</p>
+	 */
+	public static class ContainerSpec {
+
+		private final String name;
+		private final String image;
+		private final Map<String, String> ports;
+		private final List<String> mounts;
+		private final String lib;
+		private final String libTarget;
+		private final String command;
+		private final boolean running;
+
+		/**
+		 * Constructor ContainerSpec
+		 *
+		 * @param name Name of the Container
+		 * @param image Image of the Container
+		 * @param ports Port of the host for each port of the Container
+		 * @param mounts Mounts 'host:container[:ro]'
+		 * @param lib Local lib directory copied after the start, null for none
+		 * @param libTarget Directory of the lib in the Container
+		 * @param command Command run by bash after the copy of the lib, null for none
+		 * @param running False to keep the Container stopped
+		 */
+		public ContainerSpec(String name, String image, Map<String, String> ports, List<String> mounts, String lib, String libTarget,
+				String command, boolean running)
+		{
+			this.name = name;
+			this.image = image;
+			this.ports = new TreeMap<String, String>(ports);
+			this.mounts = new ArrayList<String>(mounts);
+			this.lib = lib;
+			this.libTarget = libTarget;
+			this.command = command;
+			this.running = running;
+		}
+
+		/**
+		 * @return Name of the Container
+		 */
+		public String getName()
+		{
+			return this.name;
+		}
+
+		/**
+		 * @return Image of the Container
+		 */
+		public String getImage()
+		{
+			return this.image;
+		}
+
+		/**
+		 * @return Local lib directory, null for none
+		 */
+		public String getLib()
+		{
+			return this.lib;
+		}
+
+		/**
+		 * @return Directory of the lib in the Container
+		 */
+		public String getLibTarget()
+		{
+			return this.libTarget;
+		}
+
+		/**
+		 * @return Command run by bash after the copy of the lib, null for none
+		 */
+		public String getCommand()
+		{
+			return this.command;
+		}
+
+		/**
+		 * @return False if the Container is kept stopped
+		 */
+		public boolean isRunning()
+		{
+			return this.running;
+		}
+
+		/**
+		 * @return Ports of the Container
+		 */
+		public String[] getPorts()
+		{
+			return this.ports.keySet().toArray(new String[this.ports.size()]);
+		}
+
+		/**
+		 * Returns the configuration of the host : ports bindings and mounts
+		 *
+		 * @return Instance of HostConfig
+		 */
+		public HostConfig hostConfig()
+		{
+			Map<String, List<PortBinding>> portBindings = new HashMap<String, List<PortBinding>>();
+			for (Map.Entry<String, String> port : this.ports.entrySet())
+			{
+				portBindings.put(port.getKey(), Collections.singletonList(PortBinding.of("0.0.0.0", port.getValue())));
+			}
+
+			HostConfig.Builder hostConfig = HostConfig.builder().portBindings(portBindings);
+			for (String mount : this.mounts)
+			{
+				String[] parts = mount.split(":");
+				hostConfig.appendBinds(Bind.from(parts[0]).to(parts[1]).readOnly(parts.length == 3 && parts[2].equals("ro")).build());
+			}
+			return hostConfig.build();
+		}
+
+		/**
+		 * Returns the hash of the specification, with the content of the lib
+		 *
+		 * @param libHashes Hash of each lib directory, see {@link LibSynchronizer#directoryHash(String)}
+		 * @return Hexadecimal SHA-256
+		 */
+		public String hash(Map<String, String> libHashes)
+		{
+			StringBuilder canonical = new StringBuilder();
+			canonical.append("image=").append(this.image).append('\n');
+			canonical.append("ports=").append(this.ports).append('\n');
+			canonical.append("mounts=").append(this.mounts).append('\n');
+			if (this.lib != null)
+			{
+				canonical.append("lib=").append(libHashes.get(this.lib)).append(" -> ").append(this.libTarget).append('\n');
+			}
+			if (this.command != null)
+			{
+				canonical.append("command=").append(this.command).append('\n');
+			}
+
+			MessageDigest digest = LibSynchronizer.newDigest();
+			digest.update(canonical.toString().getBytes(StandardCharsets.UTF_8));
+			return LibSynchronizer.toHex(digest.digest());
+		}
+
+		/**
+		 * Returns the hash of each lib directory of the Containers
+		 *
+		 * @param containers Specifications of Containers
+		 * @return Map of lib directory to its hash
+		 * @throws IOException Raise if a file of a lib can not be read
+		 */
+		public static Map<String, String> libHashes(Collection<ContainerSpec> containers) throws IOException
+		{
+			Map<String, String> hashes = new HashMap<String, String>();
+			for (ContainerSpec container : containers)
+			{
+				if (container.lib != null && !hashes.containsKey(container.lib))
+				{
+					hashes.put(container.lib, LibSynchronizer.directoryHash(container.lib));
+				}
+			}
+			return hashes;
+		}
+	}
+}
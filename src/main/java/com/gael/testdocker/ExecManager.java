@@ -0,0 +1,250 @@
+package com.gael.testdocker;
+
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.io.ByteStreams;
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.DockerClient.ExecCreateParam;
+import com.spotify.docker.client.LogStream;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.messages.ExecCreation;
+import com.spotify.docker.client.messages.ExecState;
+
+/**
+ * <b>Manager of the commands executed in Containers</b>
+ *
+ * <p>The output of a command is streamed while it runs: stdout and stderr are written into the
+ * sinks of the caller, and a slow sink slows down the reading of the stream. The returned future
+ * completes with the exit code of the command.</p>
+ *
+ * <p>On timeout or cancellation, the stream is closed, so the connection returns to the pool of
+ * the client. Docker has no API to kill an exec, so the command itself may keep running.</p>
+ *
+ * <p>The stream of an exec is read through the timed connections of the client, so a command
+ * silent for longer than the read timeout of the client fails. The client given must have no
+ * read timeout for the commands without limit, as the one used by DockerCommands.</p>
+ *
+ * @see DockerCommands#getExecManager()
+ *
+ * @author bellaiche
+ * @version 1.0
+ *
+ */
+public class ExecManager {
+
+	/**
+	 * Delay between two inspections while Docker has not yet recorded the exit code
+	 */
+	private static final long INSPECT_DELAY_MILLIS = 50;
+
+	/**
+	 * Maximum delay for Docker to record the exit code once the stream is closed
+	 */
+	private static final long EXIT_CODE_TIMEOUT_MILLIS = 10000;
+
+	private final DockerClient docker;
+
+	/**
+	 * Threads reading the streams, one per running command
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * Thread of the timeouts
+	 */
+	private final ScheduledExecutorService timer;
+
+	/**
+	 * Constructor ExecManager
+	 *
+	 * @param docker Instance of DockerClient, without read timeout
+	 */
+	public ExecManager(DockerClient docker)
+	{
+		this.docker = docker;
+		this.executor = Executors.newCachedThreadPool(Utils.daemonThreads("docker-exec-"));
+		this.timer = Executors.newSingleThreadScheduledExecutor(Utils.daemonThreads("docker-exec-timer-"));
+	}
+
+	/**
+	 * Execute a command in a Container
+	 *
+	 * @param containerId Id or name of the running Container
+	 * @param command Command and its arguments
+	 * @param stdout Sink of the standard output, null to discard it
+	 * @param stderr Sink of the error output, null to discard it
+	 * @param timeoutMillis Maximum duration of the command, 0 for no limit
+	 * @return Future completed with the exit code, or with a {@link TimeoutException} or the error of the API
+	 */
+	public CompletableFuture<Integer> exec(final String containerId, final String[] command, OutputStream stdout, OutputStream stderr, long timeoutMillis)
+	{
+		final CompletableFuture<Integer> future = new CompletableFuture<Integer>();
+		final AtomicReference<LogStream> stream = new AtomicReference<LogStream>();
+		final OutputStream out = stdout != null ? stdout : ByteStreams.nullOutputStream();
+		final OutputStream err = stderr != null ? stderr : ByteStreams.nullOutputStream();
+
+		if (timeoutMillis > 0)
+		{
+			final ScheduledFuture<?> timeout = this.timer.schedule(() -> {
+				future.completeExceptionally(new TimeoutException("Command " + String.join(" ", command) + " still running after " + timeoutMillis + " ms"));
+			}, timeoutMillis, TimeUnit.MILLISECONDS);
+			future.whenComplete((code, error) -> timeout.cancel(false));
+		}
+
+		future.whenComplete((code, error) -> {
+			if (error != null)
+			{
+				closeQuietly(stream.getAndSet(null));
+			}
+		});
+
+		this.executor.execute(() -> {
+			try
+			{
+				ExecCreation execId = this.docker.execCreate(containerId, command,
+						ExecCreateParam.attachStdout(), ExecCreateParam.attachStderr());
+				if (future.isDone())
+				{
+					return;
+				}
+
+				LogStream logs = this.docker.execStart(execId.id());
+				stream.set(logs);
+				if (future.isDone())
+				{
+					closeQuietly(stream.getAndSet(null));
+					return;
+				}
+
+				try
+				{
+					logs.attach(out, err, false);
+				}
+				finally
+				{
+					closeQuietly(stream.getAndSet(null));
+				}
+				if (future.isDone())
+				{
+					// timed out or cancelled : the command may still run, it is not inspected
+					return;
+				}
+
+				future.complete(exitCode(execId.id(), future));
+			}
+			catch (Exception e)
+			{
+				future.completeExceptionally(readTimeout(e)
+						? new DockerException("Command silent longer than the read timeout of the client in Container " + containerId, e)
+						: e);
+			}
+		});
+
+		return future;
+	}
+
+	/**
+	 * Execute a command in a Container and wait its end
+	 *
+	 * @param containerId Id or name of the running Container
+	 * @param command Command and its arguments
+	 * @param stdout Sink of the standard output, null to discard it
+	 * @param stderr Sink of the error output, null to discard it
+	 * @param timeoutMillis Maximum duration of the command, 0 for no limit
+	 * @return Exit code of the command
+	 * @throws DockerException Raise if there is error with API or if the command timed out
+	 * @throws InterruptedException Raise if Thread is interrupted, the stream is then closed
+	 */
+	public int execAndWait(String containerId, String[] command, OutputStream stdout, OutputStream stderr, long timeoutMillis) throws DockerException, InterruptedException
+	{
+		CompletableFuture<Integer> future = exec(containerId, command, stdout, stderr, timeoutMillis);
+		try
+		{
+			return future.get();
+		}
+		catch (InterruptedException e)
+		{
+			future.cancel(true);
+			throw e;
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof DockerException)
+			{
+				throw (DockerException) e.getCause();
+			}
+			throw new DockerException(e.getCause());
+		}
+	}
+
+	/**
+	 * Stop the threads, the streams still open are closed
+	 */
+	public void close()
+	{
+		this.timer.shutdownNow();
+		this.executor.shutdownNow();
+	}
+
+	/**
+	 * Returns true if the error comes from the read timeout of the client
+	 */
+	private static boolean readTimeout(Throwable error)
+	{
+		for (Throwable cause = error; cause != null; cause = cause.getCause())
+		{
+			if (cause instanceof SocketTimeoutException)
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the exit code of a finished exec, -1 if the future completed meanwhile
+	 */
+	private int exitCode(String execId, CompletableFuture<Integer> future) throws DockerException, InterruptedException
+	{
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(EXIT_CODE_TIMEOUT_MILLIS);
+		while (!future.isDone())
+		{
+			ExecState state = this.docker.execInspect(execId);
+			if (state.exitCode() != null && !Boolean.TRUE.equals(state.running()))
+			{
+				return state.exitCode();
+			}
+			if (System.nanoTime() - deadline > 0)
+			{
+				throw new DockerException("Exit code of exec " + execId + " not recorded " + EXIT_CODE_TIMEOUT_MILLIS + " ms after the end of its output");
+			}
+			TimeUnit.MILLISECONDS.sleep(INSPECT_DELAY_MILLIS);
+		}
+		return -1;
+	}
+
+	private static void closeQuietly(LogStream stream)
+	{
+		if (stream != null)
+		{
+			try
+			{
+				stream.close();
+			}
+			catch (RuntimeException e)
+			{
+				// connection already released
+			}
+		}
+	}
+}
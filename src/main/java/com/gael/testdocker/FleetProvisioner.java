@@ -0,0 +1,261 @@
+package com.gael.testdocker;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <b>Provisioning of several Containers in parallel</b>
+ *
+ * <p>Each instance is provisioned by a task on a bounded pool of threads, or on virtual threads
+ * when the pool size is 0 and the JVM provides them. The duration of each instance and of the
+ * whole fleet are measured.</p>
+ *
+ * @see Programme#createFleet(DockerCommands, String)
+ * @see BulkDeleter
+ *
+ * @author bellaiche
+ * @version 1.0
+ *
+ */
+public class FleetProvisioner {
+
+	/**
+	 * <p>Provisioning of one instance of the fleet</p>
+	 */
+	public interface Provisioning {
+
+		/**
+		 * Provision one instance
+		 *
+		 * @param nameContainer Name of the Container of the instance
+		 * @param index Index of the instance in the fleet, from 0
+		 * @throws Exception Raise if the provisioning failed
+		 */
+		void provision(String nameContainer, int index) throws Exception;
+	}
+
+	/**
+	 * Number of threads, 0 for virtual threads
+	 */
+	private final int threads;
+
+	/**
+	 * Constructor FleetProvisioner
+	 *
+	 * @param threads Maximum number of instances provisioned at the same time, 0 for virtual threads
+	 */
+	public FleetProvisioner(int threads)
+	{
+		this.threads = threads;
+	}
+
+	/**
+	 * Provision the instances and wait for all of them
+	 *
+	 * @param namesContainer Names of the Containers of the fleet
+	 * @param provisioning Provisioning of one instance
+	 * @return Report with the duration and the error of each instance
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public Report provision(List<String> namesContainer, final Provisioning provisioning) throws InterruptedException
+	{
+		long start = System.nanoTime();
+		if (namesContainer.isEmpty())
+		{
+			return new Report(new ArrayList<Instance>(), 0);
+		}
+		ExecutorService executor = newExecutor(Math.min(this.threads, namesContainer.size()));
+
+		List<Future<Instance>> futures = new ArrayList<Future<Instance>>();
+		try
+		{
+			for (int i = 0; i < namesContainer.size(); i++)
+			{
+				final String name = namesContainer.get(i);
+				final int index = i;
+				futures.add(executor.submit(() -> {
+					long begin = System.nanoTime();
+					Exception error = null;
+					try
+					{
+						provisioning.provision(name, index);
+					}
+					catch (Exception e)
+					{
+						error = e;
+					}
+					return new Instance(name, System.nanoTime() - begin, error);
+				}));
+			}
+
+			List<Instance> instances = new ArrayList<Instance>();
+			for (Future<Instance> future : futures)
+			{
+				try
+				{
+					instances.add(future.get());
+				}
+				catch (ExecutionException e)
+				{
+					throw new IllegalStateException(e.getCause());
+				}
+			}
+
+			return new Report(instances, System.nanoTime() - start);
+		}
+		finally
+		{
+			executor.shutdownNow();
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		}
+	}
+
+	/**
+	 * Returns a pool of 'threads' threads, or of virtual threads if 'threads' is 0 and available
+	 */
+	private static ExecutorService newExecutor(int threads)
+	{
+		if (threads <= 0)
+		{
+			try
+			{
+				Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				return (ExecutorService) virtual.invoke(null);
+			}
+			catch (ReflectiveOperationException e)
+			{
+				threads = Runtime.getRuntime().availableProcessors();
+			}
+		}
+		return Executors.newFixedThreadPool(threads);
+	}
+
+	/**
+	 * <p>Result of the provisioning of one instance</p>
+	 */
+	public static class Instance {
+
+		private final String nameContainer;
+		private final long durationNanos;
+		private final Exception error;
+
+		Instance(String nameContainer, long durationNanos, Exception error)
+		{
+			this.nameContainer = nameContainer;
+			this.durationNanos = durationNanos;
+			this.error = error;
+		}
+
+		/**
+		 * @return Name of the Container, or of the Image for a deletion of Images
+		 */
+		public String getNameContainer()
+		{
+			return this.nameContainer;
+		}
+
+		/**
+		 * @return Wall-clock duration of the provisioning, in milliseconds
+		 */
+		public long getDurationMillis()
+		{
+			return TimeUnit.NANOSECONDS.toMillis(this.durationNanos);
+		}
+
+		/**
+		 * @return Error of the provisioning, null if succeeded
+		 */
+		public Exception getError()
+		{
+			return this.error;
+		}
+	}
+
+	/**
+	 * <p>Result of the provisioning of the fleet</p>
+	 */
+	public static class Report {
+
+		private final List<Instance> instances;
+		private final long durationNanos;
+
+		Report(List<Instance> instances, long durationNanos)
+		{
+			this.instances = instances;
+			this.durationNanos = durationNanos;
+		}
+
+		/**
+		 * @return Result of each instance, in the order of the names
+		 */
+		public List<Instance> getInstances()
+		{
+			return this.instances;
+		}
+
+		/**
+		 * @return Wall-clock duration of the whole fleet, in milliseconds
+		 */
+		public long getDurationMillis()
+		{
+			return TimeUnit.NANOSECONDS.toMillis(this.durationNanos);
+		}
+
+		/**
+		 * @return Number of instances failed
+		 */
+		public int getFailures()
+		{
+			int failures = 0;
+			for (Instance instance : this.instances)
+			{
+				if (instance.getError() != null)
+				{
+					failures++;
+				}
+			}
+			return failures;
+		}
+
+		/**
+		 * @return First error, null if all the instances succeeded
+		 */
+		public Exception getFirstError()
+		{
+			for (Instance instance : this.instances)
+			{
+				if (instance.getError() != null)
+				{
+					return instance.getError();
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public String toString()
+		{
+			StringBuilder report = new StringBuilder();
+			long sum = 0;
+			for (Instance instance : this.instances)
+			{
+				sum += instance.getDurationMillis();
+				report.append(instance.getNameContainer()).append(" : ").append(instance.getDurationMillis()).append(" ms");
+				if (instance.getError() != null)
+				{
+					report.append(" FAILED (").append(instance.getError()).append(')');
+				}
+				report.append('\n');
+			}
+			report.append(this.instances.size()).append(" instance(s), ").append(getFailures()).append(" failed, ")
+				.append(getDurationMillis()).append(" ms wall-clock, ").append(sum).append(" ms cumulated");
+			return report.toString();
+		}
+	}
+}
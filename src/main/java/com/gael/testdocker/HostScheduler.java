@@ -0,0 +1,676 @@
+package com.gael.testdocker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.spotify.docker.client.DockerClient.ListContainersParam;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.messages.Container;
+import com.spotify.docker.client.messages.ContainerStats;
+import com.spotify.docker.client.messages.Info;
+
+/**
+ * <b>Placement of Containers on several Docker daemons</b>
+ *
+ * <p>Each daemon is driven by its own {@link DockerCommands}. A new Container is placed on the
+ * daemon with the lowest load among those whose host ports are free. The load is the sum of the
+ * fraction of the CPUs used, of the fraction of the memory used and of the number of running
+ * Containers by CPU, read from the stats of the running Containers.</p>
+ *
+ * <p>The loads are read for all the daemons in parallel, in background, once they are older than
+ * {@link #LOAD_TTL_MILLIS} ms : a placement uses the last loads and only waits for the first
+ * reading. The running Containers and the resources are published first, the stats of the
+ * Containers, slower, then. Each placement counts its Container and its ports in the load of its
+ * daemon, again in the loads read within {@link #LOAD_TTL_MILLIS} ms after it, so that a burst of
+ * placements is spread. A daemon which can not be read is not used until the next reading.</p>
+ *
+ * <p>Property read by {@link HostScheduler#fromProperties(Properties)} : dockerHosts, the
+ * endpoints separated by ';', each daemon being configured as {@link DockerCommands.Builder}.</p>
+ *
+ * @author bellaiche
+ * @version 1.0
+ *
+ */
+public class HostScheduler {
+
+	/**
+	 * Duration the loads are kept, in milliseconds
+	 */
+	public static final long LOAD_TTL_MILLIS = 2000;
+
+	/**
+	 * Daemons by endpoint
+	 */
+	private final Map<String, DockerCommands> hosts;
+
+	private final int threads;
+
+	private final ExecutorService executor;
+
+	/**
+	 * Reads the loads, apart from 'executor' which runs its calls
+	 */
+	private final ExecutorService refresher;
+
+	/**
+	 * Last loads by endpoint, null for a daemon which can not be read, empty until the first reading
+	 */
+	private final Map<String, HostLoad> loads = new LinkedHashMap<String, HostLoad>();
+
+	/**
+	 * Start of the reading of the last loads
+	 */
+	private long loadsNanos;
+
+	/**
+	 * Reading of the loads in progress, null if none
+	 */
+	private CompletableFuture<Void> refreshing;
+
+	/**
+	 * Placements counted again in the next loads
+	 */
+	private final List<Reservation> reservations = new ArrayList<Reservation>();
+
+	/**
+	 * Last reservation without port by endpoint, the next ones of the same millisecond are added to it
+	 */
+	private final Map<String, Reservation> lastWithoutPorts = new LinkedHashMap<String, Reservation>();
+
+	/**
+	 * Constructor HostScheduler
+	 *
+	 * @param hosts Instances of DockerCommands by endpoint of their daemon
+	 * @param threads Maximum number of calls to the daemons at the same time
+	 */
+	public HostScheduler(Map<String, DockerCommands> hosts, int threads)
+	{
+		if (hosts.isEmpty())
+		{
+			throw new IllegalArgumentException("No Docker host");
+		}
+		this.hosts = new LinkedHashMap<String, DockerCommands>(hosts);
+		this.threads = Math.max(1, threads);
+		this.executor = Executors.newFixedThreadPool(this.threads);
+		this.refresher = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "docker-scheduler");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Returns the scheduler of the daemons of the property 'dockerHosts'
+	 *
+	 * @param prop Properties of configuration
+	 * @param threads Maximum number of calls to the daemons at the same time
+	 * @return Instance of HostScheduler, null if the property is empty
+	 */
+	public static HostScheduler fromProperties(Properties prop, int threads)
+	{
+		Map<String, DockerCommands> hosts = new LinkedHashMap<String, DockerCommands>();
+		for (String endpoint : prop.getProperty("dockerHosts", "").split(";"))
+		{
+			if (!endpoint.trim().isEmpty())
+			{
+				hosts.put(endpoint.trim(), DockerCommands.builder().fromProperties(prop).uri(endpoint.trim()).build());
+			}
+		}
+		return hosts.isEmpty() ? null : new HostScheduler(hosts, threads);
+	}
+
+	/**
+	 * @return Instances of DockerCommands by endpoint of their daemon
+	 */
+	public Map<String, DockerCommands> getHosts()
+	{
+		return Collections.unmodifiableMap(this.hosts);
+	}
+
+	/**
+	 * Run a task on all the daemons in parallel and wait for all of them
+	 *
+	 * @param task Task run for each daemon
+	 * @return Report with the duration and the error of each daemon, named by its endpoint
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public FleetProvisioner.Report forEachHost(HostTask task) throws InterruptedException
+	{
+		return new FleetProvisioner(this.threads).provision(new ArrayList<String>(this.hosts.keySet()),
+				(host, index) -> task.run(host, this.hosts.get(host)));
+	}
+
+	/**
+	 * Pull an Image on all the daemons in parallel, where it is missing
+	 *
+	 * @param tagImage Tag of the Image
+	 * @param email Email of the registry
+	 * @param username Username of the registry
+	 * @param password Password of the registry
+	 * @return Report with the duration and the error of each daemon, named by its endpoint
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public FleetProvisioner.Report pullImage(String tagImage, String email, String username, String password) throws InterruptedException
+	{
+		return forEachHost((host, dc) -> {
+			if (!dc.existImage(tagImage))
+			{
+				dc.pullImage(tagImage, email, username, password);
+			}
+		});
+	}
+
+	/**
+	 * Returns the Containers of all the daemons, read in parallel
+	 *
+	 * @param all False for the running Containers only
+	 * @return Containers by endpoint of their daemon
+	 * @throws DockerException Raise if there is error with API on a daemon
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public Map<String, List<Container>> listContainers(boolean all) throws DockerException, InterruptedException
+	{
+		Map<String, Future<List<Container>>> futures = new LinkedHashMap<String, Future<List<Container>>>();
+		for (Map.Entry<String, DockerCommands> host : this.hosts.entrySet())
+		{
+			futures.put(host.getKey(), this.executor.submit(
+					() -> host.getValue().getDockerClient().listContainers(ListContainersParam.allContainers(all))));
+		}
+
+		Map<String, List<Container>> containers = new LinkedHashMap<String, List<Container>>();
+		for (Map.Entry<String, Future<List<Container>>> future : futures.entrySet())
+		{
+			containers.put(future.getKey(), get(future.getValue()));
+		}
+		return containers;
+	}
+
+	/**
+	 * Returns the names of the Containers of all the daemons
+	 *
+	 * @param all False for the running Containers only
+	 * @return Endpoint of the daemon by name of Container
+	 * @throws DockerException Raise if there is error with API on a daemon
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public Map<String, String> locateContainers(boolean all) throws DockerException, InterruptedException
+	{
+		Map<String, String> located = new LinkedHashMap<String, String>();
+		for (Map.Entry<String, List<Container>> host : listContainers(all).entrySet())
+		{
+			for (Container c : host.getValue())
+			{
+				if (c.names() != null)
+				{
+					for (String name : c.names())
+					{
+						located.put(name.startsWith("/") ? name.substring(1) : name, host.getKey());
+					}
+				}
+			}
+		}
+		return located;
+	}
+
+	/**
+	 * Choose the daemon of a new Container and count it in its load
+	 * <p>
+	 * Only the first placement waits for the loads, the monitor being released meanwhile.
+	 * </p>
+	 *
+	 * @param hostPorts Ports of the host bound by the Container
+	 * @return Endpoint of the daemon
+	 * @throws DockerException Raise if no daemon has the ports free, or if the loads can not be read
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public synchronized String place(String[] hostPorts) throws DockerException, InterruptedException
+	{
+		if (this.loads.isEmpty() || System.nanoTime() - this.loadsNanos > TimeUnit.MILLISECONDS.toNanos(LOAD_TTL_MILLIS))
+		{
+			refreshLoads();
+		}
+		while (this.loads.isEmpty())
+		{
+			if (this.refreshing == null)
+			{
+				throw new DockerException("Loads of the Docker hosts " + this.hosts.keySet() + " not read");
+			}
+			wait();
+		}
+
+		String best = null;
+		for (Map.Entry<String, HostLoad> load : this.loads.entrySet())
+		{
+			if (load.getValue() != null && load.getValue().arePortsFree(hostPorts)
+					&& (best == null || load.getValue().getScore() < this.loads.get(best).getScore()))
+			{
+				best = load.getKey();
+			}
+		}
+		if (best == null)
+		{
+			throw new DockerException("No Docker host with the ports " + Arrays.toString(hostPorts) + " free among " + this.hosts.keySet());
+		}
+
+		this.loads.get(best).reserve(hostPorts, 1);
+		Reservation last = this.lastWithoutPorts.get(best);
+		if (hostPorts.length == 0 && last != null && System.nanoTime() - last.nanos < TimeUnit.MILLISECONDS.toNanos(1))
+		{
+			last.count++;
+		}
+		else
+		{
+			Reservation reservation = new Reservation(best, hostPorts);
+			this.reservations.add(reservation);
+			if (hostPorts.length == 0)
+			{
+				this.lastWithoutPorts.put(best, reservation);
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Create and start a Container on the daemon chosen by {@link #place(String[])}
+	 *
+	 * @param ports Ports of the Container
+	 * @param hostPorts Port of the host for each port of 'ports'
+	 * @param nameContainer Name of the Container
+	 * @param nameImage Image of the Container, present on the daemons
+	 * @return Endpoint of the daemon and Id of the Container
+	 * @throws DockerException Raise if there is error with API or no daemon has the ports free
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public Placement createContainer(String[] ports, String[] hostPorts, String nameContainer, String nameImage) throws DockerException, InterruptedException
+	{
+		String host = place(hostPorts);
+		DockerCommands dc = this.hosts.get(host);
+		String containerId = dc.createContainer(ports, hostPorts, nameContainer, nameImage);
+		if (containerId == null)
+		{
+			throw new DockerException("Container " + nameContainer + " already exists on " + host);
+		}
+		dc.startContainer(containerId);
+		return new Placement(host, dc, containerId);
+	}
+
+	/**
+	 * Returns the loads of the daemons, once the reading in progress or a new one is finished
+	 *
+	 * @return Loads by endpoint, null for a daemon which can not be read
+	 * @throws DockerException Raise if the loads can not be read
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public Map<String, HostLoad> getLoads() throws DockerException, InterruptedException
+	{
+		CompletableFuture<Void> reading;
+		synchronized (this)
+		{
+			reading = refreshLoads();
+		}
+		get(reading);
+		synchronized (this)
+		{
+			return Collections.unmodifiableMap(new LinkedHashMap<String, HostLoad>(this.loads));
+		}
+	}
+
+	/**
+	 * Close the executor and the DockerCommands of the daemons
+	 */
+	public void close()
+	{
+		this.refresher.shutdownNow();
+		this.executor.shutdownNow();
+		for (DockerCommands dc : this.hosts.values())
+		{
+			dc.close();
+		}
+	}
+
+	/**
+	 * Start a reading of the loads in background, unless one is in progress, called with the monitor
+	 *
+	 * @return Reading in progress
+	 */
+	private CompletableFuture<Void> refreshLoads()
+	{
+		if (this.refreshing == null)
+		{
+			final long started = System.nanoTime();
+			final CompletableFuture<Void> reading = CompletableFuture.runAsync(() -> {
+				try
+				{
+					readLoads(started);
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					throw new CompletionException(e);
+				}
+			}, this.refresher);
+			this.refreshing = reading;
+			reading.whenComplete((result, e) -> {
+				if (e != null)
+				{
+					System.err.println("Loads of the Docker hosts not read : " + e);
+				}
+				synchronized (this)
+				{
+					if (this.refreshing == reading)
+					{
+						this.refreshing = null;
+					}
+					notifyAll();
+				}
+			});
+		}
+		return this.refreshing;
+	}
+
+	/**
+	 * Read the running Containers and the resources of each daemon and publish them, then read the
+	 * stats of all the Containers in parallel and publish the loads again, without the monitor
+	 *
+	 * @param started Start of the reading
+	 */
+	private void readLoads(long started) throws InterruptedException
+	{
+		Map<String, Future<List<Container>>> listings = new LinkedHashMap<String, Future<List<Container>>>();
+		Map<String, Future<Info>> infos = new LinkedHashMap<String, Future<Info>>();
+		for (Map.Entry<String, DockerCommands> host : this.hosts.entrySet())
+		{
+			listings.put(host.getKey(), this.executor.submit(() -> host.getValue().getDockerClient().listContainers()));
+			infos.put(host.getKey(), this.executor.submit(() -> host.getValue().getDockerClient().info()));
+		}
+
+		Map<String, List<Container>> running = new LinkedHashMap<String, List<Container>>();
+		Map<String, HostLoad> loads = new LinkedHashMap<String, HostLoad>();
+		for (String host : this.hosts.keySet())
+		{
+			try
+			{
+				List<Container> containers = get(listings.get(host));
+				Info info = get(infos.get(host));
+				HostLoad load = new HostLoad(containers.size(), info.cpus() != null ? Math.max(1, info.cpus()) : 1,
+						info.memTotal() != null ? info.memTotal() : 0);
+				for (Container c : containers)
+				{
+					if (c.ports() != null)
+					{
+						for (Container.PortMapping port : c.ports())
+						{
+							if (port.publicPort() != null && port.publicPort() > 0)
+							{
+								load.ports.add(String.valueOf(port.publicPort()));
+							}
+						}
+					}
+				}
+				loads.put(host, load);
+				running.put(host, containers);
+			}
+			catch (DockerException e)
+			{
+				System.err.println("Docker host " + host + " not available : " + e.getMessage());
+				loads.put(host, null);
+			}
+		}
+
+		// the Containers and the ports first, the stats take about one second by Container
+		Map<String, HostLoad> counted = new LinkedHashMap<String, HostLoad>();
+		for (Map.Entry<String, HostLoad> load : loads.entrySet())
+		{
+			counted.put(load.getKey(), load.getValue() != null ? new HostLoad(load.getValue()) : null);
+		}
+		publish(counted, started);
+
+		Map<String, List<Future<ContainerStats>>> stats = new LinkedHashMap<String, List<Future<ContainerStats>>>();
+		for (Map.Entry<String, List<Container>> host : running.entrySet())
+		{
+			List<Future<ContainerStats>> hostStats = new ArrayList<Future<ContainerStats>>();
+			DockerCommands dc = this.hosts.get(host.getKey());
+			for (Container c : host.getValue())
+			{
+				hostStats.add(this.executor.submit(() -> dc.getDockerClient().stats(c.id())));
+			}
+			stats.put(host.getKey(), hostStats);
+		}
+
+		for (Map.Entry<String, List<Future<ContainerStats>>> hostStats : stats.entrySet())
+		{
+			HostLoad load = loads.get(hostStats.getKey());
+			for (Future<ContainerStats> future : hostStats.getValue())
+			{
+				try
+				{
+					load.add(get(future));
+				}
+				catch (DockerException e)
+				{
+					// Container removed meanwhile, or stats not readable : only counted
+				}
+			}
+		}
+		publish(loads, started);
+	}
+
+	/**
+	 * Replace the loads, with the placements made since LOAD_TTL_MILLIS before the reading counted
+	 * again, their Containers being possibly created after the listing
+	 *
+	 * @param loads Loads read
+	 * @param started Start of the reading
+	 */
+	private synchronized void publish(Map<String, HostLoad> loads, long started)
+	{
+		long oldest = started - TimeUnit.MILLISECONDS.toNanos(LOAD_TTL_MILLIS);
+		this.reservations.removeIf(reservation -> reservation.nanos - oldest < 0);
+		for (Reservation reservation : this.reservations)
+		{
+			HostLoad load = loads.get(reservation.host);
+			if (load != null)
+			{
+				load.reserve(reservation.hostPorts, reservation.count);
+			}
+		}
+		this.loads.clear();
+		this.loads.putAll(loads);
+		this.loadsNanos = started;
+		notifyAll();
+	}
+
+	/**
+	 * Returns the result of a call, its failure as a DockerException
+	 */
+	private static <T> T get(Future<T> future) throws DockerException, InterruptedException
+	{
+		try
+		{
+			return future.get();
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof DockerException)
+			{
+				throw (DockerException) e.getCause();
+			}
+			throw new DockerException(e.getCause());
+		}
+	}
+
+	/**
+	 * <p>Task run on one daemon</p>
+	 */
+	public interface HostTask {
+
+		/**
+		 * Run the task on one daemon
+		 *
+		 * @param host Endpoint of the daemon
+		 * @param dc Instance of DockerCommands of the daemon
+		 * @throws Exception Raise if the task failed
+		 */
+		void run(String host, DockerCommands dc) throws Exception;
+	}
+
+	/**
+	 * <p>Placement counted in the loads</p>
+	 */
+	private static class Reservation {
+
+		private final String host;
+		private final String[] hostPorts;
+		private final long nanos = System.nanoTime();
+		private int count = 1;
+
+		Reservation(String host, String[] hostPorts)
+		{
+			this.host = host;
+			this.hostPorts = hostPorts;
+		}
+	}
+
+	/**
+	 * <p>Daemon and Id of a placed Container</p>
+	 */
+	public static class Placement {
+
+		private final String host;
+		private final DockerCommands commands;
+		private final String containerId;
+
+		Placement(String host, DockerCommands commands, String containerId)
+		{
+			this.host = host;
+			this.commands = commands;
+			this.containerId = containerId;
+		}
+
+		/**
+		 * @return Endpoint of the daemon
+		 */
+		public String getHost()
+		{
+			return this.host;
+		}
+
+		/**
+		 * @return Instance of DockerCommands of the daemon
+		 */
+		public DockerCommands getCommands()
+		{
+			return this.commands;
+		}
+
+		/**
+		 * @return Id of the Container
+		 */
+		public String getContainerId()
+		{
+			return this.containerId;
+		}
+	}
+
+	/**
+	 * <p>Load of one daemon</p>
+	 */
+	public static class HostLoad {
+
+		private int containers;
+		private final int cpus;
+		private final long memTotal;
+		private double cpusUsed;
+		private long memoryUsed;
+		private final Set<String> ports = new HashSet<String>();
+
+		HostLoad(int containers, int cpus, long memTotal)
+		{
+			this.containers = containers;
+			this.cpus = cpus;
+			this.memTotal = memTotal;
+		}
+
+		HostLoad(HostLoad load)
+		{
+			this(load.containers, load.cpus, load.memTotal);
+			this.cpusUsed = load.cpusUsed;
+			this.memoryUsed = load.memoryUsed;
+			this.ports.addAll(load.ports);
+		}
+
+		/**
+		 * Add the usage of a Container, the CPU measured between the two samples of the stats
+		 */
+		void add(ContainerStats stats)
+		{
+			this.cpusUsed += StatsAggregator.cpusUsed(stats, this.cpus);
+			if (stats.memoryStats() != null && stats.memoryStats().usage() != null)
+			{
+				this.memoryUsed += stats.memoryStats().usage();
+			}
+		}
+
+		/**
+		 * Count new Containers and their ports
+		 */
+		void reserve(String[] hostPorts, int count)
+		{
+			this.containers += count;
+			this.ports.addAll(Arrays.asList(hostPorts));
+		}
+
+		/**
+		 * @return True if none of the ports is bound on the host
+		 */
+		public boolean arePortsFree(String[] hostPorts)
+		{
+			for (String port : hostPorts)
+			{
+				if (this.ports.contains(port))
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * @return Load of the daemon, lower is better
+		 */
+		public double getScore()
+		{
+			double memory = this.memTotal > 0 ? (double) this.memoryUsed / this.memTotal : 0;
+			return this.cpusUsed / this.cpus + memory + (double) this.containers / this.cpus;
+		}
+
+		/**
+		 * @return Number of running Containers
+		 */
+		public int getContainers()
+		{
+			return this.containers;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format("%d container(s), %.2f/%d CPU, %d/%d MiB, score %.3f", this.containers, this.cpusUsed, this.cpus,
+					this.memoryUsed >> 20, this.memTotal >> 20, getScore());
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package com.gael.testdocker;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.spotify.docker.client.DockerClient.ListContainersParam;
+import com.spotify.docker.client.DockerClient.ListImagesParam;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.messages.Container;
+import com.spotify.docker.client.messages.Image;
+
+/**
+ * <b>Baker of Images with the lib directory installed</b>
+ *
+ * <p>A configured Container is committed into a "baked" Image, in the repository
+ * 'nameImage-baked' with the tag 'lib-&lt;hash of the lib&gt;-base-&lt;Id of the Image&gt;'. A
+ * change of the lib directory or of the base Image gives another tag, so an existing tag can be
+ * used without check.</p>
+ *
+ * <p>The baked Images have the label {@value #LABEL}. The least recently used are removed : the
+ * use of an Image is the creation of its last Container, or its own creation.</p>
+ *
+ * @see DockerCommands#commitContainer(String, String, String, Map, String)
+ *
+ * @author bellaiche
+ * @version 1.0
+ *
+ */
+public class ImageBaker {
+
+	/**
+	 * Label of the baked Images, whose value is the name of the base Image
+	 */
+	public static final String LABEL = "com.gael.testdocker.baked";
+
+	/**
+	 * Number of hexadecimal characters of the hashes in the tag
+	 */
+	private static final int HASH_LENGTH = 12;
+
+	private final DockerCommands dc;
+
+	/**
+	 * Name of the base Image, without tag
+	 */
+	private final String nameImage;
+
+	/**
+	 * Constructor ImageBaker
+	 *
+	 * @param dc Instance of DockerCommands for Docker Commands
+	 * @param nameImage Name of the base Image, without tag
+	 */
+	public ImageBaker(DockerCommands dc, String nameImage)
+	{
+		this.dc = dc;
+		this.nameImage = nameImage;
+	}
+
+	/**
+	 * @return Repository of the baked Images
+	 */
+	public String getRepository()
+	{
+		return this.nameImage + "-baked";
+	}
+
+	/**
+	 * Returns the name with tag of the baked Image of the current lib directory and base Image
+	 *
+	 * @param pathLib Local lib directory
+	 * @return Name as 'repository:tag'
+	 * @throws DockerException Raise if there is error with API, as when the base Image does not exist
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 * @throws IOException Raise if a file of the lib can not be read
+	 */
+	public String bakedImage(String pathLib) throws DockerException, InterruptedException, IOException
+	{
+		String baseId = this.dc.getDockerClient().inspectImage(this.nameImage).id();
+		if (baseId.startsWith("sha256:"))
+		{
+			baseId = baseId.substring("sha256:".length());
+		}
+		return getRepository() + ":lib-" + LibSynchronizer.directoryHash(pathLib).substring(0, HASH_LENGTH) + "-base-" + baseId.substring(0, HASH_LENGTH);
+	}
+
+	/**
+	 * Commit a configured Container into a baked Image
+	 *
+	 * @param containerId Id of the Container, with the lib installed and the script ended
+	 * @param bakedImage Name returned by {@link #bakedImage(String)}
+	 * @return Id of the baked Image
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public String bake(String containerId, String bakedImage) throws DockerException, InterruptedException
+	{
+		int separator = bakedImage.lastIndexOf(':');
+		return this.dc.commitContainer(containerId, bakedImage.substring(0, separator), bakedImage.substring(separator + 1),
+				Collections.singletonMap(LABEL, this.nameImage), "Baked from " + this.nameImage);
+	}
+
+	/**
+	 * Remove the least recently used baked Images
+	 * <p>
+	 * The Images used by a Container are kept, even beyond 'keep'.
+	 * </p>
+	 *
+	 * @param keep Number of baked Images to keep, at least 1
+	 * @return Ids of the Images removed
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public List<String> evict(int keep) throws DockerException, InterruptedException
+	{
+		List<Image> baked = new ArrayList<Image>(this.dc.getDockerClient().listImages(ListImagesParam.withLabel(LABEL, this.nameImage)));
+		List<String> removed = new ArrayList<String>();
+		keep = Math.max(1, keep);
+		if (baked.size() <= keep)
+		{
+			return removed;
+		}
+
+		final Map<String, Long> lastUse = new HashMap<String, Long>();
+		for (Image i : baked)
+		{
+			lastUse.put(i.id(), Long.parseLong(i.created()));
+		}
+		for (Container c : this.dc.getDockerClient().listContainers(ListContainersParam.allContainers()))
+		{
+			Long use = lastUse.get(c.imageId());
+			if (use != null && c.created() != null && c.created() > use)
+			{
+				lastUse.put(c.imageId(), c.created());
+			}
+		}
+
+		baked.sort((a, b) -> Long.compare(lastUse.get(b.id()), lastUse.get(a.id())));
+		for (Image i : baked.subList(keep, baked.size()))
+		{
+			if (this.dc.deleteImage(i.id()))
+			{
+				removed.add(i.id());
+			}
+		}
+		return removed;
+	}
+}
@@ -0,0 +1,175 @@
+package com.gael.testdocker;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import com.spotify.docker.client.DockerClient;
+
+/**
+ * <b>DockerClient recording the metrics of its calls</b>
+ *
+ * <p>Each call of a method of {@link DockerClient} is timed and recorded in {@link DockerMetrics}
+ * under the name of the method, the overloads being merged. A call is failed if it throws.</p>
+ *
+ * <p>The bytes of copyToContainer are counted while the client reads the InputStream, and those
+ * of archiveContainer while the caller reads the returned InputStream. The latency of
+ * archiveContainer is the time until the response is received, not the time of the download.</p>
+ *
+ * @see DockerCommands.Builder#metrics(boolean)
+ *
+ * @author bellaiche
+ * @version 1.0
+ *
+ */
+public class InstrumentedDockerClient implements InvocationHandler {
+
+	private final DockerClient delegate;
+
+	private final DockerMetrics metrics;
+
+	private InstrumentedDockerClient(DockerClient delegate, DockerMetrics metrics)
+	{
+		this.delegate = delegate;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Returns a DockerClient recording the metrics of the calls to 'delegate'
+	 *
+	 * @param delegate Instance of DockerClient called
+	 * @param metrics Metrics to update
+	 * @return Instance of DockerClient
+	 */
+	public static DockerClient wrap(DockerClient delegate, DockerMetrics metrics)
+	{
+		return (DockerClient) Proxy.newProxyInstance(DockerClient.class.getClassLoader(),
+				new Class<?>[] { DockerClient.class }, new InstrumentedDockerClient(delegate, metrics));
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+	{
+		if (method.getDeclaringClass() == Object.class)
+		{
+			return invokeObject(proxy, method, args);
+		}
+
+		if ("copyToContainer".equals(method.getName()) && args[0] instanceof InputStream)
+		{
+			args = args.clone();
+			args[0] = new CountingInputStream((InputStream) args[0], this.metrics, true);
+		}
+
+		DockerMetrics.Operation operation = this.metrics.operation(method.getName());
+		long start = System.nanoTime();
+		boolean failed = true;
+		try
+		{
+			Object result = method.invoke(this.delegate, args);
+			failed = false;
+
+			if ("archiveContainer".equals(method.getName()))
+			{
+				return new CountingInputStream((InputStream) result, this.metrics, false);
+			}
+			return result;
+		}
+		catch (InvocationTargetException e)
+		{
+			throw e.getCause();
+		}
+		finally
+		{
+			operation.record(System.nanoTime() - start, failed);
+		}
+	}
+
+	/**
+	 * Methods of Object, not recorded
+	 */
+	private Object invokeObject(Object proxy, Method method, Object[] args)
+	{
+		switch (method.getName())
+		{
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			default:
+				return "Instrumented" + this.delegate;
+		}
+	}
+
+	/**
+	 * <p>InputStream counting the bytes read</p>
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+
+		private final DockerMetrics metrics;
+
+		private final boolean toContainer;
+
+		CountingInputStream(InputStream in, DockerMetrics metrics, boolean toContainer)
+		{
+			super(in);
+			this.metrics = metrics;
+			this.toContainer = toContainer;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			int b = super.read();
+			if (b >= 0)
+			{
+				count(1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			int n = super.read(b, off, len);
+			if (n > 0)
+			{
+				count(n);
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException
+		{
+			long skipped = super.skip(n);
+			if (skipped > 0)
+			{
+				count(skipped);
+			}
+			return skipped;
+		}
+
+		@Override
+		public boolean markSupported()
+		{
+			return false;
+		}
+
+		private void count(long bytes)
+		{
+			if (this.toContainer)
+			{
+				this.metrics.addBytesToContainer(bytes);
+			}
+			else
+			{
+				this.metrics.addBytesFromContainer(bytes);
+			}
+		}
+	}
+}
@@ -0,0 +1,212 @@
+package com.gael.testdocker;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <b>Histogram of latencies, in nanoseconds</b>
+ *
+ * <p>The buckets are log-linear, as in HdrHistogram : each power of two is split into
+ * {@value #SUB_BUCKETS} buckets of the same width, so the error of a value is at most
+ * 1/{@value #SUB_BUCKETS} (about 3%) from 1 nanosecond to more than one hour. The values above
+ * are counted in the last bucket.</p>
+ *
+ * <p>The recording is lock-free and does not allocate : one increment of an array and of two
+ * adders, and a compare-and-set only when the maximum grows. The reads are not atomic with the
+ * recordings, a snapshot may miss the values recorded at the same time.</p>
+ *
+ * @author bellaiche
+ * @version 1.0
+ *
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Bits of the sub-buckets of a power of two
+	 */
+	private static final int SUB_BUCKET_BITS = 5;
+
+	/**
+	 * Number of buckets by power of two
+	 */
+	public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * Highest power of two tracked : 2^42 ns, about 73 minutes
+	 */
+	private static final int MAX_EXPONENT = 42;
+
+	/**
+	 * Number of buckets
+	 */
+	private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+	private final LongAdder count = new LongAdder();
+
+	private final LongAdder sum = new LongAdder();
+
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Record a latency
+	 *
+	 * @param nanos Latency in nanoseconds, the negative values are recorded as 0
+	 */
+	public void record(long nanos)
+	{
+		long value = Math.max(0, nanos);
+		this.buckets.incrementAndGet(bucketIndex(value));
+		this.count.increment();
+		this.sum.add(value);
+
+		long current = this.max.get();
+		while (value > current && !this.max.compareAndSet(current, value))
+		{
+			current = this.max.get();
+		}
+	}
+
+	/**
+	 * @return Number of values recorded
+	 */
+	public long getCount()
+	{
+		return this.count.sum();
+	}
+
+	/**
+	 * @return Sum of the values recorded, in nanoseconds
+	 */
+	public long getSum()
+	{
+		return this.sum.sum();
+	}
+
+	/**
+	 * @return Highest value recorded, in nanoseconds
+	 */
+	public long getMax()
+	{
+		return this.max.get();
+	}
+
+	/**
+	 * @return Mean of the values, in nanoseconds, 0 if there is no value
+	 */
+	public double getMean()
+	{
+		long n = getCount();
+		return n == 0 ? 0 : (double) getSum() / n;
+	}
+
+	/**
+	 * Returns the value below which a percentage of the values fall
+	 *
+	 * @param percentile Percentage, between 0 and 100
+	 * @return Upper bound of the bucket of the percentile, in nanoseconds, 0 if there is no value
+	 */
+	public long getPercentile(double percentile)
+	{
+		long[] counts = snapshot();
+		long total = 0;
+		for (long c : counts)
+		{
+			total += c;
+		}
+		if (total == 0)
+		{
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++)
+		{
+			seen += counts[i];
+			if (seen >= rank)
+			{
+				return Math.min(upperBound(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * Returns the number of values less than or equal to a bound, at the precision of the buckets
+	 *
+	 * @param counts Counts returned by {@link #snapshot()}
+	 * @param nanos Bound in nanoseconds
+	 * @return Number of values of the buckets whose upper bound is not above 'nanos'
+	 */
+	public static long countAtOrBelow(long[] counts, long nanos)
+	{
+		long total = 0;
+		for (int i = 0; i < counts.length && upperBound(i) <= nanos; i++)
+		{
+			total += counts[i];
+		}
+		return total;
+	}
+
+	/**
+	 * @return Copy of the counts of the buckets
+	 */
+	public long[] snapshot()
+	{
+		long[] counts = new long[BUCKET_COUNT];
+		for (int i = 0; i < BUCKET_COUNT; i++)
+		{
+			counts[i] = this.buckets.get(i);
+		}
+		return counts;
+	}
+
+	/**
+	 * Returns the summary of the histogram in milliseconds
+	 */
+	@Override
+	public String toString()
+	{
+		double millis = TimeUnit.MILLISECONDS.toNanos(1);
+		return String.format("count=%d mean=%.3fms p50=%.3fms p99=%.3fms max=%.3fms",
+				getCount(), getMean() / millis, getPercentile(50) / millis, getPercentile(99) / millis, getMax() / millis);
+	}
+
+	/**
+	 * Returns the bucket of a value : the values below {@link #SUB_BUCKETS} have their own bucket,
+	 * the others are indexed by their power of two and their next {@value #SUB_BUCKET_BITS} bits
+	 */
+	static int bucketIndex(long value)
+	{
+		if (value < SUB_BUCKETS)
+		{
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if (exponent > MAX_EXPONENT)
+		{
+			return BUCKET_COUNT - 1;
+		}
+		int shift = exponent - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+		return (shift + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * Returns the highest value of a bucket
+	 */
+	static long upperBound(int index)
+	{
+		if (index < SUB_BUCKETS)
+		{
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long lowerBound = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+		return lowerBound + (1L << shift) - 1;
+	}
+}
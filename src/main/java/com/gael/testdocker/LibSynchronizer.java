@@ -0,0 +1,414 @@
+package com.gael.testdocker;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.utils.IOUtils;
+
+import com.spotify.docker.client.exceptions.ContainerNotFoundException;
+import com.spotify.docker.client.exceptions.DockerException;
+
+/**
+ * <b>Incremental synchronization of a local directory into a Container</b>
+ *
+ * <p>The files of the directory are hashed in parallel (SHA-256) and compared with a manifest
+ * stored in the target directory of the Container. Only the new and changed files are sent,
+ * the files missing locally are removed, then the manifest is updated.</p>
+ *
+ * <p>The manifest uses the format of <code>sha256sum</code>, so it can be checked inside the
+ * Container.</p>
+ *
+ * @see DockerCommands
+ * @see TarArchiveBuilder
+ *
+ * @author bellaiche
+ * @version 1.0
+ *
+ */
+public class LibSynchronizer {
+
+	/**
+	 * Name of the manifest inside the target directory of the Container
+	 */
+	public static final String MANIFEST_NAME = ".lib.sha256";
+
+	/**
+	 * Size of the buffer used to hash a file
+	 */
+	private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Buffer of each hashing thread
+	 */
+	private static final ThreadLocal<ByteBuffer> HASH_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(HASH_BUFFER_SIZE));
+
+	/**
+	 * Instance of DockerCommands
+	 */
+	private final DockerCommands dc;
+
+	/**
+	 * Local directory to synchronize
+	 */
+	private final String pathDirectory;
+
+	/**
+	 * Constructor LibSynchronizer
+	 *
+	 * @param dc Instance of DockerCommands for Docker Commands
+	 * @param pathDirectory Local directory to synchronize
+	 */
+	public LibSynchronizer(DockerCommands dc, String pathDirectory)
+	{
+		this.dc = dc;
+		this.pathDirectory = pathDirectory;
+	}
+
+	/**
+	 * Synchronize the local directory into a directory of the Container
+	 *
+	 * @param containerId Id or name of the Container, which must be running to remove files
+	 * @param pathFromContainer Target directory in the Container
+	 * @return Summary of the synchronization
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 * @throws IOException Raise if there is an error with Input/Output stream
+	 */
+	public Result sync(String containerId, String pathFromContainer) throws DockerException, InterruptedException, IOException
+	{
+		TarArchiveBuilder builder = new TarArchiveBuilder(this.pathDirectory);
+		Map<String, String> local = hash(builder);
+		Map<String, String> remote = readManifest(containerId, pathFromContainer);
+
+		List<TarArchiveBuilder.Entry> delta = new ArrayList<TarArchiveBuilder.Entry>();
+		long bytes = 0;
+		int files = 0;
+		for (TarArchiveBuilder.Entry entry : builder.getEntries())
+		{
+			if (entry.isDirectory())
+			{
+				delta.add(entry);
+			}
+			else if (!local.get(entry.getName()).equals(remote.get(entry.getName())))
+			{
+				delta.add(entry);
+				bytes += entry.getSize();
+				files++;
+			}
+		}
+
+		List<String> stale = new ArrayList<String>();
+		for (String name : remote.keySet())
+		{
+			if (!local.containsKey(name))
+			{
+				stale.add(name);
+			}
+		}
+
+		if (files > 0)
+		{
+			InputStream tarStream = Utils.createTarStream(builder, delta, this.dc.isCompressed(bytes));
+			try
+			{
+				this.dc.getDockerClient().copyToContainer(tarStream, containerId, pathFromContainer);
+			}
+			finally
+			{
+				tarStream.close();
+			}
+		}
+
+		if (!stale.isEmpty())
+		{
+			removeFiles(containerId, pathFromContainer, stale);
+		}
+
+		if (files > 0 || !stale.isEmpty() || remote.isEmpty())
+		{
+			writeManifest(containerId, pathFromContainer, local);
+		}
+
+		return new Result(files, bytes, stale.size(), local.size() - files);
+	}
+
+	/**
+	 * Returns the hash of each file of the directory, computed in parallel
+	 *
+	 * @param builder Builder of the archive of the directory
+	 * @return Map of relative name to hexadecimal SHA-256
+	 * @throws IOException Raise if a file can not be read
+	 */
+	public Map<String, String> hash(TarArchiveBuilder builder) throws IOException
+	{
+		return hashFiles(builder.getEntries());
+	}
+
+	/**
+	 * Returns the hash of each file of a selection of entries, computed in parallel
+	 *
+	 * @param entries Entries of an archive, the directories are skipped
+	 * @return Map of relative name to hexadecimal SHA-256
+	 * @throws IOException Raise if a file can not be read
+	 */
+	public static Map<String, String> hashFiles(Collection<TarArchiveBuilder.Entry> entries) throws IOException
+	{
+		final Map<String, String> hashes = new ConcurrentHashMap<String, String>();
+
+		try
+		{
+			entries.parallelStream().filter(entry -> !entry.isDirectory()).forEach(entry -> {
+				try
+				{
+					hashes.put(entry.getName(), hashFile(entry));
+				}
+				catch (IOException e)
+				{
+					throw new UncheckedIOException(e);
+				}
+			});
+		}
+		catch (UncheckedIOException e)
+		{
+			throw e.getCause();
+		}
+
+		return new TreeMap<String, String>(hashes);
+	}
+
+	/**
+	 * Returns the hash of a directory : the SHA-256 of the name and hash of each file
+	 *
+	 * @param pathDirectory Local directory
+	 * @return Hexadecimal SHA-256, which changes when a file is added, removed, renamed or modified
+	 * @throws IOException Raise if a file can not be read
+	 */
+	public static String directoryHash(String pathDirectory) throws IOException
+	{
+		MessageDigest digest = newDigest();
+		for (Map.Entry<String, String> hash : hashFiles(new TarArchiveBuilder(pathDirectory).getEntries()).entrySet())
+		{
+			digest.update((hash.getValue() + "  " + hash.getKey() + "\n").getBytes(StandardCharsets.UTF_8));
+		}
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Returns the SHA-256 of a file
+	 */
+	private static String hashFile(TarArchiveBuilder.Entry entry) throws IOException
+	{
+		MessageDigest digest = newDigest();
+		ByteBuffer buffer = HASH_BUFFER.get();
+
+		FileChannel channel = FileChannel.open(entry.getPath(), StandardOpenOption.READ);
+		try
+		{
+			buffer.clear();
+			while (channel.read(buffer) >= 0)
+			{
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+		}
+		finally
+		{
+			channel.close();
+		}
+
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Returns the manifest of the Container, empty if there is no manifest
+	 */
+	private Map<String, String> readManifest(String containerId, String pathFromContainer) throws DockerException, InterruptedException, IOException
+	{
+		Map<String, String> manifest = new TreeMap<String, String>();
+
+		InputStream archive;
+		try
+		{
+			archive = this.dc.getDockerClient().archiveContainer(containerId, pathFromContainer + "/" + MANIFEST_NAME);
+		}
+		catch (ContainerNotFoundException e)
+		{
+			// the client raises the same exception for a missing path and a missing Container
+			this.dc.getDockerClient().inspectContainer(containerId);
+			// no manifest yet : every file is sent
+			return manifest;
+		}
+
+		TarArchiveInputStream tarArchive = new TarArchiveInputStream(archive);
+		try
+		{
+			if (tarArchive.getNextTarEntry() != null)
+			{
+				String content = new String(IOUtils.toByteArray(tarArchive), StandardCharsets.UTF_8);
+				for (String line : content.split("\n"))
+				{
+					int separator = line.indexOf("  ");
+					if (separator > 0)
+					{
+						manifest.put(line.substring(separator + 2), line.substring(0, separator));
+					}
+				}
+			}
+		}
+		finally
+		{
+			tarArchive.close();
+		}
+
+		return manifest;
+	}
+
+	/**
+	 * Write the manifest into the Container
+	 */
+	private void writeManifest(String containerId, String pathFromContainer, Map<String, String> hashes) throws DockerException, InterruptedException, IOException
+	{
+		StringBuilder content = new StringBuilder();
+		for (Map.Entry<String, String> hash : hashes.entrySet())
+		{
+			content.append(hash.getValue()).append("  ").append(hash.getKey()).append('\n');
+		}
+		byte[] data = content.toString().getBytes(StandardCharsets.UTF_8);
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream(data.length + 2048);
+		TarArchiveOutputStream tarArchive = new TarArchiveOutputStream(output);
+		TarArchiveEntry tarEntry = new TarArchiveEntry(MANIFEST_NAME);
+		tarEntry.setSize(data.length);
+		tarArchive.putArchiveEntry(tarEntry);
+		tarArchive.write(data);
+		tarArchive.closeArchiveEntry();
+		tarArchive.close();
+
+		this.dc.getDockerClient().copyToContainer(new ByteArrayInputStream(output.toByteArray()), containerId, pathFromContainer);
+	}
+
+	/**
+	 * Remove files from the Container and wait the end of the command
+	 */
+	private void removeFiles(String containerId, String pathFromContainer, List<String> names) throws DockerException, InterruptedException
+	{
+		if (!this.dc.getDockerClient().inspectContainer(containerId).state().running())
+		{
+			throw new DockerException("Container " + containerId + " is not running, its " + names.size() + " stale file(s) can not be removed");
+		}
+
+		List<String> command = new ArrayList<String>();
+		Collections.addAll(command, "rm", "-f", "--");
+		for (String name : names)
+		{
+			command.add(pathFromContainer + "/" + name);
+		}
+
+		int exitCode = this.dc.getExecManager().execAndWait(containerId, command.toArray(new String[command.size()]), null, System.err, 0);
+		if (exitCode != 0)
+		{
+			throw new DockerException("Removal of stale files failed with exit code " + exitCode);
+		}
+	}
+
+	static MessageDigest newDigest()
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static String toHex(byte[] bytes)
+	{
+		char[] digits = "0123456789abcdef".toCharArray();
+		char[] hex = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++)
+		{
+			hex[2 * i] = digits[(bytes[i] >> 4) & 0xf];
+			hex[2 * i + 1] = digits[bytes[i] & 0xf];
+		}
+		return new String(hex);
+	}
+
+	/**
+	 * <p>Summary of a synchronization</p>
+	 */
+	public static class Result {
+
+		private final int copied;
+		private final long bytesCopied;
+		private final int removed;
+		private final int unchanged;
+
+		Result(int copied, long bytesCopied, int removed, int unchanged)
+		{
+			this.copied = copied;
+			this.bytesCopied = bytesCopied;
+			this.removed = removed;
+			this.unchanged = unchanged;
+		}
+
+		/**
+		 * @return Number of new or changed files sent
+		 */
+		public int getCopied()
+		{
+			return this.copied;
+		}
+
+		/**
+		 * @return Size of the files sent, in bytes
+		 */
+		public long getBytesCopied()
+		{
+			return this.bytesCopied;
+		}
+
+		/**
+		 * @return Number of files removed from the Container
+		 */
+		public int getRemoved()
+		{
+			return this.removed;
+		}
+
+		/**
+		 * @return Number of files already up to date
+		 */
+		public int getUnchanged()
+		{
+			return this.unchanged;
+		}
+
+		@Override
+		public String toString()
+		{
+			return copied + " file(s) copied (" + bytesCopied + " bytes), " + removed + " removed, " + unchanged + " unchanged";
+		}
+	}
+}
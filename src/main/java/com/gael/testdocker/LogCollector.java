@@ -0,0 +1,487 @@
+package com.gael.testdocker;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.DockerClient.LogsParam;
+import com.spotify.docker.client.LogMessage;
+import com.spotify.docker.client.LogStream;
+import com.spotify.docker.client.exceptions.DockerException;
+
+/**
+ * <b>Collector of the logs of Containers into rolling files</b>
+ *
+ * <p>The logs of each followed Container, stdout and stderr interleaved as by 'docker logs', are
+ * written into directory/name.log. The content of the frames demultiplexed by the client is
+ * copied as bytes into a direct buffer of 64 KiB per Container, written to the file channel when
+ * full and every second, so a chatty Container costs one system call per 64 KiB instead of one
+ * per line, and no String is created.</p>
+ *
+ * <p>A file is rolled between two frames when it would exceed its maximum size, or by the timer
+ * when it is older than its maximum age : name.log becomes name.log.1, name.log.1 becomes
+ * name.log.2, and so on up to the number of files kept.</p>
+ *
+ * <p>A follow holds a connection of the pool without read timeout of the client until the
+ * Container stops, so a quiet Container does not cut its stream.</p>
+ *
+ * @see DockerCommands#getLogCollector()
+ *
+ * @author bellaiche
+ * @version 1.0
+ *
+ */
+public class LogCollector {
+
+	/**
+	 * Size of the buffer of each file
+	 */
+	private static final int BUFFER_BYTES = 64 * 1024;
+
+	/**
+	 * Interval of the writes of the buffers and of the checks of the age of the files
+	 */
+	private static final long FLUSH_MILLIS = 1000;
+
+	private final DockerClient docker;
+
+	private final Rotation rotation;
+
+	/**
+	 * Threads reading the streams, one per followed Container
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * Thread writing the buffers and rolling the files by age
+	 */
+	private final ScheduledExecutorService timer;
+
+	/**
+	 * Follows running, by Id or name of the Container
+	 */
+	private final Map<String, Follow> follows = new ConcurrentHashMap<String, Follow>();
+
+	/**
+	 * Constructor LogCollector
+	 *
+	 * @param docker Instance of DockerClient
+	 * @param rotation Directory and rotation of the files
+	 * @throws IOException Raise if the directory can not be created
+	 */
+	public LogCollector(DockerClient docker, Rotation rotation) throws IOException
+	{
+		this.docker = docker;
+		this.rotation = rotation;
+		Files.createDirectories(rotation.getDirectory());
+		this.executor = Executors.newCachedThreadPool(Utils.daemonThreads("docker-logs-"));
+		this.timer = Executors.newSingleThreadScheduledExecutor(Utils.daemonThreads("docker-logs-timer-"));
+		this.timer.scheduleWithFixedDelay(this::flush, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Follow the logs of a Container until it stops, from its first line
+	 * <p>
+	 * A Container already followed is not followed twice.
+	 * </p>
+	 *
+	 * @param containerId Id or name of the Container, also the name of its file
+	 * @return Future completed with the number of bytes written when the Container stops or the follow is stopped,
+	 * or with the error of the API
+	 * @throws IOException Raise if the file can not be opened
+	 */
+	public CompletableFuture<Long> follow(String containerId) throws IOException
+	{
+		synchronized (this.follows)
+		{
+			Follow running = this.follows.get(containerId);
+			if (running != null)
+			{
+				return running.future;
+			}
+			Follow follow = new Follow(containerId, new RollingFile(this.rotation.fileOf(containerId), this.rotation));
+			this.follows.put(containerId, follow);
+			follow.future.whenComplete((bytes, error) -> this.follows.remove(containerId, follow));
+			this.executor.execute(follow::run);
+			return follow.future;
+		}
+	}
+
+	/**
+	 * Stop to follow the logs of a Container, its file is written and closed
+	 *
+	 * @param containerId Id or name of the Container given to {@link #follow(String)}
+	 * @return True if the Container was followed
+	 */
+	public boolean stop(String containerId)
+	{
+		Follow follow = this.follows.get(containerId);
+		if (follow == null)
+		{
+			return false;
+		}
+		follow.stop();
+		return true;
+	}
+
+	/**
+	 * @return Directory and rotation of the files
+	 */
+	public Rotation getRotation()
+	{
+		return this.rotation;
+	}
+
+	/**
+	 * @return Bytes written since the start of the follow, by followed Container
+	 */
+	public Map<String, Long> getBytesWritten()
+	{
+		Map<String, Long> bytes = new TreeMap<String, Long>();
+		for (Follow follow : this.follows.values())
+		{
+			bytes.put(follow.containerId, follow.file.getBytesWritten());
+		}
+		return bytes;
+	}
+
+	/**
+	 * Stop all the follows, their files are written and closed
+	 */
+	public void close()
+	{
+		for (Follow follow : this.follows.values())
+		{
+			follow.stop();
+		}
+		this.executor.shutdown();
+		try
+		{
+			this.executor.awaitTermination(5, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		this.timer.shutdownNow();
+	}
+
+	/**
+	 * Write the buffers and roll the files too old
+	 */
+	private void flush()
+	{
+		long now = System.currentTimeMillis();
+		for (Follow follow : this.follows.values())
+		{
+			try
+			{
+				follow.file.flush(now);
+			}
+			catch (IOException e)
+			{
+				System.err.println("Logs of " + follow.containerId + " not written : " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * <p>Directory of the files and their rotation</p>
+	 */
+	public static class Rotation {
+
+		private final Path directory;
+
+		private final long maxBytes;
+
+		private final long maxAgeMillis;
+
+		private final int maxFiles;
+
+		/**
+		 * Constructor Rotation
+		 *
+		 * @param directory Directory of the files
+		 * @param maxBytes Maximum size of a file, 0 for no limit
+		 * @param maxAgeMillis Maximum age of a file, 0 for no limit
+		 * @param maxFiles Number of rolled files kept
+		 */
+		public Rotation(String directory, long maxBytes, long maxAgeMillis, int maxFiles)
+		{
+			this.directory = Paths.get(directory);
+			this.maxBytes = maxBytes;
+			this.maxAgeMillis = maxAgeMillis;
+			this.maxFiles = Math.max(0, maxFiles);
+		}
+
+		/**
+		 * @return Directory of the files
+		 */
+		public Path getDirectory()
+		{
+			return this.directory;
+		}
+
+		/**
+		 * Returns the file of the logs of a Container, the characters not allowed in a file name replaced by '_'
+		 *
+		 * @param containerId Id or name of the Container
+		 * @return Path of the current file
+		 */
+		public Path fileOf(String containerId)
+		{
+			return this.directory.resolve(containerId.replaceAll("[^A-Za-z0-9_.-]", "_") + ".log");
+		}
+
+		@Override
+		public String toString()
+		{
+			return this.directory + " : " + (this.maxBytes > 0 ? this.maxBytes + " bytes" : "no size limit") + ", "
+					+ (this.maxAgeMillis > 0 ? TimeUnit.MILLISECONDS.toSeconds(this.maxAgeMillis) + " s" : "no age limit") + ", "
+					+ this.maxFiles + " rolled files kept";
+		}
+	}
+
+	/**
+	 * <p>Follow of the logs of a Container</p>
+	 */
+	private class Follow {
+
+		private final String containerId;
+
+		private final RollingFile file;
+
+		private final CompletableFuture<Long> future = new CompletableFuture<Long>();
+
+		private final AtomicReference<LogStream> stream = new AtomicReference<LogStream>();
+
+		private volatile boolean stopped;
+
+		Follow(String containerId, RollingFile file)
+		{
+			this.containerId = containerId;
+			this.file = file;
+		}
+
+		void run()
+		{
+			try
+			{
+				LogStream logs = docker.logs(this.containerId, LogsParam.follow(), LogsParam.stdout(), LogsParam.stderr());
+				this.stream.set(logs);
+				try
+				{
+					// until the end of the stream, the Container stopped
+					while (!this.stopped && logs.hasNext())
+					{
+						LogMessage message = logs.next();
+						this.file.write(message.content());
+					}
+				}
+				catch (RuntimeException e)
+				{
+					if (!this.stopped)
+					{
+						throw e;
+					}
+				}
+				finally
+				{
+					closeQuietly(this.stream.getAndSet(null));
+				}
+				this.file.close();
+				this.future.complete(this.file.getBytesWritten());
+			}
+			catch (DockerException | IOException | RuntimeException e)
+			{
+				this.file.closeQuietly();
+				this.future.completeExceptionally(e);
+			}
+			catch (InterruptedException e)
+			{
+				this.file.closeQuietly();
+				this.future.completeExceptionally(e);
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		void stop()
+		{
+			this.stopped = true;
+			closeQuietly(this.stream.getAndSet(null));
+		}
+
+		private void closeQuietly(LogStream logs)
+		{
+			if (logs != null)
+			{
+				try
+				{
+					logs.close();
+				}
+				catch (RuntimeException e)
+				{
+					// connection already released
+				}
+			}
+		}
+	}
+
+	/**
+	 * <p>File of the logs of a Container, written through a direct buffer</p>
+	 */
+	private static class RollingFile {
+
+		private final Path path;
+
+		private final Rotation rotation;
+
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+
+		private FileChannel channel;
+
+		/**
+		 * Size of the current file, with the bytes still in the buffer
+		 */
+		private long size;
+
+		private long openedMillis;
+
+		private volatile long bytesWritten;
+
+		RollingFile(Path path, Rotation rotation) throws IOException
+		{
+			this.path = path;
+			this.rotation = rotation;
+			open();
+		}
+
+		/**
+		 * Append a frame, after a roll if the file would exceed its maximum size
+		 */
+		synchronized void write(ByteBuffer content) throws IOException
+		{
+			int length = content.remaining();
+			if (this.rotation.maxBytes > 0 && this.size > 0 && this.size + length > this.rotation.maxBytes)
+			{
+				roll();
+			}
+			while (content.hasRemaining())
+			{
+				if (!this.buffer.hasRemaining())
+				{
+					drain();
+				}
+				int n = Math.min(content.remaining(), this.buffer.remaining());
+				ByteBuffer chunk = content.duplicate();
+				chunk.limit(chunk.position() + n);
+				this.buffer.put(chunk);
+				content.position(content.position() + n);
+			}
+			this.size += length;
+			this.bytesWritten += length;
+		}
+
+		/**
+		 * Write the buffer, then roll the file if it is too old
+		 */
+		synchronized void flush(long now) throws IOException
+		{
+			if (this.channel == null)
+			{
+				return;
+			}
+			drain();
+			if (this.rotation.maxAgeMillis > 0 && this.size > 0 && now - this.openedMillis >= this.rotation.maxAgeMillis)
+			{
+				roll();
+			}
+		}
+
+		long getBytesWritten()
+		{
+			return this.bytesWritten;
+		}
+
+		synchronized void close() throws IOException
+		{
+			if (this.channel != null)
+			{
+				drain();
+				this.channel.close();
+				this.channel = null;
+			}
+		}
+
+		void closeQuietly()
+		{
+			try
+			{
+				close();
+			}
+			catch (IOException e)
+			{
+				System.err.println("Logs " + this.path + " not closed : " + e.getMessage());
+			}
+		}
+
+		private void open() throws IOException
+		{
+			this.channel = FileChannel.open(this.path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			this.size = this.channel.size();
+			this.openedMillis = System.currentTimeMillis();
+		}
+
+		private void drain() throws IOException
+		{
+			this.buffer.flip();
+			while (this.buffer.hasRemaining())
+			{
+				this.channel.write(this.buffer);
+			}
+			this.buffer.clear();
+		}
+
+		/**
+		 * Close the file, shift the rolled files and open a new file
+		 */
+		private void roll() throws IOException
+		{
+			close();
+			String name = this.path.getFileName().toString();
+			if (this.rotation.maxFiles == 0)
+			{
+				Files.delete(this.path);
+			}
+			else
+			{
+				Files.deleteIfExists(this.path.resolveSibling(name + "." + this.rotation.maxFiles));
+				for (int i = this.rotation.maxFiles - 1; i >= 1; i--)
+				{
+					Path rolled = this.path.resolveSibling(name + "." + i);
+					if (Files.exists(rolled))
+					{
+						Files.move(rolled, this.path.resolveSibling(name + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+					}
+				}
+				Files.move(this.path, this.path.resolveSibling(name + ".1"), StandardCopyOption.REPLACE_EXISTING);
+			}
+			open();
+		}
+	}
+}
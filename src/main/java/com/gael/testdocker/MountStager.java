@@ -0,0 +1,458 @@
+package com.gael.testdocker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.LinkOption;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import com.spotify.docker.client.exceptions.DockerException;
+
+/**
+ * <b>Placement of a directory into a Container through the bind mount of the host</b>
+ *
+ * <p>The files are placed directly into the directory of the host mounted in the Container, so
+ * the Container sees them at once, without an archive sent to Docker. On the same file system,
+ * a big file is placed by a hard link or a reflink, whatever its size, otherwise it is copied.
+ * The small files are copied. The paths placed are recorded in the manifest {@value #MANIFEST} of
+ * the mount, and only those which are no longer in the directory are removed at the next
+ * placement : a directory of the host which is not empty and has no manifest is refused.</p>
+ *
+ * <p>A hard link shares the inode with the source : a change made through the mount changes the
+ * source on the host, so the mount of a Container staged with LINK must be read-only. A reflink
+ * shares only the blocks, copied on write, but needs a file system with reflinks (btrfs, xfs).
+ * The mount must be on the machine of the Docker daemon.</p>
+ *
+ * @see DockerCommands#createContainer(String[], String, String, String, String)
+ *
+ * @author bellaiche
+ * @version 1.0
+ *
+ */
+public class MountStager {
+
+	/**
+	 * <p>Placement of the big files</p>
+	 */
+	public enum Mode {
+		COPY,
+		LINK,
+		REFLINK
+	}
+
+	/**
+	 * Default size from which a file is placed in the mount, 1 MiB
+	 */
+	public static final long DEFAULT_MIN_BYTES = 1L << 20;
+
+	/**
+	 * Name of the manifest of the mount, the paths placed relative to the mount, one by line
+	 */
+	public static final String MANIFEST = ".testdocker-staged";
+
+	private final DockerCommands dc;
+
+	private final Path pathHostMount;
+
+	private final Path pathContainerMount;
+
+	private final Mode mode;
+
+	private final long minBytes;
+
+	/**
+	 * False once a link of 'mode' failed, the next files are then copied at once
+	 */
+	private volatile boolean linkSupported = true;
+
+	/**
+	 * Constructor MountStager
+	 *
+	 * @param dc Instance of DockerCommands for Docker Commands
+	 * @param pathHostMount Directory of the host mounted in the Container
+	 * @param pathContainerMount Path of the mount in the Container
+	 * @param mode Placement of the big files, COPY to send all the files with copyToContainer
+	 * @param minBytes Size from which a file is placed in the mount
+	 */
+	public MountStager(DockerCommands dc, String pathHostMount, String pathContainerMount, Mode mode, long minBytes)
+	{
+		this.dc = dc;
+		this.pathHostMount = Paths.get(pathHostMount).toAbsolutePath().normalize();
+		this.pathContainerMount = Paths.get(pathContainerMount).normalize();
+		this.mode = mode;
+		this.minBytes = minBytes;
+	}
+
+	/**
+	 * Place the files of a directory into a directory of the Container
+	 * <p>
+	 * If 'pathFromContainer' is not under the mount, all the files are sent with copyToContainer.
+	 * A file already linked to its source is kept as is, the files and directories placed before
+	 * which are no longer in 'pathDirectory' are removed.
+	 * </p>
+	 *
+	 * @param pathDirectory Directory with the files to add into Container
+	 * @param containerId Id of Container to use, created with the mount
+	 * @param pathFromContainer Path from Container to add files
+	 * @return Summary of the placement
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 * @throws IOException Raise if there is an error with Input/Output stream, or if the mount can not be used
+	 *         as {@link #checkMount(String, String)}
+	 */
+	public Result stage(String pathDirectory, String containerId, String pathFromContainer) throws DockerException, InterruptedException, IOException
+	{
+		long started = System.nanoTime();
+		Path inContainer = Paths.get(pathFromContainer).normalize();
+		Path target = null;
+		if (this.mode != Mode.COPY && inContainer.startsWith(this.pathContainerMount))
+		{
+			target = this.pathHostMount.resolve(this.pathContainerMount.relativize(inContainer).toString());
+		}
+		else if (this.mode != Mode.COPY)
+		{
+			System.err.println(pathFromContainer + " is not under the mount " + this.pathContainerMount + ", the files are copied into the Container");
+		}
+
+		TarArchiveBuilder builder = new TarArchiveBuilder(pathDirectory);
+		int linked = 0;
+		int copied = 0;
+		long bytesStaged = 0;
+		if (target == null)
+		{
+			long bytesSent = 0;
+			int filesSent = 0;
+			for (TarArchiveBuilder.Entry entry : builder.getEntries())
+			{
+				bytesSent += entry.getSize();
+				filesSent += entry.isDirectory() ? 0 : 1;
+			}
+			InputStream tarStream = Utils.createTarStream(builder, builder.getEntries(), this.dc.isCompressed(bytesSent));
+			try
+			{
+				this.dc.getDockerClient().copyToContainer(tarStream, containerId, pathFromContainer);
+			}
+			finally
+			{
+				tarStream.close();
+			}
+			return new Result(0, 0, 0, filesSent, bytesSent, (System.nanoTime() - started) / 1000000);
+		}
+
+		try
+		{
+			checkMount(this.pathHostMount.toString(), pathDirectory);
+		}
+		catch (IllegalArgumentException e)
+		{
+			throw new IOException(e.getMessage());
+		}
+		Set<String> previous = readManifest(this.pathHostMount);
+		Set<Path> staged = new HashSet<Path>();
+		Files.createDirectories(target);
+		for (TarArchiveBuilder.Entry entry : builder.getEntries())
+		{
+			Path path = target.resolve(entry.getName()).normalize();
+			staged.add(path);
+			if (entry.isDirectory())
+			{
+				Files.createDirectories(path);
+				continue;
+			}
+			if (entry.getSize() >= this.minBytes && place(entry.getPath(), path))
+			{
+				linked++;
+			}
+			else
+			{
+				copy(entry.getPath(), path);
+				copied++;
+			}
+			bytesStaged += entry.getSize();
+		}
+		prune(this.pathHostMount, previous, staged);
+		writeManifest(this.pathHostMount, staged);
+		return new Result(linked, copied, bytesStaged, 0, 0, (System.nanoTime() - started) / 1000000);
+	}
+
+	/**
+	 * Place a file in the mount by a link
+	 *
+	 * @return True if the file is linked, false if the link is refused
+	 */
+	private boolean place(Path source, Path target) throws IOException
+	{
+		if (Files.exists(target) && Files.isSameFile(source, target))
+		{
+			return true;
+		}
+		Files.createDirectories(target.getParent());
+		Files.deleteIfExists(target);
+		if (this.linkSupported)
+		{
+			String reason = "not supported by the file system";
+			try
+			{
+				if (this.mode == Mode.LINK)
+				{
+					// a hard link to a symbolic link would be the link itself, dangling in the Container
+					Files.createLink(target, source.toRealPath());
+					return true;
+				}
+				if (reflink(source, target))
+				{
+					return true;
+				}
+			}
+			catch (IOException | UnsupportedOperationException e)
+			{
+				reason = e.toString();
+			}
+			System.err.println(this.mode + " of " + source + " refused, the files are copied : " + reason);
+			this.linkSupported = false;
+			Files.deleteIfExists(target);
+		}
+		return false;
+	}
+
+	/**
+	 * Check that a directory of the host can be used as mount for the files of a directory
+	 * <p>
+	 * The mount must not be the directory, contain it or be in it, and must be missing, empty or
+	 * with the manifest of a previous placement, as its other files would be removed.
+	 * </p>
+	 *
+	 * @param pathHostMount Directory of the host mounted in the Container
+	 * @param pathDirectory Directory with the files to place
+	 * @throws IllegalArgumentException Raise if the mount can not be used
+	 */
+	public static void checkMount(String pathHostMount, String pathDirectory)
+	{
+		Path mount = Paths.get(pathHostMount).toAbsolutePath().normalize();
+		Path directory = Paths.get(pathDirectory).toAbsolutePath().normalize();
+		if (directory.startsWith(mount) || mount.startsWith(directory))
+		{
+			throw new IllegalArgumentException("Mount " + mount + " overlaps the directory " + directory);
+		}
+		if (!Files.isDirectory(mount) || Files.exists(mount.resolve(MANIFEST)))
+		{
+			return;
+		}
+		try (Stream<Path> files = Files.list(mount))
+		{
+			if (files.findAny().isPresent())
+			{
+				throw new IllegalArgumentException("Mount " + mount + " is not empty and has no " + MANIFEST + ", its files would be removed");
+			}
+		}
+		catch (IOException e)
+		{
+			throw new IllegalArgumentException("Mount " + mount + " can not be read : " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Copy a file in the mount, unless the same file is already there
+	 */
+	private static void copy(Path source, Path target) throws IOException
+	{
+		if (Files.exists(target, LinkOption.NOFOLLOW_LINKS))
+		{
+			BasicFileAttributes from = Files.readAttributes(source, BasicFileAttributes.class);
+			BasicFileAttributes to = Files.readAttributes(target, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+			// a file linked to another source is replaced, the copy does not change the source
+			if (to.isRegularFile() && to.size() == from.size() && to.lastModifiedTime().equals(from.lastModifiedTime())
+					&& !Files.isSameFile(source, target))
+			{
+				return;
+			}
+			Files.delete(target);
+		}
+		Files.createDirectories(target.getParent());
+		Files.copy(source, target, StandardCopyOption.COPY_ATTRIBUTES);
+	}
+
+	/**
+	 * Remove the paths of the manifest which were not staged this time, the directories only if empty
+	 */
+	private static void prune(Path mount, Set<String> previous, Set<Path> staged) throws IOException
+	{
+		List<Path> removed = new ArrayList<Path>();
+		for (String name : previous)
+		{
+			Path path = mount.resolve(name).normalize();
+			if (path.startsWith(mount) && !path.equals(mount) && !staged.contains(path))
+			{
+				removed.add(path);
+			}
+		}
+		// the children before their directory
+		removed.sort(Comparator.reverseOrder());
+		for (Path path : removed)
+		{
+			try
+			{
+				Files.deleteIfExists(path);
+			}
+			catch (DirectoryNotEmptyException e)
+			{
+				// a file not placed by the stager is kept
+			}
+		}
+	}
+
+	/**
+	 * Returns the paths of the manifest of the mount, empty if there is none
+	 */
+	private static Set<String> readManifest(Path mount) throws IOException
+	{
+		Path manifest = mount.resolve(MANIFEST);
+		Set<String> names = new HashSet<String>();
+		if (Files.exists(manifest))
+		{
+			for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8))
+			{
+				if (!line.isEmpty())
+				{
+					names.add(line);
+				}
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * Write the manifest of the mount, replaced at once
+	 */
+	private static void writeManifest(Path mount, Set<Path> staged) throws IOException
+	{
+		List<String> names = new ArrayList<String>();
+		for (Path path : staged)
+		{
+			names.add(mount.relativize(path).toString());
+		}
+		Collections.sort(names);
+		Path temporary = mount.resolve(MANIFEST + ".tmp");
+		Files.write(temporary, names, StandardCharsets.UTF_8);
+		Files.move(temporary, mount.resolve(MANIFEST), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Clone a file with 'cp --reflink=always', there is no reflink in the JDK
+	 *
+	 * @return True if the file is cloned
+	 */
+	private static boolean reflink(Path source, Path target) throws IOException
+	{
+		Process process = new ProcessBuilder("cp", "--reflink=always", "--preserve=mode,timestamps", source.toString(), target.toString())
+				.redirectError(ProcessBuilder.Redirect.INHERIT).start();
+		try
+		{
+			return process.waitFor() == 0;
+		}
+		catch (InterruptedException e)
+		{
+			process.destroy();
+			Thread.currentThread().interrupt();
+			throw new IOException("Reflink of " + source + " interrupted", e);
+		}
+	}
+
+	/**
+	 * @return Placement of the big files
+	 */
+	public Mode getMode()
+	{
+		return this.mode;
+	}
+
+	/**
+	 * <p>Summary of a placement</p>
+	 */
+	public static class Result {
+
+		private final int linked;
+		private final int copied;
+		private final long bytesStaged;
+		private final int sent;
+		private final long bytesSent;
+		private final long millis;
+
+		Result(int linked, int copied, long bytesStaged, int sent, long bytesSent, long millis)
+		{
+			this.linked = linked;
+			this.copied = copied;
+			this.bytesStaged = bytesStaged;
+			this.sent = sent;
+			this.bytesSent = bytesSent;
+			this.millis = millis;
+		}
+
+		/**
+		 * @return Number of files placed in the mount by a hard link or a reflink
+		 */
+		public int getLinked()
+		{
+			return this.linked;
+		}
+
+		/**
+		 * @return Number of files copied into the mount, the small ones and those whose link was refused
+		 */
+		public int getCopied()
+		{
+			return this.copied;
+		}
+
+		/**
+		 * @return Size of the files placed in the mount, in bytes
+		 */
+		public long getBytesStaged()
+		{
+			return this.bytesStaged;
+		}
+
+		/**
+		 * @return Number of files sent with copyToContainer
+		 */
+		public int getSent()
+		{
+			return this.sent;
+		}
+
+		/**
+		 * @return Size of the files sent with copyToContainer, in bytes
+		 */
+		public long getBytesSent()
+		{
+			return this.bytesSent;
+		}
+
+		/**
+		 * @return Duration of the placement, in milliseconds
+		 */
+		public long getMillis()
+		{
+			return this.millis;
+		}
+
+		@Override
+		public String toString()
+		{
+			return (linked + copied) + " file(s) staged in the mount (" + bytesStaged + " bytes, " + linked + " linked, " + copied + " copied), "
+					+ sent + " sent (" + bytesSent + " bytes) in " + millis + " ms";
+		}
+	}
+}
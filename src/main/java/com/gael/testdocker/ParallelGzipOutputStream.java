@@ -0,0 +1,260 @@
+package com.gael.testdocker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * <b>Gzip compression of a stream on all the cores</b>
+ *
+ * <p>As pigz, the stream is cut in blocks compressed at the same time, each block being a
+ * complete gzip member : the concatenation of the members is a valid gzip stream, read by the
+ * Docker daemon as by gunzip. The members are written in the order of the blocks.</p>
+ *
+ * <p>The number of blocks in memory is bounded, so a slow output slows down the writer instead
+ * of filling the memory.</p>
+ *
+ * @see TransferCompression
+ *
+ * @author bellaiche
+ * @version 1.0
+ *
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+	/**
+	 * Default size of the blocks
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+	/**
+	 * Header of a gzip member : magic, deflate, no flag, no time, no extra flag, unknown OS
+	 */
+	private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+	private static volatile ExecutorService compressors;
+
+	private final OutputStream out;
+
+	private final int blockSize;
+
+	private final int level;
+
+	/**
+	 * Compressed blocks not yet written, in the order of the stream
+	 */
+	private final Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+
+	private byte[] block;
+
+	private int count;
+
+	/**
+	 * True if no block was compressed, an empty member is then written at the close
+	 */
+	private boolean empty = true;
+
+	private boolean closed;
+
+	/**
+	 * Constructor ParallelGzipOutputStream
+	 *
+	 * @param out Stream where the gzip stream is written
+	 */
+	public ParallelGzipOutputStream(OutputStream out)
+	{
+		this(out, DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * Constructor ParallelGzipOutputStream
+	 *
+	 * @param out Stream where the gzip stream is written
+	 * @param blockSize Size of the blocks compressed separately
+	 * @param level Level of compression, from 1 to 9
+	 */
+	public ParallelGzipOutputStream(OutputStream out, int blockSize, int level)
+	{
+		this.out = out;
+		this.blockSize = blockSize;
+		this.level = level;
+		this.block = new byte[blockSize];
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		this.block[this.count++] = (byte) b;
+		if (this.count == this.blockSize)
+		{
+			submit();
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		while (len > 0)
+		{
+			int n = Math.min(len, this.blockSize - this.count);
+			System.arraycopy(b, off, this.block, this.count, n);
+			this.count += n;
+			off += n;
+			len -= n;
+			if (this.count == this.blockSize)
+			{
+				submit();
+			}
+		}
+	}
+
+	/**
+	 * Compress the current block and write all the compressed blocks
+	 * <p>
+	 * Each flush ends a gzip member : flush only at the end of the data.
+	 * </p>
+	 */
+	@Override
+	public void flush() throws IOException
+	{
+		if (this.count > 0)
+		{
+			submit();
+		}
+		while (!this.pending.isEmpty())
+		{
+			writeNext();
+		}
+		this.out.flush();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if (this.closed)
+		{
+			return;
+		}
+		this.closed = true;
+		try
+		{
+			if (this.empty)
+			{
+				submit();
+			}
+			flush();
+		}
+		finally
+		{
+			for (Future<byte[]> f : this.pending)
+			{
+				f.cancel(false);
+			}
+			this.out.close();
+		}
+	}
+
+	/**
+	 * Send the current block to the compressors, waiting if too many blocks are in memory
+	 */
+	private void submit() throws IOException
+	{
+		final byte[] data = this.block;
+		final int length = this.count;
+		this.empty = false;
+		this.pending.add(compressors().submit(() -> compress(data, length, this.level)));
+		this.block = new byte[this.blockSize];
+		this.count = 0;
+
+		while (this.pending.size() > 2 * THREADS)
+		{
+			writeNext();
+		}
+	}
+
+	private void writeNext() throws IOException
+	{
+		try
+		{
+			this.out.write(this.pending.peekFirst().get());
+			this.pending.removeFirst();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Compression interrupted");
+		}
+		catch (ExecutionException e)
+		{
+			throw new IOException("Compression failed", e.getCause());
+		}
+	}
+
+	/**
+	 * Returns a block as a complete gzip member
+	 */
+	private static byte[] compress(byte[] data, int length, int level)
+	{
+		Deflater deflater = new Deflater(level, true);
+		try
+		{
+			deflater.setInput(data, 0, length);
+			deflater.finish();
+
+			ByteArrayOutputStream member = new ByteArrayOutputStream(length / 2 + 64);
+			member.write(HEADER, 0, HEADER.length);
+			byte[] buffer = new byte[16 * 1024];
+			while (!deflater.finished())
+			{
+				member.write(buffer, 0, deflater.deflate(buffer));
+			}
+
+			CRC32 crc = new CRC32();
+			crc.update(data, 0, length);
+			writeIntLE(member, (int) crc.getValue());
+			writeIntLE(member, length);
+			return member.toByteArray();
+		}
+		finally
+		{
+			deflater.end();
+		}
+	}
+
+	private static void writeIntLE(ByteArrayOutputStream out, int value)
+	{
+		out.write(value);
+		out.write(value >>> 8);
+		out.write(value >>> 16);
+		out.write(value >>> 24);
+	}
+
+	/**
+	 * Returns the threads of compression, shared by all the streams
+	 */
+	private static ExecutorService compressors()
+	{
+		if (compressors == null)
+		{
+			synchronized (ParallelGzipOutputStream.class)
+			{
+				if (compressors == null)
+				{
+					compressors = Executors.newFixedThreadPool(THREADS, Utils.daemonThreads("docker-gzip-"));
+				}
+			}
+		}
+		return compressors;
+	}
+}
@@ -3,10 +3,18 @@ package com.gael.testdocker;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
 import com.spotify.docker.client.exceptions.DockerCertificateException;
 import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.messages.ContainerInfo;
 
 /**
  * 
@@ -30,13 +38,66 @@ public class Programme {
 	private static String nameContainer;
 	private static String portProperties;
 	
-	private static String nameTar = "lib.tar";
+	private static String pathLib = "lib/";
+	private static String pathLibContainer = "/home/dhus/server/lib";
+	private static boolean syncLib;
+	private static List<String> fleetNames;
+	private static int fleetThreads;
+	private static int portOffset;
+	private static long scriptTimeout;
+	private static int metricsPort;
+	private static long readinessTimeout;
+	private static ReadinessProber.Check readinessCheck;
+	private static boolean readinessContainerAddress;
+	private static int warmPoolSize;
+	private static WarmPool.Mode warmPoolMode;
+	private static boolean bakeImage;
+	private static int bakeKeep;
+	private static String specFile;
+	private static String pathHostMount;
+	private static String pathContainerMount;
+	private static MountStager.Mode dataPlacement;
+	private static long dataPlacementMinBytes;
+	
+	/**
+	 * Pool of parked Containers, null if 'warmPoolSize' is 0
+	 * 
+	 * @see WarmPool
+	 */
+	private static WarmPool warmPool = null;
+	
+	/**
+	 * Scheduler of the Docker hosts, null if 'dockerHosts' is empty
+	 * 
+	 * @see HostScheduler
+	 */
+	private static HostScheduler scheduler = null;
 	
 	private static String configName = "config.properties";
 	private static String pathDockerFileProperty = "pathdockerfile";
 	private static String nameImageProperty = "nameImage";
 	private static String nameContainerProperty = "nameContainer";
 	private static String portsProperty = "ports";
+	private static String syncLibProperty = "syncLib";
+	private static String containerCountProperty = "containerCount";
+	private static String nameContainersProperty = "nameContainers";
+	private static String fleetThreadsProperty = "fleetThreads";
+	private static String portOffsetProperty = "portOffset";
+	private static String scriptTimeoutProperty = "scriptTimeout";
+	private static String metricsPortProperty = "metricsPort";
+	private static String readinessTimeoutProperty = "readinessTimeout";
+	private static String readinessCheckProperty = "readinessCheck";
+	private static String readinessPathProperty = "readinessPath";
+	private static String readinessAddressProperty = "readinessAddress";
+	private static String warmPoolSizeProperty = "warmPoolSize";
+	private static String warmPoolModeProperty = "warmPoolMode";
+	private static String bakeImageProperty = "bakeImage";
+	private static String bakeKeepProperty = "bakeKeep";
+	private static String specFileProperty = "specFile";
+	private static String pathHostMountProperty = "pathHostMount";
+	private static String pathContainerMountProperty = "pathContainerMount";
+	private static String dataPlacementProperty = "dataPlacement";
+	private static String dataPlacementMinBytesProperty = "dataPlacementMinBytes";
 
 	private static String usernameHub;
 	private static String emailHub;
@@ -61,8 +122,52 @@ public class Programme {
 		
 	}
 	
+    /**
+     * Provision the configuration, or with a single option :
+     * <ul>
+     * <li>--check : check the configuration and the specification, without loading the Docker client</li>
+     * <li>--ping : print the time to the first call to Docker since the start of the JVM</li>
+     * </ul>
+     * 
+     * @param args Email, username and password of the registry, or an option
+     */
     public static void main(String[] args) throws FileNotFoundException, IOException, DockerCertificateException, DockerException, InterruptedException {
 	
+    	if (args.length == 1 && args[0].equals("--check"))
+    	{
+    		System.exit(check() ? 0 : 1);
+    	}
+    	if (args.length == 1 && args[0].equals("--ping"))
+    	{
+    		System.exit(ping() ? 0 : 1);
+    	}
+    	
+    	DockerCommands dc = open(args);
+    	try
+    	{
+    		provision(dc, "latest");
+    	}
+    	finally
+    	{
+    		close(dc);
+    	}
+    	
+    	System.out.println("Done in " + (System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime()) + " ms since the start of the JVM");
+    }
+    
+    /**
+     * Read the credentials and the configuration, then create the client, the metrics server and the warm pool
+     * 
+     * @param args Email, username and password of the registry
+     * @return Instance of DockerCommands for Docker Commands
+     * @throws IOException Raise if the configuration can not be read or the metrics server not started
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 * 
+	 * @see Agent
+     */
+    static DockerCommands open(String[] args) throws IOException, DockerException, InterruptedException
+    {
     	if (args.length != 3)
     	{
     		throw new IllegalArgumentException("Error ! Programm need 3 environments variables !");
@@ -78,15 +183,173 @@ public class Programme {
     	
     	init();
     	
-    	Utils.createTar(nameTar, "lib/");
+    	dc = DockerCommands.builder().fromProperties(prop).build();
     	
-    	dc = new DockerCommands();
+    	if (dc.getMetrics() != null && metricsPort > 0)
+    	{
+    		dc.getMetrics().startHttpServer(metricsPort);
+    	}
     	
-    	createDHuS(dc);
+    	if (warmPoolSize > 0)
+    	{
+    		warmPool = createWarmPool(dc);
+    		warmPool.start();
+    	}
     	
-    	dc.close();
+    	scheduler = HostScheduler.fromProperties(prop, fleetThreads);
+    	return dc;
+    }
+    
+    /**
+     * Check the configuration and the specification without creating the client
+     * 
+     * @return True if the configuration is valid
+     * @throws IOException Raise if the configuration can not be read
+     */
+    static boolean check() throws IOException
+    {
+    	try
+    	{
+    		init();
+    		DockerCommands.builder().fromProperties(prop);
+    		if (!specFile.isEmpty())
+    		{
+    			System.out.println("Specification " + specFile + " : "
+    					+ EnvironmentSpec.fromProperties(load(specFile)).getContainers().size() + " container(s)");
+    		}
+    	}
+    	catch (IllegalArgumentException e)
+    	{
+    		System.err.println("Invalid configuration : " + e.getMessage());
+    		return false;
+    	}
+    	System.out.println("Configuration valid, " + (specFile.isEmpty() ? fleetNames.size() + " container(s)" : "specification " + specFile));
+    	return true;
+    }
+    
+    /**
+     * Create the client and ping Docker, to measure the time to the first call
+     * <p>
+     * Also the training run of the class data sharing archive of the build.
+     * </p>
+     * 
+     * @return True if Docker answered
+     * @throws IOException Raise if the configuration can not be read
+	 * @throws InterruptedException Raise if Thread is interrupted
+     */
+    static boolean ping() throws IOException, InterruptedException
+    {
+    	init();
+    	DockerCommands dc = DockerCommands.builder().fromProperties(prop).build();
+    	try
+    	{
+    		dc.getDockerClient().ping();
+    		System.out.println("First Docker API call after "
+    				+ (System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime()) + " ms since the start of the JVM");
+    		return true;
+    	}
+    	catch (DockerException e)
+    	{
+    		System.err.println("Docker not reachable : " + e.getMessage());
+    		return false;
+    	}
+    	finally
+    	{
+    		dc.close();
+    	}
+    }
+    
+    /**
+     * @return Properties of the configuration read by {@link #open(String[])}
+     */
+    static Properties getProperties()
+    {
+    	return prop;
+    }
+    
+    /**
+     * Provision the configuration : the specification, the fleet on the Docker hosts, the fleet or the single Container
+     * 
+     * @param dc Instance of DockerCommands for Docker Commands
+     * @param versionImage Version of the image
+     * @return Summary of the provisioning
+	 * @throws DockerException Raise if there is error with API or if an instance of the fleet failed
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 * @throws DockerCertificateException Raise if there is an error about Certification
+	 * @throws IOException Raise if there is an error with Input/Output stream
+     */
+    static synchronized String provision(DockerCommands dc, String versionImage) throws DockerException, InterruptedException, DockerCertificateException, IOException
+    {
+    	String summary;
+    	if (!specFile.isEmpty())
+    	{
+    		summary = checkReport(reconcile(dc, specFile));
+    	}
+    	else if (scheduler != null)
+    	{
+    		FleetProvisioner.Report report = createScheduledFleet(scheduler, versionImage);
+    		System.out.println(report);
+    		summary = checkReport(report);
+    	}
+    	else if (fleetNames.size() > 1)
+    	{
+    		FleetProvisioner.Report report = createFleet(dc, versionImage);
+    		System.out.println(report);
+    		summary = checkReport(report);
+    	}
+    	else
+    	{
+    		createDHuS(dc, versionImage);
+    		summary = "Container " + nameContainer + " provisioned";
+    	}
+    	return summary;
+    }
+    
+    /**
+     * Returns the summary of a report, or raise its failures
+     * 
+     * @param report Report of the instances provisioned
+     * @return Summary of the report, without failure
+     * @throws DockerException Raise if an instance failed, with the report
+     */
+    private static String checkReport(FleetProvisioner.Report report) throws DockerException
+    {
+    	if (report.getFailures() > 0)
+    	{
+    		throw new DockerException(report.getFailures() + " instance(s) failed :\n" + report);
+    	}
+    	return report.toString();
+    }
+    
+    /**
+     * Print the metrics, let the warm pool refill and close the client
+     * 
+     * @param dc Instance of DockerCommands for Docker Commands
+	 * @throws InterruptedException Raise if Thread is interrupted
+     */
+    static void close(DockerCommands dc) throws InterruptedException
+    {
+    	if (dc.getMetrics() != null)
+    	{
+    		for (DockerMetrics.Operation operation : dc.getMetrics().getOperations().values())
+    		{
+    			System.out.println(operation);
+    		}
+    	}
+    	
+    	if (warmPool != null)
+    	{
+    		// the parked Containers stay in Docker for the next run
+    		warmPool.awaitRefill(TimeUnit.MINUTES.toMillis(10));
+    		System.out.println(warmPool);
+    		warmPool.close();
+    	}
     	
-    	Utils.deleteFile(nameTar);
+    	if (scheduler != null)
+    	{
+    		scheduler.close();
+    	}
+    	dc.close();
     }
     
     /**
@@ -97,7 +360,17 @@ public class Programme {
      */
     private static void init() throws FileNotFoundException, IOException
     {
-    	prop = Programme.load(configName);
+    	init(Programme.load(configName));
+    }
+    
+    /**
+     * Initialize variables from properties
+     * 
+     * @param properties Properties of configuration
+     */
+    static void init(Properties properties)
+    {
+    	prop = properties;
     	
         ports = null;
     	
@@ -106,6 +379,7 @@ public class Programme {
     	nameContainer = prop.getProperty(nameContainerProperty, "centoscontainer");
     	
     	portProperties = prop.getProperty(portsProperty, "8081");
+    	syncLib = Boolean.parseBoolean(prop.getProperty(syncLibProperty, "false"));
     	
     	if (portProperties.contains(";"))
     	{
@@ -116,6 +390,69 @@ public class Programme {
     		ports = new String[1];
     		ports[0] = portProperties;
     	}
+    	
+    	fleetThreads = Integer.parseInt(prop.getProperty(fleetThreadsProperty, "8"));
+    	portOffset = Integer.parseInt(prop.getProperty(portOffsetProperty, "10"));
+    	scriptTimeout = Long.parseLong(prop.getProperty(scriptTimeoutProperty, "0"));
+    	metricsPort = Integer.parseInt(prop.getProperty(metricsPortProperty, "0"));
+    	
+    	readinessTimeout = Long.parseLong(prop.getProperty(readinessTimeoutProperty, "0"));
+    	readinessCheck = prop.getProperty(readinessCheckProperty, "http").equalsIgnoreCase("tcp")
+    			? ReadinessProber.Check.tcp()
+    			: ReadinessProber.Check.http(prop.getProperty(readinessPathProperty, "/"));
+    	readinessContainerAddress = prop.getProperty(readinessAddressProperty, "host").equalsIgnoreCase("container");
+    	
+    	warmPoolSize = Integer.parseInt(prop.getProperty(warmPoolSizeProperty, "0"));
+    	warmPoolMode = WarmPool.Mode.valueOf(prop.getProperty(warmPoolModeProperty, "stopped").toUpperCase());
+    	
+    	bakeImage = Boolean.parseBoolean(prop.getProperty(bakeImageProperty, "false"));
+    	bakeKeep = Integer.parseInt(prop.getProperty(bakeKeepProperty, "3"));
+    	specFile = prop.getProperty(specFileProperty, "");
+    	
+    	pathHostMount = prop.getProperty(pathHostMountProperty, "");
+    	pathContainerMount = prop.getProperty(pathContainerMountProperty, "");
+    	dataPlacement = MountStager.Mode.valueOf(prop.getProperty(dataPlacementProperty, "copy").toUpperCase());
+    	dataPlacementMinBytes = Long.parseLong(prop.getProperty(dataPlacementMinBytesProperty, String.valueOf(MountStager.DEFAULT_MIN_BYTES)));
+    	if (dataPlacement != MountStager.Mode.COPY && (pathHostMount.isEmpty() || pathContainerMount.isEmpty()))
+    	{
+    		throw new IllegalArgumentException("Property " + dataPlacementProperty + " needs " + pathHostMountProperty + " and " + pathContainerMountProperty);
+    	}
+    	if (dataPlacement != MountStager.Mode.COPY && !Paths.get(pathContainerMount).normalize().equals(Paths.get(pathLibContainer).normalize()))
+    	{
+    		// a mount above the lib would hide the server of the Image
+    		throw new IllegalArgumentException("Property " + dataPlacementProperty + " needs " + pathContainerMountProperty + "=" + pathLibContainer
+    				+ ", not " + pathContainerMount);
+    	}
+    	if (dataPlacement != MountStager.Mode.COPY)
+    	{
+    		// the mount is pruned at each placement, it must not hold the lib or other files
+    		MountStager.checkMount(pathHostMount, pathLib);
+    	}
+    	if (bakeImage && dataPlacement != MountStager.Mode.COPY)
+    	{
+    		// docker commit does not include the content of the mount
+    		System.err.println("Property " + bakeImageProperty + " ignored with " + dataPlacementProperty + "=" + dataPlacement.name().toLowerCase());
+    		bakeImage = false;
+    	}
+    	
+    	fleetNames = new ArrayList<String>();
+    	String nameContainers = prop.getProperty(nameContainersProperty, "");
+    	if (!nameContainers.isEmpty())
+    	{
+    		fleetNames.addAll(Arrays.asList(nameContainers.split(";")));
+    	}
+    	else
+    	{
+    		int containerCount = Integer.parseInt(prop.getProperty(containerCountProperty, "1"));
+    		if (containerCount <= 1)
+    		{
+    			fleetNames.add(nameContainer);
+    		}
+    		for (int i = 1; containerCount > 1 && i <= containerCount; i++)
+    		{
+    			fleetNames.add(nameContainer + "-" + i);
+    		}
+    	}
     }
     
     /**
@@ -156,22 +493,319 @@ public class Programme {
     		versionImage = "latest";
     	}
     	
-    	if (!dc.existImage(nameImage))
-    	{
-    		dc.pullImage(usernameHub+"/"+nameImage+":"+versionImage, emailHub, usernameHub, passwordHub);
-    	}
+    	pullImage(dc, versionImage);
     	
     	if (!dc.existContainer(nameContainer, false))
     	{
+    		long started = System.nanoTime();
+    		String claimed = warmPool != null ? warmPool.claim(nameContainer) : null;
+    		if (claimed != null)
+    		{
+    			System.out.println("Container " + nameContainer + " claimed from the pool : " + dc.getEndpoints(claimed, false));
+    			waitReady(dc, claimed, started);
+    			return;
+    		}
+    		
+    		ImageBaker baker = bakeImage ? new ImageBaker(dc, nameImage) : null;
+    		String bakedImage = baker != null ? baker.bakedImage(pathLib) : null;
+    		if (bakedImage != null && dc.existImage(bakedImage))
+    		{
+    			String containerId = dc.createContainer(ports, nameContainer, bakedImage);
+    			dc.startContainer(containerId);
+    			System.out.println("Container " + nameContainer + " created from " + bakedImage);
+    			waitReady(dc, containerId, started);
+    			return;
+    		}
+    		
     		String containerId = createAndStartContainer(dc);
-        	dc.addFileToContainer(nameTar, containerId, "/home/dhus/server/lib");
+        	stageLib(dc, containerId);
         	launchCommand(dc, containerId);
+        	if (baker != null)
+        	{
+        		System.out.println("Image " + bakedImage + " baked : " + baker.bake(containerId, bakedImage));
+        		System.out.println("Baked Images removed : " + baker.evict(bakeKeep));
+        	}
+        	waitReady(dc, containerId, started);
+    	}
+    	else if (syncLib)
+    	{
+    		// the stale files are removed by a command, which needs a running Container
+    		ContainerInfo info = dc.getDockerClient().inspectContainer(nameContainer);
+    		if (!info.state().running())
+    		{
+    			dc.startContainer(info.id());
+    		}
+    		installLib(dc, info.id());
+    	}
+    	
+    }
+    
+    /**
+     * Install the lib directory into the Container
+     * <p>
+     * With the property 'syncLib', only the new and changed files are sent and the removed
+     * files are deleted, otherwise the whole directory is copied.
+     * </p>
+     * 
+     * @param dc Instance of DockerCommands for Docker Commands
+     * @param containerId Id or name of the running Container
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 * @throws IOException Raise if there is an error with Input/Output stream
+	 * 
+	 * @see LibSynchronizer
+     */
+    public static void installLib(DockerCommands dc, String containerId) throws DockerException, InterruptedException, IOException
+    {
+    	if (syncLib)
+    	{
+    		LibSynchronizer.Result result = new LibSynchronizer(dc, pathLib).sync(containerId, pathLibContainer);
+    		System.out.println("Lib synchronized : " + result);
+    	}
+    	else
+    	{
+    		dc.addDirectoryToContainer(pathLib, containerId, pathLibContainer);
+    	}
+    }
+    
+    /**
+     * Install the lib directory into a Container created by {@link #createAndStartContainer(DockerCommands)}
+     * <p>
+     * With the property 'dataPlacement' (link or reflink), the lib is placed in 'pathHostMount' and
+     * seen at once by the Container : the files of 'dataPlacementMinBytes' bytes or more are linked,
+     * the others copied, the removed ones deleted. Otherwise as {@link #installLib(DockerCommands, String)}.
+     * </p>
+     * 
+     * @param dc Instance of DockerCommands for Docker Commands
+     * @param containerId Id of the running Container
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 * @throws IOException Raise if there is an error with Input/Output stream
+	 * 
+	 * @see MountStager
+     */
+    public static void stageLib(DockerCommands dc, String containerId) throws DockerException, InterruptedException, IOException
+    {
+    	if (syncLib || dataPlacement == MountStager.Mode.COPY)
+    	{
+    		installLib(dc, containerId);
+    		return;
+    	}
+    	MountStager.Result result = new MountStager(dc, pathHostMount, pathContainerMount, dataPlacement, dataPlacementMinBytes)
+    			.stage(pathLib, containerId, pathLibContainer);
+    	System.out.println("Lib staged : " + result);
+    }
+    
+    /**
+     * Create a version of the Image and create all the Containers of the fleet in parallel
+     * <p>
+     * The Image is pulled once and the lib archive is prepared once for all the Containers.
+     * The instance 'i' binds the ports of the host shifted by 'i' * 'portOffset', except an
+     * instance claimed from the warm pool, whose ports are published on ports chosen by Docker.
+     * </p>
+     * 
+     * @param dc Instance of DockerCommands for Docker Commands, shared by the threads
+     * @param versionImage Version of the image
+     * @return Report with the duration of each instance and of the fleet
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 * @throws IOException Raise if there is an error with Input/Output stream
+	 * 
+	 * @see FleetProvisioner
+     */
+    public static FleetProvisioner.Report createFleet(final DockerCommands dc, String versionImage) throws DockerException, InterruptedException, IOException
+    {
+    	if (versionImage == null || versionImage.equals(""))
+    	{
+    		versionImage = "latest";
+    	}
+    	
+    	pullImage(dc, versionImage);
+    	
+    	final Map<String, Boolean> existing = dc.existContainers(fleetNames, false);
+    	
+    	String bakedImage = bakeImage ? new ImageBaker(dc, nameImage).bakedImage(pathLib) : null;
+    	final String baked = bakedImage != null && dc.existImage(bakedImage) ? bakedImage : null;
+    	
+    	// the lib is scanned once, then streamed to each instance
+    	final TarArchiveBuilder libArchive = syncLib || baked != null ? null : new TarArchiveBuilder(pathLib);
+    	if (libArchive != null)
+    	{
+    		libArchive.getEntries();
     	}
     	
+    	return new FleetProvisioner(fleetThreads).provision(fleetNames, (name, index) -> {
+    		if (existing.get(name))
+    		{
+    			return;
+    		}
+    		
+    		String[] hostPorts = new String[ports.length];
+    		for (int i = 0; i < ports.length; i++)
+    		{
+    			hostPorts[i] = String.valueOf(Integer.parseInt(ports[i]) + index * portOffset);
+    		}
+    		
+    		long started = System.nanoTime();
+    		String claimed = warmPool != null ? warmPool.claim(name) : null;
+    		if (claimed != null)
+    		{
+    			waitReady(dc, claimed, started);
+    			return;
+    		}
+    		
+    		String containerId = dc.createContainer(ports, hostPorts, name, baked != null ? baked : nameImage);
+    		dc.startContainer(containerId);
+    		if (baked != null)
+    		{
+    			waitReady(dc, containerId, started);
+    			return;
+    		}
+    		if (libArchive != null)
+    		{
+    			dc.addDirectoryToContainer(libArchive, containerId, pathLibContainer);
+    		}
+    		else
+    		{
+    			installLib(dc, containerId);
+    		}
+    		launchCommand(dc, containerId);
+    		waitReady(dc, containerId, started);
+    	});
+    }
+    
+    /**
+     * Pull a version of the Image on all the Docker hosts, then place the Containers of the fleet on them
+     * <p>
+     * The Containers already present on a host are kept. Each new Container is placed on the
+     * least loaded host whose ports are free, then provisioned as by {@link #createFleet(DockerCommands, String)},
+     * without the warm pool nor the baked Images.
+     * </p>
+     * 
+     * @param scheduler Scheduler of the Docker hosts
+     * @param versionImage Version of the image
+     * @return Report with the duration of each instance and of the fleet
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 * 
+	 * @see HostScheduler
+     */
+    public static FleetProvisioner.Report createScheduledFleet(final HostScheduler scheduler, String versionImage) throws DockerException, InterruptedException
+    {
+    	final String version = versionImage == null || versionImage.equals("") ? "latest" : versionImage;
+    	
+    	FleetProvisioner.Report pulls = scheduler.forEachHost((host, hostDc) -> pullImage(hostDc, version));
+    	if (pulls.getFailures() > 0)
+    	{
+    		System.err.println("Image not pulled on all the hosts :\n" + pulls);
+    	}
+    	
+    	final Map<String, String> existing = scheduler.locateContainers(true);
+    	
+    	return new FleetProvisioner(fleetThreads).provision(fleetNames, (name, index) -> {
+    		if (existing.containsKey(name))
+    		{
+    			return;
+    		}
+    		
+    		String[] hostPorts = new String[ports.length];
+    		for (int i = 0; i < ports.length; i++)
+    		{
+    			hostPorts[i] = String.valueOf(Integer.parseInt(ports[i]) + index * portOffset);
+    		}
+    		
+    		long started = System.nanoTime();
+    		HostScheduler.Placement placement = scheduler.createContainer(ports, hostPorts, name, nameImage);
+    		installLib(placement.getCommands(), placement.getContainerId());
+    		launchCommand(placement.getCommands(), placement.getContainerId());
+    		waitReady(placement.getCommands(), placement.getContainerId(), started);
+    	});
+    }
+    
+    /**
+     * Make the Containers match a declarative specification
+     * <p>
+     * Only the Containers whose specification or state changed are touched, see {@link Reconciler}.
+     * </p>
+     * 
+     * @param dc Instance of DockerCommands for Docker Commands
+     * @param specFileName Properties file of the specification
+     * @return Report of the actions, empty if nothing changed
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 * @throws IOException Raise if the specification or a file of a lib can not be read
+	 * 
+	 * @see EnvironmentSpec
+     */
+    public static FleetProvisioner.Report reconcile(DockerCommands dc, String specFileName) throws DockerException, InterruptedException, IOException
+    {
+    	Reconciler reconciler = new Reconciler(dc, RegistrationAuth.getAuth(emailHub, usernameHub, passwordHub), fleetThreads);
+    	Reconciler.Plan plan = reconciler.plan(EnvironmentSpec.fromProperties(load(specFileName)));
+    	System.out.println(plan);
+    	FleetProvisioner.Report report = reconciler.apply(plan);
+    	System.out.println(report);
+    	return report;
+    }
+    
+    /**
+     * Returns the pool of Containers of the Image, with the lib directory installed
+     * <p>
+     * In mode PAUSED, the script is launched before the pause, otherwise after the claim. The
+     * ports of the parked Containers are published on ports of the host chosen by Docker, so
+     * 'ports' and 'portOffset' do not apply to the Containers claimed from the pool.
+     * </p>
+     * 
+     * @param dc Instance of DockerCommands for Docker Commands
+     * @return Instance of WarmPool, not started
+     * @throws IOException Raise if the lib directory can not be read
+     * 
+     * @see WarmPool
+     */
+    public static WarmPool createWarmPool(final DockerCommands dc) throws IOException
+    {
+    	WarmPool.Preparation preparation;
+    	WarmPool.Preparation activation;
+    	if (warmPoolMode == WarmPool.Mode.PAUSED)
+    	{
+    		preparation = containerId -> {
+    			installLib(dc, containerId);
+    			launchCommand(dc, containerId);
+    		};
+    		activation = null;
+    	}
+    	else
+    	{
+    		preparation = containerId -> installLib(dc, containerId);
+    		activation = containerId -> launchCommand(dc, containerId);
+    	}
+    	// the parked Containers with another lib are removed by the start
+    	return new WarmPool(dc, nameContainer + "-pool", nameImage, ports, warmPoolSize, warmPoolMode, fleetThreads, preparation, activation,
+    			LibSynchronizer.directoryHash(pathLib));
+    }
+    
+    /**
+     * Pull a version of the Image if there is no Image with its name
+     * 
+     * @param dc Instance of DockerCommands for Docker Commands
+     * @param versionImage Version of the image
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+     */
+    private static void pullImage(DockerCommands dc, String versionImage) throws DockerException, InterruptedException
+    {
+    	if (!dc.existImage(nameImage))
+    	{
+    		dc.pullImage(usernameHub+"/"+nameImage+":"+versionImage, emailHub, usernameHub, passwordHub);
+    	}
     }
     
     /**
      * return Id of created and started Container
+     * <p>
+     * With the property 'dataPlacement' (link or reflink), 'pathHostMount' is mounted on
+     * 'pathContainerMount', the lib directory, read-only with link as the files are those of the
+     * host.
+     * </p>
      *
      * @param dc Instance of DockerCommands for Docker Commands
      * @return Id of the new container
@@ -182,17 +816,24 @@ public class Programme {
      */
     public static String createAndStartContainer(DockerCommands dc) throws DockerException, InterruptedException
     {
-    	String containerId = dc.createContainer(ports, nameContainer, nameImage);
+    	String containerId = dataPlacement != MountStager.Mode.COPY
+    			? dc.createContainer(ports, nameContainer, nameImage, pathHostMount, pathContainerMount, dataPlacement == MountStager.Mode.LINK)
+    			: dc.createContainer(ports, nameContainer, nameImage);
     	dc.startContainer(containerId);
     	return containerId;
     }
     
     /**
      * Launch commands Bash 
+     * <p>
+     * With the property 'scriptTimeout' (seconds), waits the end of the script and fails if
+     * its exit code is not 0, otherwise the script runs in background. With the property
+     * 'bakeImage', the end of the script is waited without limit, to bake its result.
+     * </p>
      * 
      * @param dc Instance of DockerCommands for Docker Commands
      * @param containerId Id of Container 
-	 * @throws DockerException Raise if there is error with API
+	 * @throws DockerException Raise if there is error with API or if the script failed
 	 * @throws InterruptedException Raise if Thread is interrupted
 	 * @throws IOException Raise if there is an error with Input/Output stream
 	 * 
@@ -201,6 +842,50 @@ public class Programme {
     public static void launchCommand(DockerCommands dc, String containerId) throws DockerException, InterruptedException, IOException
     {
     	String[] command = {"bash", "-c", "/root/script.sh"};
-    	dc.commandInContainer(containerId, command);
+    	if (scriptTimeout > 0 || bakeImage)
+    	{
+    		int exitCode = dc.getExecManager().execAndWait(containerId, command, System.out, System.err, TimeUnit.SECONDS.toMillis(scriptTimeout));
+    		if (exitCode != 0)
+    		{
+    			throw new DockerException("Script of container " + containerId + " failed with exit code " + exitCode);
+    		}
+    	}
+    	else
+    	{
+    		dc.commandInContainer(containerId, command);
+    	}
+    }
+    
+    /**
+     * Wait that the published ports of the Container answer
+     * <p>
+     * With the property 'readinessTimeout' (seconds), the ports are probed with the check of
+     * 'readinessCheck' (http or tcp) on the host, or on the Ip of the Container if
+     * 'readinessAddress' is 'container'. Without it, returns at once.
+     * </p>
+     * 
+     * @param dc Instance of DockerCommands for Docker Commands
+     * @param containerId Id of the started Container
+     * @param sinceNanos System.nanoTime() before the start of the Container
+	 * @throws DockerException Raise if there is error with API or if the Container is not ready before the timeout
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 * @throws IOException Raise if the prober can not be opened
+	 * 
+	 * @see ReadinessProber
+     */
+    public static void waitReady(DockerCommands dc, String containerId, long sinceNanos) throws DockerException, InterruptedException, IOException
+    {
+    	if (readinessTimeout <= 0)
+    	{
+    		return;
+    	}
+    	
+    	ReadinessProber.Result result = dc.getReadinessProber().await(containerId, dc.getEndpoints(containerId, readinessContainerAddress),
+    			readinessCheck, TimeUnit.SECONDS.toMillis(readinessTimeout), sinceNanos);
+    	System.out.println("Readiness " + readinessCheck + " : " + result);
+    	if (!result.isReady())
+    	{
+    		throw new DockerException("Container " + containerId + " not ready after " + readinessTimeout + " s");
+    	}
     }
 }
@@ -0,0 +1,339 @@
+package com.gael.testdocker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.ProgressHandler;
+import com.spotify.docker.client.exceptions.BadParamException;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.exceptions.DockerRequestException;
+import com.spotify.docker.client.exceptions.NotFoundException;
+import com.spotify.docker.client.exceptions.PermissionException;
+import com.spotify.docker.client.messages.ProgressMessage;
+import com.spotify.docker.client.messages.RegistryAuth;
+
+/**
+ * <b>Manager of the pulls of Images</b>
+ *
+ * <p>Actions available :
+ * <ul>
+ * <li>Concurrent requests for the same tag and the same authentification share one pull (single-flight)</li>
+ * <li>Distinct tags are pulled in parallel, up to a limit</li>
+ * <li>Transient failures are retried with exponential backoff, not the errors sent by the registry</li>
+ * <li>The progress of each layer and its rate are sent to the listeners</li>
+ * </ul>
+ * </p>
+ *
+ * @see DockerCommands#getPullManager()
+ *
+ * @author bellaiche
+ * @version 1.0
+ *
+ */
+public class PullManager {
+
+	/**
+	 * <p>Listener of the progress of the pulls</p>
+	 */
+	public interface PullListener {
+
+		/**
+		 * Progress of a layer of an Image
+		 *
+		 * @param tagImage Tag of the Image pulled
+		 * @param layerId Id of the layer, null for a message about the whole Image
+		 * @param status Status sent by Docker, as 'Downloading' or 'Pull complete'
+		 * @param current Bytes of the layer already processed, -1 if unknown
+		 * @param total Size of the layer, -1 if unknown
+		 * @param bytesPerSecond Rate of the layer since its previous progress, 0 if unknown
+		 */
+		void progress(String tagImage, String layerId, String status, long current, long total, double bytesPerSecond);
+	}
+
+	private final DockerClient docker;
+
+	/**
+	 * Pulls in progress by tag and authentification
+	 */
+	private final Map<List<Object>, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<List<Object>, CompletableFuture<Void>>();
+
+	private final List<PullListener> listeners = new CopyOnWriteArrayList<PullListener>();
+
+	private final ExecutorService executor;
+
+	private final int maxAttempts;
+
+	private final long initialBackoffMillis;
+
+	/**
+	 * Constructor PullManager
+	 *
+	 * @param docker Instance of DockerClient
+	 * @param maxConcurrentPulls Maximum number of Images pulled at the same time
+	 * @param maxAttempts Maximum number of attempts for one pull
+	 * @param initialBackoffMillis Delay before the first retry, doubled at each retry
+	 */
+	public PullManager(DockerClient docker, int maxConcurrentPulls, int maxAttempts, long initialBackoffMillis)
+	{
+		this.docker = docker;
+		this.maxAttempts = Math.max(1, maxAttempts);
+		this.initialBackoffMillis = initialBackoffMillis;
+
+		this.executor = Executors.newFixedThreadPool(maxConcurrentPulls, Utils.daemonThreads("docker-pull-"));
+	}
+
+	/**
+	 * Add a listener of the progress of all the pulls
+	 *
+	 * @param listener Listener to add
+	 */
+	public void addListener(PullListener listener)
+	{
+		this.listeners.add(listener);
+	}
+
+	/**
+	 * Remove a listener
+	 *
+	 * @param listener Listener to remove
+	 */
+	public void removeListener(PullListener listener)
+	{
+		this.listeners.remove(listener);
+	}
+
+	/**
+	 * Pull an Image, or join the pull of this tag with the same authentification already in progress
+	 *
+	 * @param tagImage Name of image to pull
+	 * @param auth Authentification of the registry, null for none
+	 * @return Future completed when the Image is pulled
+	 */
+	public CompletableFuture<Void> pullAsync(final String tagImage, final RegistryAuth auth)
+	{
+		final List<Object> key = Arrays.<Object>asList(tagImage, auth);
+		CompletableFuture<Void> future = new CompletableFuture<Void>();
+		CompletableFuture<Void> running = this.inFlight.putIfAbsent(key, future);
+		if (running != null)
+		{
+			return running;
+		}
+
+		future.whenComplete((result, error) -> this.inFlight.remove(key, future));
+
+		try
+		{
+			this.executor.execute(() -> {
+				try
+				{
+					pullWithRetry(tagImage, auth);
+					future.complete(null);
+				}
+				catch (Exception e)
+				{
+					future.completeExceptionally(e);
+				}
+			});
+		}
+		catch (RejectedExecutionException e)
+		{
+			future.completeExceptionally(new DockerException("Pull of " + tagImage + " refused, the manager is closed"));
+		}
+
+		return future;
+	}
+
+	/**
+	 * Pull an Image and wait the end of the pull
+	 *
+	 * @param tagImage Name of image to pull
+	 * @param auth Authentification of the registry, null for none
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public void pull(String tagImage, RegistryAuth auth) throws DockerException, InterruptedException
+	{
+		await(pullAsync(tagImage, auth));
+	}
+
+	/**
+	 * Pull several Images in parallel and wait the end of all the pulls
+	 *
+	 * @param tagsImage Names of images to pull
+	 * @param auth Authentification of the registry, null for none
+	 * @throws DockerException Raise if there is error with API, for the first failed pull
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public void pullAll(Collection<String> tagsImage, RegistryAuth auth) throws DockerException, InterruptedException
+	{
+		List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>();
+		for (String tag : tagsImage)
+		{
+			futures.add(pullAsync(tag, auth));
+		}
+		await(CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])));
+	}
+
+	/**
+	 * Stop the threads of the pulls, the pulls not finished fail
+	 */
+	public void close()
+	{
+		this.executor.shutdownNow();
+		// the queued pulls will never run : their waiters are released
+		for (CompletableFuture<Void> future : this.inFlight.values())
+		{
+			future.completeExceptionally(new DockerException("Pull cancelled, the manager is closed"));
+		}
+	}
+
+	/**
+	 * Pull an Image, retrying the transient failures
+	 */
+	private void pullWithRetry(String tagImage, RegistryAuth auth) throws DockerException, InterruptedException
+	{
+		long backoff = this.initialBackoffMillis;
+		for (int attempt = 1; ; attempt++)
+		{
+			try
+			{
+				ProgressHandler handler = new LayerProgress(tagImage);
+				if (auth != null)
+				{
+					this.docker.pull(tagImage, auth, handler);
+				}
+				else
+				{
+					this.docker.pull(tagImage, handler);
+				}
+				return;
+			}
+			catch (DockerException e)
+			{
+				if (attempt >= this.maxAttempts || !isTransient(e))
+				{
+					throw e;
+				}
+				System.err.println("Pull of " + tagImage + " failed (attempt " + attempt + "), retry in " + backoff + " ms : " + e.getMessage());
+				TimeUnit.MILLISECONDS.sleep(backoff);
+				backoff *= 2;
+			}
+		}
+	}
+
+	/**
+	 * Returns False for the failures which will not change with a retry
+	 */
+	private static boolean isTransient(DockerException e)
+	{
+		if (e instanceof RegistryErrorException || e instanceof NotFoundException || e instanceof PermissionException || e instanceof BadParamException)
+		{
+			return false;
+		}
+		if (e instanceof DockerRequestException)
+		{
+			int status = ((DockerRequestException) e).status();
+			return status >= 500 || status == 408 || status == 429;
+		}
+		return true;
+	}
+
+	private static void await(CompletableFuture<Void> future) throws DockerException, InterruptedException
+	{
+		try
+		{
+			future.get();
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof DockerException)
+			{
+				throw (DockerException) cause;
+			}
+			if (cause instanceof InterruptedException)
+			{
+				throw (InterruptedException) cause;
+			}
+			throw new DockerException(cause);
+		}
+	}
+
+	/**
+	 * <p>Error sent by the registry in the progress of a pull, as 'manifest unknown' or
+	 * 'unauthorized', not retried</p>
+	 */
+	private static class RegistryErrorException extends DockerException {
+
+		private static final long serialVersionUID = 1L;
+
+		RegistryErrorException(String message)
+		{
+			super(message);
+		}
+	}
+
+	/**
+	 * <p>Handler of the progress of one pull, computing the rate of each layer</p>
+	 */
+	private class LayerProgress implements ProgressHandler {
+
+		private final String tagImage;
+
+		/**
+		 * Last bytes and time in nanoseconds of each layer
+		 */
+		private final Map<String, long[]> last = new ConcurrentHashMap<String, long[]>();
+
+		LayerProgress(String tagImage)
+		{
+			this.tagImage = tagImage;
+		}
+
+		@Override
+		public void progress(ProgressMessage message) throws DockerException
+		{
+			if (message.error() != null)
+			{
+				throw new RegistryErrorException(message.error());
+			}
+			if (listeners.isEmpty())
+			{
+				return;
+			}
+
+			long current = -1;
+			long total = -1;
+			double rate = 0;
+			if (message.progressDetail() != null && message.progressDetail().current() != null)
+			{
+				current = message.progressDetail().current();
+				total = message.progressDetail().total() != null ? message.progressDetail().total() : -1;
+
+				long now = System.nanoTime();
+				long[] previous = message.id() != null ? this.last.put(message.id(), new long[] { current, now }) : null;
+				if (previous != null && now > previous[1] && current >= previous[0])
+				{
+					rate = (current - previous[0]) * 1e9 / (now - previous[1]);
+				}
+			}
+
+			for (PullListener listener : listeners)
+			{
+				listener.progress(this.tagImage, message.id(), message.status(), current, total, rate);
+			}
+		}
+	}
+}
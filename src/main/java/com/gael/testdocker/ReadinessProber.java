@@ -0,0 +1,610 @@
+package com.gael.testdocker;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <b>Prober of the readiness of the ports of Containers</b>
+ *
+ * <p>One thread probes all the Containers : the connections are non-blocking and multiplexed on
+ * a {@link Selector}. Each endpoint is tried until it answers, a failed attempt being retried
+ * after an interval. A Container is ready when all its endpoints answered.</p>
+ *
+ * <p>Checks available :
+ * <ul>
+ * <li>TCP : the connection is accepted</li>
+ * <li>HTTP : a request GET is answered with a status below 400</li>
+ * </ul>
+ * Through the ports of the host, the proxy of Docker accepts the connections even if nothing
+ * listens in the Container, so only the HTTP check is reliable there.</p>
+ *
+ * <p>The futures are completed by the thread of the prober : the long actions must be run with
+ * the asynchronous methods of CompletableFuture.</p>
+ *
+ * @see DockerCommands#getReadinessProber()
+ * @see DockerCommands#getEndpoints(String, boolean)
+ *
+ * @author bellaiche
+ * @version 1.0
+ *
+ */
+public class ReadinessProber {
+
+	/**
+	 * Maximum size of the status line of an HTTP response
+	 */
+	private static final int STATUS_LINE_SIZE = 1024;
+
+	/**
+	 * <p>Check of an endpoint</p>
+	 */
+	public static class Check {
+
+		private final String httpPath;
+
+		private Check(String httpPath)
+		{
+			this.httpPath = httpPath;
+		}
+
+		/**
+		 * @return Check of the connection only
+		 */
+		public static Check tcp()
+		{
+			return new Check(null);
+		}
+
+		/**
+		 * @param path Path requested, as '/'
+		 * @return Check of the answer to a request GET
+		 */
+		public static Check http(String path)
+		{
+			return new Check(path.startsWith("/") ? path : "/" + path);
+		}
+
+		@Override
+		public String toString()
+		{
+			return this.httpPath == null ? "tcp" : "http " + this.httpPath;
+		}
+	}
+
+	/**
+	 * <p>Result of the probe of a Container</p>
+	 */
+	public static class Result {
+
+		private final String name;
+		private final boolean ready;
+		private final long timeToReadyMillis;
+		private final Map<InetSocketAddress, Long> endpoints;
+		private final int attempts;
+
+		Result(String name, boolean ready, long timeToReadyMillis, Map<InetSocketAddress, Long> endpoints, int attempts)
+		{
+			this.name = name;
+			this.ready = ready;
+			this.timeToReadyMillis = timeToReadyMillis;
+			this.endpoints = Collections.unmodifiableMap(endpoints);
+			this.attempts = attempts;
+		}
+
+		/**
+		 * @return Name of the Container
+		 */
+		public String getName()
+		{
+			return this.name;
+		}
+
+		/**
+		 * @return True if all the endpoints answered before the timeout
+		 */
+		public boolean isReady()
+		{
+			return this.ready;
+		}
+
+		/**
+		 * @return Time until the last endpoint answered, in milliseconds, -1 if not ready
+		 */
+		public long getTimeToReadyMillis()
+		{
+			return this.timeToReadyMillis;
+		}
+
+		/**
+		 * @return Time until each endpoint answered, in milliseconds, -1 for the endpoints not ready
+		 */
+		public Map<InetSocketAddress, Long> getEndpoints()
+		{
+			return this.endpoints;
+		}
+
+		/**
+		 * @return Number of connections tried
+		 */
+		public int getAttempts()
+		{
+			return this.attempts;
+		}
+
+		@Override
+		public String toString()
+		{
+			return this.name + (this.ready ? " ready in " + this.timeToReadyMillis + " ms" : " not ready")
+					+ " (" + this.attempts + " attempt(s)) " + this.endpoints;
+		}
+	}
+
+	/**
+	 * Delay between two attempts on an endpoint
+	 */
+	private final long intervalNanos;
+
+	/**
+	 * Maximum duration of one attempt
+	 */
+	private final long attemptTimeoutNanos;
+
+	private final Selector selector;
+
+	/**
+	 * Probes waiting to be started by the thread of the prober
+	 */
+	private final Queue<Probe> pending = new ConcurrentLinkedQueue<Probe>();
+
+	/**
+	 * Actions delayed, only used by the thread of the prober
+	 */
+	private final PriorityQueue<Timer> timers = new PriorityQueue<Timer>();
+
+	private final Thread thread;
+
+	private volatile boolean running = true;
+
+	/**
+	 * Constructor ReadinessProber
+	 *
+	 * @param intervalMillis Delay between two attempts on an endpoint
+	 * @param attemptTimeoutMillis Maximum duration of one attempt
+	 * @throws IOException Raise if the selector can not be opened
+	 */
+	public ReadinessProber(long intervalMillis, long attemptTimeoutMillis) throws IOException
+	{
+		this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+		this.attemptTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(attemptTimeoutMillis);
+		this.selector = Selector.open();
+		this.thread = new Thread(this::run, "docker-readiness");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Probe the endpoints of a Container until they answer
+	 *
+	 * @param name Name of the Container, for the result
+	 * @param endpoints Addresses to probe
+	 * @param check Check of each endpoint
+	 * @param timeoutMillis Maximum duration of the probe
+	 * @param sinceNanos Start of the time to ready, as System.nanoTime() before startContainer
+	 * @return Future completed with the result, ready or not
+	 */
+	public CompletableFuture<Result> probe(String name, List<InetSocketAddress> endpoints, Check check, long timeoutMillis, long sinceNanos)
+	{
+		Probe probe = new Probe(name, endpoints, check, sinceNanos, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+		if (!this.running)
+		{
+			probe.future.completeExceptionally(new IllegalStateException("Prober closed"));
+			return probe.future;
+		}
+		this.pending.add(probe);
+		this.selector.wakeup();
+		return probe.future;
+	}
+
+	/**
+	 * Probe the endpoints of a Container and wait the result
+	 *
+	 * @param name Name of the Container, for the result
+	 * @param endpoints Addresses to probe
+	 * @param check Check of each endpoint
+	 * @param timeoutMillis Maximum duration of the probe
+	 * @param sinceNanos Start of the time to ready, as System.nanoTime() before startContainer
+	 * @return Result of the probe, ready or not
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public Result await(String name, List<InetSocketAddress> endpoints, Check check, long timeoutMillis, long sinceNanos) throws InterruptedException
+	{
+		CompletableFuture<Result> future = probe(name, endpoints, check, timeoutMillis, sinceNanos);
+		try
+		{
+			return future.get();
+		}
+		catch (ExecutionException e)
+		{
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * Stop the thread, the probes in progress complete as not ready
+	 */
+	public void close()
+	{
+		this.running = false;
+		this.selector.wakeup();
+		try
+		{
+			this.thread.join(TimeUnit.SECONDS.toMillis(1));
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Loop of the thread of the prober
+	 */
+	private void run()
+	{
+		List<Probe> probes = new ArrayList<Probe>();
+		try
+		{
+			while (this.running)
+			{
+				Timer next = this.timers.peek();
+				long waitMillis = next == null ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(next.due - System.nanoTime()) + 1);
+				this.selector.select(waitMillis);
+
+				Probe probe;
+				while ((probe = this.pending.poll()) != null)
+				{
+					probes.add(probe);
+					start(probe);
+				}
+
+				Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+				while (keys.hasNext())
+				{
+					SelectionKey key = keys.next();
+					keys.remove();
+					ready(key);
+				}
+
+				long now = System.nanoTime();
+				while (!this.timers.isEmpty() && this.timers.peek().due <= now)
+				{
+					this.timers.poll().action.run();
+				}
+
+				probes.removeIf(p -> p.future.isDone());
+			}
+		}
+		catch (IOException | ClosedSelectorException e)
+		{
+			System.err.println("Readiness prober stopped : " + e.getMessage());
+		}
+		finally
+		{
+			for (Probe probe : probes)
+			{
+				probe.finish(false);
+			}
+			for (Probe probe : this.pending)
+			{
+				probe.finish(false);
+			}
+			try
+			{
+				this.selector.close();
+			}
+			catch (IOException e)
+			{
+				// nothing to release
+			}
+		}
+	}
+
+	private void start(final Probe probe)
+	{
+		schedule(probe.deadline, () -> probe.finish(false));
+		if (probe.endpoints.isEmpty())
+		{
+			probe.finish(true);
+		}
+		for (Endpoint endpoint : probe.endpoints)
+		{
+			connect(endpoint);
+		}
+	}
+
+	/**
+	 * Start an attempt on an endpoint
+	 */
+	private void connect(final Endpoint endpoint)
+	{
+		if (endpoint.probe.future.isDone())
+		{
+			return;
+		}
+
+		final int attempt = ++endpoint.attempts;
+		try
+		{
+			SocketChannel channel = SocketChannel.open();
+			endpoint.channel = channel;
+			channel.configureBlocking(false);
+			if (channel.connect(endpoint.address))
+			{
+				connected(endpoint, channel.register(this.selector, 0, endpoint));
+			}
+			else
+			{
+				channel.register(this.selector, SelectionKey.OP_CONNECT, endpoint);
+			}
+			schedule(System.nanoTime() + this.attemptTimeoutNanos, () -> {
+				if (endpoint.attempts == attempt && endpoint.channel != null)
+				{
+					retry(endpoint);
+				}
+			});
+		}
+		catch (IOException e)
+		{
+			retry(endpoint);
+		}
+	}
+
+	/**
+	 * Handle a key ready for connection or read
+	 */
+	private void ready(SelectionKey key)
+	{
+		Endpoint endpoint = (Endpoint) key.attachment();
+		try
+		{
+			if (key.isConnectable())
+			{
+				if (((SocketChannel) key.channel()).finishConnect())
+				{
+					connected(endpoint, key);
+				}
+			}
+			else if (key.isWritable())
+			{
+				write(endpoint, key);
+			}
+			else if (key.isReadable())
+			{
+				read(endpoint, key);
+			}
+		}
+		catch (IOException e)
+		{
+			retry(endpoint);
+		}
+	}
+
+	private void connected(Endpoint endpoint, SelectionKey key) throws IOException
+	{
+		String path = endpoint.probe.check.httpPath;
+		if (path == null)
+		{
+			succeeded(endpoint);
+			return;
+		}
+
+		String request = "GET " + path + " HTTP/1.0\r\nHost: " + endpoint.address.getHostString() + ":" + endpoint.address.getPort()
+				+ "\r\nConnection: close\r\n\r\n";
+		endpoint.buffer = ByteBuffer.wrap(request.getBytes(StandardCharsets.US_ASCII));
+		key.interestOps(SelectionKey.OP_WRITE);
+	}
+
+	private void write(Endpoint endpoint, SelectionKey key) throws IOException
+	{
+		endpoint.channel.write(endpoint.buffer);
+		if (!endpoint.buffer.hasRemaining())
+		{
+			endpoint.buffer = ByteBuffer.allocate(STATUS_LINE_SIZE);
+			key.interestOps(SelectionKey.OP_READ);
+		}
+	}
+
+	/**
+	 * Read the status line of the HTTP response
+	 */
+	private void read(Endpoint endpoint, SelectionKey key) throws IOException
+	{
+		ByteBuffer buffer = endpoint.buffer;
+		int n = endpoint.channel.read(buffer);
+
+		String received = new String(buffer.array(), 0, buffer.position(), StandardCharsets.US_ASCII);
+		int end = received.indexOf("\r\n");
+		if (end < 0)
+		{
+			if (n < 0 || !buffer.hasRemaining())
+			{
+				retry(endpoint);
+			}
+			return;
+		}
+
+		String[] statusLine = received.substring(0, end).split(" ");
+		int status = -1;
+		if (statusLine.length >= 2 && statusLine[0].startsWith("HTTP/"))
+		{
+			try
+			{
+				status = Integer.parseInt(statusLine[1]);
+			}
+			catch (NumberFormatException e)
+			{
+				// not an HTTP server
+			}
+		}
+
+		if (status >= 100 && status < 400)
+		{
+			succeeded(endpoint);
+		}
+		else
+		{
+			retry(endpoint);
+		}
+	}
+
+	private void succeeded(Endpoint endpoint)
+	{
+		closeChannel(endpoint);
+		endpoint.readyNanos = System.nanoTime();
+		Probe probe = endpoint.probe;
+		if (--probe.remaining == 0)
+		{
+			probe.finish(true);
+		}
+	}
+
+	/**
+	 * Close the attempt and try again after the interval
+	 */
+	private void retry(final Endpoint endpoint)
+	{
+		closeChannel(endpoint);
+		if (!endpoint.probe.future.isDone())
+		{
+			schedule(System.nanoTime() + this.intervalNanos, () -> connect(endpoint));
+		}
+	}
+
+	private void schedule(long due, Runnable action)
+	{
+		this.timers.add(new Timer(due, action));
+	}
+
+	private static void closeChannel(Endpoint endpoint)
+	{
+		SocketChannel channel = endpoint.channel;
+		endpoint.channel = null;
+		endpoint.buffer = null;
+		if (channel != null)
+		{
+			try
+			{
+				channel.close();
+			}
+			catch (IOException e)
+			{
+				// already closed
+			}
+		}
+	}
+
+	/**
+	 * <p>Probe of one Container, only used by the thread of the prober</p>
+	 */
+	private static class Probe {
+
+		final String name;
+		final Check check;
+		final long sinceNanos;
+		final long deadline;
+		final List<Endpoint> endpoints = new ArrayList<Endpoint>();
+		final CompletableFuture<Result> future = new CompletableFuture<Result>();
+		int remaining;
+
+		Probe(String name, List<InetSocketAddress> addresses, Check check, long sinceNanos, long deadline)
+		{
+			this.name = name;
+			this.check = check;
+			this.sinceNanos = sinceNanos;
+			this.deadline = deadline;
+			for (InetSocketAddress address : addresses)
+			{
+				this.endpoints.add(new Endpoint(this, address));
+			}
+			this.remaining = this.endpoints.size();
+		}
+
+		void finish(boolean ready)
+		{
+			if (this.future.isDone())
+			{
+				return;
+			}
+
+			Map<InetSocketAddress, Long> times = new LinkedHashMap<InetSocketAddress, Long>();
+			long last = this.sinceNanos;
+			int attempts = 0;
+			for (Endpoint endpoint : this.endpoints)
+			{
+				closeChannel(endpoint);
+				attempts += endpoint.attempts;
+				times.put(endpoint.address, endpoint.readyNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(endpoint.readyNanos - this.sinceNanos));
+				last = Math.max(last, endpoint.readyNanos);
+			}
+			this.future.complete(new Result(this.name, ready, ready ? TimeUnit.NANOSECONDS.toMillis(last - this.sinceNanos) : -1, times, attempts));
+		}
+	}
+
+	/**
+	 * <p>Endpoint of a probe, with its current attempt</p>
+	 */
+	private static class Endpoint {
+
+		final Probe probe;
+		final InetSocketAddress address;
+		SocketChannel channel;
+		ByteBuffer buffer;
+		int attempts;
+		long readyNanos = -1;
+
+		Endpoint(Probe probe, InetSocketAddress address)
+		{
+			this.probe = probe;
+			this.address = address;
+		}
+	}
+
+	/**
+	 * <p>Action delayed</p>
+	 */
+	private static class Timer implements Comparable<Timer> {
+
+		final long due;
+		final Runnable action;
+
+		Timer(long due, Runnable action)
+		{
+			this.due = due;
+			this.action = action;
+		}
+
+		@Override
+		public int compareTo(Timer other)
+		{
+			return Long.compare(this.due - other.due, 0);
+		}
+	}
+}
@@ -0,0 +1,449 @@
+package com.gael.testdocker;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.spotify.docker.client.DockerClient.ListContainersParam;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.messages.Container;
+import com.spotify.docker.client.messages.RegistryAuth;
+
+/**
+ * <b>Reconciliation of the Containers of Docker with an {@link EnvironmentSpec}</b>
+ *
+ * <p>The Containers of an environment have the label {@value #ENVIRONMENT_LABEL} and the hash of
+ * their specification in the label {@value #HASH_LABEL}, the content of the lib included. The
+ * plan compares them with the specification from one listing of Containers :
+ * <ul>
+ * <li>CREATE : the Container does not exist</li>
+ * <li>RECREATE : the specification changed, or a Container of the same name is not managed</li>
+ * <li>START or STOP : only the running state differs</li>
+ * <li>REMOVE : the Container is no more in the specification</li>
+ * </ul>
+ * An unchanged specification gives an empty plan. The existence of the Images is checked only
+ * if Containers are created or changed, the Images listed in the specification being checked
+ * with them, or at each plan if the cache of names is enabled, the check being then local.</p>
+ *
+ * <p>The command of a Container is waited for, an action whose command fails is reported as
+ * failed.</p>
+ *
+ * <p>The plan is applied in two phases, each in parallel : the pulls of the missing Images and
+ * the removals, then the actions on the other Containers, so a recreated Container can take the
+ * ports of a removed one.</p>
+ *
+ * @author bellaiche
+ * @version 1.0
+ *
+ */
+public class Reconciler {
+
+	/**
+	 * Label of the name of the environment of a Container
+	 */
+	public static final String ENVIRONMENT_LABEL = "com.gael.testdocker.environment";
+
+	/**
+	 * Label of the hash of the specification of a Container
+	 */
+	public static final String HASH_LABEL = "com.gael.testdocker.spec.hash";
+
+	/**
+	 * <p>Kind of action on a Container</p>
+	 */
+	public enum ActionType {
+		CREATE,
+		RECREATE,
+		START,
+		STOP,
+		REMOVE
+	}
+
+	private final DockerCommands dc;
+
+	private final RegistryAuth auth;
+
+	private final int threads;
+
+	/**
+	 * Constructor Reconciler
+	 *
+	 * @param dc Instance of DockerCommands for Docker Commands
+	 * @param auth Authentification of the registry for the pulls, null for none
+	 * @param threads Maximum number of actions at the same time
+	 */
+	public Reconciler(DockerCommands dc, RegistryAuth auth, int threads)
+	{
+		this.dc = dc;
+		this.auth = auth;
+		this.threads = threads;
+	}
+
+	/**
+	 * Returns the actions to make Docker match the specification
+	 *
+	 * @param spec Desired state
+	 * @return Plan of the actions, empty if Docker already matches
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 * @throws IOException Raise if a file of a lib can not be read
+	 */
+	public Plan plan(EnvironmentSpec spec) throws DockerException, InterruptedException, IOException
+	{
+		Map<String, String> libHashes = EnvironmentSpec.ContainerSpec.libHashes(spec.getContainers().values());
+		List<Action> actions = new ArrayList<Action>();
+		Set<String> seen = new LinkedHashSet<String>();
+
+		for (Container c : this.dc.getDockerClient().listContainers(ListContainersParam.allContainers(),
+				ListContainersParam.withLabel(ENVIRONMENT_LABEL, spec.getEnvironment())))
+		{
+			String name = c.names() != null && !c.names().isEmpty() ? c.names().get(0).substring(1) : c.id();
+			EnvironmentSpec.ContainerSpec desired = spec.getContainers().get(name);
+			boolean up = "running".equals(c.state()) || "paused".equals(c.state());
+			seen.add(name);
+
+			if (desired == null)
+			{
+				actions.add(new Action(ActionType.REMOVE, name, c.id(), up, null, null, "not in the specification"));
+				continue;
+			}
+
+			String hash = desired.hash(libHashes);
+			String current = c.labels() != null ? c.labels().get(HASH_LABEL) : null;
+			if (!hash.equals(current))
+			{
+				actions.add(new Action(ActionType.RECREATE, name, c.id(), up, desired, hash, "specification changed"));
+			}
+			else if (desired.isRunning() && !up)
+			{
+				actions.add(new Action(ActionType.START, name, c.id(), up, desired, hash, "state " + c.state()));
+			}
+			else if (!desired.isRunning() && up)
+			{
+				actions.add(new Action(ActionType.STOP, name, c.id(), up, desired, hash, "state " + c.state()));
+			}
+		}
+
+		Map<String, EnvironmentSpec.ContainerSpec> missing = new LinkedHashMap<String, EnvironmentSpec.ContainerSpec>();
+		for (EnvironmentSpec.ContainerSpec desired : spec.getContainers().values())
+		{
+			if (!seen.contains(desired.getName()))
+			{
+				missing.put(desired.getName(), desired);
+			}
+		}
+
+		if (!missing.isEmpty())
+		{
+			// Containers of the same name created outside of the environment
+			Map<String, Container> unmanaged = new HashMap<String, Container>();
+			for (Container c : this.dc.getDockerClient().listContainers(ListContainersParam.allContainers()))
+			{
+				if (c.names() != null && !c.names().isEmpty() && missing.containsKey(c.names().get(0).substring(1)))
+				{
+					unmanaged.put(c.names().get(0).substring(1), c);
+				}
+			}
+			for (EnvironmentSpec.ContainerSpec desired : missing.values())
+			{
+				Container c = unmanaged.get(desired.getName());
+				if (c == null)
+				{
+					actions.add(new Action(ActionType.CREATE, desired.getName(), null, false, desired, desired.hash(libHashes), "missing"));
+				}
+				else
+				{
+					actions.add(new Action(ActionType.RECREATE, desired.getName(), c.id(),
+							"running".equals(c.state()) || "paused".equals(c.state()), desired, desired.hash(libHashes),
+							"not managed by the environment"));
+				}
+			}
+		}
+
+		Set<String> images = new LinkedHashSet<String>();
+		for (Action action : actions)
+		{
+			if (action.getType() == ActionType.CREATE || action.getType() == ActionType.RECREATE)
+			{
+				images.add(action.spec.getImage());
+			}
+		}
+		if (!actions.isEmpty() || this.dc.isCacheEnabled())
+		{
+			images.addAll(spec.getImages());
+		}
+
+		List<String> pulls = new ArrayList<String>();
+		if (!images.isEmpty())
+		{
+			for (Map.Entry<String, Boolean> image : this.dc.existImages(images).entrySet())
+			{
+				if (!image.getValue())
+				{
+					pulls.add(image.getKey());
+				}
+			}
+		}
+
+		return new Plan(spec.getEnvironment(), pulls, actions);
+	}
+
+	/**
+	 * Run the actions of a plan
+	 *
+	 * @param plan Plan returned by {@link #plan(EnvironmentSpec)}
+	 * @return Report with the duration and the error of each pull and action
+	 * @throws DockerException Raise if there is error with API during the reload of the Images
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public FleetProvisioner.Report apply(final Plan plan) throws DockerException, InterruptedException
+	{
+		long start = System.nanoTime();
+
+		final List<String> firstNames = new ArrayList<String>();
+		final List<Action> removals = new ArrayList<Action>();
+		final List<Action> others = new ArrayList<Action>();
+		for (String image : plan.getPulls())
+		{
+			firstNames.add("pull " + image);
+		}
+		for (Action action : plan.getActions())
+		{
+			if (action.getType() == ActionType.REMOVE)
+			{
+				firstNames.add(action.toString());
+				removals.add(action);
+			}
+			else
+			{
+				others.add(action);
+			}
+		}
+
+		FleetProvisioner provisioner = new FleetProvisioner(this.threads);
+		List<FleetProvisioner.Instance> instances = new ArrayList<FleetProvisioner.Instance>();
+
+		instances.addAll(provisioner.provision(firstNames, (name, index) -> {
+			if (index < plan.getPulls().size())
+			{
+				this.dc.getPullManager().pull(plan.getPulls().get(index), this.auth);
+			}
+			else
+			{
+				remove(removals.get(index - plan.getPulls().size()));
+			}
+		}).getInstances());
+		if (!plan.getPulls().isEmpty())
+		{
+			this.dc.reloadImages();
+		}
+
+		List<String> otherNames = new ArrayList<String>();
+		for (Action action : others)
+		{
+			otherNames.add(action.toString());
+		}
+		instances.addAll(provisioner.provision(otherNames, (name, index) -> run(others.get(index), plan.environment)).getInstances());
+
+		return new FleetProvisioner.Report(instances, System.nanoTime() - start);
+	}
+
+	/**
+	 * Plan and apply the specification
+	 *
+	 * @param spec Desired state
+	 * @return Report of the actions, empty if Docker already matches
+	 * @throws DockerException Raise if there is error with API during the plan
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 * @throws IOException Raise if a file of a lib can not be read
+	 */
+	public FleetProvisioner.Report reconcile(EnvironmentSpec spec) throws DockerException, InterruptedException, IOException
+	{
+		return apply(plan(spec));
+	}
+
+	private void run(Action action, String environment) throws Exception
+	{
+		switch (action.getType())
+		{
+			case RECREATE:
+				remove(action);
+				create(action, environment);
+				break;
+			case CREATE:
+				create(action, environment);
+				break;
+			case START:
+				this.dc.startContainer(action.containerId);
+				launch(action.containerId, action.spec);
+				break;
+			case STOP:
+				this.dc.getDockerClient().stopContainer(action.containerId, BulkDeleter.STOP_TIMEOUT);
+				break;
+			default:
+				remove(action);
+		}
+	}
+
+	private void remove(Action action) throws DockerException, InterruptedException
+	{
+		if (action.running)
+		{
+			this.dc.getDockerClient().stopContainer(action.containerId, BulkDeleter.STOP_TIMEOUT);
+		}
+		this.dc.removeContainer(action.containerId);
+	}
+
+	private void create(Action action, String environment) throws Exception
+	{
+		EnvironmentSpec.ContainerSpec spec = action.spec;
+		Map<String, String> labels = new HashMap<String, String>();
+		labels.put(ENVIRONMENT_LABEL, environment);
+		labels.put(HASH_LABEL, action.hash);
+
+		String containerId = this.dc.createContainer(spec.getPorts(), spec.getName(), spec.getImage(), spec.hostConfig(), labels);
+		if (spec.getLib() != null)
+		{
+			this.dc.addDirectoryToContainer(spec.getLib(), containerId, spec.getLibTarget());
+		}
+		if (spec.isRunning())
+		{
+			this.dc.startContainer(containerId);
+			launch(containerId, spec);
+		}
+	}
+
+	private void launch(String containerId, EnvironmentSpec.ContainerSpec spec) throws Exception
+	{
+		if (spec.getCommand() != null)
+		{
+			int exitCode = this.dc.getExecManager().execAndWait(containerId, new String[] { "bash", "-c", spec.getCommand() },
+					System.out, System.err, 0);
+			if (exitCode != 0)
+			{
+				throw new DockerException("Command of " + spec.getName() + " failed with exit code " + exitCode);
+			}
+		}
+	}
+
+	/**
+	 * <p>Action on one Container</p>
+	 */
+	public static class Action {
+
+		private final ActionType type;
+		private final String name;
+		private final String containerId;
+		private final boolean running;
+		private final EnvironmentSpec.ContainerSpec spec;
+		private final String hash;
+		private final String reason;
+
+		Action(ActionType type, String name, String containerId, boolean running, EnvironmentSpec.ContainerSpec spec, String hash, String reason)
+		{
+			this.type = type;
+			this.name = name;
+			this.containerId = containerId;
+			this.running = running;
+			this.spec = spec;
+			this.hash = hash;
+			this.reason = reason;
+		}
+
+		/**
+		 * @return Kind of action
+		 */
+		public ActionType getType()
+		{
+			return this.type;
+		}
+
+		/**
+		 * @return Name of the Container
+		 */
+		public String getName()
+		{
+			return this.name;
+		}
+
+		/**
+		 * @return Cause of the action
+		 */
+		public String getReason()
+		{
+			return this.reason;
+		}
+
+		@Override
+		public String toString()
+		{
+			return this.type.name().toLowerCase() + " " + this.name;
+		}
+	}
+
+	/**
+	 * <p>Actions to make Docker match a specification</p>
+	 */
+	public static class Plan {
+
+		private final String environment;
+		private final List<String> pulls;
+		private final List<Action> actions;
+
+		Plan(String environment, List<String> pulls, List<Action> actions)
+		{
+			this.environment = environment;
+			this.pulls = pulls;
+			this.actions = actions;
+		}
+
+		/**
+		 * @return Images to pull
+		 */
+		public List<String> getPulls()
+		{
+			return Collections.unmodifiableList(this.pulls);
+		}
+
+		/**
+		 * @return Actions on the Containers
+		 */
+		public List<Action> getActions()
+		{
+			return Collections.unmodifiableList(this.actions);
+		}
+
+		/**
+		 * @return True if Docker already matches the specification
+		 */
+		public boolean isEmpty()
+		{
+			return this.pulls.isEmpty() && this.actions.isEmpty();
+		}
+
+		@Override
+		public String toString()
+		{
+			if (isEmpty())
+			{
+				return "Nothing to do";
+			}
+			StringBuilder plan = new StringBuilder();
+			for (String image : this.pulls)
+			{
+				plan.append("pull ").append(image).append('\n');
+			}
+			for (Action action : this.actions)
+			{
+				plan.append(action).append(" (").append(action.getReason()).append(")\n");
+			}
+			return plan.append(this.pulls.size() + this.actions.size()).append(" action(s)").toString();
+		}
+	}
+}
@@ -0,0 +1,373 @@
+package com.gael.testdocker;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URI;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+/**
+ * <b>Tunnel of the Docker API through one persistent SSH session</b>
+ *
+ * <p>The tunnel listens on a port of the loopback. Each connection accepted is forwarded through
+ * its own channel of the session, running on the remote host a command which connects its
+ * standard input and output to the Docker socket, 'docker system dial-stdio' by default. The
+ * client connects to http://127.0.0.1:port and its pooled connections reuse the channels, so
+ * the calls pay no SSH handshake.</p>
+ *
+ * <p>The session is opened by the first connection, kept alive by keepalive messages, and opened
+ * again by the next connection if it was lost. At most 'maxChannels' channels are open at the
+ * same time, the limit of sshd being 10 by default (MaxSessions). A connection accepted while
+ * all the channels are in use waits at most 5 seconds for one, then it is closed, so the call
+ * fails instead of waiting for ever.</p>
+ *
+ * <p>A DockerClient has two pools of connections, the timed one and the one without timeout,
+ * so each pool must not exceed half of the channels. A stream, as the events of the index or
+ * the logs followed by the collector, holds its channel as long as it is open.</p>
+ *
+ * @see DockerCommands.Builder#uri(String)
+ *
+ * @author bellaiche
+ * @version 1.0
+ *
+ */
+public class SshTunnel {
+
+	/**
+	 * Default command connecting to the Docker socket of the remote host
+	 */
+	public static final String DEFAULT_COMMAND = "docker system dial-stdio";
+
+	/**
+	 * Default maximum number of channels, the default MaxSessions of sshd
+	 */
+	public static final int DEFAULT_MAX_CHANNELS = 10;
+
+	/**
+	 * Maximum wait of a connection for a free channel, in milliseconds
+	 */
+	private static final long ACQUIRE_TIMEOUT_MILLIS = 5000;
+
+	/**
+	 * Interval of the keepalive messages, in milliseconds
+	 */
+	private static final int KEEPALIVE_MILLIS = 15000;
+
+	private final String user;
+
+	private final String host;
+
+	private final int port;
+
+	private final String identity;
+
+	private final String knownHosts;
+
+	private final String command;
+
+	private final Semaphore channels;
+
+	private final int maxChannels;
+
+	private final AtomicLong sessions = new AtomicLong();
+
+	private final AtomicInteger openChannels = new AtomicInteger();
+
+	private ServerSocket server;
+
+	private ExecutorService pumps;
+
+	private Session session;
+
+	/**
+	 * Constructor SshTunnel
+	 *
+	 * @param uri Endpoint ssh://[user@]host[:port]
+	 * @param identity Private key, null for ~/.ssh/id_rsa
+	 * @param knownHosts Known hosts file, null for ~/.ssh/known_hosts, 'none' to accept any host (tests only)
+	 * @param command Remote command connecting to the Docker socket, null for {@link #DEFAULT_COMMAND}
+	 * @param maxChannels Maximum number of channels open at the same time
+	 */
+	public SshTunnel(String uri, String identity, String knownHosts, String command, int maxChannels)
+	{
+		URI parsed = URI.create(uri);
+		if (!"ssh".equals(parsed.getScheme()) || parsed.getHost() == null)
+		{
+			throw new IllegalArgumentException("Endpoint " + uri + " is not ssh://[user@]host[:port]");
+		}
+		this.user = parsed.getUserInfo() != null ? parsed.getUserInfo() : System.getProperty("user.name");
+		this.host = parsed.getHost();
+		this.port = parsed.getPort() > 0 ? parsed.getPort() : 22;
+		String home = System.getProperty("user.home");
+		this.identity = identity != null ? identity : home + File.separator + ".ssh" + File.separator + "id_rsa";
+		this.knownHosts = knownHosts != null ? knownHosts : home + File.separator + ".ssh" + File.separator + "known_hosts";
+		this.command = command != null ? command : DEFAULT_COMMAND;
+		this.maxChannels = Math.max(1, maxChannels);
+		this.channels = new Semaphore(this.maxChannels);
+	}
+
+	/**
+	 * Listen on a free port of the loopback and open the session
+	 *
+	 * @return Endpoint of the tunnel for the client, http://127.0.0.1:port
+	 * @throws IOException Raise if the port can not be bound or the session not opened
+	 */
+	public synchronized String start() throws IOException
+	{
+		if (this.server == null)
+		{
+			// fail at once if the host can not be reached, rather than on the first call
+			session();
+			this.server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+			this.pumps = Executors.newCachedThreadPool(runnable -> {
+				Thread thread = new Thread(runnable, "ssh-tunnel-" + this.host);
+				thread.setDaemon(true);
+				return thread;
+			});
+			this.pumps.execute(this::accept);
+		}
+		return "http://127.0.0.1:" + this.server.getLocalPort();
+	}
+
+	/**
+	 * @return Maximum number of channels open at the same time
+	 */
+	public int getMaxChannels()
+	{
+		return this.maxChannels;
+	}
+
+	/**
+	 * @return Number of sessions opened, more than 1 if the session was lost
+	 */
+	public long getSessions()
+	{
+		return this.sessions.get();
+	}
+
+	/**
+	 * @return Number of channels open
+	 */
+	public int getOpenChannels()
+	{
+		return this.openChannels.get();
+	}
+
+	/**
+	 * Stop to listen, close the channels and the session
+	 */
+	public synchronized void close()
+	{
+		if (this.server != null)
+		{
+			try
+			{
+				this.server.close();
+			}
+			catch (IOException e)
+			{
+				System.err.println("Tunnel to " + this.host + " not closed : " + e.getMessage());
+			}
+			this.pumps.shutdownNow();
+		}
+		if (this.session != null)
+		{
+			this.session.disconnect();
+			this.session = null;
+		}
+	}
+
+	/**
+	 * Accept the connections of the client until the tunnel is closed
+	 */
+	private void accept()
+	{
+		while (!this.server.isClosed())
+		{
+			try
+			{
+				Socket socket = this.server.accept();
+				socket.setTcpNoDelay(true);
+				this.pumps.execute(() -> forward(socket));
+			}
+			catch (SocketException e)
+			{
+				// tunnel closed
+			}
+			catch (IOException e)
+			{
+				System.err.println("Tunnel to " + this.host + " : " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Forward a connection through a new channel, opening the session again if it was lost
+	 */
+	private void forward(Socket socket)
+	{
+		ChannelExec channel = null;
+		boolean acquired = false;
+		try
+		{
+			acquired = this.channels.tryAcquire(ACQUIRE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+			if (!acquired)
+			{
+				System.err.println("No channel to " + this.host + " free within " + ACQUIRE_TIMEOUT_MILLIS + " ms, connection closed");
+				return;
+			}
+
+			InputStream fromRemote;
+			OutputStream toRemote;
+			for (int attempt = 0;; attempt++)
+			{
+				try
+				{
+					channel = (ChannelExec) session().openChannel("exec");
+					channel.setCommand(this.command);
+					channel.setErrStream(System.err, true);
+					fromRemote = channel.getInputStream();
+					toRemote = channel.getOutputStream();
+					channel.connect();
+					break;
+				}
+				catch (JSchException e)
+				{
+					channel = null;
+					if (attempt > 0 || (!(e.getCause() instanceof IOException) && !"session is down".equals(e.getMessage())))
+					{
+						throw e;
+					}
+					// the session was lost since its last use
+					reconnect(e);
+				}
+			}
+			this.openChannels.incrementAndGet();
+
+			final InputStream remote = fromRemote;
+			final OutputStream toSocket = socket.getOutputStream();
+			this.pumps.execute(() -> {
+				pump(remote, toSocket);
+				close(socket);
+			});
+			pump(socket.getInputStream(), toRemote);
+		}
+		catch (IOException | JSchException e)
+		{
+			System.err.println("Channel to " + this.host + " failed : " + e.getMessage());
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			if (channel != null)
+			{
+				channel.disconnect();
+				this.openChannels.decrementAndGet();
+			}
+			if (acquired)
+			{
+				this.channels.release();
+			}
+			close(socket);
+		}
+	}
+
+	/**
+	 * Returns the session, opened if not connected
+	 */
+	private synchronized Session session() throws IOException
+	{
+		if (this.session == null || !this.session.isConnected())
+		{
+			try
+			{
+				JSch jsch = new JSch();
+				if (new File(this.identity).exists())
+				{
+					jsch.addIdentity(this.identity);
+				}
+				Session newSession = jsch.getSession(this.user, this.host, this.port);
+				if ("none".equals(this.knownHosts))
+				{
+					newSession.setConfig("StrictHostKeyChecking", "no");
+				}
+				else
+				{
+					jsch.setKnownHosts(this.knownHosts);
+					newSession.setConfig("StrictHostKeyChecking", "yes");
+				}
+				newSession.setServerAliveInterval(KEEPALIVE_MILLIS);
+				newSession.setServerAliveCountMax(3);
+				newSession.connect();
+				this.session = newSession;
+				this.sessions.incrementAndGet();
+			}
+			catch (JSchException e)
+			{
+				throw new IOException("SSH session to " + this.user + "@" + this.host + ":" + this.port + " not opened : " + e.getMessage(), e);
+			}
+		}
+		return this.session;
+	}
+
+	/**
+	 * Drop the session which failed, the next channel opens a new one
+	 */
+	private synchronized void reconnect(JSchException failure)
+	{
+		System.err.println("SSH session to " + this.host + " lost : " + failure.getMessage());
+		if (this.session != null)
+		{
+			this.session.disconnect();
+			this.session = null;
+		}
+	}
+
+	private static void pump(InputStream input, OutputStream output)
+	{
+		byte[] buffer = new byte[32 * 1024];
+		try
+		{
+			int n;
+			while ((n = input.read(buffer)) >= 0)
+			{
+				output.write(buffer, 0, n);
+				output.flush();
+			}
+		}
+		catch (IOException e)
+		{
+			// connection closed by one of the sides
+		}
+	}
+
+	private static void close(Socket socket)
+	{
+		try
+		{
+			socket.close();
+		}
+		catch (IOException e)
+		{
+			// already closed
+		}
+	}
+}
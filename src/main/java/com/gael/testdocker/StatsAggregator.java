@@ -0,0 +1,583 @@
+package com.gael.testdocker;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.DockerClient.ListContainersParam;
+import com.spotify.docker.client.exceptions.ContainerNotFoundException;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.messages.Container;
+import com.spotify.docker.client.messages.ContainerStats;
+import com.spotify.docker.client.messages.CpuStats;
+import com.spotify.docker.client.messages.NetworkStats;
+
+/**
+ * <b>Aggregator of the stats of Containers over a rolling window</b>
+ *
+ * <p>The stats of each tracked Container are read every interval and kept in ring buffers of
+ * primitives of a fixed number of samples : CPUs used, memory, and the counters of network and
+ * block I/O. The memory used does not grow with the duration, and recording a sample allocates
+ * nothing : the only allocations are the messages parsed by the client.</p>
+ *
+ * <p>The summary of a Container gives the percentiles of the CPU and the memory over the window
+ * and the rates of the network and block I/O between its oldest and newest samples.</p>
+ *
+ * <p>docker-client reads the stats with stream=0, a read lasting about one second on a real
+ * daemon, which collects two samples of the CPU, and holding a connection of the pool of the
+ * client meanwhile. The reads are made by a bounded number of pollers, each Container being read
+ * again one interval after the end of its last read : the reads take at most 'maxPollers'
+ * connections whatever the number of Containers tracked, and beyond 'maxPollers' Containers by
+ * second of read, each Container is read less often. A Container removed is no longer
+ * tracked.</p>
+ *
+ * @see DockerCommands#getStatsAggregator()
+ *
+ * @author bellaiche
+ * @version 1.0
+ *
+ */
+public class StatsAggregator {
+
+	private final DockerClient docker;
+
+	/**
+	 * Number of samples kept by Container
+	 */
+	private final int window;
+
+	private final long intervalMillis;
+
+	/**
+	 * Threads reading the stats, at most 'maxPollers'
+	 */
+	private final ScheduledExecutorService pollers;
+
+	/**
+	 * Thread of the periodic dump
+	 */
+	private final ScheduledExecutorService timer;
+
+	private final Map<String, Series> series = new ConcurrentHashMap<String, Series>();
+
+	private volatile boolean closed;
+
+	/**
+	 * Constructor StatsAggregator
+	 *
+	 * @param docker Instance of DockerClient
+	 * @param window Number of samples kept by Container
+	 * @param intervalMillis Interval between two reads of the stats of a Container
+	 * @param maxPollers Maximum number of reads at the same time, so of connections of the client used
+	 */
+	public StatsAggregator(DockerClient docker, int window, long intervalMillis, int maxPollers)
+	{
+		this.docker = docker;
+		this.window = Math.max(2, window);
+		this.intervalMillis = intervalMillis;
+		this.pollers = Executors.newScheduledThreadPool(Math.max(1, maxPollers), Utils.daemonThreads("docker-stats-"));
+		this.timer = Executors.newSingleThreadScheduledExecutor(Utils.daemonThreads("docker-stats-dump-"));
+	}
+
+	/**
+	 * Start to read the stats of a Container, until it is removed or untracked
+	 *
+	 * @param containerId Id or name of the Container
+	 * @return False if the Container was already tracked
+	 */
+	public boolean track(String containerId)
+	{
+		Series created = new Series(containerId, this.window);
+		if (this.series.putIfAbsent(containerId, created) != null)
+		{
+			return false;
+		}
+		this.pollers.execute(() -> poll(created));
+		return true;
+	}
+
+	/**
+	 * Track all the running Containers
+	 *
+	 * @return Number of Containers newly tracked
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public int trackRunning() throws DockerException, InterruptedException
+	{
+		int tracked = 0;
+		for (Container container : this.docker.listContainers(ListContainersParam.withStatusRunning()))
+		{
+			String name = container.names() != null && !container.names().isEmpty() ? container.names().get(0).substring(1) : container.id();
+			if (track(name))
+			{
+				tracked++;
+			}
+		}
+		return tracked;
+	}
+
+	/**
+	 * Stop to read the stats of a Container and drop its samples
+	 *
+	 * @param containerId Id or name of the Container given to {@link #track(String)}
+	 * @return True if the Container was tracked
+	 */
+	public boolean untrack(String containerId)
+	{
+		Series removed = this.series.remove(containerId);
+		if (removed == null)
+		{
+			return false;
+		}
+		removed.tracked = false;
+		return true;
+	}
+
+	/**
+	 * Returns the summary of the window of a Container
+	 *
+	 * @param containerId Id or name of the Container given to {@link #track(String)}
+	 * @return Summary, null if the Container is not tracked
+	 */
+	public Summary getSummary(String containerId)
+	{
+		Series s = this.series.get(containerId);
+		return s != null ? s.summary() : null;
+	}
+
+	/**
+	 * @return Summaries of the tracked Containers, by Id or name
+	 */
+	public Map<String, Summary> getSummaries()
+	{
+		Map<String, Summary> summaries = new TreeMap<String, Summary>();
+		for (Series s : this.series.values())
+		{
+			summaries.put(s.containerId, s.summary());
+		}
+		return summaries;
+	}
+
+	/**
+	 * Print the summaries on the standard output periodically
+	 *
+	 * @param periodMillis Period of the dump
+	 */
+	public void startDump(long periodMillis)
+	{
+		this.timer.scheduleAtFixedRate(() -> System.out.print(this), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stop the reads and the dump
+	 */
+	public void close()
+	{
+		this.closed = true;
+		this.timer.shutdownNow();
+		this.pollers.shutdownNow();
+	}
+
+	/**
+	 * Returns the summaries, one line by Container
+	 */
+	@Override
+	public String toString()
+	{
+		StringBuilder dump = new StringBuilder();
+		for (Summary summary : getSummaries().values())
+		{
+			dump.append(summary).append('\n');
+		}
+		return dump.toString();
+	}
+
+	/**
+	 * Record a sample of the stats of a tracked Container, without allocation
+	 *
+	 * @param containerId Id or name of the Container given to {@link #track(String)}
+	 * @param stats Stats read from Docker
+	 * @param timeMillis Time of the read
+	 * @return False if the Container is not tracked
+	 */
+	boolean record(String containerId, ContainerStats stats, long timeMillis)
+	{
+		Series s = this.series.get(containerId);
+		if (s == null)
+		{
+			return false;
+		}
+		s.add(timeMillis, stats);
+		return true;
+	}
+
+	/**
+	 * Read the stats of a Container, then schedule the next read until it is untracked or removed
+	 */
+	private void poll(Series s)
+	{
+		if (!s.tracked || this.closed)
+		{
+			return;
+		}
+		long start = System.currentTimeMillis();
+		try
+		{
+			s.add(start, this.docker.stats(s.containerId));
+		}
+		catch (ContainerNotFoundException e)
+		{
+			this.series.remove(s.containerId, s);
+			return;
+		}
+		catch (DockerException e)
+		{
+			System.err.println("Stats of " + s.containerId + " not read : " + e.getMessage());
+		}
+		catch (InterruptedException e)
+		{
+			return;
+		}
+
+		long remaining = this.intervalMillis - (System.currentTimeMillis() - start);
+		try
+		{
+			this.pollers.schedule(() -> poll(s), Math.max(0, remaining), TimeUnit.MILLISECONDS);
+		}
+		catch (RejectedExecutionException e)
+		{
+			// closed
+		}
+	}
+
+	/**
+	 * Returns the CPUs used by a Container between the two samples of its stats, 0 if not measurable
+	 *
+	 * @param stats Stats of the Container
+	 * @param cpus CPUs of the host, 0 to count the CPUs of the stats
+	 * @return Number of CPUs used, 1.5 for one CPU and a half
+	 */
+	static double cpusUsed(ContainerStats stats, int cpus)
+	{
+		CpuStats cpu = stats.cpuStats();
+		CpuStats previous = stats.precpuStats();
+		if (cpu == null || previous == null || cpu.cpuUsage() == null || previous.cpuUsage() == null || cpu.systemCpuUsage() == null
+				|| previous.systemCpuUsage() == null || cpu.systemCpuUsage() <= previous.systemCpuUsage())
+		{
+			return 0;
+		}
+		if (cpus <= 0)
+		{
+			List<Long> perCpu = cpu.cpuUsage().percpuUsage();
+			cpus = perCpu != null && !perCpu.isEmpty() ? perCpu.size() : 1;
+		}
+		double fraction = (double) (cpu.cpuUsage().totalUsage() - previous.cpuUsage().totalUsage())
+				/ (cpu.systemCpuUsage() - previous.systemCpuUsage());
+		return fraction * cpus;
+	}
+
+	/**
+	 * <p>Summary of the window of a Container</p>
+	 */
+	public static class Summary {
+
+		private final String containerId;
+		private final int samples;
+		private final long windowMillis;
+		private final double cpuP50;
+		private final double cpuP95;
+		private final double cpuMax;
+		private final long memory;
+		private final long memoryP95;
+		private final long memoryMax;
+		private final double rxBytesPerSecond;
+		private final double txBytesPerSecond;
+		private final double readBytesPerSecond;
+		private final double writeBytesPerSecond;
+
+		Summary(String containerId, int samples, long windowMillis, double cpuP50, double cpuP95, double cpuMax, long memory, long memoryP95,
+				long memoryMax, double rxBytesPerSecond, double txBytesPerSecond, double readBytesPerSecond, double writeBytesPerSecond)
+		{
+			this.containerId = containerId;
+			this.samples = samples;
+			this.windowMillis = windowMillis;
+			this.cpuP50 = cpuP50;
+			this.cpuP95 = cpuP95;
+			this.cpuMax = cpuMax;
+			this.memory = memory;
+			this.memoryP95 = memoryP95;
+			this.memoryMax = memoryMax;
+			this.rxBytesPerSecond = rxBytesPerSecond;
+			this.txBytesPerSecond = txBytesPerSecond;
+			this.readBytesPerSecond = readBytesPerSecond;
+			this.writeBytesPerSecond = writeBytesPerSecond;
+		}
+
+		/**
+		 * @return Id or name of the Container
+		 */
+		public String getContainerId()
+		{
+			return this.containerId;
+		}
+
+		/**
+		 * @return Number of samples of the window
+		 */
+		public int getSamples()
+		{
+			return this.samples;
+		}
+
+		/**
+		 * @return Duration between the oldest and the newest samples, in milliseconds
+		 */
+		public long getWindowMillis()
+		{
+			return this.windowMillis;
+		}
+
+		/**
+		 * @return Median of the CPUs used
+		 */
+		public double getCpuP50()
+		{
+			return this.cpuP50;
+		}
+
+		/**
+		 * @return 95th percentile of the CPUs used
+		 */
+		public double getCpuP95()
+		{
+			return this.cpuP95;
+		}
+
+		/**
+		 * @return Maximum of the CPUs used
+		 */
+		public double getCpuMax()
+		{
+			return this.cpuMax;
+		}
+
+		/**
+		 * @return Memory used at the newest sample, in bytes
+		 */
+		public long getMemory()
+		{
+			return this.memory;
+		}
+
+		/**
+		 * @return 95th percentile of the memory used, in bytes
+		 */
+		public long getMemoryP95()
+		{
+			return this.memoryP95;
+		}
+
+		/**
+		 * @return Maximum of the memory used, in bytes
+		 */
+		public long getMemoryMax()
+		{
+			return this.memoryMax;
+		}
+
+		/**
+		 * @return Bytes received by second over the window
+		 */
+		public double getRxBytesPerSecond()
+		{
+			return this.rxBytesPerSecond;
+		}
+
+		/**
+		 * @return Bytes sent by second over the window
+		 */
+		public double getTxBytesPerSecond()
+		{
+			return this.txBytesPerSecond;
+		}
+
+		/**
+		 * @return Bytes read from the block devices by second over the window
+		 */
+		public double getReadBytesPerSecond()
+		{
+			return this.readBytesPerSecond;
+		}
+
+		/**
+		 * @return Bytes written to the block devices by second over the window
+		 */
+		public double getWriteBytesPerSecond()
+		{
+			return this.writeBytesPerSecond;
+		}
+
+		@Override
+		public String toString()
+		{
+			double mib = 1 << 20;
+			double kib = 1 << 10;
+			return String.format("%s : %d samples over %.1f s, cpu p50=%.2f p95=%.2f max=%.2f, memory %.1f MiB p95=%.1f max=%.1f,"
+					+ " net rx=%.1f KiB/s tx=%.1f KiB/s, block read=%.1f KiB/s write=%.1f KiB/s",
+					this.containerId, this.samples, this.windowMillis / 1000.0, this.cpuP50, this.cpuP95,
+					this.cpuMax, this.memory / mib, this.memoryP95 / mib, this.memoryMax / mib, this.rxBytesPerSecond / kib,
+					this.txBytesPerSecond / kib, this.readBytesPerSecond / kib, this.writeBytesPerSecond / kib);
+		}
+	}
+
+	/**
+	 * <p>Ring buffers of the samples of a Container</p>
+	 */
+	private static class Series {
+
+		private final String containerId;
+		private final long[] times;
+		private final double[] cpus;
+		private final long[] memory;
+		private final long[] rxBytes;
+		private final long[] txBytes;
+		private final long[] readBytes;
+		private final long[] writeBytes;
+
+		/**
+		 * Copies sorted by the summaries, kept to not allocate them again
+		 */
+		private final double[] sortedCpus;
+		private final long[] sortedMemory;
+
+		/**
+		 * Index of the next sample, and number of samples
+		 */
+		private int next;
+		private int count;
+
+		private volatile boolean tracked = true;
+
+		Series(String containerId, int window)
+		{
+			this.containerId = containerId;
+			this.times = new long[window];
+			this.cpus = new double[window];
+			this.memory = new long[window];
+			this.rxBytes = new long[window];
+			this.txBytes = new long[window];
+			this.readBytes = new long[window];
+			this.writeBytes = new long[window];
+			this.sortedCpus = new double[window];
+			this.sortedMemory = new long[window];
+		}
+
+		synchronized void add(long timeMillis, ContainerStats stats)
+		{
+			int i = this.next;
+			this.times[i] = timeMillis;
+			this.cpus[i] = cpusUsed(stats, 0);
+			this.memory[i] = stats.memoryStats() != null && stats.memoryStats().usage() != null ? stats.memoryStats().usage() : 0;
+
+			long rx = 0;
+			long tx = 0;
+			if (stats.networks() != null)
+			{
+				for (NetworkStats network : stats.networks().values())
+				{
+					rx += network.rxBytes() != null ? network.rxBytes() : 0;
+					tx += network.txBytes() != null ? network.txBytes() : 0;
+				}
+			}
+			else if (stats.network() != null)
+			{
+				rx = stats.network().rxBytes() != null ? stats.network().rxBytes() : 0;
+				tx = stats.network().txBytes() != null ? stats.network().txBytes() : 0;
+			}
+			this.rxBytes[i] = rx;
+			this.txBytes[i] = tx;
+
+			long read = 0;
+			long write = 0;
+			List<Object> entries = stats.blockIoStats() != null ? stats.blockIoStats().ioServiceBytesRecursive() : null;
+			if (entries != null)
+			{
+				for (int e = 0; e < entries.size(); e++)
+				{
+					if (entries.get(e) instanceof Map)
+					{
+						// {"major":8,"minor":0,"op":"Read","value":4096}, not typed by docker-client
+						Map<?, ?> entry = (Map<?, ?>) entries.get(e);
+						Object op = entry.get("op");
+						Object value = entry.get("value");
+						if (value instanceof Number && "Read".equalsIgnoreCase(String.valueOf(op)))
+						{
+							read += ((Number) value).longValue();
+						}
+						else if (value instanceof Number && "Write".equalsIgnoreCase(String.valueOf(op)))
+						{
+							write += ((Number) value).longValue();
+						}
+					}
+				}
+			}
+			this.readBytes[i] = read;
+			this.writeBytes[i] = write;
+
+			this.next = (i + 1) % this.times.length;
+			this.count = Math.min(this.count + 1, this.times.length);
+		}
+
+		synchronized Summary summary()
+		{
+			int n = this.count;
+			if (n == 0)
+			{
+				return new Summary(this.containerId, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+			}
+			int window = this.times.length;
+			int oldest = (this.next - n + window) % window;
+			int newest = (this.next - 1 + window) % window;
+			long millis = this.times[newest] - this.times[oldest];
+
+			for (int k = 0; k < n; k++)
+			{
+				int i = (oldest + k) % window;
+				this.sortedCpus[k] = this.cpus[i];
+				this.sortedMemory[k] = this.memory[i];
+			}
+			Arrays.sort(this.sortedCpus, 0, n);
+			Arrays.sort(this.sortedMemory, 0, n);
+
+			return new Summary(this.containerId, n, millis, this.sortedCpus[rank(50, n)], this.sortedCpus[rank(95, n)], this.sortedCpus[n - 1],
+					this.memory[newest], this.sortedMemory[rank(95, n)], this.sortedMemory[n - 1],
+					rate(this.rxBytes, oldest, newest, millis), rate(this.txBytes, oldest, newest, millis),
+					rate(this.readBytes, oldest, newest, millis), rate(this.writeBytes, oldest, newest, millis));
+		}
+
+		/**
+		 * Returns the index of a percentile in the 'n' sorted samples
+		 */
+		private static int rank(double percentile, int n)
+		{
+			return Math.max(0, (int) Math.ceil(n * percentile / 100.0) - 1);
+		}
+
+		/**
+		 * Returns the growth by second of a counter, 0 if it was reset by a restart
+		 */
+		private static double rate(long[] counter, int oldest, int newest, long millis)
+		{
+			long delta = counter[newest] - counter[oldest];
+			return millis > 0 && delta > 0 ? delta * 1000.0 / millis : 0;
+		}
+	}
+}
@@ -0,0 +1,437 @@
+package com.gael.testdocker;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.apache.commons.compress.archivers.zip.ZipEncoding;
+import org.apache.commons.compress.archivers.zip.ZipEncodingHelper;
+
+/**
+ * <b>Builder of tar archives for a directory</b>
+ *
+ * <p>The directory is scanned with NIO, the subdirectories in parallel, and the entries keep
+ * their path relative to the directory. The bodies of the files are sent with
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)}, so they are not copied on the
+ * heap and, when the target is a file, they are copied by the kernel.</p>
+ *
+ * @author bellaiche
+ * @version 1.0
+ *
+ */
+public class TarArchiveBuilder {
+
+	/**
+	 * Size of a tar record
+	 */
+	private static final int BLOCK_SIZE = TarConstants.DEFAULT_RCDSIZE;
+
+	/**
+	 * Name of the entry holding a name too long for the tar header
+	 */
+	private static final String LONG_LINK_NAME = "././@LongLink";
+
+	/**
+	 * Encoding of the names in the headers
+	 */
+	private static final ZipEncoding NAME_ENCODING = ZipEncodingHelper.getZipEncoding(StandardCharsets.UTF_8.name());
+
+	/**
+	 * Root directory of the archive
+	 */
+	private final Path root;
+
+	/**
+	 * Entries of the archive, null until the directory is scanned
+	 */
+	private List<Entry> entries;
+
+	/**
+	 * Constructor TarArchiveBuilder
+	 *
+	 * @param pathName Path of the directory to archive
+	 */
+	public TarArchiveBuilder(String pathName)
+	{
+		this.root = Paths.get(pathName);
+	}
+
+	/**
+	 * Returns the entries of the archive, sorted by relative path
+	 * <p>The directory is scanned on first call.</p>
+	 *
+	 * @return Entries of the archive
+	 * @throws IOException Raise if the directory can not be scanned
+	 */
+	public synchronized List<Entry> getEntries() throws IOException
+	{
+		if (this.entries == null)
+		{
+			this.entries = scan();
+		}
+		return this.entries;
+	}
+
+	/**
+	 * Write the archive into a file
+	 *
+	 * @param tarName Name of the tar archive
+	 * @throws IOException Raise if there is an error with Input/Output stream
+	 */
+	public void writeTo(String tarName) throws IOException
+	{
+		FileChannel target = FileChannel.open(Paths.get(tarName), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try
+		{
+			writeTo(target);
+		}
+		finally
+		{
+			target.close();
+		}
+	}
+
+	/**
+	 * Write the archive into a channel
+	 *
+	 * @param target Channel where the archive is written, not closed
+	 * @throws IOException Raise if there is an error with Input/Output stream
+	 */
+	public void writeTo(WritableByteChannel target) throws IOException
+	{
+		writeTo(target, getEntries());
+	}
+
+	/**
+	 * Write some entries of the directory into a channel
+	 *
+	 * @param target Channel where the archive is written, not closed
+	 * @param selection Entries to write, from {@link #getEntries()}
+	 * @throws IOException Raise if there is an error with Input/Output stream
+	 */
+	public void writeTo(WritableByteChannel target, Collection<Entry> selection) throws IOException
+	{
+		ByteBuffer header = ByteBuffer.allocate(BLOCK_SIZE);
+
+		for (Entry entry : selection)
+		{
+			writeHeader(target, header, entry);
+
+			if (!entry.isDirectory() && entry.getSize() > 0)
+			{
+				writeBody(target, entry);
+				writePadding(target, header, entry.getSize());
+			}
+		}
+
+		writeZeros(target, header, BLOCK_SIZE);
+		writeZeros(target, header, BLOCK_SIZE);
+	}
+
+	/**
+	 * Scan the directory, each subdirectory of the root in parallel
+	 *
+	 * @return Entries sorted by relative path
+	 * @throws IOException Raise if the directory can not be scanned
+	 */
+	private List<Entry> scan() throws IOException
+	{
+		final Collection<Entry> found = new ConcurrentLinkedQueue<Entry>();
+		List<Path> subDirectories = new ArrayList<Path>();
+
+		if (!Files.isDirectory(this.root))
+		{
+			return Collections.emptyList();
+		}
+
+		DirectoryStream<Path> children = Files.newDirectoryStream(this.root);
+		try
+		{
+			for (Path child : children)
+			{
+				BasicFileAttributes attrs;
+				try
+				{
+					attrs = Files.readAttributes(child, BasicFileAttributes.class);
+				}
+				catch (NoSuchFileException e)
+				{
+					// broken symbolic link, skipped as in the subdirectories
+					continue;
+				}
+				if (attrs.isDirectory())
+				{
+					subDirectories.add(child);
+				}
+				else if (attrs.isRegularFile())
+				{
+					found.add(new Entry(this.root, child, attrs));
+				}
+			}
+		}
+		finally
+		{
+			children.close();
+		}
+
+		try
+		{
+			subDirectories.parallelStream().forEach(directory -> {
+				try
+				{
+					walk(directory, found);
+				}
+				catch (IOException e)
+				{
+					throw new ScanException(e);
+				}
+			});
+		}
+		catch (ScanException e)
+		{
+			throw e.getCause();
+		}
+
+		List<Entry> sorted = new ArrayList<Entry>(found);
+		Collections.sort(sorted, Comparator.comparing(Entry::getName));
+		return sorted;
+	}
+
+	/**
+	 * Walk a subdirectory of the root
+	 * <p>The symbolic links are followed, as for the children of the root, a loop of links is skipped.</p>
+	 *
+	 * @param directory Subdirectory to walk
+	 * @param found Collection receiving the entries
+	 * @throws IOException Raise if the subdirectory can not be walked
+	 */
+	private void walk(Path directory, final Collection<Entry> found) throws IOException
+	{
+		Files.walkFileTree(directory, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+			{
+				found.add(new Entry(root, dir, attrs));
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+			{
+				if (attrs.isRegularFile())
+				{
+					found.add(new Entry(root, file, attrs));
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException
+			{
+				if (e instanceof FileSystemLoopException)
+				{
+					return FileVisitResult.CONTINUE;
+				}
+				throw e;
+			}
+		});
+	}
+
+	/**
+	 * Write the header of an entry, preceded by a GNU long name entry when needed
+	 */
+	private static void writeHeader(WritableByteChannel target, ByteBuffer header, Entry entry) throws IOException
+	{
+		byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+
+		if (name.length >= TarConstants.NAMELEN)
+		{
+			TarArchiveEntry longLink = new TarArchiveEntry(LONG_LINK_NAME, TarConstants.LF_GNUTYPE_LONGNAME);
+			longLink.setSize(name.length + 1);
+			longLink.setModTime(entry.getModified());
+			writeHeader(target, header, longLink);
+
+			byte[] longName = Arrays.copyOf(name, name.length + 1);
+			writeFully(target, ByteBuffer.wrap(longName));
+			writePadding(target, header, longName.length);
+		}
+
+		TarArchiveEntry tarEntry = new TarArchiveEntry(entry.getName());
+		tarEntry.setModTime(entry.getModified());
+		if (!entry.isDirectory())
+		{
+			tarEntry.setSize(entry.getSize());
+		}
+		writeHeader(target, header, tarEntry);
+	}
+
+	private static void writeHeader(WritableByteChannel target, ByteBuffer header, TarArchiveEntry tarEntry) throws IOException
+	{
+		header.clear();
+		// star mode : the sizes of 8 GiB or more are written in base-256 instead of being truncated
+		tarEntry.writeEntryHeader(header.array(), NAME_ENCODING, true);
+		writeFully(target, header);
+	}
+
+	/**
+	 * Transfer the body of a file, without copy on the heap
+	 */
+	private static void writeBody(WritableByteChannel target, Entry entry) throws IOException
+	{
+		FileChannel source = FileChannel.open(entry.getPath(), StandardOpenOption.READ);
+		try
+		{
+			long position = 0;
+			long size = entry.getSize();
+			while (position < size)
+			{
+				long sent = source.transferTo(position, size - position, target);
+				if (sent <= 0 && source.size() < size)
+				{
+					throw new IOException("File truncated during archive : " + entry.getPath());
+				}
+				position += sent;
+			}
+		}
+		finally
+		{
+			source.close();
+		}
+	}
+
+	/**
+	 * Complete the last record of a body with zeros
+	 */
+	private static void writePadding(WritableByteChannel target, ByteBuffer header, long size) throws IOException
+	{
+		int rest = (int) (size % BLOCK_SIZE);
+		if (rest != 0)
+		{
+			writeZeros(target, header, BLOCK_SIZE - rest);
+		}
+	}
+
+	private static void writeZeros(WritableByteChannel target, ByteBuffer header, int length) throws IOException
+	{
+		header.clear();
+		Arrays.fill(header.array(), 0, length, (byte) 0);
+		header.limit(length);
+		writeFully(target, header);
+	}
+
+	private static void writeFully(WritableByteChannel target, ByteBuffer buffer) throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			target.write(buffer);
+		}
+	}
+
+	/**
+	 * <p>File or directory of the archive</p>
+	 */
+	public static class Entry {
+
+		private final Path path;
+		private final String name;
+		private final long size;
+		private final long modified;
+		private final boolean directory;
+
+		Entry(Path root, Path path, BasicFileAttributes attrs)
+		{
+			this.path = path;
+			this.directory = attrs.isDirectory();
+			this.size = this.directory ? 0 : attrs.size();
+			this.modified = attrs.lastModifiedTime().toMillis();
+
+			String relative = root.relativize(path).toString().replace('\\', '/');
+			this.name = this.directory ? relative + "/" : relative;
+		}
+
+		/**
+		 * @return Path of the file on disk
+		 */
+		public Path getPath()
+		{
+			return this.path;
+		}
+
+		/**
+		 * @return Path relative to the root, with '/' separators and a trailing '/' for directories
+		 */
+		public String getName()
+		{
+			return this.name;
+		}
+
+		/**
+		 * @return Size in bytes, 0 for directories
+		 */
+		public long getSize()
+		{
+			return this.size;
+		}
+
+		/**
+		 * @return Date of the last modification
+		 */
+		public Date getModified()
+		{
+			return new Date(this.modified);
+		}
+
+		/**
+		 * @return True if the entry is a directory
+		 */
+		public boolean isDirectory()
+		{
+			return this.directory;
+		}
+	}
+
+	/**
+	 * Unchecked wrapper to leave the parallel scan on error
+	 */
+	private static class ScanException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		ScanException(IOException cause)
+		{
+			super(cause);
+		}
+
+		@Override
+		public synchronized IOException getCause()
+		{
+			return (IOException) super.getCause();
+		}
+	}
+}
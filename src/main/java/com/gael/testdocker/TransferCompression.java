@@ -0,0 +1,88 @@
+package com.gael.testdocker;
+
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+
+/**
+ * <b>Compression of the archives sent to the Containers</b>
+ *
+ * <p>The daemon accepts a gzip archive in copyToContainer. Over a Unix socket or the loopback,
+ * the compression only costs CPU; over the network it reduces the bytes sent.</p>
+ *
+ * @see ParallelGzipOutputStream
+ *
+ * @author bellaiche
+ * @version 1.0
+ *
+ */
+public enum TransferCompression {
+
+	/**
+	 * Archives sent as is
+	 */
+	NONE,
+
+	/**
+	 * Archives always compressed
+	 */
+	GZIP,
+
+	/**
+	 * Archives compressed when the daemon is remote and the files are bigger than {@link #AUTO_THRESHOLD}
+	 */
+	AUTO;
+
+	/**
+	 * Size of the files from which AUTO compresses, in bytes
+	 */
+	public static final long AUTO_THRESHOLD = 1024 * 1024;
+
+	/**
+	 * Returns True if an archive must be compressed
+	 *
+	 * @param endpoint Endpoint of the daemon, null for the default Unix socket
+	 * @param payloadBytes Size of the files of the archive
+	 * @return True to compress
+	 */
+	public boolean isCompressed(String endpoint, long payloadBytes)
+	{
+		switch (this)
+		{
+			case GZIP:
+				return true;
+			case AUTO:
+				return payloadBytes >= AUTO_THRESHOLD && isRemote(endpoint);
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Returns True if the daemon is reached through the network
+	 *
+	 * @param endpoint Endpoint of the daemon, as unix:///var/run/docker.sock or tcp://host:2375, null for the default Unix socket
+	 * @return False for a Unix socket, a named pipe or the loopback
+	 */
+	public static boolean isRemote(String endpoint)
+	{
+		if (endpoint == null)
+		{
+			return false;
+		}
+
+		URI uri = URI.create(endpoint);
+		if (uri.getHost() == null || "unix".equals(uri.getScheme()) || "npipe".equals(uri.getScheme()))
+		{
+			return false;
+		}
+		try
+		{
+			return !InetAddress.getByName(uri.getHost()).isLoopbackAddress();
+		}
+		catch (UnknownHostException e)
+		{
+			return true;
+		}
+	}
+}
@@ -1,24 +1,22 @@
 package com.gael.testdocker;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.ArrayList;
-import java.util.List;
-
-import org.apache.commons.compress.archivers.ArchiveOutputStream;
-import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
-import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
-import org.apache.commons.compress.utils.IOUtils;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * <p>Utility class for severals actions :
  * <ul>
- * <li>Create Tar archive</li>
+ * <li>Create Tar archive, on disk or streamed, compressed or not</li>
  * <li>Delete file</li>
- * <li>Get all files in a folder</li>
  * </ul>
  * 
  * @author bellaiche
@@ -27,6 +25,11 @@ import org.apache.commons.compress.utils.IOUtils;
  */
 public class Utils {
 	
+	/**
+	 * Size of the buffer between the tar writer and the reader of a streamed archive
+	 */
+	private static final int STREAM_BUFFER_SIZE = 1024 * 1024;
+	
 	/**
 	 * Create a tar archive
 	 * 
@@ -36,62 +39,224 @@ public class Utils {
 	 */
 	public static void createTar(final String tarName, String pathName) throws IOException {
 		
-		List<File> pathEntries = new ArrayList<File>();
-		pathEntries.add(new File(pathName));
-		
-        OutputStream tarOutput = new FileOutputStream(new File(tarName));
-
-        ArchiveOutputStream tarArchive = new TarArchiveOutputStream(tarOutput);
-
-        List<File> files = new ArrayList<File>();
-
-        for (File file : pathEntries) {
-            files.addAll(recurseDirectory(file));
-        }
-
-        for (File file : files) {
-
-            TarArchiveEntry tarArchiveEntry = new TarArchiveEntry(file, file.getName());
-            tarArchiveEntry.setSize(file.length());
-            tarArchive.putArchiveEntry(tarArchiveEntry);
-            FileInputStream fileInputStream = new FileInputStream(file);
-            IOUtils.copy(fileInputStream, tarArchive);
-            fileInputStream.close();
-            tarArchive.closeArchiveEntry();
-        }
-
-        tarArchive.finish();
-        tarOutput.close();
+		new TarArchiveBuilder(pathName).writeTo(tarName);
     }
-
+	
 	/**
-	 * Returns all files from a directory
+	 * Returns a tar archive of a directory produced on the fly
+	 * <p>
+	 * The archive is written by a background thread into a bounded pipe, so nothing is
+	 * written on disk. An error of the writer is raised to the reader of the stream.
+	 * </p>
 	 * 
-	 * @param directory Directy to scan
-	 * @return List of File in the Directory
+	 * @param pathName Path of the directory to compress
+	 * @return Stream of the tar archive, to close after use
+	 * @throws IOException Raise if the pipe can not be created
+	 */
+	public static InputStream createTarStream(final String pathName) throws IOException {
+		
+		return createTarStream(new TarArchiveBuilder(pathName), null);
+	}
+	
+	/**
+	 * Returns a tar archive of some entries of a directory produced on the fly
 	 * 
-	 * @see File
+	 * @param builder Builder of the archive
+	 * @param selection Entries to write, null to write all the entries
+	 * @return Stream of the tar archive, to close after use
+	 * @throws IOException Raise if the pipe can not be created
 	 * 
+	 * @see Utils#createTarStream(String)
 	 */
-	public static List<File> recurseDirectory(final File directory) {
+	public static InputStream createTarStream(final TarArchiveBuilder builder, final Collection<TarArchiveBuilder.Entry> selection) throws IOException {
+		
+		return createTarStream(builder, selection, false);
+	}
 	
-	    List<File> files = new ArrayList<File>();
+	/**
+	 * Returns a tar archive of some entries of a directory produced on the fly, compressed or not
+	 * 
+	 * @param builder Builder of the archive
+	 * @param selection Entries to write, null to write all the entries
+	 * @param gzip True to compress the archive with gzip on all the cores
+	 * @return Stream of the archive, to close after use
+	 * @throws IOException Raise if the pipe can not be created
+	 * 
+	 * @see ParallelGzipOutputStream
+	 */
+	public static InputStream createTarStream(final TarArchiveBuilder builder, final Collection<TarArchiveBuilder.Entry> selection, final boolean gzip) throws IOException {
+		
+		return pipe("tar-writer", new StreamWriter() {
+			@Override
+			public void writeTo(OutputStream output) throws IOException {
+				if (gzip) {
+					OutputStream gzipOutput = new ParallelGzipOutputStream(output);
+					writeTar(gzipOutput, builder, selection);
+					gzipOutput.close();
+				}
+				else {
+					writeTar(output, builder, selection);
+				}
+			}
+		});
+	}
 	
-	    if (directory != null && directory.isDirectory()) {
+	/**
+	 * Returns a stream compressed with gzip on all the cores, produced on the fly
+	 * 
+	 * @param source Stream to compress, closed at the end
+	 * @return Stream of the compressed data, to close after use
+	 * @throws IOException Raise if the pipe can not be created
+	 * 
+	 * @see ParallelGzipOutputStream
+	 */
+	public static InputStream createGzipStream(final InputStream source) throws IOException {
+		
+		return pipe("gzip-writer", new StreamWriter() {
+			@Override
+			public void writeTo(OutputStream output) throws IOException {
+				try {
+					OutputStream gzipOutput = new ParallelGzipOutputStream(output);
+					byte[] buffer = new byte[64 * 1024];
+					int n;
+					while ((n = source.read(buffer)) >= 0) {
+						gzipOutput.write(buffer, 0, n);
+					}
+					gzipOutput.close();
+				}
+				finally {
+					source.close();
+				}
+			}
+		});
+	}
 	
-	        for (File file : directory.listFiles()) {
+	/**
+	 * Returns the end of a bounded pipe filled by a background thread
+	 * 
+	 * @param name Name of the thread
+	 * @param writer Producer of the data, an error is raised to the reader of the stream
+	 */
+	private static InputStream pipe(String name, final StreamWriter writer) throws IOException {
+		
+		final TarPipeInputStream pipeInput = new TarPipeInputStream(STREAM_BUFFER_SIZE);
+		final PipedOutputStream pipeOutput = new PipedOutputStream(pipeInput);
+		
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					writer.writeTo(pipeOutput);
+				}
+				catch (Throwable e) {
+					// any error, not only IOException, must reach the reader, else it sees a truncated stream as complete
+					pipeInput.fail(e);
+				}
+				finally {
+					try {
+						pipeOutput.close();
+					}
+					catch (IOException e) {
+						// reader already closed the pipe
+					}
+				}
+			}
+		}, name);
+		thread.setDaemon(true);
+		thread.start();
+		
+		return pipeInput;
+	}
+	
+	/**
+	 * Returns a factory of daemon threads named 'prefix' followed by their number from 1
+	 * 
+	 * @param prefix Prefix of the names of the threads
+	 * @return Factory of the threads of an executor
+	 */
+	static ThreadFactory daemonThreads(final String prefix) {
+		
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, prefix + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
 	
-	            if (file.isDirectory()) {
-	                files.addAll(recurseDirectory(file));
-	            } else {
-	                files.add(file);
-	            }
-	        }
-	    }
+	/**
+	 * <p>Producer of the data of a pipe</p>
+	 */
+	private interface StreamWriter {
+		
+		void writeTo(OutputStream output) throws IOException;
+	}
 	
-	    return files;
+	/**
+	 * Write a tar archive of a directory in a stream
+	 * 
+	 * @param output Stream where the archive is written, not closed
+	 * @param builder Builder of the archive
+	 * @param selection Entries to write, null to write all the entries
+	 * @throws IOException Raise if there is an error with Input/Output stream
+	 * 
+	 * @see TarArchiveBuilder
+	 */
+	private static void writeTar(OutputStream output, TarArchiveBuilder builder, Collection<TarArchiveBuilder.Entry> selection) throws IOException {
+		
+		WritableByteChannel channel = Channels.newChannel(output);
+		if (selection == null) {
+			builder.writeTo(channel);
+		}
+		else {
+			builder.writeTo(channel, selection);
+		}
+		output.flush();
 	}
 	
+	/**
+	 * <p>Pipe end of a streamed archive, raising the error of the writer thread</p>
+	 */
+	private static class TarPipeInputStream extends PipedInputStream {
+		
+		private volatile Throwable failure;
+		
+		TarPipeInputStream(int bufferSize) {
+			super(bufferSize);
+		}
+		
+		void fail(Throwable e) {
+			this.failure = e;
+		}
+		
+		@Override
+		public synchronized int read() throws IOException {
+			int b = super.read();
+			if (b < 0) {
+				checkFailure();
+			}
+			return b;
+		}
+		
+		@Override
+		public synchronized int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n < 0) {
+				checkFailure();
+			}
+			return n;
+		}
+		
+		private void checkFailure() throws IOException {
+			if (this.failure != null) {
+				throw new IOException("Error during creation of tar archive", this.failure);
+			}
+		}
+	}
+
 	/**
 	 * Delete a file
 	 * 
@@ -0,0 +1,470 @@
+package com.gael.testdocker;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.spotify.docker.client.DockerClient.ListContainersParam;
+import com.spotify.docker.client.DockerClient.RemoveContainerParam;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.exceptions.ImageNotFoundException;
+import com.spotify.docker.client.messages.Container;
+import com.spotify.docker.client.messages.HostConfig;
+
+/**
+ * <b>Pool of Containers created in advance</b>
+ *
+ * <p>The pool keeps a number of Containers created from the Image, started once to be prepared
+ * (as the copy of the lib directory), then parked :
+ * <ul>
+ * <li>STOPPED : the Container is stopped, a claim starts it then runs the activation</li>
+ * <li>PAUSED : the processes are frozen, a claim only resumes them</li>
+ * </ul>
+ * A claim renames a parked Container and makes it run, the pool is refilled in background.</p>
+ *
+ * <p>The parked Containers are named 'poolName-xxxxxxxx' and stay in Docker : a new pool with
+ * the same name adopts them if their labels give the Id of the current Image and the hash of
+ * the current content, the others are removed. Their ports are published on ports of the host
+ * chosen by Docker, not on fixed ports, given by {@link DockerCommands#getEndpoints(String, boolean)}
+ * after the claim.</p>
+ *
+ * @see DockerCommands
+ *
+ * @author bellaiche
+ * @version 1.0
+ *
+ */
+public class WarmPool {
+
+	/**
+	 * <p>State of the parked Containers</p>
+	 */
+	public enum Mode {
+		STOPPED,
+		PAUSED
+	}
+
+	/**
+	 * <p>Action on a running Container of the pool</p>
+	 */
+	public interface Preparation {
+
+		/**
+		 * @param containerId Id of the running Container
+		 * @throws Exception Raise if the action failed, the Container is then removed
+		 */
+		void prepare(String containerId) throws Exception;
+	}
+
+	/**
+	 * Label of the Id of the Image of a parked Container
+	 */
+	public static final String LABEL_IMAGE = "testdocker.pool.image";
+
+	/**
+	 * Label of the hash of the content prepared in a parked Container
+	 */
+	public static final String LABEL_CONTENT = "testdocker.pool.content";
+
+	private final DockerCommands dc;
+
+	private final String poolName;
+
+	private final String nameImage;
+
+	private final String[] ports;
+
+	private final int size;
+
+	private final Mode mode;
+
+	/**
+	 * Hash of the content installed by the preparation, null for none
+	 */
+	private final String contentHash;
+
+	/**
+	 * Id of the Image, read by the start or the first preparation
+	 */
+	private volatile String imageId;
+
+	/**
+	 * Action before parking a Container
+	 */
+	private final Preparation preparation;
+
+	/**
+	 * Action after a claim, null for none
+	 */
+	private final Preparation activation;
+
+	/**
+	 * Ids of the parked Containers, the oldest first
+	 */
+	private final ConcurrentLinkedDeque<String> parked = new ConcurrentLinkedDeque<String>();
+
+	/**
+	 * Number of Containers being prepared
+	 */
+	private final AtomicInteger preparing = new AtomicInteger();
+
+	private final ExecutorService refiller;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder failures = new LongAdder();
+
+	private final LatencyHistogram claimLatency = new LatencyHistogram();
+
+	private volatile boolean closed;
+
+	/**
+	 * Constructor WarmPool
+	 *
+	 * @param dc Instance of DockerCommands for Docker Commands
+	 * @param poolName Prefix of the names of the parked Containers
+	 * @param nameImage Name of the Image of the Containers
+	 * @param ports Ports of the Containers to publish
+	 * @param size Number of Containers to keep parked
+	 * @param mode State of the parked Containers
+	 * @param refillThreads Number of Containers prepared at the same time
+	 * @param preparation Action before parking a Container
+	 * @param activation Action after a claim, null for none
+	 * @param contentHash Hash of the content installed by 'preparation', as the lib directory, null for none
+	 */
+	public WarmPool(DockerCommands dc, String poolName, String nameImage, String[] ports, int size, Mode mode, int refillThreads,
+			Preparation preparation, Preparation activation, String contentHash)
+	{
+		this.dc = dc;
+		this.poolName = poolName;
+		this.nameImage = nameImage;
+		this.ports = ports;
+		this.size = size;
+		this.mode = mode;
+		this.preparation = preparation;
+		this.activation = activation;
+		this.contentHash = contentHash;
+
+		this.refiller = Executors.newFixedThreadPool(Math.max(1, refillThreads), Utils.daemonThreads("docker-pool-"));
+	}
+
+	/**
+	 * Adopt the Containers parked by a previous pool of the same name and start the refill
+	 * <p>
+	 * The Containers of the pool which are not parked, as those whose preparation was interrupted,
+	 * are removed, as well as those made from another Image or with another content.
+	 * </p>
+	 *
+	 * @throws DockerException Raise if there is error with API
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public void start() throws DockerException, InterruptedException
+	{
+		String parkedState = this.mode == Mode.PAUSED ? "paused" : "exited";
+		String image = imageId();
+		for (Container c : this.dc.getDockerClient().listContainers(ListContainersParam.allContainers(),
+				ListContainersParam.filter("name", "^/" + this.poolName + "-")))
+		{
+			Map<String, String> labels = c.labels() != null ? c.labels() : Collections.<String, String>emptyMap();
+			if (parkedState.equals(c.state()) && image != null && image.equals(labels.get(LABEL_IMAGE))
+					&& Objects.equals(this.contentHash, labels.get(LABEL_CONTENT)))
+			{
+				this.parked.add(c.id());
+			}
+			else
+			{
+				remove(c.id());
+			}
+		}
+		refill();
+	}
+
+	/**
+	 * Claim a parked Container
+	 *
+	 * @param nameContainer New name of the Container
+	 * @return Id of the running Container, null if no Container is parked or if its activation
+	 *         failed, the Container being then removed
+	 * @throws DockerException Raise if there is error with API, the Container is put back if the rename failed
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public String claim(String nameContainer) throws DockerException, InterruptedException
+	{
+		long start = System.nanoTime();
+		String id = this.parked.pollFirst();
+		if (id == null)
+		{
+			this.misses.increment();
+			refill();
+			return null;
+		}
+
+		try
+		{
+			this.dc.renameContainer(id, nameContainer);
+		}
+		catch (DockerException e)
+		{
+			this.parked.addFirst(id);
+			throw e;
+		}
+
+		try
+		{
+			if (this.mode == Mode.PAUSED)
+			{
+				this.dc.unpauseContainer(id);
+			}
+			else
+			{
+				this.dc.startContainer(id);
+			}
+			if (this.activation != null)
+			{
+				this.activation.prepare(id);
+			}
+		}
+		catch (InterruptedException e)
+		{
+			remove(id);
+			throw e;
+		}
+		catch (Exception e)
+		{
+			// the Container already has the name of the claim, removed so that it is not taken as provisioned
+			this.failures.increment();
+			System.err.println("Activation of " + nameContainer + " claimed from the pool failed : " + e);
+			remove(id);
+			this.misses.increment();
+			return null;
+		}
+		finally
+		{
+			refill();
+		}
+
+		this.hits.increment();
+		this.claimLatency.record(System.nanoTime() - start);
+		return id;
+	}
+
+	/**
+	 * Wait that the pool is full or that the preparations in progress are finished
+	 *
+	 * @param timeoutMillis Maximum duration of the wait
+	 * @return True if the pool is full
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public boolean awaitRefill(long timeoutMillis) throws InterruptedException
+	{
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		while (this.preparing.get() > 0 && System.nanoTime() < deadline)
+		{
+			TimeUnit.MILLISECONDS.sleep(100);
+		}
+		return this.parked.size() >= this.size;
+	}
+
+	/**
+	 * Stop the refill, the parked Containers stay in Docker for the next pool
+	 */
+	public void close()
+	{
+		this.closed = true;
+		this.refiller.shutdownNow();
+	}
+
+	/**
+	 * Stop the refill and remove the parked Containers
+	 *
+	 * @throws InterruptedException Raise if Thread is interrupted
+	 */
+	public void drain() throws InterruptedException
+	{
+		close();
+		this.refiller.awaitTermination(1, TimeUnit.MINUTES);
+		String id;
+		while ((id = this.parked.pollFirst()) != null)
+		{
+			remove(id);
+		}
+	}
+
+	/**
+	 * @return Number of Containers parked
+	 */
+	public int getAvailable()
+	{
+		return this.parked.size();
+	}
+
+	/**
+	 * @return Number of claims served by a parked Container
+	 */
+	public long getHits()
+	{
+		return this.hits.sum();
+	}
+
+	/**
+	 * @return Number of claims without parked Container, or whose Container failed to be activated
+	 */
+	public long getMisses()
+	{
+		return this.misses.sum();
+	}
+
+	/**
+	 * @return Part of the claims served by a parked Container, 0 if there is no claim
+	 */
+	public double getHitRate()
+	{
+		long h = getHits();
+		long total = h + getMisses();
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	/**
+	 * @return Number of Containers whose preparation or activation failed
+	 */
+	public long getFailures()
+	{
+		return this.failures.sum();
+	}
+
+	/**
+	 * @return Latencies of the claims served by a parked Container
+	 */
+	public LatencyHistogram getClaimLatency()
+	{
+		return this.claimLatency;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("Pool %s : %d/%d parked, %d preparing, %d hit(s), %d miss(es), hit rate %.0f%%, %d failure(s), claims %s",
+				this.poolName, getAvailable(), this.size, this.preparing.get(), getHits(), getMisses(), getHitRate() * 100, getFailures(),
+				this.claimLatency);
+	}
+
+	/**
+	 * Start the preparation of the missing Containers
+	 */
+	private void refill()
+	{
+		while (!this.closed)
+		{
+			int inProgress = this.preparing.get();
+			if (this.parked.size() + inProgress >= this.size)
+			{
+				return;
+			}
+			if (this.preparing.compareAndSet(inProgress, inProgress + 1))
+			{
+				this.refiller.execute(this::prepareOne);
+			}
+		}
+	}
+
+	/**
+	 * Create, prepare and park one Container
+	 */
+	private void prepareOne()
+	{
+		String name = this.poolName + "-" + UUID.randomUUID().toString().substring(0, 8);
+		String id = null;
+		try
+		{
+			String image = imageId();
+			if (image == null)
+			{
+				throw new DockerException("Image " + this.nameImage + " not found");
+			}
+			Map<String, String> labels = new HashMap<String, String>();
+			labels.put(LABEL_IMAGE, image);
+			if (this.contentHash != null)
+			{
+				labels.put(LABEL_CONTENT, this.contentHash);
+			}
+
+			// ports of the host chosen by Docker
+			String[] hostPorts = new String[this.ports.length];
+			Arrays.fill(hostPorts, "");
+			HostConfig hostConfig = HostConfig.builder().portBindings(DockerCommands.getPorBinding(this.ports, hostPorts)).build();
+			id = this.dc.createContainer(this.ports, name, image, hostConfig, labels);
+			this.dc.startContainer(id);
+			this.preparation.prepare(id);
+
+			if (this.mode == Mode.PAUSED)
+			{
+				this.dc.pauseContainer(id);
+			}
+			else
+			{
+				this.dc.getDockerClient().stopContainer(id, 20);
+			}
+			this.parked.addLast(id);
+		}
+		catch (Exception e)
+		{
+			if (!this.closed)
+			{
+				this.failures.increment();
+				System.err.println("Preparation of " + name + " for the pool failed : " + e);
+			}
+			if (id != null)
+			{
+				remove(id);
+			}
+		}
+		finally
+		{
+			this.preparing.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Returns the Id of the Image, null if it does not exist yet
+	 */
+	private String imageId() throws DockerException, InterruptedException
+	{
+		String id = this.imageId;
+		if (id == null)
+		{
+			try
+			{
+				id = this.dc.getDockerClient().inspectImage(this.nameImage).id();
+			}
+			catch (ImageNotFoundException e)
+			{
+				return null;
+			}
+			this.imageId = id;
+		}
+		return id;
+	}
+
+	private void remove(String id)
+	{
+		try
+		{
+			this.dc.getDockerClient().removeContainer(id, RemoveContainerParam.forceKill());
+		}
+		catch (DockerException | InterruptedException e)
+		{
+			System.err.println("Removal of " + id + " from the pool failed : " + e.getMessage());
+		}
+	}
+}